@@ -0,0 +1,112 @@
+package chess;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * This class does the arithmetic of an NnueNetwork with the Vector API, so that it runs on the widest vector instructions of the machine
+ * instead of depending on the JIT compiler to turn the loops into vector instructions (which it does not do for the short sums at all).
+ * The Vector API is an incubator module in Java 17, so this class is kept out of src and compiled on its own, after the rest of the program:
+ * "javac --add-modules jdk.incubator.vector -cp classes -d classes src-vector/chess/NnueVectors.java".
+ * NnueNetwork loads it by reflection when the program runs with "--add-modules jdk.incubator.vector" (see NnueNetwork.KERNEL),
+ * and uses its own plain loops when the module or this class is missing.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+final class NnueVectors implements NnueKernel {
+
+	/**
+	 * Widest vector of shorts the machine has.
+	 */
+	static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+	/**
+	 * Widest vector of ints the machine has.
+	 */
+	static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	/**
+	 * This constructor is called by NnueNetwork through reflection.
+	 */
+	NnueVectors() {
+	}
+
+	/**
+	 * Adds the weights of an input to first layer sums.
+	 * @param sums		The sums.
+	 * @param weights	The first layer weights.
+	 * @param offset	Index of the first weight of the input.
+	 */
+	public void add(short[] sums, short[] weights, int offset) {
+		int i = 0;
+		for(int bound = SHORTS.loopBound(sums.length); i < bound; i += SHORTS.length()) {
+			ShortVector.fromArray(SHORTS, sums, i).add(ShortVector.fromArray(SHORTS, weights, offset + i)).intoArray(sums, i);
+		}
+		for(; i < sums.length; i++) {
+			sums[i] += weights[offset + i];
+		}
+	}
+
+	/**
+	 * Subtracts the weights of an input from first layer sums.
+	 * @param sums		The sums.
+	 * @param weights	The first layer weights.
+	 * @param offset	Index of the first weight of the input.
+	 */
+	public void subtract(short[] sums, short[] weights, int offset) {
+		int i = 0;
+		for(int bound = SHORTS.loopBound(sums.length); i < bound; i += SHORTS.length()) {
+			ShortVector.fromArray(SHORTS, sums, i).sub(ShortVector.fromArray(SHORTS, weights, offset + i)).intoArray(sums, i);
+		}
+		for(; i < sums.length; i++) {
+			sums[i] -= weights[offset + i];
+		}
+	}
+
+	/**
+	 * Clips first layer sums to [0, max], widening them to ints.
+	 * @param sums		The sums.
+	 * @param max		Largest value a clipped sum can have.
+	 * @param inputs	Array the clipped sums are written to.
+	 * @param offset	Index in inputs of the first clipped sum.
+	 */
+	public void clip(short[] sums, int max, int[] inputs, int offset) {
+		int i = 0;
+		short high = (short) max;
+		for(int bound = SHORTS.loopBound(sums.length); i < bound; i += SHORTS.length()) {
+			ShortVector clipped = ShortVector.fromArray(SHORTS, sums, i).max((short) 0).min(high);
+			// a vector of shorts widens into two vectors of ints of the same size
+			for(int part = 0; part < 2; part++) {
+				clipped.convertShape(VectorOperators.S2I, INTS, part).reinterpretAsInts().intoArray(inputs, offset + i + part * INTS.length());
+			}
+		}
+		for(; i < sums.length; i++) {
+			inputs[offset + i] = Math.max(0, Math.min(max, sums[i]));
+		}
+	}
+
+	/**
+	 * Multiplies the clipped sums with a row of weights.
+	 * @param inputs	The clipped sums.
+	 * @param weights	The weights.
+	 * @param offset	Index of the first weight of the row.
+	 * @return	The dot product.
+	 */
+	public int dot(int[] inputs, int[] weights, int offset) {
+		IntVector total = IntVector.zero(INTS);
+		int i = 0;
+		for(int bound = INTS.loopBound(inputs.length); i < bound; i += INTS.length()) {
+			total = IntVector.fromArray(INTS, inputs, i).mul(IntVector.fromArray(INTS, weights, offset + i)).add(total);
+		}
+		int sum = total.reduceLanes(VectorOperators.ADD);
+		for(; i < inputs.length; i++) {
+			sum += inputs[i] * weights[offset + i];
+		}
+		return sum;
+	}
+
+}
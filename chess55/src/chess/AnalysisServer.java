@@ -0,0 +1,586 @@
+package chess;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class is a small HTTP server on the loopback address that analyses positions with the engine.
+ * A request is "GET /analyse?fen=...&amp;depth=...&amp;nodes=...&amp;millis=..." and the answer is a JSON object with the best move, score and PV.
+ * Requests for the same position (by its Zobrist hash) and limits share one search: the first one starts it and the others wait for it,
+ * and the result is kept in a cache of the most recently used positions until it is too old.
+ * Searches run on a fixed number of threads with a Search each, and requests are answered by a larger pool of threads that mostly wait.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class AnalysisServer implements AutoCloseable {
+
+	/**
+	 * Time limit used when a request has no limits, in milliseconds.
+	 */
+	static final long DEFAULT_MILLIS = 1000;
+	/**
+	 * Longest time limit a request can ask for, in milliseconds.
+	 */
+	static final long MAX_MILLIS = 30000;
+	/**
+	 * Largest node limit a request can ask for.
+	 */
+	static final long MAX_NODES = 50_000_000;
+	/**
+	 * Size of the TranspositionTable of each search thread in megabytes.
+	 */
+	static final int HASH_MEGABYTES = 16;
+
+	/**
+	 * This class is what a search is shared by: the position and the limits.
+	 */
+	static final class Query {
+
+		/**
+		 * Zobrist hash of the position, with the player to move.
+		 */
+		long key;
+		/**
+		 * Deepest iteration to search.
+		 */
+		int depth;
+		/**
+		 * Node limit (0 for none).
+		 */
+		long nodes;
+		/**
+		 * Time limit in milliseconds.
+		 */
+		long millis;
+
+		/**
+		 * This constructor creates a query.
+		 * @param key		Zobrist hash of the position.
+		 * @param depth		Deepest iteration to search.
+		 * @param nodes		Node limit (0 for none).
+		 * @param millis	Time limit in milliseconds (0 for none).
+		 */
+		Query(long key, int depth, long nodes, long millis) {
+			this.key = key;
+			this.depth = depth;
+			this.nodes = nodes;
+			this.millis = millis;
+		}
+
+		/**
+		 * Checks if another object is a query for the same position and limits.
+		 * @param other	The other object.
+		 * @return	True if they are equal.
+		 */
+		public boolean equals(Object other) {
+			if(!(other instanceof Query)) {
+				return false;
+			}
+			Query query = (Query) other;
+			return key == query.key && depth == query.depth && nodes == query.nodes && millis == query.millis;
+		}
+
+		/**
+		 * Returns a hash code that matches equals.
+		 * @return	The hash code.
+		 */
+		public int hashCode() {
+			long hash = key ^ depth * 0x9E3779B97F4A7C15L ^ nodes * 31 ^ millis * 961;
+			return (int) (hash ^ hash >>> 32);
+		}
+
+	}
+
+	/**
+	 * This class is the result of one search.
+	 */
+	public static class Analysis {
+
+		/**
+		 * The position that was searched.
+		 */
+		String fen;
+		/**
+		 * Best move in SAN, or null if the player to move has no legal moves.
+		 */
+		String bestMove;
+		/**
+		 * Principal variation in SAN.
+		 */
+		String[] pv;
+		/**
+		 * Score in centipawns for the player to move (see Search.MATE for mates).
+		 */
+		int score;
+		/**
+		 * Deepest iteration that was completed.
+		 */
+		int depth;
+		/**
+		 * Number of positions searched.
+		 */
+		long nodes;
+		/**
+		 * Time the search took in milliseconds.
+		 */
+		long millis;
+		/**
+		 * Time the result stops being served from the cache, in milliseconds of System.currentTimeMillis.
+		 */
+		long expires;
+
+		/**
+		 * Returns the best move.
+		 * @return	The move in SAN, or null if there are no legal moves.
+		 */
+		public String getBestMove() {
+			return bestMove;
+		}
+
+		/**
+		 * Returns the score.
+		 * @return	Score in centipawns for the player to move.
+		 */
+		public int getScore() {
+			return score;
+		}
+
+		/**
+		 * Returns the principal variation.
+		 * @return	The moves in SAN.
+		 */
+		public String[] getPV() {
+			return pv;
+		}
+
+		/**
+		 * Writes the result as a JSON object.
+		 * @param source	How the request was answered ("search", "coalesced" or "cache").
+		 * @return	The JSON text.
+		 */
+		public String toJson(String source) {
+			StringBuilder json = new StringBuilder();
+			json.append("{\"fen\":").append(quote(fen));
+			json.append(",\"bestmove\":").append(bestMove == null ? "null" : quote(bestMove));
+			json.append(",\"score\":").append(score);
+			if(Math.abs(score) >= Search.MATE - Search.MAX_PLY) {
+				int moves = (Search.MATE - Math.abs(score) + 1) / 2;
+				json.append(",\"mate\":").append(score > 0 ? moves : -moves);
+			}
+			json.append(",\"depth\":").append(depth);
+			json.append(",\"nodes\":").append(nodes);
+			json.append(",\"millis\":").append(millis);
+			json.append(",\"pv\":[");
+			for(int i = 0; i < pv.length; i++) {
+				json.append(i > 0 ? "," : "").append(quote(pv[i]));
+			}
+			json.append("],\"source\":").append(quote(source)).append('}');
+			return json.toString();
+		}
+
+	}
+
+	/**
+	 * The HTTP server.
+	 */
+	HttpServer server;
+	/**
+	 * Threads that answer requests.
+	 */
+	ExecutorService handlers;
+	/**
+	 * Threads that search.
+	 */
+	ExecutorService searchers;
+	/**
+	 * Search of each search thread, on its own Board and TranspositionTable. The table is kept between requests.
+	 */
+	ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(new Board(), new TranspositionTable(HASH_MEGABYTES)));
+	/**
+	 * Searches that are running or waiting for a search thread.
+	 */
+	ConcurrentHashMap<Query, CompletableFuture<Analysis>> inFlight = new ConcurrentHashMap<>();
+	/**
+	 * Results of finished searches, from least to most recently used. Only used while holding its lock.
+	 */
+	LinkedHashMap<Query, Analysis> cache;
+	/**
+	 * Most number of results that are kept.
+	 */
+	int cacheSize;
+	/**
+	 * Time a result is served from the cache, in milliseconds.
+	 */
+	long ttlMillis;
+	/**
+	 * Number of requests answered with a result.
+	 */
+	AtomicLong requests = new AtomicLong();
+	/**
+	 * Number of requests answered from the cache.
+	 */
+	AtomicLong cacheHits = new AtomicLong();
+	/**
+	 * Number of requests that waited for a search another request started.
+	 */
+	AtomicLong coalesced = new AtomicLong();
+	/**
+	 * Number of searches started.
+	 */
+	AtomicLong searchCount = new AtomicLong();
+
+	/**
+	 * This constructor creates a server, which does not accept requests until start is called.
+	 * @param port				Port to listen on, on the loopback address (0 for any free port).
+	 * @param searchThreads		Number of searches that can run at the same time.
+	 * @param handlerThreads	Number of requests that can be answered or wait for a search at the same time.
+	 * @param cacheSize			Most number of results that are kept.
+	 * @param ttlMillis			Time a result is served from the cache, in milliseconds.
+	 * @throws IOException	If the port can't be opened.
+	 */
+	public AnalysisServer(int port, int searchThreads, int handlerThreads, int cacheSize, long ttlMillis) throws IOException {
+		if(searchThreads < 1 || handlerThreads < 1 || cacheSize < 1) {
+			throw new IllegalArgumentException("Threads and cache size must be positive");
+		}
+		this.cacheSize = cacheSize;
+		this.ttlMillis = ttlMillis;
+		this.cache = new LinkedHashMap<Query, Analysis>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Query, Analysis> eldest) {
+				return size() > AnalysisServer.this.cacheSize;
+			}
+		};
+		searchers = Executors.newFixedThreadPool(searchThreads, task -> {
+			Thread thread = new Thread(task, "analysis-search");
+			thread.setDaemon(true);
+			return thread;
+		});
+		handlers = Executors.newFixedThreadPool(handlerThreads, task -> {
+			Thread thread = new Thread(task, "analysis-http");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(handlers);
+		server.createContext("/analyse", this::handle);
+	}
+
+	/**
+	 * Starts accepting requests.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Returns the port the server listens on.
+	 * @return	The port.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Analyses a position, sharing the search with other requests for the same position and limits.
+	 * Every search stops after MAX_MILLIS at the latest, also one that only asked for a depth or a number of nodes.
+	 * @param fen		Position in FEN.
+	 * @param depth		Deepest iteration to search.
+	 * @param nodes		Node limit (0 for none; at most MAX_NODES).
+	 * @param millis	Time limit in milliseconds (0 for MAX_MILLIS; at most MAX_MILLIS).
+	 * @param source	Array whose first element is set to how the request was answered ("search", "coalesced" or "cache"), or null.
+	 * @return	The result.
+	 * @throws IllegalArgumentException	If the FEN is not a valid position.
+	 * @throws InterruptedException	If the thread is interrupted while waiting for the search.
+	 */
+	public Analysis analyse(String fen, int depth, long nodes, long millis, String[] source) throws InterruptedException {
+		Board board = Fen.toBoard(fen);
+		char color = Fen.color(fen);
+		if(!board.check(color == 'w' ? 'b' : 'w')) {
+			throw new IllegalArgumentException("The player who just moved is in check: " + fen);
+		}
+		nodes = Math.min(nodes, MAX_NODES);
+		millis = Math.min(millis > 0 ? millis : MAX_MILLIS, MAX_MILLIS);
+		Query query = new Query(board.getKey(), depth, nodes, millis);
+		requests.incrementAndGet();
+
+		synchronized(cache) {
+			Analysis cached = cache.get(query);
+			if(cached != null && cached.expires > System.currentTimeMillis()) {
+				cacheHits.incrementAndGet();
+				setSource(source, "cache");
+				return cached;
+			}
+		}
+
+		CompletableFuture<Analysis> created = new CompletableFuture<>();
+		CompletableFuture<Analysis> future = inFlight.putIfAbsent(query, created);
+		if(future == null) {
+			future = created;
+			searchCount.incrementAndGet();
+			setSource(source, "search");
+			searchers.execute(() -> {
+				try {
+					Analysis analysis = search(fen, query);
+					synchronized(cache) {
+						cache.put(query, analysis);
+					}
+					created.complete(analysis);
+				}
+				catch(Throwable e) {
+					// an Error too, or the requests waiting for this search would never get an answer
+					created.completeExceptionally(e);
+				}
+				finally {
+					// after the cache has the result, so a new request finds one or the other
+					inFlight.remove(query, created);
+				}
+			});
+		}
+		else {
+			coalesced.incrementAndGet();
+			setSource(source, "coalesced");
+		}
+		try {
+			return future.get();
+		}
+		catch(ExecutionException e) {
+			throw new IllegalStateException("Search failed for " + fen, e.getCause());
+		}
+	}
+
+	/**
+	 * Sets the first element of an array if there is an array.
+	 * @param source	The array, or null.
+	 * @param value		The value.
+	 */
+	static void setSource(String[] source, String value) {
+		if(source != null) {
+			source[0] = value;
+		}
+	}
+
+	/**
+	 * Runs a search on the calling search thread.
+	 * @param fen	Position in FEN.
+	 * @param query	The limits.
+	 * @return	The result.
+	 */
+	Analysis search(String fen, Query query) {
+		Search search = searches.get();
+		Board board = search.board;
+		Fen.load(board, fen);
+		char color = Fen.color(fen);
+		long start = System.currentTimeMillis();
+		int move = search.search(color, query.depth, query.nodes, query.millis);
+
+		Analysis analysis = new Analysis();
+		analysis.fen = fen;
+		analysis.millis = System.currentTimeMillis() - start;
+		analysis.score = search.getBestScore();
+		analysis.depth = search.getCompletedDepth();
+		analysis.nodes = search.getNodes();
+		analysis.bestMove = move == Move.NONE ? null : San.toSan(board, color, move);
+		int[] pv = search.getPV();
+		if(pv.length == 0 || pv[0] != move) {
+			pv = move == Move.NONE ? new int[0] : new int[] {move};
+		}
+		analysis.pv = new String[pv.length];
+		char side = color;
+		for(int i = 0; i < pv.length; i++) {
+			analysis.pv[i] = San.toSan(board, side, pv[i]);
+			board.doMove(pv[i]);
+			side = side == 'w' ? 'b' : 'w';
+		}
+		for(int i = pv.length - 1; i >= 0; i--) {
+			board.undoMove(pv[i]);
+		}
+		analysis.expires = System.currentTimeMillis() + ttlMillis;
+		return analysis;
+	}
+
+	/**
+	 * Answers one HTTP request. A FEN or limit that is not valid is answered with status 400 and the reason in the error.
+	 * @param exchange	The request and its response.
+	 * @throws IOException	If the response can't be sent.
+	 */
+	void handle(HttpExchange exchange) throws IOException {
+		try(exchange) {
+			if(!exchange.getRequestMethod().equals("GET")) {
+				respond(exchange, 405, "{\"error\":\"Only GET is supported\"}");
+				return;
+			}
+			Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+			String fen = parameters.get("fen");
+			if(fen == null || fen.isBlank()) {
+				respond(exchange, 400, "{\"error\":\"Missing fen\"}");
+				return;
+			}
+			try {
+				int depth = Math.min(Integer.parseInt(parameters.getOrDefault("depth", String.valueOf(Search.MAX_PLY))), Search.MAX_PLY);
+				long nodes = Long.parseLong(parameters.getOrDefault("nodes", "0"));
+				long millis = Long.parseLong(parameters.getOrDefault("millis", "0"));
+				if(depth < 1 || nodes < 0 || millis < 0) {
+					throw new IllegalArgumentException("Limits must be positive");
+				}
+				if(depth == Search.MAX_PLY && nodes == 0 && millis == 0) {
+					millis = DEFAULT_MILLIS;
+				}
+				String[] source = new String[1];
+				Analysis analysis = analyse(fen.trim(), depth, nodes, millis, source);
+				respond(exchange, 200, analysis.toJson(source[0]));
+			}
+			catch(IllegalArgumentException e) { // NumberFormatException is one too
+				respond(exchange, 400, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				respond(exchange, 503, "{\"error\":\"Server is shutting down\"}");
+			}
+			catch(RuntimeException e) {
+				respond(exchange, 500, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+			}
+		}
+	}
+
+	/**
+	 * Sends a JSON response.
+	 * @param exchange	The request and its response.
+	 * @param status	HTTP status code.
+	 * @param json		Body of the response.
+	 * @throws IOException	If the response can't be sent.
+	 */
+	static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Splits the query of a URI into its decoded parameters.
+	 * @param query	Raw query, or null.
+	 * @return	Value of each parameter by name (the last one if a name is repeated).
+	 */
+	static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if(query == null) {
+			return parameters;
+		}
+		for(String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if(equals > 0) {
+				parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Writes a String as a JSON string.
+	 * @param text	The text.
+	 * @return	The text in quotes, with quotes, backslashes and control characters escaped.
+	 */
+	static String quote(String text) {
+		StringBuilder json = new StringBuilder("\"");
+		for(char c : text.toCharArray()) {
+			if(c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			}
+			else if(c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				json.append(c);
+			}
+		}
+		return json.append('"').toString();
+	}
+
+	/**
+	 * Returns the number of requests answered with a result.
+	 * @return	Number of requests.
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * Returns the number of requests answered from the cache.
+	 * @return	Number of requests.
+	 */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * Returns the number of requests that waited for a search another request started.
+	 * @return	Number of requests.
+	 */
+	public long getCoalesced() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Returns the number of searches started.
+	 * @return	Number of searches.
+	 */
+	public long getSearches() {
+		return searchCount.get();
+	}
+
+	/**
+	 * Stops accepting requests and stops the threads. Searches that are running are finished first.
+	 */
+	public void close() {
+		server.stop(0);
+		handlers.shutdown();
+		searchers.shutdown();
+		try {
+			searchers.awaitTermination(MAX_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Runs the server until the program is stopped.
+	 * @param args	Optional port (default 8080), search threads (default the number of processors), cache size (default 10000) and time to live in seconds (default 60).
+	 * @throws IOException	If the port can't be opened.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int cacheSize = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+		long ttl = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 60000;
+		Bitbases.loadAll();
+		AnalysisServer server = new AnalysisServer(port, threads, 256, cacheSize, ttl);
+		server.start();
+		System.out.println("Listening on http://127.0.0.1:" + server.getPort() + "/analyse?fen=...");
+	}
+
+}
@@ -0,0 +1,130 @@
+package chess;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class measures the game archive: how fast games are written, read in order and read at random,
+ * and how many bytes each game takes compared to the same moves written as text.
+ * Games are read from PGN files, or are random games if no files are given.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class ArchiveBenchmark {
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 * @param args	PGN files to read, or nothing to use 20000 random games.
+	 * @throws IOException	If a file can't be read or written.
+	 */
+	public static void main(String[] args) throws IOException {
+		List<PgnGame> games = new ArrayList<>();
+		if(args.length > 0) {
+			for(String file : args) {
+				try(PgnReader reader = new PgnReader(new InputStreamReader(BookBuilder.open(Paths.get(file)), StandardCharsets.UTF_8))) {
+					PgnGame game;
+					while((game = reader.next()) != null) {
+						games.add(game);
+					}
+				}
+			}
+		}
+		else {
+			Random random = new Random(1);
+			for(int i = 0; i < 20000; i++) {
+				games.add(randomGame(random));
+			}
+		}
+		long textBytes = 0;
+		for(PgnGame game : games) {
+			textBytes += String.join(" ", game.getMoves()).length() + 1;
+		}
+
+		Path directory = Files.createTempDirectory("archive");
+		Path path = directory.resolve("games.bin");
+		try {
+			// write
+			long start = System.nanoTime();
+			long bytes;
+			try(GameArchiveWriter writer = new GameArchiveWriter(path)) {
+				for(PgnGame game : games) {
+					writer.append(game);
+				}
+				bytes = writer.getBytes() + writer.size() * 8L;
+			}
+			double writeSeconds = (System.nanoTime() - start) / 1e9;
+
+			try(GameArchive archive = new GameArchive(path)) {
+				Board board = new Board();
+				int[] moves = new int[0xFFFF];
+
+				// read every game in order
+				long plies = 0;
+				start = System.nanoTime();
+				for(int game = 0; game < archive.size(); game++) {
+					plies += archive.readMoves(game, board, moves);
+				}
+				double readSeconds = (System.nanoTime() - start) / 1e9;
+
+				// read games at random
+				Random random = new Random(2);
+				int lookups = Math.min(10000, archive.size());
+				start = System.nanoTime();
+				for(int i = 0; i < lookups; i++) {
+					archive.readMoves(random.nextInt(archive.size()), board, moves);
+				}
+				double randomSeconds = (System.nanoTime() - start) / 1e9;
+
+				System.out.printf("games            %d (%d plies)%n", archive.size(), plies);
+				System.out.printf("write            %.0f games/s%n", games.size() / writeSeconds);
+				System.out.printf("read in order    %.0f games/s, %.0f plies/s%n", archive.size() / readSeconds, plies / readSeconds);
+				System.out.printf("read at random   %.0f games/s%n", lookups / randomSeconds);
+				System.out.printf("bytes/game       %.1f (moves as text: %.1f, %.1fx smaller)%n",
+						(double) bytes / archive.size(), (double) textBytes / archive.size(), (double) textBytes / bytes);
+			}
+		}
+		finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(GameArchive.indexPath(path));
+			Files.deleteIfExists(directory);
+		}
+	}
+
+	/**
+	 * Plays a game of random legal moves.
+	 * @param random	Source of random numbers.
+	 * @return	The game, with its moves in SAN.
+	 */
+	static PgnGame randomGame(Random random) {
+		Board board = Fen.toBoard(Fen.START);
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		PgnGame game = new PgnGame();
+		char color = 'w';
+		int length = 40 + random.nextInt(120);
+		for(int ply = 0; ply < length; ply++) {
+			int count = MoveGenerator.generateLegal(board, color, moves);
+			if(count == 0) {
+				break;
+			}
+			int move = moves[random.nextInt(count)];
+			game.moves.add(San.toSan(board, color, move));
+			board.doMove(move);
+			color = color == 'w' ? 'b' : 'w';
+		}
+		game.tags.put("Result", "1/2-1/2");
+		game.tags.put("WhiteElo", String.valueOf(1500 + random.nextInt(1000)));
+		game.tags.put("BlackElo", String.valueOf(1500 + random.nextInt(1000)));
+		return game;
+	}
+
+}
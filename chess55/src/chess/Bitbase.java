@@ -0,0 +1,702 @@
+package chess;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class holds an endgame bitbase: for every placement of a lone King against a King and one or two other Pieces,
+ * one bit that tells whether the stronger side wins (otherwise the position is a draw).
+ * Positions are numbered with a perfect index (6 bits per Piece), with the stronger side always playing up the Board like White.
+ * There is one bit array for positions where the stronger side is to move and one for positions where the lone King is to move.
+ * The bits are found by retrograde analysis: starting from checkmates, positions are worked backwards move by move,
+ * and each step is split over the cores with fork-join.
+ * A bitbase can be saved to a file and probed from a mapping of the file (see MappedFileCache), so that it is never read onto the heap.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class Bitbase {
+
+	/**
+	 * Number of bit array words handled by one fork-join task.
+	 */
+	static final int WORDS_PER_TASK = 1024;
+	/**
+	 * First 4 bytes of a bitbase file ("CBB1").
+	 */
+	static final int MAGIC = 0x43424231;
+	/**
+	 * Size of the file header in bytes: the magic number and the types, padded with spaces to 4 bytes.
+	 * The header is followed by the strongToMove words and then the weakToMove words (big-endian).
+	 */
+	static final int HEADER = 8;
+
+	/**
+	 * Types of the stronger side's Pieces other than the King (Example: {'B', 'N'} for KBNK).
+	 */
+	char[] types;
+	/**
+	 * Number of positions (64 to the power of the number of Pieces).
+	 */
+	int size;
+	/**
+	 * Bits of the positions that the stronger side wins with the stronger side to move.
+	 */
+	long[] strongToMove;
+	/**
+	 * Bits of the positions that the stronger side wins with the lone King to move.
+	 */
+	long[] weakToMove;
+	/**
+	 * File the bits are probed from, or null if they are in strongToMove and weakToMove.
+	 */
+	Path file;
+	/**
+	 * Cache that maps file, asked for the mapping on every probe so that it can unmap files that are not being probed.
+	 */
+	MappedFileCache cache;
+
+	/**
+	 * This constructor creates an empty bitbase for the given Pieces.
+	 * @param types	Types of the stronger side's Pieces other than the King (one or two of 'p', 'N', 'B', 'R', 'Q').
+	 */
+	Bitbase(char... types) {
+		this.types = types;
+		this.size = 1 << (6 * (2 + types.length));
+	}
+
+	/**
+	 * Returns the name of the endgame (Example: "KBNK").
+	 * @return	Name of the endgame.
+	 */
+	public String getName() {
+		return name(types);
+	}
+
+	/**
+	 * Returns the name of an endgame.
+	 * @param types	Types of the stronger side's Pieces other than the King.
+	 * @return	Name of the endgame (Example: "KBNK").
+	 */
+	static String name(char[] types) {
+		return "K" + new String(types).toUpperCase() + "K";
+	}
+
+	/**
+	 * Checks if the stronger side wins a position.
+	 * Squares are (row * 8 + col) as seen by the stronger side, which moves its Pawns towards row 0.
+	 * @param strongMoves	True if the stronger side is to move.
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param first			Square of the first Piece in types.
+	 * @param second		Square of the second Piece in types (ignored if there is only one).
+	 * @return	True if the stronger side wins, False if the position is a draw.
+	 * @throws UncheckedIOException	If the file was dropped from the cache and can't be mapped again.
+	 */
+	public boolean isWin(boolean strongMoves, int weakKing, int strongKing, int first, int second) {
+		int index = index(weakKing, strongKing, first, types.length > 1 ? second : 0);
+		if(file != null) {
+			int word = (strongMoves ? 0 : size >>> 6) + (index >>> 6);
+			MappedFileCache.Mapping mapping;
+			try {
+				mapping = cache.acquire(file);
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			try {
+				return (mapping.getBuffer().getLong(HEADER + word * 8) & (1L << index)) != 0;
+			}
+			finally {
+				mapping.release();
+			}
+		}
+		long[] bits = strongMoves ? strongToMove : weakToMove;
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Writes the bitbase to a file. The file is written under a temporary name first, so it is never seen half written.
+	 * @param path	Path of the file.
+	 * @throws IOException	If the file can't be written.
+	 */
+	public void save(Path path) throws IOException {
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			buffer.putInt(MAGIC);
+			for(int i = 0; i < 4; i++) {
+				buffer.put((byte) (i < types.length ? types[i] : ' '));
+			}
+			for(long[] bits : new long[][] {strongToMove, weakToMove}) {
+				for(long word : bits) {
+					if(!buffer.hasRemaining()) {
+						buffer.flip();
+						while(buffer.hasRemaining()) {
+							channel.write(buffer);
+						}
+						buffer.clear();
+					}
+					buffer.putLong(word);
+				}
+			}
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Opens a bitbase file, mapping it through a cache. Only the pages that probes touch are ever read,
+	 * and the file is mapped again by the first probe after the cache dropped it.
+	 * @param path	Path of the file.
+	 * @param cache	Cache that maps the file, so that a file opened twice is mapped once.
+	 * @return	The bitbase.
+	 * @throws IOException	If the file can't be read or is not a bitbase file.
+	 */
+	public static Bitbase open(Path path, MappedFileCache cache) throws IOException {
+		MappedFileCache.Mapping mapping = cache.acquire(path);
+		try {
+			ByteBuffer data = mapping.getBuffer();
+			if(data.capacity() < HEADER || data.getInt(0) != MAGIC) {
+				throw new IOException("Not a bitbase file: " + path);
+			}
+			int count = data.get(5) == ' ' ? 1 : 2;
+			char[] types = new char[count];
+			for(int i = 0; i < count; i++) {
+				types[i] = (char) data.get(4 + i);
+			}
+			Bitbase bitbase = new Bitbase(types);
+			if(data.capacity() != HEADER + (bitbase.size >>> 6) * 2L * 8) {
+				throw new IOException("Bitbase file has the wrong size: " + path);
+			}
+			bitbase.file = path;
+			bitbase.cache = cache;
+			return bitbase;
+		}
+		finally {
+			mapping.release();
+		}
+	}
+
+	/**
+	 * Returns the index of a position.
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param first			Square of the first Piece.
+	 * @param second		Square of the second Piece (0 if there is only one).
+	 * @return	The index.
+	 */
+	static int index(int weakKing, int strongKing, int first, int second) {
+		return weakKing | (strongKing << 6) | (first << 12) | (second << 18);
+	}
+
+	/**
+	 * Creates a bitbase by retrograde analysis.
+	 * @param types	Types of the stronger side's Pieces other than the King.
+	 * @param queen	The KQK bitbase, used for Pawn promotions (only needed for KPK).
+	 * @param rook	The KRK bitbase, used for Pawn promotions (only needed for KPK).
+	 * @return	The finished bitbase.
+	 */
+	static Bitbase generate(char[] types, Bitbase queen, Bitbase rook) {
+		Bitbase bitbase = new Bitbase(types);
+		int words = bitbase.size >>> 6;
+		long[] validStrong = new long[words];
+		long[] validWeak = new long[words];
+		AtomicLongArray wonStrong = new AtomicLongArray(words);
+		AtomicLongArray wonWeak = new AtomicLongArray(words);
+		AtomicLongArray freshStrong = new AtomicLongArray(words);
+		AtomicLongArray freshWeak = new AtomicLongArray(words);
+
+		// find the legal positions, the checkmates, and the Pawn promotions that win right away
+		parallel(words, (fromWord, toWord) -> {
+			int[] squares = new int[2];
+			for(int index = fromWord << 6; index < toWord << 6; index++) {
+				int weakKing = bitbase.decode(index, squares);
+				int strongKing = (index >>> 6) & 63;
+				if(bitbase.valid(weakKing, strongKing, squares, true)) {
+					validStrong[index >>> 6] |= 1L << index;
+					if(queen != null && bitbase.promotionWins(weakKing, strongKing, squares[0], queen, rook)) {
+						setBit(wonStrong, index);
+						setBit(freshStrong, index);
+					}
+				}
+				if(bitbase.valid(weakKing, strongKing, squares, false)) {
+					validWeak[index >>> 6] |= 1L << index;
+					if(bitbase.weakLoses(weakKing, strongKing, squares, wonStrong)) {
+						setBit(wonWeak, index);
+						setBit(freshWeak, index);
+					}
+				}
+			}
+		});
+
+		long[] newWeak = toArray(freshWeak);
+		long[] newStrong = toArray(freshStrong);
+		while(!isEmpty(newWeak) || !isEmpty(newStrong)) {
+			// a position where the stronger side can move into a lost position for the lone King is won
+			long[] fromWeak = newWeak;
+			AtomicLongArray foundStrong = new AtomicLongArray(words);
+			parallel(words, (fromWord, toWord) -> {
+				int[] squares = new int[2];
+				int[] before = new int[MoveGenerator.MAX_PIECE_MOVES];
+				for(int word = fromWord; word < toWord; word++) {
+					for(long bits = fromWeak[word]; bits != 0; bits &= bits - 1) {
+						int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+						int weakKing = bitbase.decode(index, squares);
+						int strongKing = (index >>> 6) & 63;
+						for(int piece = -1; piece < types.length; piece++) {
+							int count = bitbase.unmoves(piece, weakKing, strongKing, squares, before);
+							for(int i = 0; i < count; i++) {
+								int previous = bitbase.replace(index, piece, before[i]);
+								if((validStrong[previous >>> 6] & (1L << previous)) != 0 && setBit(wonStrong, previous)) {
+									setBit(foundStrong, previous);
+								}
+							}
+						}
+					}
+				}
+			});
+			long[] fromStrong = toArray(foundStrong);
+			for(int i = 0; i < words; i++) {
+				fromStrong[i] |= newStrong[i];
+			}
+
+			// a position where every move of the lone King leads to a won position is won
+			AtomicLongArray foundWeak = new AtomicLongArray(words);
+			parallel(words, (fromWord, toWord) -> {
+				int[] squares = new int[2];
+				int[] before = new int[MoveGenerator.MAX_PIECE_MOVES];
+				for(int word = fromWord; word < toWord; word++) {
+					for(long bits = fromStrong[word]; bits != 0; bits &= bits - 1) {
+						int index = (word << 6) | Long.numberOfTrailingZeros(bits);
+						int weakKing = bitbase.decode(index, squares);
+						int strongKing = (index >>> 6) & 63;
+						int count = bitbase.kingUnmoves(weakKing, strongKing, squares, before);
+						for(int i = 0; i < count; i++) {
+							int previous = (index & ~63) | before[i];
+							if((validWeak[previous >>> 6] & (1L << previous)) == 0 || (wonWeak.get(previous >>> 6) & (1L << previous)) != 0) {
+								continue;
+							}
+							if(bitbase.weakLoses(before[i], strongKing, squares, wonStrong) && setBit(wonWeak, previous)) {
+								setBit(foundWeak, previous);
+							}
+						}
+					}
+				}
+			});
+			newWeak = toArray(foundWeak);
+			newStrong = new long[words];
+		}
+
+		bitbase.strongToMove = toArray(wonStrong);
+		bitbase.weakToMove = toArray(wonWeak);
+		return bitbase;
+	}
+
+	/**
+	 * Reads the squares of a position from its index.
+	 * @param index		Index of the position.
+	 * @param squares	Array that the squares of the Pieces in types are written into.
+	 * @return	Square of the lone King.
+	 */
+	int decode(int index, int[] squares) {
+		squares[0] = (index >>> 12) & 63;
+		squares[1] = (index >>> 18) & 63;
+		return index & 63;
+	}
+
+	/**
+	 * Returns the index of a position after one Piece changed squares.
+	 * @param index		Index of the position.
+	 * @param piece		-1 for the stronger side's King, otherwise the index of the Piece in types.
+	 * @param square	New square of the Piece.
+	 * @return	Index of the new position.
+	 */
+	int replace(int index, int piece, int square) {
+		int shift = 6 * (piece + 2);
+		return (index & ~(63 << shift)) | (square << shift);
+	}
+
+	/**
+	 * Checks if a position can happen in a game.
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param squares		Squares of the Pieces in types.
+	 * @param strongMoves	True if the stronger side is to move.
+	 * @return	True if the position is legal.
+	 */
+	boolean valid(int weakKing, int strongKing, int[] squares, boolean strongMoves) {
+		if(weakKing == strongKing || adjacent(weakKing, strongKing)) {
+			return false;
+		}
+		for(int i = 0; i < types.length; i++) {
+			if(squares[i] == weakKing || squares[i] == strongKing || (i == 1 && squares[1] == squares[0])) {
+				return false;
+			}
+			if(types[i] == 'p' && (squares[i] < 8 || squares[i] >= 56)) {
+				return false;
+			}
+		}
+		if(types.length == 1 && squares[1] != 0) { // only one index per position
+			return false;
+		}
+		// the lone King can't be in check when it isn't its turn
+		return !strongMoves || !attacked(weakKing, strongKing, squares, -1, occupancy(weakKing, strongKing, squares));
+	}
+
+	/**
+	 * Checks if the lone King is to move and loses: it is checkmated, or every move it has leads to a won position.
+	 * Capturing a Piece always leads to a draw, since none of these endgames can be won after that.
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param squares		Squares of the Pieces in types.
+	 * @param wonStrong		Won positions with the stronger side to move.
+	 * @return	True if the position is won for the stronger side.
+	 */
+	boolean weakLoses(int weakKing, int strongKing, int[] squares, AtomicLongArray wonStrong) {
+		long occupied = occupancy(weakKing, strongKing, squares) & ~(1L << weakKing);
+		int row = weakKing >>> 3;
+		int col = weakKing & 7;
+		int legal = 0;
+		for(int[] step : MoveGenerator.KING_STEPS) {
+			int r = row + step[0];
+			int c = col + step[1];
+			if(r < 0 || r > 7 || c < 0 || c > 7) {
+				continue;
+			}
+			int to = r * 8 + c;
+			if(to == strongKing || adjacent(to, strongKing)) {
+				continue;
+			}
+			int captured = -1;
+			for(int i = 0; i < types.length; i++) {
+				if(squares[i] == to) {
+					captured = i;
+				}
+			}
+			if(attacked(to, strongKing, squares, captured, captured >= 0 ? occupied & ~(1L << to) : occupied)) {
+				continue;
+			}
+			if(captured >= 0) {
+				return false;
+			}
+			legal++;
+			int next = index(to, strongKing, squares[0], types.length > 1 ? squares[1] : 0);
+			if((wonStrong.get(next >>> 6) & (1L << next)) == 0) {
+				return false;
+			}
+		}
+		if(legal > 0) {
+			return true;
+		}
+		return attacked(weakKing, strongKing, squares, -1, occupied);
+	}
+
+	/**
+	 * Checks if the stronger side, to move, wins right away by promoting its Pawn (KPK only).
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param pawn			Square of the Pawn.
+	 * @param queen			The KQK bitbase.
+	 * @param rook			The KRK bitbase.
+	 * @return	True if promoting to a Queen or a Rook leads to a won position.
+	 */
+	boolean promotionWins(int weakKing, int strongKing, int pawn, Bitbase queen, Bitbase rook) {
+		if(pawn >>> 3 != 1) {
+			return false;
+		}
+		int to = pawn - 8;
+		if(to == weakKing || to == strongKing) {
+			return false;
+		}
+		return queen.isWin(false, weakKing, strongKing, to, 0) || rook.isWin(false, weakKing, strongKing, to, 0);
+	}
+
+	/**
+	 * Finds the squares a Piece of the stronger side could have come from to reach its current square, without capturing.
+	 * @param piece			-1 for the stronger side's King, otherwise the index of the Piece in types.
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param squares		Squares of the Pieces in types.
+	 * @param before		Array that the squares are written into.
+	 * @return	Number of squares.
+	 */
+	int unmoves(int piece, int weakKing, int strongKing, int[] squares, int[] before) {
+		long occupied = occupancy(weakKing, strongKing, squares);
+		int square = piece < 0 ? strongKing : squares[piece];
+		char type = piece < 0 ? 'K' : types[piece];
+		int row = square >>> 3;
+		int col = square & 7;
+		int count = 0;
+		if(type == 'p') {
+			// Pawns move towards row 0, so they came from a higher row
+			if(row + 1 <= 6 && (occupied & (1L << (square + 8))) == 0) {
+				before[count++] = square + 8;
+				if(row == 4 && (occupied & (1L << (square + 16))) == 0) {
+					before[count++] = square + 16;
+				}
+			}
+			return count;
+		}
+		int[][] steps = type == 'N' ? MoveGenerator.KNIGHT_STEPS : type == 'B' ? MoveGenerator.BISHOP_STEPS : type == 'R' ? MoveGenerator.ROOK_STEPS : MoveGenerator.KING_STEPS;
+		boolean slide = type == 'B' || type == 'R' || type == 'Q';
+		for(int[] step : steps) {
+			int r = row + step[0];
+			int c = col + step[1];
+			while(r >= 0 && r < 8 && c >= 0 && c < 8 && (occupied & (1L << (r * 8 + c))) == 0) {
+				before[count++] = r * 8 + c;
+				if(!slide) {
+					break;
+				}
+				r += step[0];
+				c += step[1];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the empty squares the lone King could have come from.
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param squares		Squares of the Pieces in types.
+	 * @param before		Array that the squares are written into.
+	 * @return	Number of squares.
+	 */
+	int kingUnmoves(int weakKing, int strongKing, int[] squares, int[] before) {
+		long occupied = occupancy(weakKing, strongKing, squares);
+		int row = weakKing >>> 3;
+		int col = weakKing & 7;
+		int count = 0;
+		for(int[] step : MoveGenerator.KING_STEPS) {
+			int r = row + step[0];
+			int c = col + step[1];
+			if(r >= 0 && r < 8 && c >= 0 && c < 8 && (occupied & (1L << (r * 8 + c))) == 0) {
+				before[count++] = r * 8 + c;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a bit for each occupied square.
+	 * @param weakKing		Square of the lone King.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param squares		Squares of the Pieces in types.
+	 * @return	Occupied squares.
+	 */
+	long occupancy(int weakKing, int strongKing, int[] squares) {
+		long occupied = (1L << weakKing) | (1L << strongKing);
+		for(int i = 0; i < types.length; i++) {
+			occupied |= 1L << squares[i];
+		}
+		return occupied;
+	}
+
+	/**
+	 * Checks if the stronger side attacks a square.
+	 * @param target		The square.
+	 * @param strongKing	Square of the stronger side's King.
+	 * @param squares		Squares of the Pieces in types.
+	 * @param skip			Index of a Piece that was captured and no longer attacks (-1 for none).
+	 * @param occupied		Occupied squares that block Bishops, Rooks and Queens.
+	 * @return	True if the square is attacked.
+	 */
+	boolean attacked(int target, int strongKing, int[] squares, int skip, long occupied) {
+		if(adjacent(target, strongKing)) {
+			return true;
+		}
+		for(int i = 0; i < types.length; i++) {
+			if(i != skip && attacks(types[i], squares[i], target, occupied)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Checks if a Piece attacks a square.
+	 * @param type		Type of the Piece.
+	 * @param from		Square of the Piece.
+	 * @param to		The square.
+	 * @param occupied	Occupied squares that block Bishops, Rooks and Queens.
+	 * @return	True if the square is attacked.
+	 */
+	static boolean attacks(char type, int from, int to, long occupied) {
+		int rowStep = (to >>> 3) - (from >>> 3);
+		int colStep = (to & 7) - (from & 7);
+		switch(type) {
+			case 'p':
+				return rowStep == -1 && Math.abs(colStep) == 1;
+			case 'N':
+				return Math.abs(rowStep * colStep) == 2;
+			case 'B':
+				return Math.abs(rowStep) == Math.abs(colStep) && rowStep != 0 && clear(from, to, occupied);
+			case 'R':
+				return (rowStep == 0) != (colStep == 0) && clear(from, to, occupied);
+			case 'Q':
+				return (Math.abs(rowStep) == Math.abs(colStep) || rowStep == 0 || colStep == 0) && from != to && clear(from, to, occupied);
+			default:
+				return adjacent(from, to);
+		}
+	}
+
+	/**
+	 * Checks that no square between two squares on the same row, column or diagonal is occupied.
+	 * @param from		First square.
+	 * @param to		Second square.
+	 * @param occupied	Occupied squares.
+	 * @return	True if the path is clear.
+	 */
+	static boolean clear(int from, int to, long occupied) {
+		int rowStep = Integer.signum((to >>> 3) - (from >>> 3));
+		int colStep = Integer.signum((to & 7) - (from & 7));
+		int step = rowStep * 8 + colStep;
+		for(int square = from + step; square != to; square += step) {
+			if((occupied & (1L << square)) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if two different squares touch (including diagonally).
+	 * @param a	First square.
+	 * @param b	Second square.
+	 * @return	True if the squares touch.
+	 */
+	static boolean adjacent(int a, int b) {
+		return a != b && Math.abs((a >>> 3) - (b >>> 3)) <= 1 && Math.abs((a & 7) - (b & 7)) <= 1;
+	}
+
+	/**
+	 * Sets a bit if it was not set yet. Safe to call from several threads.
+	 * @param bits	The bit array.
+	 * @param index	Index of the bit.
+	 * @return	True if the bit was not set before.
+	 */
+	static boolean setBit(AtomicLongArray bits, int index) {
+		int word = index >>> 6;
+		long mask = 1L << index;
+		long old;
+		do {
+			old = bits.get(word);
+			if((old & mask) != 0) {
+				return false;
+			}
+		} while(!bits.compareAndSet(word, old, old | mask));
+		return true;
+	}
+
+	/**
+	 * Copies a bit array into a plain long array.
+	 * @param bits	The bit array.
+	 * @return	Copy of the bits.
+	 */
+	static long[] toArray(AtomicLongArray bits) {
+		long[] array = new long[bits.length()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = bits.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * Checks if no bit is set.
+	 * @param bits	The bit array.
+	 * @return	True if every word is 0.
+	 */
+	static boolean isEmpty(long[] bits) {
+		for(long word : bits) {
+			if(word != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Work done on a range of bit array words.
+	 */
+	interface WordRange {
+		/**
+		 * Handles the words from fromWord up to (not including) toWord.
+		 * @param fromWord	First word.
+		 * @param toWord	Word after the last word.
+		 */
+		void run(int fromWord, int toWord);
+	}
+
+	/**
+	 * Runs work over all words, split into fork-join tasks of WORDS_PER_TASK words.
+	 * @param words	Number of words.
+	 * @param work	Work for each range.
+	 */
+	static void parallel(int words, WordRange work) {
+		ForkJoinPool.commonPool().invoke(new RangeTask(0, words, work));
+	}
+
+	/**
+	 * This class is a fork-join task that splits a range of words in half until it is small enough to run.
+	 */
+	static class RangeTask extends RecursiveAction {
+
+		/**
+		 * Serialization id (fork-join tasks are Serializable).
+		 */
+		private static final long serialVersionUID = 1L;
+		/**
+		 * First word of the range.
+		 */
+		int fromWord;
+		/**
+		 * Word after the last word of the range.
+		 */
+		int toWord;
+		/**
+		 * Work for each range.
+		 */
+		transient WordRange work;
+
+		/**
+		 * This constructor creates a task for a range of words.
+		 * @param fromWord	First word of the range.
+		 * @param toWord	Word after the last word of the range.
+		 * @param work		Work for each range.
+		 */
+		RangeTask(int fromWord, int toWord, WordRange work) {
+			this.fromWord = fromWord;
+			this.toWord = toWord;
+			this.work = work;
+		}
+
+		/**
+		 * Runs the range, or splits it in half.
+		 */
+		protected void compute() {
+			if(toWord - fromWord <= WORDS_PER_TASK) {
+				work.run(fromWord, toWord);
+				return;
+			}
+			int mid = (fromWord + toWord) >>> 1;
+			invokeAll(new RangeTask(fromWord, mid, work), new RangeTask(mid, toWord, work));
+		}
+
+	}
+
+}
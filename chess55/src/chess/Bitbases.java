@@ -0,0 +1,343 @@
+package chess;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * This class finds out the result of Boards with very little material (KPK, KRK, KQK, KBNK, and the endgames that can't be won).
+ * Each Bitbase is generated the first time it is needed and kept for the rest of the program. Generating them takes seconds,
+ * so programs that search call loadAll once when they start, and searches only use probeLoaded, which skips the ones that are not ready.
+ * Only loading takes a lock: once a Bitbase is loaded, probing it takes none, so that searches on several threads don't wait on each other.
+ * If a directory is set, the Bitbases are kept as files there instead (Example: "KBNK.bb"), generated only if the file is missing,
+ * and probed through a MappedFileCache so that they take no heap. Each probe asks the cache for the mapping, so a file that was dropped
+ * to stay under maxOpen is unmapped and only mapped again when it is probed (the only case where a probe waits on the cache's lock).
+ * Boards that none of the Bitbases cover are looked up in the Syzygy tablebases, if a directory of them was set.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class Bitbases {
+
+	/**
+	 * The Board is not covered by any bitbase.
+	 */
+	public static final int UNKNOWN = -2;
+	/**
+	 * The player to move loses.
+	 */
+	public static final int LOSS = -1;
+	/**
+	 * The Board is a draw.
+	 */
+	public static final int DRAW = 0;
+	/**
+	 * The player to move wins.
+	 */
+	public static final int WIN = 1;
+
+	/**
+	 * King and Queen against King.
+	 */
+	private static volatile Bitbase kqk;
+	/**
+	 * King and Rook against King.
+	 */
+	private static volatile Bitbase krk;
+	/**
+	 * King and Pawn against King.
+	 */
+	private static volatile Bitbase kpk;
+	/**
+	 * King, Bishop and Knight against King.
+	 */
+	private static volatile Bitbase kbnk;
+	/**
+	 * Directory of the bitbase files, or null to keep the Bitbases on the heap.
+	 */
+	private static Path directory;
+	/**
+	 * Cache that maps the bitbase files.
+	 */
+	private static MappedFileCache cache;
+
+	/**
+	 * Bitbases only contains static methods, so no Bitbases object is ever created.
+	 */
+	private Bitbases() {
+	}
+
+	/**
+	 * Returns the KQK bitbase, generating it if needed.
+	 * @return	The bitbase.
+	 */
+	public static Bitbase kqk() {
+		Bitbase bitbase = kqk;
+		if(bitbase == null) {
+			synchronized(Bitbases.class) {
+				if(kqk == null) {
+					kqk = load(new char[] {'Q'}, null, null);
+				}
+				bitbase = kqk;
+			}
+		}
+		return bitbase;
+	}
+
+	/**
+	 * Returns the KRK bitbase, generating it if needed.
+	 * @return	The bitbase.
+	 */
+	public static Bitbase krk() {
+		Bitbase bitbase = krk;
+		if(bitbase == null) {
+			synchronized(Bitbases.class) {
+				if(krk == null) {
+					krk = load(new char[] {'R'}, null, null);
+				}
+				bitbase = krk;
+			}
+		}
+		return bitbase;
+	}
+
+	/**
+	 * Returns the KPK bitbase, generating it (and KQK and KRK) if needed.
+	 * @return	The bitbase.
+	 */
+	public static Bitbase kpk() {
+		Bitbase bitbase = kpk;
+		if(bitbase == null) {
+			synchronized(Bitbases.class) {
+				if(kpk == null) {
+					kpk = load(new char[] {'p'}, kqk(), krk());
+				}
+				bitbase = kpk;
+			}
+		}
+		return bitbase;
+	}
+
+	/**
+	 * Returns the KBNK bitbase, generating it if needed.
+	 * @return	The bitbase.
+	 */
+	public static Bitbase kbnk() {
+		Bitbase bitbase = kbnk;
+		if(bitbase == null) {
+			synchronized(Bitbases.class) {
+				if(kbnk == null) {
+					kbnk = load(new char[] {'B', 'N'}, null, null);
+				}
+				bitbase = kbnk;
+			}
+		}
+		return bitbase;
+	}
+
+	/**
+	 * Loads or generates every Bitbase now, so that probeLoaded finds them all.
+	 * The work is spread over the common ForkJoinPool, and the calling thread waits for it.
+	 */
+	public static void loadAll() {
+		kpk(); // also loads KQK and KRK
+		kbnk();
+	}
+
+	/**
+	 * Keeps the Bitbases as files in a directory from now on. Bitbases that were already loaded are dropped.
+	 * @param path		Directory of the bitbase files (created if needed), or null to keep the Bitbases on the heap.
+	 * @param maxOpen	Most number of files that are mapped at the same time.
+	 * @throws IOException	If the directory can't be created.
+	 */
+	public static synchronized void setDirectory(Path path, int maxOpen) throws IOException {
+		if(path != null) {
+			Files.createDirectories(path);
+		}
+		directory = path;
+		cache = path != null ? new MappedFileCache(maxOpen) : null;
+		kqk = null;
+		krk = null;
+		kpk = null;
+		kbnk = null;
+	}
+
+	/**
+	 * Loads a Bitbase from its file, or generates it (and saves it if a directory is set).
+	 * @param types	Types of the stronger side's Pieces other than the King.
+	 * @param queen	The KQK bitbase (only needed for KPK).
+	 * @param rook	The KRK bitbase (only needed for KPK).
+	 * @return	The Bitbase.
+	 */
+	private static Bitbase load(char[] types, Bitbase queen, Bitbase rook) {
+		if(directory == null) {
+			return Bitbase.generate(types, queen, rook);
+		}
+		Path path = directory.resolve(Bitbase.name(types) + ".bb");
+		try {
+			if(!Files.exists(path)) {
+				Bitbase.generate(types, queen, rook).save(path);
+			}
+			return Bitbase.open(path, cache);
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes all bitbase files into a directory.
+	 * @param args	Directory of the bitbase files.
+	 * @throws IOException	If a file can't be written.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length != 1) {
+			System.out.println("Usage: Bitbases <directory>");
+			return;
+		}
+		setDirectory(Paths.get(args[0]), 4);
+		for(Bitbase bitbase : new Bitbase[] {kqk(), krk(), kpk(), kbnk()}) {
+			System.out.println(bitbase.getName() + " -> " + bitbase.file);
+		}
+	}
+
+	/**
+	 * Looks up the result of a Board, in the Bitbases first and then in the Syzygy tables.
+	 * Boards where a King can still castle are not covered.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	WIN or LOSS for the player to move, DRAW, or UNKNOWN if no bitbase or table covers the Board.
+	 */
+	public static int probe(Board board, char color) {
+		int result = probe(board, color, true);
+		return result != UNKNOWN ? result : probeSyzygy(board, color);
+	}
+
+	/**
+	 * Looks up the result of a Board, but only in the Bitbases that are already loaded, so that it never stalls to generate one.
+	 * Boards that they don't cover are looked up in the Syzygy tables.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	WIN or LOSS for the player to move, DRAW, or UNKNOWN if no loaded bitbase or table covers the Board.
+	 */
+	public static int probeLoaded(Board board, char color) {
+		int result = probe(board, color, false);
+		return result != UNKNOWN ? result : probeSyzygy(board, color);
+	}
+
+	/**
+	 * Looks up the result of a Board in the Syzygy tables. Wins and losses that the 50-move rule turns into draws count as draws.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	WIN or LOSS for the player to move, DRAW, or UNKNOWN if no table covers the Board.
+	 */
+	static int probeSyzygy(Board board, char color) {
+		int wdl = Syzygy.probeWdl(board, color);
+		if(wdl == Syzygy.UNKNOWN) {
+			return UNKNOWN;
+		}
+		return wdl == Syzygy.WIN ? WIN : wdl == Syzygy.LOSS ? LOSS : DRAW;
+	}
+
+	/**
+	 * Returns the most Pieces (including the Kings) that a Board can have and still be found by probe.
+	 * @return	4 for the Bitbases, or more if Syzygy tables with more Pieces are used.
+	 */
+	public static int getMaxPieces() {
+		return Math.max(4, Syzygy.getMaxPieces());
+	}
+
+	/**
+	 * Looks up the result of a Board.
+	 * @param board		The Board.
+	 * @param color		Color of the player who's turn it is ('w' or 'b').
+	 * @param generate	True to load or generate the bitbase the Board needs, false to give up if it isn't loaded.
+	 * @return	WIN or LOSS for the player to move, DRAW, or UNKNOWN.
+	 */
+	private static int probe(Board board, char color, boolean generate) {
+		// scan into locals rather than arrays, since the search probes on every node with few Pieces
+		int count = 0;
+		char strong = 'n';
+		int square0 = 0;
+		int square1 = 0;
+		char type0 = ' ';
+		char type1 = ' ';
+		int whiteKing = 0;
+		int blackKing = 0;
+		for(int row = 0; row < 8; row++) {
+			for(int col = 0; col < 8; col++) {
+				Piece piece = board.getPiece(row, col);
+				if(piece == null) {
+					continue;
+				}
+				if(piece.getType() == 'K') {
+					if(piece.getColor() == 'w') {
+						whiteKing = row * 8 + col;
+					}
+					else {
+						blackKing = row * 8 + col;
+					}
+					continue;
+				}
+				if(count == 2 || (strong != 'n' && strong != piece.getColor())) {
+					return UNKNOWN;
+				}
+				strong = piece.getColor();
+				if(count == 0) {
+					type0 = piece.getType();
+					square0 = row * 8 + col;
+				}
+				else {
+					type1 = piece.getType();
+					square1 = row * 8 + col;
+				}
+				count++;
+			}
+		}
+		if(count == 0 || (count == 1 && (type0 == 'B' || type0 == 'N'))) {
+			return DRAW;
+		}
+		if(board.castleRights() != 0) {
+			return UNKNOWN;
+		}
+
+		Bitbase bitbase;
+		if(count == 1) {
+			if(generate) {
+				bitbase = type0 == 'Q' ? kqk() : type0 == 'R' ? krk() : kpk();
+			}
+			else {
+				bitbase = type0 == 'Q' ? kqk : type0 == 'R' ? krk : kpk;
+			}
+		}
+		else if(type0 != type1 && (type0 == 'B' || type0 == 'N') && (type1 == 'B' || type1 == 'N')) {
+			bitbase = generate ? kbnk() : kbnk;
+			if(type0 == 'N') { // the Bishop comes first
+				int knight = square0;
+				square0 = square1;
+				square1 = knight;
+			}
+		}
+		else {
+			return UNKNOWN;
+		}
+		if(bitbase == null) {
+			return UNKNOWN;
+		}
+
+		// the stronger side always plays up the Board, so flip the rows when it is Black
+		int flip = strong == 'w' ? 0 : 56;
+		int strongKing = (strong == 'w' ? whiteKing : blackKing) ^ flip;
+		int weakKing = (strong == 'w' ? blackKing : whiteKing) ^ flip;
+		boolean strongMoves = color == strong;
+		if(!bitbase.isWin(strongMoves, weakKing, strongKing, square0 ^ flip, square1 ^ flip)) {
+			return DRAW;
+		}
+		return strongMoves ? WIN : LOSS;
+	}
+
+}
@@ -1,5 +1,6 @@
 package chess;
 
+import java.util.Arrays;
 import java.util.Scanner;
 
 /**
@@ -41,6 +42,45 @@ public class Board {
 	 */
 	char enpassantColor = 'n';
 	
+	/**
+	 * Hash of the current position, kept up to date by doMove and undoMove.
+	 * Only valid after resetKey has been called for the player who's turn it is.
+	 */
+	long key;
+	/**
+	 * Number of moves made with doMove that have not been undone yet.
+	 */
+	int ply = 0;
+	/**
+	 * Pieces that were moved by each move made with doMove.
+	 */
+	Piece[] movedStack = new Piece[256];
+	/**
+	 * Pieces that were captured by each move made with doMove (null if nothing was captured).
+	 */
+	Piece[] capturedStack = new Piece[256];
+	/**
+	 * Hash of the position before each move made with doMove.
+	 */
+	long[] keyStack = new long[256];
+	/**
+	 * En passant state and first move flag from before each move made with doMove.
+	 */
+	int[] stateStack = new int[256];
+	/**
+	 * Sums of the neural network kept up to date by doMove and undoMove, or null if the Evaluator is used.
+	 */
+	NnueAccumulator accumulator;
+	/**
+	 * Legal moves of the current position, used by makeMove to turn down illegal input before isValid changes anything (created on first use).
+	 */
+	LegalMoveSet legalMoves;
+	/**
+	 * Number of times the position was changed by clear, doMove, undoMove, doNullMove or undoNullMove,
+	 * so that a LegalMoveSet can tell that its moves are out of date.
+	 */
+	int changes;
+	
 	/**
 	 * Constructor which creates Board object and initializes all Pieces that are necessary for the game.
 	 * Constructor also properly places these pieces into the indices where they belong.
@@ -73,6 +113,23 @@ public class Board {
 		this.board[7][7] = new Rook("wR", 'w', 'R', 7, 7, this);
 	}
 	
+	/**
+	 * Removes every Piece from the Board, so that a different position can be set up (see the Fen class).
+	 * Any moves made with doMove are forgotten.
+	 */
+	public void clear() {
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				board[i][j] = null;
+			}
+		}
+		setEnpassant(-2, -2);
+		setEnpassantColor('n');
+		draw = false;
+		ply = 0;
+		changes++;
+	}
+	
 	/**
 	 * Returns the Piece at the given row and column.
 	 * @param row	Row index of the Piece to be returned.
@@ -167,6 +224,344 @@ public class Board {
 		king[1] = col;
 	}
 	
+	/**
+	 * Returns the hash of the current position.
+	 * @return	The 64 bit hash of the position.
+	 */
+	public long getKey() {
+		return key;
+	}
+	
+	/**
+	 * Computes the hash of the current position from scratch.
+	 * Has to be called before using doMove whenever the Board was changed in any other way.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 */
+	public void resetKey(char color) {
+		key = Zobrist.key(this, color);
+		if(accumulator != null) {
+			accumulator.refresh(this);
+		}
+	}
+	
+	/**
+	 * Sets the neural network that scores this Board instead of the Evaluator.
+	 * @param network	The network, or null to use the Evaluator.
+	 */
+	public void setNetwork(NnueNetwork network) {
+		accumulator = network == null ? null : new NnueAccumulator(network);
+		if(accumulator != null) {
+			accumulator.refresh(this);
+		}
+	}
+	
+	/**
+	 * Returns which castles are still allowed, based on whether the Kings and Rooks have moved.
+	 * @return	Bit 0 = White left, bit 1 = White right, bit 2 = Black left, bit 3 = Black right.
+	 */
+	public int castleRights() {
+		int rights = 0;
+		if(firstMove(board[7][4], 'w', 'K')) {
+			if(firstMove(board[7][0], 'w', 'R')) {
+				rights |= 1;
+			}
+			if(firstMove(board[7][7], 'w', 'R')) {
+				rights |= 2;
+			}
+		}
+		if(firstMove(board[0][4], 'b', 'K')) {
+			if(firstMove(board[0][0], 'b', 'R')) {
+				rights |= 4;
+			}
+			if(firstMove(board[0][7], 'b', 'R')) {
+				rights |= 8;
+			}
+		}
+		return rights;
+	}
+	
+	/**
+	 * Checks if a square holds a Piece of the given color and type that has not moved yet.
+	 * @param piece	Piece to check (can be null).
+	 * @param color	Color the Piece should have.
+	 * @param type	Type the Piece should have ('K' or 'R').
+	 * @return	True if the Piece matches and has not moved.
+	 */
+	private boolean firstMove(Piece piece, char color, char type) {
+		return piece != null && piece.getColor() == color && piece.getType() == type && hasFirstMove(piece);
+	}
+	
+	/**
+	 * Returns the first move flag of a Pawn, King, or Rook.
+	 * @param piece	The Piece.
+	 * @return	True if the Piece has not moved yet. False for any other type of Piece.
+	 */
+	static boolean hasFirstMove(Piece piece) {
+		if(piece instanceof Pawn) {
+			return ((Pawn) piece).firstMove;
+		}
+		if(piece instanceof King) {
+			return ((King) piece).kFirstMove;
+		}
+		if(piece instanceof Rook) {
+			return ((Rook) piece).rfirstMove;
+		}
+		return false;
+	}
+	
+	/**
+	 * Changes the first move flag of a Pawn, King, or Rook.
+	 * @param piece		The Piece.
+	 * @param firstMove	True if the Piece should be treated as not having moved yet.
+	 */
+	static void setFirstMove(Piece piece, boolean firstMove) {
+		if(piece instanceof Pawn) {
+			((Pawn) piece).firstMove = firstMove;
+		}
+		else if(piece instanceof King) {
+			((King) piece).kFirstMove = firstMove;
+		}
+		else if(piece instanceof Rook) {
+			((Rook) piece).rfirstMove = firstMove;
+		}
+	}
+	
+	/**
+	 * Creates the Piece that a Pawn is promoted to.
+	 * @param type	The new type ('Q', 'R', 'B', 'N').
+	 * @param color	Color of the Pawn.
+	 * @param col	Column index of the new Piece.
+	 * @param row	Row index of the new Piece.
+	 * @return	The new Piece.
+	 */
+	Piece promotedPiece(char type, char color, int col, int row) {
+		if(type == 'N') {
+			return new Knight(color + "" + type, color, type, col, row, this);
+		}
+		else if(type == 'R') {
+			return new Rook(color + "" + type, color, type, col, row, this);
+		}
+		else if(type == 'B') {
+			return new Bishop(color + "" + type, color, type, col, row, this);
+		}
+		else {
+			return new Queen(color + "" + type, color, type, col, row, this);
+		}
+	}
+	
+	/**
+	 * Makes a move that was produced by MoveGenerator, so that it can later be taken back with undoMove.
+	 * Unlike movePiece, this method does not look for check or checkmate, and it keeps the hash up to date.
+	 * The move has to be at least pseudo-legal; the caller should use check() afterwards to see if it left the King in check.
+	 * @param move	Packed move (see the Move class).
+	 */
+	public void doMove(int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int fromRow = from >>> 3;
+		int fromCol = from & 7;
+		int toRow = to >>> 3;
+		int toCol = to & 7;
+		Piece piece = board[fromRow][fromCol];
+		char color = piece.getColor();
+		
+		if(ply == movedStack.length) {
+			growStacks();
+		}
+		movedStack[ply] = piece;
+		keyStack[ply] = key;
+		changes++;
+		stateStack[ply] = (enpassant[0] + 2) | ((enpassant[1] + 2) << 4) | (enpassantColor << 8) | (hasFirstMove(piece) ? 1 << 24 : 0);
+		if(accumulator != null) {
+			accumulator.push();
+		}
+		
+		// take the old castle rights and en passant out of the hash
+		key ^= Zobrist.CASTLE[castleRights()];
+		key ^= Zobrist.enpassant(board, enpassant, enpassantColor);
+		
+		// remove the captured Piece
+		Piece captured;
+		if((move & Move.ENPASSANT) != 0) {
+			captured = board[fromRow][toCol];
+			board[fromRow][toCol] = null;
+			key ^= Zobrist.piece(captured, fromRow * 8 + toCol);
+		}
+		else {
+			captured = board[toRow][toCol];
+			if(captured != null) {
+				key ^= Zobrist.piece(captured, to);
+			}
+		}
+		capturedStack[ply] = captured;
+		if(captured != null && accumulator != null) {
+			accumulator.remove(captured, (move & Move.ENPASSANT) != 0 ? fromRow * 8 + toCol : to);
+		}
+		
+		// move the Piece, replacing it if it is a promotion
+		key ^= Zobrist.piece(piece, from);
+		board[fromRow][fromCol] = null;
+		Piece placed = piece;
+		if(Move.isPromotion(move)) {
+			placed = promotedPiece(Move.promotion(move), color, toCol, toRow);
+		}
+		board[toRow][toCol] = placed;
+		placed.row = toRow;
+		placed.col = toCol;
+		key ^= Zobrist.piece(placed, to);
+		if(accumulator != null) {
+			accumulator.remove(piece, from);
+			accumulator.add(placed, to);
+		}
+		setFirstMove(piece, false);
+		if(piece instanceof King) {
+			setKing(color, toRow, toCol);
+		}
+		
+		// move the Rook when castling
+		if((move & Move.CASTLE) != 0) {
+			int rookFrom = toCol < fromCol ? 0 : 7;
+			int rookTo = toCol < fromCol ? toCol + 1 : toCol - 1;
+			Piece rook = board[toRow][rookFrom];
+			board[toRow][rookFrom] = null;
+			board[toRow][rookTo] = rook;
+			rook.col = rookTo;
+			setFirstMove(rook, false);
+			key ^= Zobrist.piece(rook, toRow * 8 + rookFrom) ^ Zobrist.piece(rook, toRow * 8 + rookTo);
+			if(accumulator != null) {
+				accumulator.remove(rook, toRow * 8 + rookFrom);
+				accumulator.add(rook, toRow * 8 + rookTo);
+			}
+		}
+		
+		// update en passant
+		if((move & Move.DOUBLE_PUSH) != 0) {
+			setEnpassant(toRow, toCol);
+			setEnpassantColor(color);
+			key ^= Zobrist.enpassant(board, enpassant, color);
+		}
+		else {
+			setEnpassant(-2, -2);
+			setEnpassantColor('n');
+		}
+		
+		key ^= Zobrist.CASTLE[castleRights()] ^ Zobrist.BLACK_TO_MOVE;
+		ply++;
+	}
+	
+	/**
+	 * Doubles the size of the arrays that remember the moves made with doMove.
+	 */
+	private void growStacks() {
+		movedStack = Arrays.copyOf(movedStack, ply * 2);
+		capturedStack = Arrays.copyOf(capturedStack, ply * 2);
+		keyStack = Arrays.copyOf(keyStack, ply * 2);
+		stateStack = Arrays.copyOf(stateStack, ply * 2);
+	}
+	
+	/**
+	 * Takes back the last move that was made with doMove.
+	 * @param move	The same packed move that was passed to doMove.
+	 */
+	public void undoMove(int move) {
+		ply--;
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int fromRow = from >>> 3;
+		int fromCol = from & 7;
+		int toRow = to >>> 3;
+		int toCol = to & 7;
+		Piece piece = movedStack[ply];
+		Piece captured = capturedStack[ply];
+		int state = stateStack[ply];
+		
+		// move the Rook back when castling
+		if((move & Move.CASTLE) != 0) {
+			int rookFrom = toCol < fromCol ? 0 : 7;
+			int rookTo = toCol < fromCol ? toCol + 1 : toCol - 1;
+			Piece rook = board[toRow][rookTo];
+			board[toRow][rookTo] = null;
+			board[toRow][rookFrom] = rook;
+			rook.col = rookFrom;
+			setFirstMove(rook, true);
+		}
+		
+		// put the moved Piece back and restore the captured Piece
+		board[toRow][toCol] = null;
+		board[fromRow][fromCol] = piece;
+		piece.row = fromRow;
+		piece.col = fromCol;
+		setFirstMove(piece, (state & (1 << 24)) != 0);
+		if(piece instanceof King) {
+			setKing(piece.getColor(), fromRow, fromCol);
+		}
+		if((move & Move.ENPASSANT) != 0) {
+			board[fromRow][toCol] = captured;
+		}
+		else {
+			board[toRow][toCol] = captured;
+		}
+		capturedStack[ply] = null;
+		
+		setEnpassant((state & 15) - 2, ((state >>> 4) & 15) - 2);
+		setEnpassantColor((char) ((state >>> 8) & 0xFFFF));
+		key = keyStack[ply];
+		changes++;
+		if(accumulator != null) {
+			accumulator.pop(this);
+		}
+	}
+	
+	/**
+	 * Passes the turn to the opponent without moving a Piece, so that it can later be taken back with undoNullMove.
+	 * This is not a legal move in chess; the search uses it to see if the position is still good even after giving the opponent a free move.
+	 * The en passant is cleared, since it would only be allowed right after the Pawn moved.
+	 */
+	public void doNullMove() {
+		if(ply == movedStack.length) {
+			growStacks();
+		}
+		movedStack[ply] = null;
+		capturedStack[ply] = null;
+		keyStack[ply] = key;
+		stateStack[ply] = (enpassant[0] + 2) | ((enpassant[1] + 2) << 4) | (enpassantColor << 8);
+		key ^= Zobrist.enpassant(board, enpassant, enpassantColor);
+		setEnpassant(-2, -2);
+		setEnpassantColor('n');
+		key ^= Zobrist.BLACK_TO_MOVE;
+		ply++;
+		changes++;
+	}
+	
+	/**
+	 * Takes back the pass that was made with doNullMove.
+	 */
+	public void undoNullMove() {
+		ply--;
+		int state = stateStack[ply];
+		setEnpassant((state & 15) - 2, ((state >>> 4) & 15) - 2);
+		setEnpassantColor((char) ((state >>> 8) & 0xFFFF));
+		key = keyStack[ply];
+		changes++;
+	}
+	
+	/**
+	 * Checks if the current position already happened earlier in the moves made with doMove.
+	 * Only positions with the same player to move are compared, and the search stops at the last capture or Pawn move.
+	 * @return	True if the position is a repetition.
+	 */
+	public boolean isRepetition() {
+		for(int i = ply - 2; i >= 0; i -= 2) {
+			if(keyStack[i] == key) {
+				return true;
+			}
+			if(capturedStack[i] != null || movedStack[i] instanceof Pawn || capturedStack[i + 1] != null || movedStack[i + 1] instanceof Pawn) {
+				return false;
+			}
+		}
+		return false;
+	}
+	
 	/**
 	 * Handles each player's turn.
 	 * This method also checks for bad input, draws, resigns, resets en passant, prints the winner of the game, and calls promotion for Pawns when necessary.
@@ -249,9 +644,15 @@ public class Board {
 				}
 			}
 			
-			if(file >= 0 && file < 8 && rank >= 0 && rank < 8 && board[rank][file] != null && board[rank][file].getColor() == color && board[rank][file].isValid(newRank, newFile)) {
+			if(legalMoves == null) {
+				legalMoves = new LegalMoveSet(this);
+			}
+			if(file >= 0 && file < 8 && rank >= 0 && rank < 8 && newFile >= 0 && newFile < 8 && newRank >= 0 && newRank < 8
+					&& board[rank][file] != null && board[rank][file].getColor() == color
+					&& legalMoves.contains(color, rank * 8 + file, newRank * 8 + newFile) && board[rank][file].isValid(newRank, newFile)) {
 				// move the piece
 				int moveResult = board[rank][file].movePiece(newRank, newFile);
+				legalMoves.invalidate();
 				if(moveResult == 2) {
 					System.out.println("\nCheckmate");
 					System.out.println("\n" + colorFullName + " wins");
@@ -284,7 +685,17 @@ public class Board {
 					enpassant[1] = -2;
 					enpassantColor = 'n';
 				}
-				
+
+				// end the game if the bitbases already know its result (the ones not generated yet are skipped, rather than stall the game)
+				int result = Bitbases.probeLoaded(this, color == 'w' ? 'b' : 'w');
+				if(result == Bitbases.DRAW) {
+					System.out.println("\ndraw");
+					return false;
+				}
+				else if(result != Bitbases.UNKNOWN) {
+					System.out.println("\n" + (result == Bitbases.LOSS ? colorFullName : opponent) + " wins");
+					return false;
+				}
 			}
 			else {
 				System.out.println("\nIllegal move, try again");
@@ -337,6 +748,9 @@ public class Board {
 	 * @return	True if the King is not in check, False if King is in check.
 	 */
 	public boolean check(char color) {
+		if(EngineStats.ENABLED) {
+			EngineStats.CHECK_CALLS.increment();
+		}
 		int[] king;
 		if(color == 'w') {
 			king = wKing;
@@ -710,26 +1124,26 @@ public class Board {
 	 * @return	The Chess Board in String format.
 	 */
 	public String toString() {
-		String printedBoard = "";
+		StringBuilder printedBoard = new StringBuilder(8 * 26 + 23);
 		for(int i = 0; i < 8; i++) {
 			for(int j = 0; j < 8; j++) {
 				if(board[i][j] != null) {
-					printedBoard += board[i][j].getID() + " ";
+					printedBoard.append(board[i][j].getID()).append(' ');
 				}
 				else {
 					if((i % 2 == 0 && j % 2 == 1) || (i % 2 == 1 && j % 2 == 0)) {
-						printedBoard += "## ";
+						printedBoard.append("## ");
 					}
 					else {
-						printedBoard += "   ";
+						printedBoard.append("   ");
 					}
 				}
 			}
-			printedBoard += (8-i) + "\n";
+			printedBoard.append(8-i).append('\n');
 		}
-		printedBoard += " a  b  c  d  e  f  g  h";
+		printedBoard.append(" a  b  c  d  e  f  g  h");
 		
-		return printedBoard;
+		return printedBoard.toString();
 	}
 	
 }
@@ -0,0 +1,578 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * This class builds an opening book (see OpeningBook) from PGN files that can be much larger than the heap.
+ * Games are read by one thread and replayed on a Board by several worker threads, each of which writes a (Polyglot hash, move, result) record per ply, so the book can be read by other Polyglot programs too.
+ * When a worker's buffer is full it is sorted and written to a temporary run file, and at the end the run files are merged
+ * into the book, so memory use only depends on the buffer size and the number of threads.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class BookBuilder {
+
+	/**
+	 * Number of games handed to a worker at a time.
+	 */
+	static final int BATCH_SIZE = 256;
+	/**
+	 * Batch that tells a worker there are no games left.
+	 */
+	static final List<PgnGame> END = new ArrayList<>();
+	/**
+	 * Most number of run files that are open at the same time while merging.
+	 */
+	static final int MERGE_RUNS = 64;
+
+	/**
+	 * Number of plies of each game that are added to the book.
+	 */
+	int maxPly;
+	/**
+	 * Number of worker threads that replay games.
+	 */
+	int threads;
+	/**
+	 * Number of records each worker keeps in memory before writing a run file.
+	 */
+	int runSize;
+	/**
+	 * Number of games a move needs to be played in to be added to the book.
+	 */
+	int minGames;
+	/**
+	 * Directory for the temporary run files.
+	 */
+	Path tempDir;
+	/**
+	 * Run files that were written so far.
+	 */
+	List<Path> runs = Collections.synchronizedList(new ArrayList<>());
+	/**
+	 * First error that happened in a worker thread.
+	 */
+	volatile IOException error;
+	/**
+	 * Number of games that were skipped or cut short because they could not be replayed.
+	 */
+	AtomicLong badGames = new AtomicLong();
+
+	/**
+	 * This constructor creates a BookBuilder.
+	 * @param maxPly	Number of plies of each game that are added to the book.
+	 * @param threads	Number of worker threads that replay games.
+	 * @param runSize	Number of records each worker keeps in memory before writing a run file (12 bytes each).
+	 * @param minGames	Number of games a move needs to be played in to be added to the book.
+	 * @param tempDir	Directory for the temporary run files.
+	 */
+	public BookBuilder(int maxPly, int threads, int runSize, int minGames, Path tempDir) {
+		this.maxPly = maxPly;
+		this.threads = Math.max(1, threads);
+		this.runSize = Math.max(1024, runSize);
+		this.minGames = Math.max(1, minGames);
+		this.tempDir = tempDir;
+	}
+
+	/**
+	 * Builds a book from PGN files.
+	 * @param pgnFiles	PGN files to read (files ending in ".gz" are decompressed).
+	 * @param output	Path of the book file to write.
+	 * @return	Number of entries in the book.
+	 * @throws IOException	If a file can't be read or written.
+	 */
+	public long build(List<Path> pgnFiles, Path output) throws IOException {
+		BlockingQueue<List<PgnGame>> queue = new ArrayBlockingQueue<>(threads * 2);
+		List<Thread> workers = new ArrayList<>();
+		for(int i = 0; i < threads; i++) {
+			Thread worker = new Thread(() -> replayGames(queue), "book-builder-" + i);
+			worker.start();
+			workers.add(worker);
+		}
+		try {
+			boolean finished = false;
+			try {
+				// read the games on this thread; the bounded queue keeps the reader from getting ahead of the workers
+				for(Path file : pgnFiles) {
+					try(PgnReader reader = new PgnReader(new InputStreamReader(open(file), StandardCharsets.ISO_8859_1))) {
+						List<PgnGame> batch = new ArrayList<>(BATCH_SIZE);
+						PgnGame game;
+						while((game = reader.next()) != null && error == null) {
+							batch.add(game);
+							if(batch.size() == BATCH_SIZE) {
+								put(queue, batch);
+								batch = new ArrayList<>(BATCH_SIZE);
+							}
+						}
+						if(!batch.isEmpty()) {
+							put(queue, batch);
+						}
+					}
+				}
+				for(int i = 0; i < threads; i++) {
+					put(queue, END);
+				}
+				finished = error == null;
+			}
+			finally {
+				// when the reader or a worker failed, the workers that are still waiting for a batch would wait forever
+				if(!finished) {
+					for(Thread worker : workers) {
+						worker.interrupt();
+					}
+				}
+				for(Thread worker : workers) {
+					worker.join();
+				}
+			}
+			if(error != null) {
+				throw error;
+			}
+			return merge(output);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Book build was interrupted", e);
+		}
+		finally {
+			for(Path run : runs) {
+				Files.deleteIfExists(run);
+			}
+		}
+	}
+
+	/**
+	 * Hands a batch to the workers, waiting while the queue is full.
+	 * Nothing is queued once a worker has failed, since the workers that are left may never take the batch.
+	 * @param queue	Queue of game batches.
+	 * @param batch	The batch.
+	 * @throws InterruptedException	If the thread is interrupted while waiting.
+	 */
+	void put(BlockingQueue<List<PgnGame>> queue, List<PgnGame> batch) throws InterruptedException {
+		while(error == null) {
+			if(queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of games that were skipped or cut short because they could not be replayed (a bad FEN or move).
+	 * @return	Number of bad games.
+	 */
+	public long getBadGames() {
+		return badGames.get();
+	}
+
+	/**
+	 * Opens a PGN file.
+	 * @param file	Path of the file.
+	 * @return	Stream of the PGN text.
+	 * @throws IOException	If the file can't be opened.
+	 */
+	static InputStream open(Path file) throws IOException {
+		InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16);
+		if(file.toString().endsWith(".gz")) {
+			in = new GZIPInputStream(in, 1 << 16);
+		}
+		return in;
+	}
+
+	/**
+	 * Work done by each worker thread: replays batches of games on its own Board until the END batch arrives.
+	 * @param queue	Queue of game batches.
+	 */
+	void replayGames(BlockingQueue<List<PgnGame>> queue) {
+		Board board = new Board();
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		long[] keys = new long[runSize];
+		int[] data = new int[runSize];
+		int size = 0;
+		try {
+			List<PgnGame> batch;
+			while((batch = queue.take()) != END) {
+				for(PgnGame game : batch) {
+					char result = game.getResult();
+					if(result == 'n') {
+						continue;
+					}
+					// a game that can't be replayed (a bad FEN or move) is counted and skipped, so it can't stop the worker
+					try {
+						Fen.load(board, game.getStartFen());
+						char color = Fen.color(game.getStartFen());
+						List<String> sans = game.getMoves();
+						for(int ply = 0; ply < maxPly && ply < sans.size(); ply++) {
+							int move = San.parse(board, color, sans.get(ply), moves);
+							if(move == Move.NONE) {
+								break;
+							}
+							// 2 = win, 1 = draw, 0 = loss for the player making the move
+							int points = result == 'd' ? 1 : (result == color ? 2 : 0);
+							if(size == runSize) {
+								writeRun(keys, data, size);
+								size = 0;
+							}
+							keys[size] = Polyglot.key(board, color);
+							data[size] = (OpeningBook.toPolyglot(move) << 2) | points;
+							size++;
+							board.doMove(move);
+							color = color == 'w' ? 'b' : 'w';
+						}
+					}
+					catch(RuntimeException e) {
+						badGames.incrementAndGet();
+					}
+				}
+			}
+			if(size > 0) {
+				writeRun(keys, data, size);
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch(IOException e) {
+			fail(e);
+		}
+		catch(RuntimeException | Error e) {
+			fail(new IOException("Book worker " + Thread.currentThread().getName() + " failed", e));
+		}
+	}
+
+	/**
+	 * Records the first error of a worker, so that the reader stops handing out games and the build fails with it.
+	 * @param e	The error.
+	 */
+	synchronized void fail(IOException e) {
+		if(error == null) {
+			error = e;
+		}
+	}
+
+	/**
+	 * Sorts a buffer of records and writes it to a new run file, adding up records of the same position and move.
+	 * Each record in the run file is the hash (8 bytes), the Polyglot move (2 bytes), the number of games (4 bytes) and the points (4 bytes).
+	 * @param keys	Hashes of the records.
+	 * @param data	Polyglot move (shifted left by 2) and points of the records.
+	 * @param size	Number of records.
+	 * @throws IOException	If the run file can't be written.
+	 */
+	void writeRun(long[] keys, int[] data, int size) throws IOException {
+		sort(keys, data, 0, size - 1);
+		Path run = Files.createTempFile(tempDir, "book-run-", ".tmp");
+		runs.add(run);
+		try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+			int i = 0;
+			while(i < size) {
+				long key = keys[i];
+				int move = data[i] >>> 2;
+				int games = 0;
+				int points = 0;
+				while(i < size && keys[i] == key && data[i] >>> 2 == move) {
+					games++;
+					points += data[i] & 3;
+					i++;
+				}
+				out.writeLong(key);
+				out.writeShort(move);
+				out.writeInt(games);
+				out.writeInt(points);
+			}
+		}
+	}
+
+	/**
+	 * Sorts records by hash (as an unsigned number) and then by move, with a quicksort on both arrays at once.
+	 * @param keys	Hashes of the records.
+	 * @param data	Move and points of the records.
+	 * @param low	Index of the first record to sort.
+	 * @param high	Index of the last record to sort.
+	 */
+	static void sort(long[] keys, int[] data, int low, int high) {
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			long pivotKey = keys[mid];
+			int pivotMove = data[mid] >>> 2;
+			int i = low;
+			int j = high;
+			while(i <= j) {
+				while(compare(keys[i], data[i] >>> 2, pivotKey, pivotMove) < 0) {
+					i++;
+				}
+				while(compare(keys[j], data[j] >>> 2, pivotKey, pivotMove) > 0) {
+					j--;
+				}
+				if(i <= j) {
+					long key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					int value = data[i];
+					data[i] = data[j];
+					data[j] = value;
+					i++;
+					j--;
+				}
+			}
+			// recurse into the smaller half so the stack stays shallow
+			if(j - low < high - i) {
+				sort(keys, data, low, j);
+				low = i;
+			}
+			else {
+				sort(keys, data, i, high);
+				high = j;
+			}
+		}
+	}
+
+	/**
+	 * Compares two records by hash (as an unsigned number) and then by move.
+	 * @param keyA	Hash of the first record.
+	 * @param moveA	Move of the first record.
+	 * @param keyB	Hash of the second record.
+	 * @param moveB	Move of the second record.
+	 * @return	Negative, zero or positive like Comparator.compare.
+	 */
+	static int compare(long keyA, int moveA, long keyB, int moveB) {
+		int result = Long.compareUnsigned(keyA, keyB);
+		return result != 0 ? result : Integer.compare(moveA, moveB);
+	}
+
+	/**
+	 * Merges all run files into the book.
+	 * At most MERGE_RUNS run files are merged at a time, so while there are more, groups of them are first merged into bigger run files.
+	 * The weight of each move is its points (2 per win and 1 per draw), capped at 65535.
+	 * @param output	Path of the book file to write.
+	 * @return	Number of entries in the book.
+	 * @throws IOException	If a file can't be read or written.
+	 */
+	long merge(Path output) throws IOException {
+		while(runs.size() > MERGE_RUNS) {
+			List<Path> pass = new ArrayList<>(runs);
+			for(int i = 0; i < pass.size(); i += MERGE_RUNS) {
+				List<Path> group = pass.subList(i, Math.min(pass.size(), i + MERGE_RUNS));
+				if(group.size() == 1) {
+					continue;
+				}
+				Path run = Files.createTempFile(tempDir, "book-run-", ".tmp");
+				runs.add(run);
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+					mergeRuns(group, (key, move, games, points) -> {
+						out.writeLong(key);
+						out.writeShort(move);
+						out.writeInt((int) Math.min(Integer.MAX_VALUE, games));
+						out.writeInt((int) Math.min(Integer.MAX_VALUE, points));
+					});
+				}
+				for(Path merged : group) {
+					Files.delete(merged);
+					runs.remove(merged);
+				}
+			}
+		}
+
+		long[] entries = new long[1];
+		try(FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.ENTRY_SIZE * 4096);
+			mergeRuns(runs, (key, move, games, points) -> {
+				if(games < minGames) {
+					return;
+				}
+				if(!buffer.hasRemaining()) {
+					buffer.flip();
+					while(buffer.hasRemaining()) {
+						out.write(buffer);
+					}
+					buffer.clear();
+				}
+				OpeningBook.putEntry(buffer, key, move, (int) Math.min(65535, points));
+				entries[0]++;
+			});
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+		}
+		return entries[0];
+	}
+
+	/**
+	 * Merges run files, adding up the records of the same position and move.
+	 * @param files		The run files.
+	 * @param records	Receives the merged records in order.
+	 * @throws IOException	If a file can't be read, or records throws it.
+	 */
+	static void mergeRuns(List<Path> files, Records records) throws IOException {
+		PriorityQueue<RunReader> queue = new PriorityQueue<>((a, b) -> compare(a.key, a.move, b.key, b.move));
+		try {
+			for(Path run : files) {
+				RunReader reader = new RunReader(run);
+				if(reader.next()) {
+					queue.add(reader);
+				}
+				else {
+					reader.close();
+				}
+			}
+			while(!queue.isEmpty()) {
+				RunReader first = queue.peek();
+				long key = first.key;
+				int move = first.move;
+				long games = 0;
+				long points = 0;
+				while(!queue.isEmpty() && queue.peek().key == key && queue.peek().move == move) {
+					RunReader reader = queue.poll();
+					games += reader.games;
+					points += reader.points;
+					if(reader.next()) {
+						queue.add(reader);
+					}
+					else {
+						reader.close();
+					}
+				}
+				records.accept(key, move, games, points);
+			}
+		}
+		finally {
+			for(RunReader reader : queue) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * This interface receives the merged records of mergeRuns.
+	 */
+	interface Records {
+
+		/**
+		 * Called for each position and move, in order of hash and then move.
+		 * @param key		Hash of the position.
+		 * @param move		Polyglot move.
+		 * @param games		Number of games.
+		 * @param points	Points of the player making the move.
+		 * @throws IOException	If the record can't be written.
+		 */
+		void accept(long key, int move, long games, long points) throws IOException;
+
+	}
+
+	/**
+	 * This class reads the records of one run file in order during the merge.
+	 */
+	static class RunReader implements AutoCloseable {
+
+		/**
+		 * Stream of the run file.
+		 */
+		DataInputStream in;
+		/**
+		 * Hash of the current record.
+		 */
+		long key;
+		/**
+		 * Polyglot move of the current record.
+		 */
+		int move;
+		/**
+		 * Number of games of the current record.
+		 */
+		int games;
+		/**
+		 * Points of the current record.
+		 */
+		int points;
+
+		/**
+		 * This constructor opens a run file.
+		 * @param run	Path of the run file.
+		 * @throws IOException	If the file can't be opened.
+		 */
+		RunReader(Path run) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+		}
+
+		/**
+		 * Reads the next record.
+		 * @return	True if a record was read, False at the end of the file.
+		 * @throws IOException	If the file can't be read.
+		 */
+		boolean next() throws IOException {
+			try {
+				key = in.readLong();
+			}
+			catch(EOFException e) {
+				return false;
+			}
+			move = in.readShort() & 0xFFFF;
+			games = in.readInt();
+			points = in.readInt();
+			return true;
+		}
+
+		/**
+		 * Closes the run file.
+		 */
+		public void close() {
+			try {
+				in.close();
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+	}
+
+	/**
+	 * Builds a book from the command line.
+	 * @param args	Book file to write, number of plies, and one or more PGN files.
+	 * @throws IOException	If a file can't be read or written.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 3) {
+			System.out.println("Usage: BookBuilder <book.bin> <plies> <games.pgn>...");
+			return;
+		}
+		List<Path> files = new ArrayList<>();
+		for(String name : Arrays.copyOfRange(args, 2, args.length)) {
+			files.add(Paths.get(name));
+		}
+		Path output = Paths.get(args[0]);
+		Path tempDir = output.toAbsolutePath().getParent();
+		BookBuilder builder = new BookBuilder(Integer.parseInt(args[1]), Runtime.getRuntime().availableProcessors(), 1 << 22, 2, tempDir);
+		long start = System.currentTimeMillis();
+		long entries = builder.build(files, output);
+		System.out.println("Wrote " + entries + " entries in " + (System.currentTimeMillis() - start) + " ms, skipped " + builder.getBadGames() + " bad games");
+	}
+
+}
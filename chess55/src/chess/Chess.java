@@ -19,6 +19,10 @@ public class Chess {
 	 */
 	public static void main(String[] args) {
 		// TODO Auto-generated method stub
+		// generate the Bitbases while the players think, since makeMove only ends games with the ones that are ready
+		Thread bitbases = new Thread(Bitbases::loadAll, "bitbases");
+		bitbases.setDaemon(true);
+		bitbases.start();
 		Board board = new Board();
 		Scanner scan = new Scanner(System.in);
 		boolean gameStatus = true;
@@ -0,0 +1,72 @@
+package chess;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class measures the ClockService: what each tick of the service thread costs as the number of running clocks grows,
+ * while the games make moves, and how late flag falls are detected.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class ClockBenchmark {
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 * @param args	Optional numbers of clocks separated by commas (default 1000,10000,100000), seconds per run (default 5)
+	 * 				and seconds between the moves of a game (default 10).
+	 * @throws InterruptedException	If the benchmark is interrupted.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		String[] counts = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+		long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+		long moveSeconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+
+		System.out.println("   clocks   moves/s   ticks   us/tick   thread busy   flags   late avg   late max");
+		for(String count : counts) {
+			int clocks = Integer.parseInt(count.trim());
+			// 1 in 100 games runs out of time during the run, the others have 10 minutes and keep moving
+			int short_ = Math.max(1, clocks / 100);
+			AtomicInteger flagged = new AtomicInteger();
+			Random random = new Random(1);
+			try(ClockService service = new ClockService(clock -> flagged.incrementAndGet())) {
+				GameClock[] games = new GameClock[clocks];
+				for(int i = 0; i < clocks; i++) {
+					long base = i < short_ ? 100 + random.nextInt((int) (seconds * 1000) - 500) : 600000;
+					games[i] = new GameClock(null, base, 2000, 0);
+					service.start(games[i], 'w');
+				}
+				Thread.sleep(100); // let the service thread take in the new clocks before measuring
+				long startTicks = service.getTicks();
+				long startNanos = service.getTickNanos();
+				long start = System.nanoTime();
+				long end = start + seconds * 1000000000L;
+				long moves = 0;
+				double movesPerMilli = (double) (clocks - short_) / moveSeconds / 1000;
+				double owed = 0;
+				long next = start;
+				while(System.nanoTime() < end) {
+					owed += movesPerMilli;
+					for(; owed >= 1; owed--) {
+						games[short_ + random.nextInt(clocks - short_)].press();
+						moves++;
+					}
+					next += 1000000;
+					long wait = next - System.nanoTime();
+					if(wait > 0) {
+						Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+					}
+				}
+				double elapsed = (System.nanoTime() - start) / 1e9;
+				long ticks = service.getTicks() - startTicks;
+				long nanos = service.getTickNanos() - startNanos;
+				System.out.printf("%9d %9.0f %7d %9.2f %12.1f%% %7d %8.2f ms %7d ms%n", clocks, moves / elapsed, ticks, nanos / 1000.0 / ticks,
+						nanos / 1e7 / elapsed, flagged.get(), service.getAverageLateness(), service.getMaxLateness());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+package chess;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class keeps the GameClocks of every hosted game and detects flag falls, with a single thread for all of them.
+ * The deadline of each running clock is a timer in a TimingWheel with a tick of one millisecond,
+ * so each tick only costs the clocks that moved or ran out since the last one, however many clocks there are.
+ * Moves are made on any thread: the clock is charged there, and only queued for the service thread to move its timer.
+ * The FlagListener is called on the service thread, or on the thread of a move that came too late.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class ClockService implements AutoCloseable {
+
+	/**
+	 * Receives the clocks whose time ran out.
+	 */
+	public interface FlagListener {
+
+		/**
+		 * Called once when the player to move of a clock runs out of time.
+		 * @param clock	The clock, whose getColorToMove is the player who lost on time.
+		 */
+		void flagged(GameClock clock);
+
+	}
+
+	/**
+	 * Time of nanoTime that is time 0 of the service.
+	 */
+	long origin = System.nanoTime();
+	/**
+	 * Deadlines of the running clocks, only used by the service thread.
+	 */
+	TimingWheel wheel = new TimingWheel(0);
+	/**
+	 * Clocks whose timer has to be moved.
+	 */
+	ConcurrentLinkedQueue<GameClock> queue = new ConcurrentLinkedQueue<>();
+	/**
+	 * Receives the clocks whose time ran out.
+	 */
+	FlagListener listener;
+	/**
+	 * The service thread.
+	 */
+	Thread thread;
+	/**
+	 * Set to end the service thread.
+	 */
+	volatile boolean closed;
+	/**
+	 * Number of ticks processed.
+	 */
+	volatile long ticks;
+	/**
+	 * Time spent processing ticks in nanoseconds, not counting the time the thread waits for the next tick.
+	 */
+	volatile long tickNanos;
+	/**
+	 * Total time in milliseconds between the deadlines of flagged clocks and their flag being detected.
+	 */
+	volatile long lateness;
+	/**
+	 * Largest time in milliseconds between the deadline of a flagged clock and its flag being detected.
+	 */
+	volatile long maxLateness;
+	/**
+	 * Number of clocks flagged by the service thread.
+	 */
+	volatile long flags;
+
+	/**
+	 * This constructor starts the service thread.
+	 * @param listener	Receives the clocks whose time ran out.
+	 */
+	public ClockService(FlagListener listener) {
+		this.listener = listener;
+		thread = new Thread(this::run, "clock-service");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts a clock, with the given player to move.
+	 * @param clock	The clock.
+	 * @param color	Color of the player to move ('w' or 'b').
+	 */
+	public void start(GameClock clock, char color) {
+		clock.start(this, color);
+	}
+
+	/**
+	 * Returns the current time of the service.
+	 * @return	Milliseconds since the service started.
+	 */
+	public long now() {
+		return (System.nanoTime() - origin) / 1000000;
+	}
+
+	/**
+	 * Queues a clock for its timer to be moved to its new deadline.
+	 * @param clock	The clock.
+	 */
+	void reschedule(GameClock clock) {
+		synchronized(clock) {
+			if(clock.queued) {
+				return;
+			}
+			clock.queued = true;
+		}
+		queue.add(clock);
+	}
+
+	/**
+	 * Reports a clock whose player ran out of time.
+	 * @param clock	The clock.
+	 */
+	void flagged(GameClock clock) {
+		reschedule(clock);
+		listener.flagged(clock);
+	}
+
+	/**
+	 * Called by the timing wheel when the timer of a clock expires. The clock is flagged if it was not moved in the meantime.
+	 * @param clock	The clock.
+	 * @param now	Current time.
+	 */
+	void expired(GameClock clock, long now) {
+		long deadline = clock.deadline();
+		if(clock.flagIfDue(now)) {
+			long late = now() - deadline;
+			lateness += late;
+			maxLateness = Math.max(maxLateness, late);
+			flags++;
+			listener.flagged(clock);
+		}
+		else if(deadline != Long.MAX_VALUE) { // a move came in while the timer expired, so it waits for the new deadline
+			wheel.schedule(clock, deadline);
+		}
+	}
+
+	/**
+	 * The loop of the service thread: once every millisecond, moves the timers of the queued clocks and expires the due ones.
+	 */
+	void run() {
+		long next = System.nanoTime();
+		while(!closed) {
+			long start = System.nanoTime();
+			GameClock clock;
+			while((clock = queue.poll()) != null) {
+				long deadline;
+				synchronized(clock) {
+					clock.queued = false;
+					deadline = clock.deadline();
+				}
+				if(deadline == Long.MAX_VALUE) {
+					wheel.cancel(clock);
+				}
+				else {
+					wheel.schedule(clock, deadline);
+				}
+			}
+			wheel.advance(now());
+			ticks++;
+			tickNanos += System.nanoTime() - start;
+
+			next += 1000000;
+			long wait = next - System.nanoTime();
+			if(wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			else {
+				next = System.nanoTime(); // fell behind, so don't try to catch up with a burst of ticks
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of running clocks the service thread knows of.
+	 * @return	Number of timers in the wheel.
+	 */
+	public int getActiveClocks() {
+		return wheel.size();
+	}
+
+	/**
+	 * Returns the number of ticks processed.
+	 * @return	Number of ticks.
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Returns the time spent processing ticks.
+	 * @return	Time in nanoseconds.
+	 */
+	public long getTickNanos() {
+		return tickNanos;
+	}
+
+	/**
+	 * Returns the number of clocks flagged by the service thread.
+	 * @return	Number of flags.
+	 */
+	public long getFlags() {
+		return flags;
+	}
+
+	/**
+	 * Returns the average time between the deadline of a flagged clock and its flag being detected.
+	 * @return	Time in milliseconds.
+	 */
+	public double getAverageLateness() {
+		return flags == 0 ? 0 : (double) lateness / flags;
+	}
+
+	/**
+	 * Returns the largest time between the deadline of a flagged clock and its flag being detected.
+	 * @return	Time in milliseconds.
+	 */
+	public long getMaxLateness() {
+		return maxLateness;
+	}
+
+	/**
+	 * Stops the service thread. Running clocks are no longer flagged.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			thread.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,250 @@
+package chess;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class counts what the engine and the rules spend their time on, for every Board and Search in the program.
+ * The counters are LongAdders, so that threads counting at the same time do not fight over one memory location.
+ * The Search counts nodes, table lookups and cutoffs in its own fields and adds them here every 1024 nodes,
+ * so only Board.check and Piece.isValid add to a counter on every call.
+ * Counting can be turned off with -Dchess.stats=false, which lets the JIT compiler remove it.
+ * The counters can be read with get() or over JMX once register() was called.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class EngineStats implements EngineStatsMXBean {
+
+	/**
+	 * True if counting is on.
+	 */
+	static final boolean ENABLED = !"false".equals(System.getProperty("chess.stats"));
+	/**
+	 * Name the counters are registered under in JMX.
+	 */
+	public static final String OBJECT_NAME = "chess:type=EngineStats";
+
+	/**
+	 * Positions searched, including quiescence positions.
+	 */
+	static final LongAdder NODES = new LongAdder();
+	/**
+	 * Positions searched by the quiescence search.
+	 */
+	static final LongAdder QUIESCENCE_NODES = new LongAdder();
+	/**
+	 * TranspositionTable lookups.
+	 */
+	static final LongAdder TT_PROBES = new LongAdder();
+	/**
+	 * TranspositionTable lookups that found their position.
+	 */
+	static final LongAdder TT_HITS = new LongAdder();
+	/**
+	 * TranspositionTable lookups that found the slot taken by another position.
+	 */
+	static final LongAdder TT_COLLISIONS = new LongAdder();
+	/**
+	 * Beta cutoffs.
+	 */
+	static final LongAdder BETA_CUTOFFS = new LongAdder();
+	/**
+	 * Beta cutoffs caused by the first move searched.
+	 */
+	static final LongAdder FIRST_MOVE_CUTOFFS = new LongAdder();
+	/**
+	 * Calls to Board.check.
+	 */
+	static final LongAdder CHECK_CALLS = new LongAdder();
+	/**
+	 * Calls to Piece.isValid.
+	 */
+	static final LongAdder VALID_PROBES = new LongAdder();
+	/**
+	 * Moves searched for.
+	 */
+	static final LongAdder SEARCHES = new LongAdder();
+	/**
+	 * Time spent searching for moves in milliseconds.
+	 */
+	static final LongAdder SEARCH_MILLIS = new LongAdder();
+
+	/**
+	 * The only EngineStats object, which reads the static counters.
+	 */
+	static final EngineStats INSTANCE = new EngineStats();
+
+	/**
+	 * Only INSTANCE is ever created.
+	 */
+	private EngineStats() {
+	}
+
+	/**
+	 * Returns the counters.
+	 * @return	The EngineStats object.
+	 */
+	public static EngineStats get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Registers the counters with the platform MBean server, so that they can be read over JMX. Registering twice does nothing.
+	 * @throws JMException	If the counters can't be registered.
+	 */
+	public static synchronized void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if(!server.isRegistered(name)) {
+			server.registerMBean(INSTANCE, name);
+		}
+	}
+
+	/**
+	 * Returns the number of positions searched, including quiescence positions.
+	 * @return	Number of nodes.
+	 */
+	public long getNodes() {
+		return NODES.sum();
+	}
+
+	/**
+	 * Returns the number of positions searched by the quiescence search.
+	 * @return	Number of quiescence nodes.
+	 */
+	public long getQuiescenceNodes() {
+		return QUIESCENCE_NODES.sum();
+	}
+
+	/**
+	 * Returns the number of TranspositionTable lookups.
+	 * @return	Number of probes.
+	 */
+	public long getTtProbes() {
+		return TT_PROBES.sum();
+	}
+
+	/**
+	 * Returns the number of TranspositionTable lookups that found their position.
+	 * @return	Number of hits.
+	 */
+	public long getTtHits() {
+		return TT_HITS.sum();
+	}
+
+	/**
+	 * Returns the number of TranspositionTable lookups that found the slot taken by another position.
+	 * @return	Number of collisions.
+	 */
+	public long getTtCollisions() {
+		return TT_COLLISIONS.sum();
+	}
+
+	/**
+	 * Returns the number of beta cutoffs.
+	 * @return	Number of cutoffs.
+	 */
+	public long getBetaCutoffs() {
+		return BETA_CUTOFFS.sum();
+	}
+
+	/**
+	 * Returns the number of beta cutoffs caused by the first move searched.
+	 * @return	Number of first move cutoffs.
+	 */
+	public long getFirstMoveCutoffs() {
+		return FIRST_MOVE_CUTOFFS.sum();
+	}
+
+	/**
+	 * Returns the share of beta cutoffs caused by the first move searched.
+	 * @return	The share between 0 and 1 (0 if there were no cutoffs).
+	 */
+	public double getFirstMoveCutoffRate() {
+		long cutoffs = BETA_CUTOFFS.sum();
+		return cutoffs == 0 ? 0 : (double) FIRST_MOVE_CUTOFFS.sum() / cutoffs;
+	}
+
+	/**
+	 * Returns the number of calls to Board.check.
+	 * @return	Number of calls.
+	 */
+	public long getCheckCalls() {
+		return CHECK_CALLS.sum();
+	}
+
+	/**
+	 * Returns the number of calls to Piece.isValid.
+	 * @return	Number of calls.
+	 */
+	public long getValidProbes() {
+		return VALID_PROBES.sum();
+	}
+
+	/**
+	 * Returns the number of moves the engine searched for.
+	 * @return	Number of searches.
+	 */
+	public long getSearches() {
+		return SEARCHES.sum();
+	}
+
+	/**
+	 * Returns the total time spent searching for moves.
+	 * @return	Time in milliseconds.
+	 */
+	public long getSearchMillis() {
+		return SEARCH_MILLIS.sum();
+	}
+
+	/**
+	 * Sets every counter back to 0.
+	 */
+	public void reset() {
+		for(LongAdder counter : new LongAdder[] {NODES, QUIESCENCE_NODES, TT_PROBES, TT_HITS, TT_COLLISIONS, BETA_CUTOFFS,
+				FIRST_MOVE_CUTOFFS, CHECK_CALLS, VALID_PROBES, SEARCHES, SEARCH_MILLIS}) {
+			counter.reset();
+		}
+	}
+
+	/**
+	 * Returns every counter by name.
+	 * @return	The counters, in a fixed order.
+	 */
+	public Map<String, Long> snapshot() {
+		Map<String, Long> counters = new LinkedHashMap<>();
+		counters.put("nodes", getNodes());
+		counters.put("quiescenceNodes", getQuiescenceNodes());
+		counters.put("ttProbes", getTtProbes());
+		counters.put("ttHits", getTtHits());
+		counters.put("ttCollisions", getTtCollisions());
+		counters.put("betaCutoffs", getBetaCutoffs());
+		counters.put("firstMoveCutoffs", getFirstMoveCutoffs());
+		counters.put("checkCalls", getCheckCalls());
+		counters.put("validProbes", getValidProbes());
+		counters.put("searches", getSearches());
+		counters.put("searchMillis", getSearchMillis());
+		return counters;
+	}
+
+	/**
+	 * Returns the counters as text.
+	 * @return	Example: "nodes=1000 quiescenceNodes=400 ...".
+	 */
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		for(Map.Entry<String, Long> counter : snapshot().entrySet()) {
+			text.append(text.length() > 0 ? " " : "").append(counter.getKey()).append('=').append(counter.getValue());
+		}
+		return text.toString();
+	}
+
+}
@@ -0,0 +1,90 @@
+package chess;
+
+/**
+ * This interface is the management view of EngineStats, so that the counters can be read and reset over JMX (Example: with jconsole).
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public interface EngineStatsMXBean {
+
+	/**
+	 * Returns the number of positions searched, including quiescence positions.
+	 * @return	Number of nodes.
+	 */
+	long getNodes();
+
+	/**
+	 * Returns the number of positions searched by the quiescence search.
+	 * @return	Number of quiescence nodes.
+	 */
+	long getQuiescenceNodes();
+
+	/**
+	 * Returns the number of TranspositionTable lookups.
+	 * @return	Number of probes.
+	 */
+	long getTtProbes();
+
+	/**
+	 * Returns the number of TranspositionTable lookups that found their position.
+	 * @return	Number of hits.
+	 */
+	long getTtHits();
+
+	/**
+	 * Returns the number of TranspositionTable lookups that found the slot taken by another position.
+	 * @return	Number of collisions.
+	 */
+	long getTtCollisions();
+
+	/**
+	 * Returns the number of beta cutoffs.
+	 * @return	Number of cutoffs.
+	 */
+	long getBetaCutoffs();
+
+	/**
+	 * Returns the number of beta cutoffs caused by the first move searched.
+	 * @return	Number of first move cutoffs.
+	 */
+	long getFirstMoveCutoffs();
+
+	/**
+	 * Returns the share of beta cutoffs caused by the first move searched, a measure of how good the move ordering is.
+	 * @return	The share between 0 and 1.
+	 */
+	double getFirstMoveCutoffRate();
+
+	/**
+	 * Returns the number of calls to Board.check.
+	 * @return	Number of calls.
+	 */
+	long getCheckCalls();
+
+	/**
+	 * Returns the number of calls to Piece.isValid.
+	 * @return	Number of calls.
+	 */
+	long getValidProbes();
+
+	/**
+	 * Returns the number of moves the engine searched for.
+	 * @return	Number of searches.
+	 */
+	long getSearches();
+
+	/**
+	 * Returns the total time spent searching for moves.
+	 * @return	Time in milliseconds.
+	 */
+	long getSearchMillis();
+
+	/**
+	 * Sets every counter back to 0.
+	 */
+	void reset();
+
+}
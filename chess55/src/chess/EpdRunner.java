@@ -0,0 +1,350 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class runs a test suite of EPD positions through the engine and reports how many it solves and how fast.
+ * A position is solved if the engine's move is one of its "bm" (best move) moves and none of its "am" (avoid move) moves.
+ * Positions are spread over a pool of worker threads, and each worker keeps its own Board, TranspositionTable and Search.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class EpdRunner {
+
+	/**
+	 * This class is one position of a suite.
+	 */
+	public static class EpdPosition {
+
+		/**
+		 * Name of the position (the "id" operation, or its line number).
+		 */
+		String id;
+		/**
+		 * FEN of the position (EPD has no move counters, so "0 1" is added).
+		 */
+		String fen;
+		/**
+		 * Best moves in SAN.
+		 */
+		List<String> bestMoves = new ArrayList<>();
+		/**
+		 * Moves to avoid in SAN.
+		 */
+		List<String> avoidMoves = new ArrayList<>();
+
+		/**
+		 * Returns the name of the position.
+		 * @return	The name.
+		 */
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * Returns the FEN of the position.
+		 * @return	The FEN.
+		 */
+		public String getFen() {
+			return fen;
+		}
+
+	}
+
+	/**
+	 * This class is the result of one position.
+	 */
+	public static class EpdResult {
+
+		/**
+		 * The position.
+		 */
+		EpdPosition position;
+		/**
+		 * Move the engine chose, in SAN.
+		 */
+		String move;
+		/**
+		 * True if the move solves the position.
+		 */
+		boolean solved;
+		/**
+		 * Time in milliseconds after which the engine's best move was a solving move and did not change any more (-1 if not solved).
+		 */
+		long solveMillis = -1;
+		/**
+		 * Depth at which the solving move was found (0 if not solved).
+		 */
+		int solveDepth;
+
+		/**
+		 * Returns true if the position was solved.
+		 * @return	True if solved.
+		 */
+		public boolean isSolved() {
+			return solved;
+		}
+
+		/**
+		 * Returns the time it took to find the solving move.
+		 * @return	Time in milliseconds, or -1 if not solved.
+		 */
+		public long getSolveMillis() {
+			return solveMillis;
+		}
+
+	}
+
+	/**
+	 * Time limit for each position in milliseconds (0 for none).
+	 */
+	long millis;
+	/**
+	 * Node limit for each position (0 for none).
+	 */
+	long nodes;
+	/**
+	 * Size of the TranspositionTable of each worker in megabytes.
+	 */
+	int hashMegabytes = 16;
+	/**
+	 * Search of each worker thread, on the worker's own Board and TranspositionTable.
+	 */
+	ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(new Board(), new TranspositionTable(hashMegabytes)));
+
+	/**
+	 * This constructor creates a runner with limits for each position.
+	 * @param millis	Time limit for each position in milliseconds (0 for none).
+	 * @param nodes		Node limit for each position (0 for none).
+	 */
+	public EpdRunner(long millis, long nodes) {
+		if(millis <= 0 && nodes <= 0) {
+			throw new IllegalArgumentException("A time or node limit is needed");
+		}
+		this.millis = millis;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Reads the positions of an EPD file. Lines that are empty or start with '#' are skipped.
+	 * @param lines	Lines of the file.
+	 * @return	The positions.
+	 */
+	public static List<EpdPosition> parse(List<String> lines) {
+		List<EpdPosition> positions = new ArrayList<>();
+		for(int number = 1; number <= lines.size(); number++) {
+			String line = lines.get(number - 1).trim();
+			if(line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split("\\s+", 5);
+			if(fields.length < 4) {
+				throw new IllegalArgumentException("Line " + number + " is not an EPD position: " + line);
+			}
+			EpdPosition position = new EpdPosition();
+			position.id = "line " + number;
+			position.fen = fields[0] + " " + fields[1] + " " + fields[2] + " " + fields[3] + " 0 1";
+			String operations = fields.length > 4 ? fields[4] : "";
+			for(String operation : splitOperations(operations)) {
+				String[] parts = operation.trim().split("\\s+");
+				if(parts[0].equals("bm") || parts[0].equals("am")) {
+					for(int i = 1; i < parts.length; i++) {
+						(parts[0].equals("bm") ? position.bestMoves : position.avoidMoves).add(parts[i]);
+					}
+				}
+				else if(parts[0].equals("id") && parts.length > 1) {
+					String id = operation.trim().substring(2).trim();
+					position.id = id.startsWith("\"") && id.endsWith("\"") && id.length() > 1 ? id.substring(1, id.length() - 1) : id;
+				}
+			}
+			positions.add(position);
+		}
+		return positions;
+	}
+
+	/**
+	 * Splits the operations of an EPD line at the ';' that are not inside quotes.
+	 * @param operations	The operations.
+	 * @return	Each operation.
+	 */
+	static List<String> splitOperations(String operations) {
+		List<String> result = new ArrayList<>();
+		boolean quoted = false;
+		int start = 0;
+		for(int i = 0; i < operations.length(); i++) {
+			char c = operations.charAt(i);
+			if(c == '"') {
+				quoted = !quoted;
+			}
+			else if(c == ';' && !quoted) {
+				result.add(operations.substring(start, i));
+				start = i + 1;
+			}
+		}
+		if(!operations.substring(start).trim().isEmpty()) {
+			result.add(operations.substring(start));
+		}
+		return result;
+	}
+
+	/**
+	 * Solves one position on the calling thread's Search.
+	 * @param position	The position.
+	 * @return	The result.
+	 */
+	public EpdResult solve(EpdPosition position) {
+		Search search = searches.get();
+		Board board = search.board;
+		Fen.load(board, position.fen);
+		char color = Fen.color(position.fen);
+		search.tt.clear();
+
+		// the moves of the position as packed moves
+		int[] scratch = new int[MoveGenerator.MAX_MOVES];
+		List<Integer> best = new ArrayList<>();
+		List<Integer> avoid = new ArrayList<>();
+		for(String san : position.bestMoves) {
+			best.add(parseMove(position, board, color, san, scratch));
+		}
+		for(String san : position.avoidMoves) {
+			avoid.add(parseMove(position, board, color, san, scratch));
+		}
+
+		EpdResult result = new EpdResult();
+		result.position = position;
+		long[] firstSolved = {-1, 0};
+		search.setListener((depth, score, pv, nodeCount, elapsed) -> {
+			if(pv.length == 0) {
+				return;
+			}
+			boolean solving = solves(Move.key(pv[0]), best, avoid);
+			if(solving && firstSolved[0] < 0) {
+				firstSolved[0] = elapsed;
+				firstSolved[1] = depth;
+			}
+			else if(!solving) {
+				firstSolved[0] = -1;
+			}
+		});
+		int move = search.search(color, Search.MAX_PLY, nodes, millis);
+		search.setListener(null);
+
+		// the search can still change its mind during an iteration that was cut short
+		result.move = move == Move.NONE ? "none" : San.toSan(board, color, move);
+		result.solved = move != Move.NONE && solves(Move.key(move), best, avoid);
+		if(result.solved) {
+			result.solveMillis = Math.max(firstSolved[0], 0);
+			result.solveDepth = (int) firstSolved[1];
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the move a SAN operand of a position stands for.
+	 * @param position	The position.
+	 * @param board		The Board of the position.
+	 * @param color		Color of the player who's turn it is.
+	 * @param san		The move in SAN.
+	 * @param scratch	Array of MoveGenerator.MAX_MOVES moves that can be overwritten.
+	 * @return	Key of the move.
+	 */
+	static int parseMove(EpdPosition position, Board board, char color, String san, int[] scratch) {
+		int move = San.parse(board, color, san, scratch);
+		if(move == Move.NONE) {
+			throw new IllegalArgumentException(position.id + ": " + san + " is not a legal move");
+		}
+		return Move.key(move);
+	}
+
+	/**
+	 * Checks if a move solves a position.
+	 * @param move	Key of the move.
+	 * @param best	Keys of the best moves (empty if there are none).
+	 * @param avoid	Keys of the moves to avoid.
+	 * @return	True if the move is a best move (or there are none) and is not a move to avoid.
+	 */
+	static boolean solves(int move, List<Integer> best, List<Integer> avoid) {
+		return (best.isEmpty() || best.contains(move)) && !avoid.contains(move);
+	}
+
+	/**
+	 * Solves all positions of a suite, spread over worker threads.
+	 * @param positions	The positions.
+	 * @param threads	Number of worker threads.
+	 * @return	The results, in the same order as the positions.
+	 * @throws InterruptedException	If the calling thread is interrupted while waiting.
+	 */
+	public List<EpdResult> run(List<EpdPosition> positions, int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<EpdResult>> futures = new ArrayList<>();
+			for(EpdPosition position : positions) {
+				futures.add(pool.submit(() -> solve(position)));
+			}
+			List<EpdResult> results = new ArrayList<>();
+			for(Future<EpdResult> future : futures) {
+				try {
+					results.add(future.get());
+				}
+				catch(ExecutionException e) {
+					throw new IllegalStateException("Position failed: " + e.getCause(), e.getCause());
+				}
+			}
+			return results;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs a suite and prints the result of each position and the solve rate.
+	 * @param args	EPD file, time per position in milliseconds, optional node limit per position (0 for none) and number of threads.
+	 * @throws IOException	If the file can't be read.
+	 * @throws InterruptedException	If the run is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2) {
+			System.out.println("Usage: EpdRunner <suite.epd> <ms per position> [nodes per position] [threads]");
+			return;
+		}
+		List<EpdPosition> positions = parse(Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8));
+		long millis = Long.parseLong(args[1]);
+		long nodes = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+		Bitbases.loadAll();
+		long start = System.currentTimeMillis();
+		List<EpdResult> results = new EpdRunner(millis, nodes).run(positions, threads);
+		int solved = 0;
+		long solveMillis = 0;
+		for(EpdResult result : results) {
+			String expected = (result.position.bestMoves.isEmpty() ? "" : "bm " + String.join(" ", result.position.bestMoves))
+					+ (result.position.avoidMoves.isEmpty() ? "" : " am " + String.join(" ", result.position.avoidMoves));
+			if(result.solved) {
+				solved++;
+				solveMillis += result.solveMillis;
+				System.out.printf("%-20s solved  %-8s %s (depth %d, %d ms)%n", result.position.id, result.move, expected.trim(), result.solveDepth, result.solveMillis);
+			}
+			else {
+				System.out.printf("%-20s failed  %-8s %s%n", result.position.id, result.move, expected.trim());
+			}
+		}
+		System.out.printf("%nsolved %d of %d (%.1f%%), average time to solution %d ms, total %d ms on %d threads%n",
+				solved, results.size(), 100.0 * solved / Math.max(1, results.size()), solved > 0 ? solveMillis / solved : 0,
+				System.currentTimeMillis() - start, threads);
+	}
+
+}
@@ -0,0 +1,155 @@
+package chess;
+
+/**
+ * This class gives a score to a position so that the engine can compare positions it can't search any further.
+ * The score is the material of each player plus a bonus for each Piece depending on the square it stands on.
+ * Scores are in centipawns (100 = one Pawn).
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class Evaluator {
+
+	/**
+	 * Value of each type of Piece, indexed like Zobrist.typeIndex ('p', 'N', 'B', 'R', 'Q', 'K').
+	 */
+	static final int[] VALUES = {100, 320, 330, 500, 900, 0};
+
+	/**
+	 * Bonus of each type of Piece on each square, seen from White's side (index = row * 8 + col, row 0 is the 8th rank).
+	 * Black's bonuses are read from the mirrored row.
+	 */
+	static final int[][] SQUARES = {
+		{ // Pawn
+			 0,  0,  0,  0,  0,  0,  0,  0,
+			50, 50, 50, 50, 50, 50, 50, 50,
+			10, 10, 20, 30, 30, 20, 10, 10,
+			 5,  5, 10, 25, 25, 10,  5,  5,
+			 0,  0,  0, 20, 20,  0,  0,  0,
+			 5, -5,-10,  0,  0,-10, -5,  5,
+			 5, 10, 10,-20,-20, 10, 10,  5,
+			 0,  0,  0,  0,  0,  0,  0,  0
+		},
+		{ // Knight
+			-50,-40,-30,-30,-30,-30,-40,-50,
+			-40,-20,  0,  0,  0,  0,-20,-40,
+			-30,  0, 10, 15, 15, 10,  0,-30,
+			-30,  5, 15, 20, 20, 15,  5,-30,
+			-30,  0, 15, 20, 20, 15,  0,-30,
+			-30,  5, 10, 15, 15, 10,  5,-30,
+			-40,-20,  0,  5,  5,  0,-20,-40,
+			-50,-40,-30,-30,-30,-30,-40,-50
+		},
+		{ // Bishop
+			-20,-10,-10,-10,-10,-10,-10,-20,
+			-10,  0,  0,  0,  0,  0,  0,-10,
+			-10,  0,  5, 10, 10,  5,  0,-10,
+			-10,  5,  5, 10, 10,  5,  5,-10,
+			-10,  0, 10, 10, 10, 10,  0,-10,
+			-10, 10, 10, 10, 10, 10, 10,-10,
+			-10,  5,  0,  0,  0,  0,  5,-10,
+			-20,-10,-10,-10,-10,-10,-10,-20
+		},
+		{ // Rook
+			 0,  0,  0,  0,  0,  0,  0,  0,
+			 5, 10, 10, 10, 10, 10, 10,  5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			-5,  0,  0,  0,  0,  0,  0, -5,
+			 0,  0,  0,  5,  5,  0,  0,  0
+		},
+		{ // Queen
+			-20,-10,-10, -5, -5,-10,-10,-20,
+			-10,  0,  0,  0,  0,  0,  0,-10,
+			-10,  0,  5,  5,  5,  5,  0,-10,
+			 -5,  0,  5,  5,  5,  5,  0, -5,
+			  0,  0,  5,  5,  5,  5,  0, -5,
+			-10,  5,  5,  5,  5,  5,  0,-10,
+			-10,  0,  5,  0,  0,  0,  0,-10,
+			-20,-10,-10, -5, -5,-10,-10,-20
+		},
+		{ // King
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-30,-40,-40,-50,-50,-40,-40,-30,
+			-20,-30,-30,-40,-40,-30,-30,-20,
+			-10,-20,-20,-20,-20,-20,-20,-10,
+			 20, 20,  0,  0,  0,  0, 20, 20,
+			 20, 30, 10,  0,  0, 10, 30, 20
+		}
+	};
+
+	/**
+	 * Evaluator only contains static methods, so no Evaluator object is ever created.
+	 */
+	private Evaluator() {
+	}
+
+	/**
+	 * Returns the value of a type of Piece.
+	 * @param type	Type of the Piece ('p', 'N', 'B', 'R', 'Q', 'K').
+	 * @return	Value in centipawns.
+	 */
+	public static int value(char type) {
+		return VALUES[Zobrist.typeIndex(type)];
+	}
+
+	/**
+	 * Scores the position for the given player.
+	 * If the Board has a neural network (see Board.setNetwork), the network scores it instead.
+	 * @param board	The Board to score.
+	 * @param color	Color of the player the score is for ('w' or 'b').
+	 * @return	Score in centipawns; positive if the position is better for the given player.
+	 */
+	public static int evaluate(Board board, char color) {
+		if(board.accumulator != null) {
+			return board.accumulator.evaluate(color);
+		}
+		Piece[][] gameBoard = board.getBoard();
+		int score = 0;
+		int whiteMaterial = 0;
+		int blackMaterial = 0;
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				Piece piece = gameBoard[i][j];
+				if(piece != null) {
+					int type = Zobrist.typeIndex(piece.getType());
+					if(piece.getColor() == 'w') {
+						score += VALUES[type] + SQUARES[type][i * 8 + j];
+						whiteMaterial += VALUES[type];
+					}
+					else {
+						score -= VALUES[type] + SQUARES[type][(7 - i) * 8 + j];
+						blackMaterial += VALUES[type];
+					}
+				}
+			}
+		}
+		// against a lone King, drive it to the edge so that the search can find the mate
+		if(blackMaterial == 0 && whiteMaterial >= VALUES[3]) {
+			score += mopUp(board.wKing, board.bKing);
+		}
+		else if(whiteMaterial == 0 && blackMaterial >= VALUES[3]) {
+			score -= mopUp(board.bKing, board.wKing);
+		}
+		return color == 'w' ? score : -score;
+	}
+
+	/**
+	 * Scores how close a lone King is to the edge of the Board and to the other King.
+	 * @param winner	Row and column of the King of the player with the material.
+	 * @param loser		Row and column of the lone King.
+	 * @return	Bonus in centipawns for the player with the material.
+	 */
+	static int mopUp(int[] winner, int[] loser) {
+		int edge = Math.max(3 - loser[0], loser[0] - 4) + Math.max(3 - loser[1], loser[1] - 4);
+		int distance = Math.abs(winner[0] - loser[0]) + Math.abs(winner[1] - loser[1]);
+		return 20 * edge - 10 * distance;
+	}
+
+}
@@ -0,0 +1,250 @@
+package chess;
+
+/**
+ * This class reads and writes positions in Forsyth-Edwards Notation (FEN), the standard one line format for a chess position.
+ * The Board class does not keep track of the move counters, so they are ignored when reading and written as "0 1".
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class Fen {
+
+	/**
+	 * FEN of the starting position.
+	 */
+	public static final String START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+	/**
+	 * Fen only contains static methods, so no Fen object is ever created.
+	 */
+	private Fen() {
+	}
+
+	/**
+	 * Creates a new Board with the given position.
+	 * @param fen	Position in FEN.
+	 * @return	The new Board. Its hash is already set for the player who's turn it is.
+	 */
+	public static Board toBoard(String fen) {
+		Board board = new Board();
+		load(board, fen);
+		return board;
+	}
+
+	/**
+	 * Returns the player who's turn it is in a FEN.
+	 * @param fen	Position in FEN.
+	 * @return	'w' or 'b'.
+	 */
+	public static char color(String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		return fields.length > 1 && fields[1].equals("b") ? 'b' : 'w';
+	}
+
+	/**
+	 * Replaces the position on a Board with the given position.
+	 * @param board	The Board to change.
+	 * @param fen	Position in FEN.
+	 * @throws IllegalArgumentException	If the FEN is not a valid position.
+	 */
+	public static void load(Board board, String fen) {
+		String[] fields = fen.trim().split("\\s+");
+		checkFields(fields, fen);
+		String[] rows = fields[0].split("/", -1);
+		if(rows.length != 8) {
+			throw new IllegalArgumentException("FEN needs 8 rows: " + fen);
+		}
+		board.clear();
+		int whiteKings = 0;
+		int blackKings = 0;
+		for(int i = 0; i < 8; i++) {
+			int j = 0;
+			for(char c : rows[i].toCharArray()) {
+				if(c >= '1' && c <= '8') {
+					j += c - '0';
+					continue;
+				}
+				if(j > 7) {
+					throw new IllegalArgumentException("FEN row " + (8 - i) + " is too long: " + fen);
+				}
+				if("PNBRQK".indexOf(Character.toUpperCase(c)) < 0) {
+					throw new IllegalArgumentException("Unknown piece '" + c + "' in FEN: " + fen);
+				}
+				if((c == 'P' || c == 'p') && (i == 0 || i == 7)) {
+					throw new IllegalArgumentException("FEN has a Pawn on row " + (8 - i) + ": " + fen);
+				}
+				Piece piece = place(board, c, i, j);
+				if(piece instanceof King) {
+					if(piece.getColor() == 'w') {
+						whiteKings++;
+					}
+					else {
+						blackKings++;
+					}
+				}
+				j++;
+			}
+			if(j != 8) {
+				throw new IllegalArgumentException("FEN row " + (8 - i) + " needs 8 squares: " + fen);
+			}
+		}
+		if(whiteKings != 1 || blackKings != 1) {
+			throw new IllegalArgumentException("FEN needs one King of each color: " + fen);
+		}
+
+		// castle rights are kept as the first move flags of the Kings and Rooks
+		String castles = fields.length > 2 ? fields[2] : "-";
+		allowCastle(board, castles, 'K', 7, 7);
+		allowCastle(board, castles, 'Q', 7, 0);
+		allowCastle(board, castles, 'k', 0, 7);
+		allowCastle(board, castles, 'q', 0, 0);
+
+		// the FEN names the square behind the Pawn, the Board keeps the Pawn itself
+		char color = color(fen);
+		if(fields.length > 3 && !fields[3].equals("-")) {
+			int col = fields[3].charAt(0) - 'a';
+			int row = 8 - Character.getNumericValue(fields[3].charAt(1));
+			int pawnRow = color == 'w' ? row + 1 : row - 1;
+			Piece pawn = pawnRow >= 0 && pawnRow < 8 && col >= 0 && col < 8 ? board.getPiece(pawnRow, col) : null;
+			if(pawn != null && pawn.getType() == 'p' && pawn.getColor() != color) {
+				board.setEnpassant(pawnRow, col);
+				board.setEnpassantColor(pawn.getColor());
+			}
+		}
+		board.resetKey(color);
+	}
+
+	/**
+	 * Checks the fields after the placement of the Pieces: the player to move, the castle rights, the en passant square and the move counters.
+	 * Only the placement is needed, the other fields can be left out from the end.
+	 * @param fields	Fields of the FEN.
+	 * @param fen		The whole FEN, for the error messages.
+	 * @throws IllegalArgumentException	If a field is not valid.
+	 */
+	static void checkFields(String[] fields, String fen) {
+		if(fields.length > 6) {
+			throw new IllegalArgumentException("FEN has more than 6 fields: " + fen);
+		}
+		if(fields.length > 1 && !fields[1].matches("[wb]")) {
+			throw new IllegalArgumentException("FEN player to move must be 'w' or 'b': " + fen);
+		}
+		if(fields.length > 2 && !fields[2].matches("-|K?Q?k?q?")) {
+			throw new IllegalArgumentException("FEN castle rights must be '-' or some of 'KQkq': " + fen);
+		}
+		if(fields.length > 3 && !fields[3].matches("-|[a-h][36]")) {
+			throw new IllegalArgumentException("FEN en passant must be '-' or a square on row 3 or 6: " + fen);
+		}
+		for(int i = 4; i < fields.length; i++) {
+			if(!fields[i].matches("\\d{1,9}")) {
+				throw new IllegalArgumentException("FEN move counters must be numbers: " + fen);
+			}
+		}
+	}
+
+	/**
+	 * Puts a new Piece on the Board. Pawns on their starting row can still move two squares, and Kings and Rooks count as moved until a castle allows them.
+	 * @param board		The Board.
+	 * @param letter	FEN letter of the Piece (upper case for White).
+	 * @param row		Row index of the square.
+	 * @param col		Column index of the square.
+	 * @return	The new Piece.
+	 */
+	static Piece place(Board board, char letter, int row, int col) {
+		char color = Character.isUpperCase(letter) ? 'w' : 'b';
+		char type = Character.toUpperCase(letter);
+		Piece piece;
+		if(type == 'P') {
+			Pawn pawn = new Pawn(color + "p", color, 'p', col, row, board);
+			pawn.firstMove = row == (color == 'w' ? 6 : 1);
+			piece = pawn;
+		}
+		else if(type == 'K') {
+			King king = new King(color + "K", color, 'K', col, row, board);
+			king.kFirstMove = false;
+			board.setKing(color, row, col);
+			piece = king;
+		}
+		else if(type == 'R') {
+			Rook rook = new Rook(color + "R", color, 'R', col, row, board);
+			rook.rfirstMove = false;
+			piece = rook;
+		}
+		else {
+			piece = board.promotedPiece(type, color, col, row);
+		}
+		board.setPiece(row, col, piece);
+		return piece;
+	}
+
+	/**
+	 * Marks the King and Rook of one castle as not having moved, if the FEN allows that castle.
+	 * @param board		The Board.
+	 * @param castles	Castle field of the FEN.
+	 * @param letter	Letter of the castle in the FEN ('K', 'Q', 'k', 'q').
+	 * @param row		Row index of the King and Rook.
+	 * @param rookCol	Column index of the Rook.
+	 */
+	static void allowCastle(Board board, String castles, char letter, int row, int rookCol) {
+		if(castles.indexOf(letter) < 0) {
+			return;
+		}
+		char color = Character.isUpperCase(letter) ? 'w' : 'b';
+		Piece king = board.getPiece(row, 4);
+		Piece rook = board.getPiece(row, rookCol);
+		if(king instanceof King && king.getColor() == color && rook instanceof Rook && rook.getColor() == color) {
+			((King) king).kFirstMove = true;
+			((Rook) rook).rfirstMove = true;
+		}
+	}
+
+	/**
+	 * Writes the position on a Board in FEN.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	The position in FEN.
+	 */
+	public static String toFen(Board board, char color) {
+		StringBuilder fen = new StringBuilder();
+		for(int i = 0; i < 8; i++) {
+			int empty = 0;
+			for(int j = 0; j < 8; j++) {
+				Piece piece = board.getPiece(i, j);
+				if(piece == null) {
+					empty++;
+					continue;
+				}
+				if(empty > 0) {
+					fen.append(empty);
+					empty = 0;
+				}
+				char letter = piece.getType() == 'p' ? 'p' : Character.toLowerCase(piece.getType());
+				fen.append(piece.getColor() == 'w' ? Character.toUpperCase(letter) : letter);
+			}
+			if(empty > 0) {
+				fen.append(empty);
+			}
+			if(i < 7) {
+				fen.append('/');
+			}
+		}
+		fen.append(' ').append(color).append(' ');
+
+		int rights = board.castleRights();
+		String castles = ((rights & 2) != 0 ? "K" : "") + ((rights & 1) != 0 ? "Q" : "") + ((rights & 8) != 0 ? "k" : "") + ((rights & 4) != 0 ? "q" : "");
+		fen.append(castles.isEmpty() ? "-" : castles).append(' ');
+
+		if(board.getEnpassantColor() != 'n' && board.getEnpassantColor() != color) {
+			int[] enpassant = board.getEnpassant();
+			int row = enpassant[0] + (board.getEnpassantColor() == 'w' ? 1 : -1);
+			fen.append(Move.square(row * 8 + enpassant[1]));
+		}
+		else {
+			fen.append('-');
+		}
+		fen.append(" 0 1");
+		return fen.toString();
+	}
+
+}
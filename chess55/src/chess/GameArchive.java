@@ -0,0 +1,328 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads games from a binary game archive written by GameArchiveWriter.
+ * Each game is a header (result, ratings, number of plies and an optional starting position)
+ * followed by its moves, where each move is stored as its index in the list of legal moves from MoveGenerator.generateLegal,
+ * using just enough bits for the number of legal moves (0 bits when there is only one).
+ * A separate index file holds the offset of each game (8 bytes each), so any game can be found right away.
+ * Both files are memory mapped, so reading a game never copies the archive onto the heap.
+ * A single mapping can't be larger than 2 GB, so the files are mapped in chunks of 1 GB and offsets are longs.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class GameArchive implements AutoCloseable {
+
+	/**
+	 * Size of a game header in bytes: flags (1), White's rating (2), Black's rating (2) and number of plies (2).
+	 */
+	static final int HEADER = 7;
+	/**
+	 * Flag set when the game does not start from the normal starting position. The FEN follows the header (2 byte length, then ASCII).
+	 */
+	static final int CUSTOM_START = 0x80;
+	/**
+	 * Results by the number stored in the low 2 bits of the flags.
+	 */
+	static final char[] RESULTS = {'n', 'w', 'b', 'd'};
+	/**
+	 * Log2 of the size of a mapped chunk of a file (1 GB). A multiple of 8, so no offset in the index is split between two chunks.
+	 */
+	static final int CHUNK_BITS = 30;
+
+	/**
+	 * The open data file.
+	 */
+	FileChannel dataChannel;
+	/**
+	 * The open index file.
+	 */
+	FileChannel indexChannel;
+	/**
+	 * The data file mapped into memory, chunk by chunk.
+	 */
+	MappedByteBuffer[] data;
+	/**
+	 * The index file mapped into memory, chunk by chunk.
+	 */
+	MappedByteBuffer[] index;
+	/**
+	 * Number of games in the archive.
+	 */
+	int count;
+	/**
+	 * Array of legal moves for each thread, so that reading a game creates no objects.
+	 */
+	ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+	/**
+	 * This constructor opens and maps an archive. Games appended after this are not seen.
+	 * @param path	Path of the data file (the index file is the same path ending in ".idx").
+	 * @throws IOException	If the files can't be read or the archive has more than Integer.MAX_VALUE games.
+	 */
+	public GameArchive(Path path) throws IOException {
+		this.dataChannel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			this.indexChannel = FileChannel.open(indexPath(path), StandardOpenOption.READ);
+		}
+		catch(IOException e) {
+			dataChannel.close();
+			throw e;
+		}
+		try {
+			if(indexChannel.size() / 8 > Integer.MAX_VALUE) {
+				throw new IOException("Archive has too many games: " + path);
+			}
+			this.count = (int) (indexChannel.size() / 8);
+			this.index = map(indexChannel, count * 8L);
+			this.data = map(dataChannel, dataChannel.size());
+		}
+		catch(IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps the start of a file into memory in chunks of 1 &lt;&lt; CHUNK_BITS bytes (the last one may be shorter).
+	 * @param channel	The open file.
+	 * @param size		Number of bytes to map.
+	 * @return	The chunks.
+	 * @throws IOException	If the file can't be mapped.
+	 */
+	static MappedByteBuffer[] map(FileChannel channel, long size) throws IOException {
+		MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((size + (1L << CHUNK_BITS) - 1) >>> CHUNK_BITS)];
+		for(int i = 0; i < chunks.length; i++) {
+			long start = (long) i << CHUNK_BITS;
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << CHUNK_BITS, size - start));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Reads a byte of the data file.
+	 * @param offset	Offset of the byte.
+	 * @return	The byte.
+	 */
+	byte get(long offset) {
+		return data[(int) (offset >>> CHUNK_BITS)].get((int) (offset & ((1 << CHUNK_BITS) - 1)));
+	}
+
+	/**
+	 * Reads an unsigned short of the data file. The two bytes may be in different chunks.
+	 * @param offset	Offset of the first byte.
+	 * @return	The short (0 to 65535).
+	 */
+	int getUnsignedShort(long offset) {
+		return (get(offset) & 0xFF) << 8 | (get(offset + 1) & 0xFF);
+	}
+
+	/**
+	 * Returns the path of the index file of an archive.
+	 * @param path	Path of the data file.
+	 * @return	Path of the index file.
+	 */
+	static Path indexPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".idx");
+	}
+
+	/**
+	 * Returns the number of bits used for a move when there are the given number of legal moves.
+	 * @param legalMoves	Number of legal moves.
+	 * @return	Number of bits.
+	 */
+	static int bitsFor(int legalMoves) {
+		return legalMoves <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(legalMoves - 1);
+	}
+
+	/**
+	 * Returns the number of games in the archive.
+	 * @return	Number of games.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the offset of a game in the data file.
+	 * @param game	Id of the game (0 to size() - 1).
+	 * @return	The offset.
+	 */
+	long offset(int game) {
+		if(game < 0 || game >= count) {
+			throw new IndexOutOfBoundsException("No game " + game + " in an archive of " + count);
+		}
+		long position = game * 8L;
+		return index[(int) (position >>> CHUNK_BITS)].getLong((int) (position & ((1 << CHUNK_BITS) - 1)));
+	}
+
+	/**
+	 * Returns the result of a game.
+	 * @param game	Id of the game.
+	 * @return	'w' if White won, 'b' if Black won, 'd' for a draw, or 'n' if the game has no result.
+	 */
+	public char getResult(int game) {
+		return RESULTS[get(offset(game)) & 3];
+	}
+
+	/**
+	 * Returns White's rating in a game.
+	 * @param game	Id of the game.
+	 * @return	The rating, or 0 if the game has none.
+	 */
+	public int getWhiteElo(int game) {
+		return getUnsignedShort(offset(game) + 1);
+	}
+
+	/**
+	 * Returns Black's rating in a game.
+	 * @param game	Id of the game.
+	 * @return	The rating, or 0 if the game has none.
+	 */
+	public int getBlackElo(int game) {
+		return getUnsignedShort(offset(game) + 3);
+	}
+
+	/**
+	 * Returns the number of plies in a game.
+	 * @param game	Id of the game.
+	 * @return	Number of plies.
+	 */
+	public int getPlies(int game) {
+		return getUnsignedShort(offset(game) + 5);
+	}
+
+	/**
+	 * Returns the starting position of a game.
+	 * @param game	Id of the game.
+	 * @return	FEN of the starting position.
+	 */
+	public String getStartFen(int game) {
+		long start = offset(game);
+		if((get(start) & CUSTOM_START) == 0) {
+			return Fen.START;
+		}
+		int length = getUnsignedShort(start + HEADER);
+		byte[] fen = new byte[length];
+		for(int i = 0; i < length; i++) {
+			fen[i] = get(start + HEADER + 2 + i);
+		}
+		return new String(fen, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Reads the moves of a game by replaying it on a Board.
+	 * The Board is left at the end of the game, so the positions of the game can be visited by taking the moves back with undoMove.
+	 * @param game	Id of the game.
+	 * @param board	Board to replay the game on.
+	 * @param moves	Array the packed moves are written into (at least getPlies(game) long).
+	 * @return	Number of moves.
+	 */
+	public int readMoves(int game, Board board, int[] moves) {
+		int plies = getPlies(game);
+		char color = start(game, board);
+		int[] legal = scratch.get();
+		long bit = movesOffset(game) * 8;
+		for(int ply = 0; ply < plies; ply++) {
+			int legalMoves = MoveGenerator.generateLegal(board, color, legal);
+			int bits = bitsFor(legalMoves);
+			int choice = readBits(bit, bits);
+			bit += bits;
+			if(choice >= legalMoves) {
+				throw new IllegalStateException("Game " + game + " is corrupt at ply " + ply);
+			}
+			moves[ply] = legal[choice];
+			board.doMove(legal[choice]);
+			color = color == 'w' ? 'b' : 'w';
+		}
+		return plies;
+	}
+
+	/**
+	 * Finds the move a game played the first time it reached a position. The game is only replayed up to that move.
+	 * @param game	Id of the game.
+	 * @param board	Board to replay the game on.
+	 * @param key	Zobrist key of the position.
+	 * @return	The packed move, or Move.NONE if the game never played a move from the position.
+	 */
+	public int nextMove(int game, Board board, long key) {
+		int plies = getPlies(game);
+		char color = start(game, board);
+		int[] legal = scratch.get();
+		long bit = movesOffset(game) * 8;
+		for(int ply = 0; ply < plies; ply++) {
+			int legalMoves = MoveGenerator.generateLegal(board, color, legal);
+			int bits = bitsFor(legalMoves);
+			int choice = readBits(bit, bits);
+			bit += bits;
+			if(choice >= legalMoves) {
+				throw new IllegalStateException("Game " + game + " is corrupt at ply " + ply);
+			}
+			if(board.getKey() == key) {
+				return legal[choice];
+			}
+			board.doMove(legal[choice]);
+			color = color == 'w' ? 'b' : 'w';
+		}
+		return Move.NONE;
+	}
+
+	/**
+	 * Sets up the starting position of a game.
+	 * @param game	Id of the game.
+	 * @param board	Board to set up.
+	 * @return	Color of the player who moves first.
+	 */
+	char start(int game, Board board) {
+		String fen = getStartFen(game);
+		Fen.load(board, fen);
+		return Fen.color(fen);
+	}
+
+	/**
+	 * Returns the offset of the first byte of a game's moves.
+	 * @param game	Id of the game.
+	 * @return	The offset.
+	 */
+	long movesOffset(int game) {
+		long start = offset(game);
+		if((get(start) & CUSTOM_START) == 0) {
+			return start + HEADER;
+		}
+		return start + HEADER + 2 + getUnsignedShort(start + HEADER);
+	}
+
+	/**
+	 * Reads bits of the packed moves, highest bit first.
+	 * @param bit	Offset of the first bit, in bits.
+	 * @param bits	Number of bits.
+	 * @return	The bits.
+	 */
+	int readBits(long bit, int bits) {
+		int value = 0;
+		for(int i = 0; i < bits; i++, bit++) {
+			value = (value << 1) | ((get(bit >>> 3) >>> (7 - (int) (bit & 7))) & 1);
+		}
+		return value;
+	}
+
+	/**
+	 * Closes the archive files.
+	 * @throws IOException	If the files can't be closed.
+	 */
+	public void close() throws IOException {
+		dataChannel.close();
+		indexChannel.close();
+	}
+
+}
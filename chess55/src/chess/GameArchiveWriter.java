@@ -0,0 +1,218 @@
+package chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class appends games to a binary game archive that can be read with GameArchive.
+ * If the archive already exists, new games are added after the games already in it.
+ * Games can't be read back until the writer is closed (or flushed) and the archive is opened again.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class GameArchiveWriter implements AutoCloseable {
+
+	/**
+	 * Stream of the data file.
+	 */
+	DataOutputStream data;
+	/**
+	 * Stream of the index file.
+	 */
+	DataOutputStream index;
+	/**
+	 * Offset at which the next game is written.
+	 */
+	long offset;
+	/**
+	 * Number of games in the archive.
+	 */
+	int count;
+	/**
+	 * Board the games are replayed on to find the legal moves.
+	 */
+	Board board = new Board();
+	/**
+	 * Array of legal moves.
+	 */
+	int[] legal = new int[MoveGenerator.MAX_MOVES];
+	/**
+	 * Moves of a PGN game, as packed moves.
+	 */
+	int[] pgnMoves = new int[1024];
+	/**
+	 * Packed move bits of the game being written.
+	 */
+	byte[] bytes = new byte[256];
+	/**
+	 * Number of bytes in bytes that are finished.
+	 */
+	int length;
+	/**
+	 * Bits that don't fill a byte yet.
+	 */
+	int pending;
+	/**
+	 * Number of bits in pending.
+	 */
+	int pendingBits;
+
+	/**
+	 * This constructor opens an archive for appending, creating it if needed.
+	 * @param path	Path of the data file (the index file is the same path ending in ".idx").
+	 * @throws IOException	If the files can't be opened.
+	 */
+	public GameArchiveWriter(Path path) throws IOException {
+		Path indexPath = GameArchive.indexPath(path);
+		this.offset = Files.exists(path) ? Files.size(path) : 0;
+		this.count = Files.exists(indexPath) ? (int) (Files.size(indexPath) / 8) : 0;
+		this.data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16));
+		this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath, StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16));
+	}
+
+	/**
+	 * Returns the number of games in the archive.
+	 * @return	Number of games.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the size of the data file, including games that are not flushed yet.
+	 * @return	Size in bytes.
+	 */
+	public long getBytes() {
+		return offset;
+	}
+
+	/**
+	 * Appends a game.
+	 * @param startFen	FEN of the starting position.
+	 * @param moves		Packed moves of the game.
+	 * @param plies		Number of moves.
+	 * @param result	'w' if White won, 'b' if Black won, 'd' for a draw, or 'n' if the game has no result.
+	 * @param whiteElo	White's rating (0 if unknown).
+	 * @param blackElo	Black's rating (0 if unknown).
+	 * @return	Id of the game.
+	 * @throws IOException	If the game can't be written.
+	 */
+	public int append(String startFen, int[] moves, int plies, char result, int whiteElo, int blackElo) throws IOException {
+		if(plies > 0xFFFF) {
+			throw new IllegalArgumentException("Game is too long: " + plies + " plies");
+		}
+		Fen.load(board, startFen);
+		char color = Fen.color(startFen);
+		length = 0;
+		pending = 0;
+		pendingBits = 0;
+		for(int ply = 0; ply < plies; ply++) {
+			int legalMoves = MoveGenerator.generateLegal(board, color, legal);
+			int choice = 0;
+			while(choice < legalMoves && Move.key(legal[choice]) != Move.key(moves[ply])) {
+				choice++;
+			}
+			if(choice == legalMoves) {
+				throw new IllegalArgumentException("Illegal move at ply " + ply + ": " + Move.toString(moves[ply]));
+			}
+			writeBits(choice, GameArchive.bitsFor(legalMoves));
+			board.doMove(legal[choice]);
+			color = color == 'w' ? 'b' : 'w';
+		}
+		if(pendingBits > 0) {
+			writeBits(0, 8 - pendingBits);
+		}
+
+		boolean custom = !startFen.equals(Fen.START);
+		int resultIndex = new String(GameArchive.RESULTS).indexOf(result);
+		data.writeByte(Math.max(resultIndex, 0) | (custom ? GameArchive.CUSTOM_START : 0));
+		data.writeShort(Math.min(Math.max(whiteElo, 0), 0xFFFF));
+		data.writeShort(Math.min(Math.max(blackElo, 0), 0xFFFF));
+		data.writeShort(plies);
+		int size = GameArchive.HEADER + length;
+		if(custom) {
+			byte[] fen = startFen.getBytes(StandardCharsets.US_ASCII);
+			data.writeShort(fen.length);
+			data.write(fen);
+			size += 2 + fen.length;
+		}
+		data.write(bytes, 0, length);
+		index.writeLong(offset);
+		offset += size;
+		return count++;
+	}
+
+	/**
+	 * Appends a game read from a PGN file. The moves are only kept up to the first move that can't be read.
+	 * @param game	The game.
+	 * @return	Id of the game.
+	 * @throws IOException	If the game can't be written.
+	 */
+	public int append(PgnGame game) throws IOException {
+		String fen = game.getStartFen();
+		Fen.load(board, fen);
+		char color = Fen.color(fen);
+		List<String> sans = game.getMoves();
+		int plies = 0;
+		while(plies < sans.size() && plies < 0xFFFF) {
+			int move = San.parse(board, color, sans.get(plies), legal);
+			if(move == Move.NONE) {
+				break;
+			}
+			if(plies == pgnMoves.length) {
+				pgnMoves = Arrays.copyOf(pgnMoves, plies * 2);
+			}
+			pgnMoves[plies++] = move;
+			board.doMove(move);
+			color = color == 'w' ? 'b' : 'w';
+		}
+		return append(fen, pgnMoves, plies, game.getResult(), game.getRating("WhiteElo"), game.getRating("BlackElo"));
+	}
+
+	/**
+	 * Adds bits to the packed moves, highest bit first.
+	 * @param value	The bits.
+	 * @param bits	Number of bits.
+	 */
+	private void writeBits(int value, int bits) {
+		pending = (pending << bits) | value;
+		pendingBits += bits;
+		while(pendingBits >= 8) {
+			if(length == bytes.length) {
+				bytes = Arrays.copyOf(bytes, length * 2);
+			}
+			pendingBits -= 8;
+			bytes[length++] = (byte) (pending >>> pendingBits);
+		}
+		pending &= (1 << pendingBits) - 1;
+	}
+
+	/**
+	 * Writes the games that are still buffered to the files.
+	 * @throws IOException	If the files can't be written.
+	 */
+	public void flush() throws IOException {
+		data.flush();
+		index.flush();
+	}
+
+	/**
+	 * Writes the games that are still buffered and closes the files.
+	 * @throws IOException	If the files can't be written.
+	 */
+	public void close() throws IOException {
+		data.close();
+		index.close();
+	}
+
+}
@@ -0,0 +1,213 @@
+package chess;
+
+/**
+ * This class is the chess clock of one game played on a Board, with a Fischer increment and a delay.
+ * The clock of the player to move only starts running once the delay is over, and the increment is added after each move.
+ * The clock is kept by a ClockService, which calls its FlagListener as soon as the time of the player to move runs out.
+ * All times are in milliseconds of the ClockService. A GameClock can be used by any thread.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class GameClock extends TimingWheel.Timer {
+
+	/**
+	 * The Board of the game.
+	 */
+	Board board;
+	/**
+	 * Time left for White and Black at the start of the current move.
+	 */
+	long[] remaining = new long[2];
+	/**
+	 * Time added after each move.
+	 */
+	long increment;
+	/**
+	 * Time at the start of each move before the clock starts running.
+	 */
+	long delay;
+	/**
+	 * Service that keeps the clock, or null before it was started.
+	 */
+	ClockService service;
+	/**
+	 * Index of the player to move (0 for White, 1 for Black).
+	 */
+	int side;
+	/**
+	 * Time the current move started.
+	 */
+	long turnStart;
+	/**
+	 * True while the clock of the player to move is running.
+	 */
+	boolean running;
+	/**
+	 * True once the player to move ran out of time.
+	 */
+	boolean flagged;
+	/**
+	 * True while the clock waits in the queue of its ClockService to have its timer moved.
+	 */
+	boolean queued;
+
+	/**
+	 * This constructor creates a stopped clock.
+	 * @param board				The Board of the game.
+	 * @param baseMillis		Time for each player at the start.
+	 * @param incrementMillis	Time added after each move (Fischer increment).
+	 * @param delayMillis		Time at the start of each move before the clock starts running.
+	 */
+	public GameClock(Board board, long baseMillis, long incrementMillis, long delayMillis) {
+		this.board = board;
+		remaining[0] = baseMillis;
+		remaining[1] = baseMillis;
+		increment = incrementMillis;
+		delay = delayMillis;
+	}
+
+	/**
+	 * Starts the clock of a player.
+	 * @param service	Service that keeps the clock.
+	 * @param color		Color of the player to move ('w' or 'b').
+	 */
+	void start(ClockService service, char color) {
+		synchronized(this) {
+			this.service = service;
+			side = color == 'w' ? 0 : 1;
+			turnStart = service.now();
+			running = true;
+			flagged = false;
+		}
+		service.reschedule(this);
+	}
+
+	/**
+	 * Ends the move of the player to move: charges the time used, adds the increment and starts the opponent's clock.
+	 * If the player ran out of time before pressing, the clock is flagged instead.
+	 * @return	True if the move was in time, false if the player ran out of time or the clock is not running.
+	 */
+	public boolean press() {
+		boolean lost;
+		synchronized(this) {
+			if(!running) {
+				return false;
+			}
+			long now = service.now();
+			remaining[side] -= Math.max(0, now - turnStart - delay);
+			lost = remaining[side] < 0;
+			if(lost) {
+				remaining[side] = 0;
+				running = false;
+				flagged = true;
+			}
+			else {
+				remaining[side] += increment;
+				side ^= 1;
+				turnStart = now;
+			}
+		}
+		if(lost) {
+			service.flagged(this);
+		}
+		else {
+			service.reschedule(this);
+		}
+		return !lost;
+	}
+
+	/**
+	 * Stops the clock, for example because the game ended on the Board.
+	 */
+	public void stop() {
+		synchronized(this) {
+			if(!running) {
+				return;
+			}
+			long now = service.now();
+			remaining[side] -= Math.max(0, now - turnStart - delay);
+			running = false;
+		}
+		service.reschedule(this);
+	}
+
+	/**
+	 * Flags the clock if the time of the player to move ran out. Called by the ClockService when the timer of the clock expires.
+	 * @param now	Current time.
+	 * @return	True if the clock was flagged now.
+	 */
+	synchronized boolean flagIfDue(long now) {
+		if(!running || now < deadline()) {
+			return false;
+		}
+		remaining[side] = 0;
+		running = false;
+		flagged = true;
+		return true;
+	}
+
+	/**
+	 * Returns the time at which the player to move runs out of time.
+	 * @return	The time, or Long.MAX_VALUE if the clock is not running.
+	 */
+	synchronized long deadline() {
+		return running ? turnStart + delay + remaining[side] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Returns the time a player has left, counting the current move if it is that player's turn.
+	 * @param color	Color of the player ('w' or 'b').
+	 * @return	Time in milliseconds.
+	 */
+	public synchronized long getRemaining(char color) {
+		int index = color == 'w' ? 0 : 1;
+		if(!running || index != side) {
+			return remaining[index];
+		}
+		return Math.max(0, remaining[index] - Math.max(0, service.now() - turnStart - delay));
+	}
+
+	/**
+	 * Returns the color of the player whose clock is running, or who ran out of time.
+	 * @return	'w' or 'b'.
+	 */
+	public synchronized char getColorToMove() {
+		return side == 0 ? 'w' : 'b';
+	}
+
+	/**
+	 * Returns true if the player to move ran out of time.
+	 * @return	True if flagged.
+	 */
+	public synchronized boolean isFlagged() {
+		return flagged;
+	}
+
+	/**
+	 * Returns true while the clock of the player to move is running.
+	 * @return	True if running.
+	 */
+	public synchronized boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Returns the Board of the game.
+	 * @return	The Board.
+	 */
+	public Board getBoard() {
+		return board;
+	}
+
+	/**
+	 * Called by the timing wheel of the ClockService when the deadline of the clock is reached.
+	 * @param now	Current time.
+	 */
+	protected void expired(long now) {
+		service.expired(this, now);
+	}
+
+}
@@ -0,0 +1,547 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class writes an append-only journal of the games being played, so that they can be recovered after a crash.
+ * Each record (a game starting, a move, or a game ending) is a length, a CRC32 and the record itself,
+ * so that a record that was only half written when the program stopped is found and dropped.
+ * Records are collected in memory and written by a background thread, which writes everything collected so far
+ * with one write and one force, so many moves of many games share the cost of one fsync (group commit).
+ * When the file grows past a size, the writer thread replaces it with a snapshot of each game that has not ended (its position and
+ * number of moves), so the file only holds the games being played instead of every move ever made. The new file is written next to
+ * the journal and renamed over it, so a crash leaves either the old or the new file. A snapshot keeps no earlier positions of its game.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class GameJournal implements AutoCloseable {
+
+	/**
+	 * Record of a game starting: game id, then the FEN (2 byte length, then ASCII).
+	 */
+	static final byte START = 1;
+	/**
+	 * Record of a move: game id, then the packed move.
+	 */
+	static final byte MOVE = 2;
+	/**
+	 * Record of a game ending: game id, then the result.
+	 */
+	static final byte END = 3;
+	/**
+	 * Record of a game in progress written when the journal is compacted: game id, number of moves made, then the FEN of
+	 * the current position (2 byte length, then ASCII). It stands for the game's START and MOVE records before it.
+	 */
+	static final byte SNAPSHOT = 4;
+	/**
+	 * Size of the length and CRC32 in front of each record.
+	 */
+	static final int RECORD_HEADER = 8;
+	/**
+	 * Number of collected bytes after which the writer thread writes without waiting the rest of commitMillis.
+	 */
+	static final int BATCH_BYTES = 1 << 16;
+	/**
+	 * Size the file is compacted at by the constructor without a compaction size, in bytes.
+	 */
+	static final long COMPACT_BYTES = 64L << 20;
+
+	/**
+	 * Path of the journal.
+	 */
+	Path path;
+	/**
+	 * The open journal file.
+	 */
+	FileChannel channel;
+	/**
+	 * How long the writer thread waits for more records before writing, in milliseconds.
+	 */
+	long commitMillis;
+	/**
+	 * Size of the file at which it is compacted, in bytes (0 to never compact).
+	 */
+	long compactBytes;
+	/**
+	 * Records collected since the last write.
+	 */
+	ByteBuffer pending = ByteBuffer.allocate(BATCH_BYTES);
+	/**
+	 * Buffer that is being written, swapped with pending.
+	 */
+	ByteBuffer writing = ByteBuffer.allocate(BATCH_BYTES);
+	/**
+	 * Offset of the end of the last collected record, counting every byte ever journaled (it keeps growing when the file is compacted).
+	 */
+	long written;
+	/**
+	 * Offset up to which everything is forced to disk, counted like written.
+	 */
+	long durable;
+	/**
+	 * Size of the file, only used by the writer thread.
+	 */
+	long fileSize;
+	/**
+	 * Number of forces done.
+	 */
+	long commits;
+	/**
+	 * Number of times the file was compacted.
+	 */
+	long compactions;
+	/**
+	 * Error of the writer thread, which is thrown to everyone waiting on it.
+	 */
+	IOException failure;
+	/**
+	 * True once close was called.
+	 */
+	boolean closed;
+	/**
+	 * Used to compute the CRC32 of records.
+	 */
+	CRC32 crc = new CRC32();
+	/**
+	 * Thread that writes and forces the records.
+	 */
+	Thread writer;
+
+	/**
+	 * This class is a game found in the journal that had not ended.
+	 */
+	public static class RecoveredGame {
+
+		/**
+		 * Id of the game.
+		 */
+		int game;
+		/**
+		 * The Board with every journaled move made.
+		 */
+		Board board;
+		/**
+		 * Color of the player who's turn it is.
+		 */
+		char color;
+		/**
+		 * Number of moves made.
+		 */
+		int plies;
+
+		/**
+		 * Returns the id of the game.
+		 * @return	The id.
+		 */
+		public int getGame() {
+			return game;
+		}
+
+		/**
+		 * Returns the Board of the game.
+		 * @return	The Board.
+		 */
+		public Board getBoard() {
+			return board;
+		}
+
+		/**
+		 * Returns the color of the player who's turn it is.
+		 * @return	'w' or 'b'.
+		 */
+		public char getColor() {
+			return color;
+		}
+
+		/**
+		 * Returns the number of moves made.
+		 * @return	Number of moves.
+		 */
+		public int getPlies() {
+			return plies;
+		}
+
+	}
+
+	/**
+	 * This constructor opens a journal for appending, creating it if needed, which is compacted when it reaches COMPACT_BYTES.
+	 * A half written record at the end of the file is cut off.
+	 * @param path			Path of the journal.
+	 * @param commitMillis	How long the writer thread waits for more records before writing (0 to write as soon as there are any).
+	 * @throws IOException	If the journal can't be opened.
+	 */
+	public GameJournal(Path path, long commitMillis) throws IOException {
+		this(path, commitMillis, COMPACT_BYTES);
+	}
+
+	/**
+	 * This constructor opens a journal for appending, creating it if needed.
+	 * A half written record at the end of the file is cut off, and a compacted file left by a crash is deleted.
+	 * @param path			Path of the journal.
+	 * @param commitMillis	How long the writer thread waits for more records before writing (0 to write as soon as there are any).
+	 * @param compactBytes	Size of the file at which it is compacted, in bytes (0 to never compact).
+	 * @throws IOException	If the journal can't be opened.
+	 */
+	public GameJournal(Path path, long commitMillis, long compactBytes) throws IOException {
+		this.path = path;
+		this.commitMillis = commitMillis;
+		this.compactBytes = compactBytes;
+		Files.deleteIfExists(temporaryPath(path));
+		long valid = Files.exists(path) ? scan(path, null) : 0;
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.truncate(valid);
+		channel.position(valid);
+		this.written = valid;
+		this.durable = valid;
+		this.fileSize = valid;
+		this.writer = new Thread(this::writeLoop, "game-journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Journals the start of a game.
+	 * @param game	Id of the game.
+	 * @param fen	FEN of the starting position.
+	 * @return	Offset to pass to sync to wait until the record is on disk.
+	 * @throws IOException	If the journal already failed to write, so the record would never reach the disk.
+	 */
+	public long startGame(int game, String fen) throws IOException {
+		byte[] text = fen.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer record = ByteBuffer.allocate(7 + text.length);
+		record.put(START).putInt(game).putShort((short) text.length).put(text);
+		return append(record.array());
+	}
+
+	/**
+	 * Journals a move.
+	 * @param game	Id of the game.
+	 * @param move	The packed move.
+	 * @return	Offset to pass to sync to wait until the record is on disk.
+	 * @throws IOException	If the journal already failed to write, so the record would never reach the disk.
+	 */
+	public long logMove(int game, int move) throws IOException {
+		byte[] record = new byte[9];
+		ByteBuffer.wrap(record).put(MOVE).putInt(game).putInt(move);
+		return append(record);
+	}
+
+	/**
+	 * Journals the end of a game, after which it is no longer recovered.
+	 * @param game		Id of the game.
+	 * @param result	'w' if White won, 'b' if Black won, 'd' for a draw.
+	 * @return	Offset to pass to sync to wait until the record is on disk.
+	 * @throws IOException	If the journal already failed to write, so the record would never reach the disk.
+	 */
+	public long endGame(int game, char result) throws IOException {
+		byte[] record = new byte[6];
+		ByteBuffer.wrap(record).put(END).putInt(game).put((byte) result);
+		return append(record);
+	}
+
+	/**
+	 * Adds a record to the records waiting to be written.
+	 * @param record	The record.
+	 * @return	Offset in the file of the end of the record.
+	 * @throws IOException	If the writer thread already failed, wrapping its error so that the caller's stack trace is kept.
+	 */
+	private synchronized long append(byte[] record) throws IOException {
+		if(failure != null) {
+			throw new IOException("Journal writer failed, so the record can't be written", failure);
+		}
+		if(closed) {
+			throw new IllegalStateException("Journal is closed");
+		}
+		pending = frame(pending, record, crc);
+		written += RECORD_HEADER + record.length;
+		notifyAll();
+		return written;
+	}
+
+	/**
+	 * Puts a record with its length and CRC32 in front into a buffer, growing the buffer if it is full.
+	 * @param buffer	The buffer.
+	 * @param record	The record.
+	 * @param crc		Used to compute the CRC32.
+	 * @return	The buffer, or a larger copy of it.
+	 */
+	static ByteBuffer frame(ByteBuffer buffer, byte[] record, CRC32 crc) {
+		if(buffer.remaining() < RECORD_HEADER + record.length) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + RECORD_HEADER + record.length));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+		crc.reset();
+		crc.update(record);
+		buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+		return buffer;
+	}
+
+	/**
+	 * Waits until everything up to an offset is forced to disk.
+	 * @param offset	Offset returned by startGame, logMove or endGame.
+	 * @throws IOException	If the journal could not be written, or the wait was interrupted.
+	 */
+	public synchronized void sync(long offset) throws IOException {
+		while(durable < offset && failure == null) {
+			try {
+				wait();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the journal");
+			}
+		}
+		if(failure != null && durable < offset) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Returns the number of forces done, which is much smaller than the number of records when many games are journaled at once.
+	 * @return	Number of forces.
+	 */
+	public synchronized long getCommits() {
+		return commits;
+	}
+
+	/**
+	 * Returns the number of times the file was compacted.
+	 * @return	Number of compactions.
+	 */
+	public synchronized long getCompactions() {
+		return compactions;
+	}
+
+	/**
+	 * Work of the writer thread: swaps the buffers, writes and forces, until the journal is closed and everything is written.
+	 */
+	private void writeLoop() {
+		try {
+			while(true) {
+				long end;
+				synchronized(this) {
+					while(pending.position() == 0 && !closed) {
+						wait();
+					}
+					if(pending.position() == 0) {
+						return;
+					}
+					// let more records arrive, until the time is up or the batch is full; every append wakes this thread, so wait again
+					long deadline = System.nanoTime() + commitMillis * 1000000;
+					long left;
+					while(commitMillis > 0 && !closed && pending.position() < BATCH_BYTES && (left = deadline - System.nanoTime()) > 0) {
+						wait(Math.max(1, left / 1000000));
+					}
+					ByteBuffer full = pending;
+					pending = writing;
+					writing = full;
+					end = written;
+				}
+				writing.flip();
+				fileSize += writing.remaining();
+				while(writing.hasRemaining()) {
+					channel.write(writing);
+				}
+				writing.clear();
+				channel.force(false);
+				synchronized(this) {
+					durable = end;
+					commits++;
+					notifyAll();
+				}
+				if(compactBytes > 0 && fileSize >= compactBytes) {
+					compact();
+				}
+			}
+		}
+		catch(IOException e) {
+			synchronized(this) {
+				failure = e;
+				notifyAll();
+			}
+		}
+		catch(InterruptedException e) {
+			synchronized(this) {
+				failure = new InterruptedIOException("Journal writer was interrupted");
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Replaces the file with a SNAPSHOT record of each game that has not ended. Runs on the writer thread between two writes,
+	 * so the file has every record written so far, and the records collected in the meantime go to the new file.
+	 * @throws IOException	If the journal can't be read or the new file can't be written.
+	 */
+	private void compact() throws IOException {
+		Map<Integer, RecoveredGame> games = new HashMap<>();
+		scan(path, games);
+		ByteBuffer buffer = ByteBuffer.allocate(BATCH_BYTES);
+		CRC32 checksum = new CRC32();
+		for(RecoveredGame game : games.values()) {
+			byte[] text = Fen.toFen(game.board, game.color).getBytes(StandardCharsets.US_ASCII);
+			ByteBuffer record = ByteBuffer.allocate(11 + text.length);
+			record.put(SNAPSHOT).putInt(game.game).putInt(game.plies).putShort((short) text.length).put(text);
+			buffer = frame(buffer, record.array(), checksum);
+		}
+		buffer.flip();
+		long size = buffer.remaining();
+		Path temporary = temporaryPath(path);
+		try(FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(false);
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel.close();
+		channel = FileChannel.open(path, StandardOpenOption.WRITE);
+		channel.position(size);
+		fileSize = size;
+		synchronized(this) {
+			compactions++;
+		}
+	}
+
+	/**
+	 * Returns the path a compacted journal is written to before it replaces the journal.
+	 * @param path	Path of the journal.
+	 * @return	Path of the compacted file.
+	 */
+	static Path temporaryPath(Path path) {
+		return Paths.get(path + ".tmp");
+	}
+
+	/**
+	 * Writes and forces everything that was journaled, then closes the journal.
+	 * @throws IOException	If the journal could not be written.
+	 */
+	public void close() throws IOException {
+		synchronized(this) {
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writer.join();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		channel.close();
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Reads a journal and replays every game that had not ended onto a new Board.
+	 * Reading stops at the first record that is cut off or fails its CRC32, since nothing after it was ever forced to disk.
+	 * @param path	Path of the journal.
+	 * @return	Games that had not ended, by id.
+	 * @throws IOException	If the journal can't be read or a move in it is not legal.
+	 */
+	public static Map<Integer, RecoveredGame> recover(Path path) throws IOException {
+		Map<Integer, RecoveredGame> games = new HashMap<>();
+		if(Files.exists(path)) {
+			scan(path, games);
+		}
+		return games;
+	}
+
+	/**
+	 * Reads the valid records of a journal.
+	 * @param path	Path of the journal.
+	 * @param games	Map the games that had not ended are replayed into, or null to only check the records.
+	 * @return	Offset of the end of the last valid record.
+	 * @throws IOException	If the journal can't be read or a move in it is not legal.
+	 */
+	static long scan(Path path, Map<Integer, RecoveredGame> games) throws IOException {
+		long valid = 0;
+		CRC32 crc = new CRC32();
+		int[] scratch = new int[MoveGenerator.MAX_PIECE_MOVES];
+		byte[] record = new byte[256];
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			while(true) {
+				int length;
+				int checksum;
+				try {
+					length = in.readInt();
+					checksum = in.readInt();
+					if(length < 5 || length > 0xFFFF) {
+						break;
+					}
+					if(length > record.length) {
+						record = new byte[length];
+					}
+					in.readFully(record, 0, length);
+				}
+				catch(EOFException e) {
+					break;
+				}
+				crc.reset();
+				crc.update(record, 0, length);
+				if((int) crc.getValue() != checksum) {
+					break;
+				}
+				valid += RECORD_HEADER + length;
+				if(games == null) {
+					continue;
+				}
+
+				ByteBuffer buffer = ByteBuffer.wrap(record, 0, length);
+				byte type = buffer.get();
+				int game = buffer.getInt();
+				if(type == START || type == SNAPSHOT) {
+					int plies = type == SNAPSHOT ? buffer.getInt() : 0;
+					byte[] text = new byte[buffer.getShort() & 0xFFFF];
+					buffer.get(text);
+					String fen = new String(text, StandardCharsets.US_ASCII);
+					RecoveredGame recovered = new RecoveredGame();
+					recovered.game = game;
+					recovered.board = Fen.toBoard(fen);
+					recovered.color = Fen.color(fen);
+					recovered.plies = plies;
+					games.put(game, recovered);
+				}
+				else if(type == MOVE) {
+					RecoveredGame recovered = games.get(game);
+					if(recovered == null) {
+						continue;
+					}
+					int move = MoveGenerator.findMove(recovered.board, recovered.color, buffer.getInt(), scratch);
+					if(move == Move.NONE || !MoveGenerator.isLegal(recovered.board, recovered.color, move)) {
+						throw new IOException("Journal has an illegal move for game " + game + " at ply " + recovered.plies);
+					}
+					recovered.board.doMove(move);
+					recovered.color = recovered.color == 'w' ? 'b' : 'w';
+					recovered.plies++;
+				}
+				else if(type == END) {
+					games.remove(game);
+				}
+			}
+		}
+		return valid;
+	}
+
+}
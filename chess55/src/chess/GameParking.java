@@ -0,0 +1,402 @@
+package chess;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class parks idle games outside the Java heap, so that a game nobody is moving in costs a few dozen bytes instead of a whole Board.
+ * A parked game is a record in a slab of direct memory: a small header, the packed starting position (only if it is not the normal one),
+ * the packed position after the last capture or Pawn move (the anchor), and the moves of the game stored much like GameArchive stores them,
+ * with just enough bits for their index in the list of moves. The list is the pseudo-legal one of MoveGenerator.generateAll rather than the legal one,
+ * which costs a bit now and then but saves checking every move of every position when a game is parked or brought back.
+ * A game is brought back by loading the anchor and replaying only the moves after it, so the Board can still find repetitions.
+ * Records are kept in slots of fixed size classes (16 byte steps up to 1 KB, then powers of 2), in chunks of direct memory that are never given back,
+ * and freed slots are reused by the next record of their class.
+ *
+ * Record layout: number of plies (2 bytes), ply of the anchor (2), bit of the anchor's move in the moves (4), flags (1),
+ * then the packed starting position if the CUSTOM_START flag is set, the packed anchor and the move bits.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class GameParking {
+
+	/**
+	 * Size of a record header in bytes.
+	 */
+	static final int HEADER = 9;
+	/**
+	 * Flag set when the game does not start from the normal starting position.
+	 */
+	static final int CUSTOM_START = 1;
+	/**
+	 * Size of each chunk of direct memory in bytes.
+	 */
+	static final int CHUNK_BYTES = 1 << 20;
+	/**
+	 * Step between the small size classes in bytes.
+	 */
+	static final int GRAIN = 16;
+	/**
+	 * Number of size classes in GRAIN steps, up to 1 KB.
+	 */
+	static final int SMALL_CLASSES = 64;
+	/**
+	 * Largest record: a header, two packed positions and 0xFFFF moves of at most 8 bits.
+	 */
+	static final int MAX_RECORD = HEADER + 2 * PackedPosition.MAX_BYTES + 0xFFFF;
+
+	/**
+	 * This class is the slots of one record size.
+	 */
+	static class SizeClass {
+
+		/**
+		 * Size of each slot in bytes.
+		 */
+		int slotBytes;
+		/**
+		 * Number of slots in each chunk.
+		 */
+		int slotsPerChunk;
+		/**
+		 * Chunks of direct memory.
+		 */
+		List<ByteBuffer> chunks = new ArrayList<>();
+		/**
+		 * Number of slots that were ever used.
+		 */
+		int used;
+		/**
+		 * Freed slots, used again first.
+		 */
+		int[] free = new int[16];
+		/**
+		 * Number of slots in free.
+		 */
+		int freeCount;
+
+		/**
+		 * This constructor creates an empty size class.
+		 * @param slotBytes	Size of each slot in bytes.
+		 */
+		SizeClass(int slotBytes) {
+			this.slotBytes = slotBytes;
+			this.slotsPerChunk = CHUNK_BYTES / slotBytes;
+		}
+
+	}
+
+	/**
+	 * Size classes, smallest first.
+	 */
+	SizeClass[] classes;
+	/**
+	 * Number of games parked.
+	 */
+	int parked;
+	/**
+	 * Size of the slots of the parked games in bytes.
+	 */
+	long slotBytes;
+	/**
+	 * Array of pseudo-legal moves for each thread.
+	 */
+	ThreadLocal<int[]> generated = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+	/**
+	 * Buffer each thread builds a record in, or copies a record to before reading it.
+	 */
+	ThreadLocal<ByteBuffer> scratch = ThreadLocal.withInitial(() -> ByteBuffer.allocate(MAX_RECORD));
+	/**
+	 * Board each thread replays the games it parks on.
+	 */
+	ThreadLocal<Board> replay = ThreadLocal.withInitial(Board::new);
+
+	/**
+	 * This constructor creates an empty parking.
+	 */
+	public GameParking() {
+		List<SizeClass> list = new ArrayList<>();
+		for(int i = 1; i <= SMALL_CLASSES; i++) {
+			list.add(new SizeClass(i * GRAIN));
+		}
+		for(int size = SMALL_CLASSES * GRAIN * 2; size / 2 < MAX_RECORD; size *= 2) {
+			list.add(new SizeClass(size));
+		}
+		classes = list.toArray(new SizeClass[0]);
+	}
+
+	/**
+	 * Parks a game.
+	 * @param startFen	FEN of the starting position.
+	 * @param moves		Packed moves of the game.
+	 * @param plies		Number of moves.
+	 * @return	Handle of the parked game.
+	 * @throws IllegalArgumentException	If a move is illegal or the game is longer than 0xFFFF plies.
+	 */
+	public long park(String startFen, int[] moves, int plies) {
+		if(plies > 0xFFFF) {
+			throw new IllegalArgumentException("Game is too long: " + plies + " plies");
+		}
+		Board board = replay.get();
+		int[] list = generated.get();
+		ByteBuffer record = scratch.get();
+		Fen.load(board, startFen);
+		char color = Fen.color(startFen);
+		boolean custom = !startFen.equals(Fen.START);
+		int position = HEADER;
+		if(custom) {
+			position += PackedPosition.write(board, color, record, position);
+		}
+		// the moves are written after the largest anchor, and moved up once the real anchor is known
+		int anchorOffset = position;
+		int movesOffset = anchorOffset + PackedPosition.MAX_BYTES;
+		PackedPosition.write(board, color, record, anchorOffset);
+		int anchorPly = 0;
+		long anchorBit = 0;
+		long bit = 0;
+		for(int ply = 0; ply < plies; ply++) {
+			int count = MoveGenerator.generateAll(board, color, list, 0);
+			int choice = 0;
+			while(choice < count && Move.key(list[choice]) != Move.key(moves[ply])) {
+				choice++;
+			}
+			if(choice == count || !MoveGenerator.isLegal(board, color, list[choice])) {
+				throw new IllegalArgumentException("Illegal move at ply " + ply + ": " + Move.toString(moves[ply]));
+			}
+			int move = list[choice];
+			int bits = GameArchive.bitsFor(count);
+			writeBits(record, movesOffset, bit, choice, bits);
+			bit += bits;
+			int from = Move.from(move);
+			boolean irreversible = Move.isCapture(move) || board.getPiece(from >> 3, from & 7) instanceof Pawn;
+			board.doMove(move);
+			color = color == 'w' ? 'b' : 'w';
+			if(irreversible) {
+				PackedPosition.write(board, color, record, anchorOffset);
+				anchorPly = ply + 1;
+				anchorBit = bit;
+			}
+		}
+		int anchorBytes = PackedPosition.length(record, anchorOffset);
+		int moveBytes = (int) ((bit + 7) / 8);
+		byte[] array = record.array();
+		System.arraycopy(array, movesOffset, array, anchorOffset + anchorBytes, moveBytes);
+		int size = anchorOffset + anchorBytes + moveBytes;
+		record.putShort(0, (short) plies);
+		record.putShort(2, (short) anchorPly);
+		record.putInt(4, (int) anchorBit);
+		record.put(8, (byte) (custom ? CUSTOM_START : 0));
+		return store(array, size);
+	}
+
+	/**
+	 * Sets bits in a record that was cleared to 0 beyond the bits already written.
+	 * @param record	The record.
+	 * @param offset	Index of the first byte of the moves.
+	 * @param bit		Index of the first bit to write.
+	 * @param value		Value to write.
+	 * @param bits		Number of bits of the value, highest first.
+	 */
+	static void writeBits(ByteBuffer record, int offset, long bit, int value, int bits) {
+		for(int i = bits - 1; i >= 0; i--, bit++) {
+			int index = offset + (int) (bit >>> 3);
+			int shift = 7 - (int) (bit & 7);
+			int current = shift == 7 ? 0 : record.get(index);
+			record.put(index, (byte) (current | ((value >>> i) & 1) << shift));
+		}
+	}
+
+	/**
+	 * Reads bits from a record.
+	 * @param record	The record.
+	 * @param offset	Index of the first byte of the moves.
+	 * @param bit		Index of the first bit to read.
+	 * @param bits		Number of bits, highest first.
+	 * @return	The value.
+	 */
+	static int readBits(ByteBuffer record, int offset, long bit, int bits) {
+		int value = 0;
+		for(int i = 0; i < bits; i++, bit++) {
+			value = (value << 1) | ((record.get(offset + (int) (bit >>> 3)) >>> (7 - (int) (bit & 7))) & 1);
+		}
+		return value;
+	}
+
+	/**
+	 * Copies a record into a free slot of the smallest size class it fits in.
+	 * @param record	The record.
+	 * @param size		Size of the record in bytes.
+	 * @return	Handle of the slot: the index of the size class in the high 32 bits and the slot in the low 32 bits.
+	 */
+	synchronized long store(byte[] record, int size) {
+		int index = size <= SMALL_CLASSES * GRAIN ? (size - 1) / GRAIN : SMALL_CLASSES;
+		while(classes[index].slotBytes < size) {
+			index++;
+		}
+		SizeClass sizeClass = classes[index];
+		int slot;
+		if(sizeClass.freeCount > 0) {
+			slot = sizeClass.free[--sizeClass.freeCount];
+		}
+		else {
+			slot = sizeClass.used++;
+			if(slot / sizeClass.slotsPerChunk == sizeClass.chunks.size()) {
+				sizeClass.chunks.add(ByteBuffer.allocateDirect(sizeClass.slotsPerChunk * sizeClass.slotBytes));
+			}
+		}
+		ByteBuffer chunk = sizeClass.chunks.get(slot / sizeClass.slotsPerChunk);
+		chunk.put((slot % sizeClass.slotsPerChunk) * sizeClass.slotBytes, record, 0, size);
+		parked++;
+		slotBytes += sizeClass.slotBytes;
+		return (long) index << 32 | slot;
+	}
+
+	/**
+	 * Copies the record of a parked game into the scratch buffer of this thread.
+	 * @param handle	Handle of the game.
+	 * @param release	True to free the slot as well.
+	 * @return	The scratch buffer, with the record at index 0.
+	 */
+	synchronized ByteBuffer load(long handle, boolean release) {
+		SizeClass sizeClass = classes[(int) (handle >>> 32)];
+		int slot = (int) handle;
+		if(slot >= sizeClass.used) {
+			throw new IllegalArgumentException("Not a parked game: " + handle);
+		}
+		ByteBuffer chunk = sizeClass.chunks.get(slot / sizeClass.slotsPerChunk);
+		ByteBuffer record = scratch.get();
+		chunk.get((slot % sizeClass.slotsPerChunk) * sizeClass.slotBytes, record.array(), 0, sizeClass.slotBytes);
+		if(release) {
+			if(sizeClass.freeCount == sizeClass.free.length) {
+				sizeClass.free = Arrays.copyOf(sizeClass.free, sizeClass.free.length * 2);
+			}
+			sizeClass.free[sizeClass.freeCount++] = slot;
+			parked--;
+			slotBytes -= sizeClass.slotBytes;
+		}
+		return record;
+	}
+
+	/**
+	 * Brings a parked game back onto a Board and frees its slot. The Board is at the last position of the game,
+	 * with the moves since the last capture or Pawn move made on it, so that repetitions are found as before.
+	 * @param handle	Handle of the game.
+	 * @param board		The Board to load the game onto.
+	 * @return	Color of the player to move.
+	 */
+	public char unpark(long handle, Board board) {
+		return rehydrate(load(handle, true), board);
+	}
+
+	/**
+	 * Loads a parked game onto a Board like unpark, but leaves it parked.
+	 * @param handle	Handle of the game.
+	 * @param board		The Board to load the game onto.
+	 * @return	Color of the player to move.
+	 */
+	public char read(long handle, Board board) {
+		return rehydrate(load(handle, false), board);
+	}
+
+	/**
+	 * Loads the anchor of a record and replays the moves after it.
+	 * @param record	The record.
+	 * @param board		The Board to load the game onto.
+	 * @return	Color of the player to move.
+	 */
+	char rehydrate(ByteBuffer record, Board board) {
+		int anchorOffset = anchorOffset(record);
+		char color = PackedPosition.read(record, anchorOffset, board);
+		int movesOffset = anchorOffset + PackedPosition.length(record, anchorOffset);
+		int[] list = generated.get();
+		long bit = record.getInt(4) & 0xFFFFFFFFL;
+		int plies = record.getShort(0) & 0xFFFF;
+		for(int ply = record.getShort(2) & 0xFFFF; ply < plies; ply++) {
+			int count = MoveGenerator.generateAll(board, color, list, 0);
+			int bits = GameArchive.bitsFor(count);
+			board.doMove(list[readBits(record, movesOffset, bit, bits)]);
+			bit += bits;
+			color = color == 'w' ? 'b' : 'w';
+		}
+		return color;
+	}
+
+	/**
+	 * Reads all the moves of a parked game by replaying it from the starting position. The game stays parked.
+	 * @param handle	Handle of the game.
+	 * @param moves		Array the packed moves are written into (at least as long as the game).
+	 * @return	Number of moves.
+	 */
+	public int readMoves(long handle, int[] moves) {
+		ByteBuffer record = load(handle, false);
+		Board board = replay.get();
+		char color = (record.get(8) & CUSTOM_START) != 0 ? PackedPosition.read(record, HEADER, board) : start(board);
+		int anchorOffset = anchorOffset(record);
+		int movesOffset = anchorOffset + PackedPosition.length(record, anchorOffset);
+		int[] list = generated.get();
+		int plies = record.getShort(0) & 0xFFFF;
+		long bit = 0;
+		for(int ply = 0; ply < plies; ply++) {
+			int count = MoveGenerator.generateAll(board, color, list, 0);
+			int bits = GameArchive.bitsFor(count);
+			moves[ply] = list[readBits(record, movesOffset, bit, bits)];
+			board.doMove(moves[ply]);
+			bit += bits;
+			color = color == 'w' ? 'b' : 'w';
+		}
+		return plies;
+	}
+
+	/**
+	 * Sets up the normal starting position.
+	 * @param board	The Board.
+	 * @return	Color of the player who moves first.
+	 */
+	static char start(Board board) {
+		Fen.load(board, Fen.START);
+		return 'w';
+	}
+
+	/**
+	 * Returns the index of the packed anchor in a record.
+	 * @param record	The record.
+	 * @return	Index of the first byte.
+	 */
+	static int anchorOffset(ByteBuffer record) {
+		return (record.get(8) & CUSTOM_START) != 0 ? HEADER + PackedPosition.length(record, HEADER) : HEADER;
+	}
+
+	/**
+	 * Returns the number of parked games.
+	 * @return	Number of games.
+	 */
+	public synchronized int size() {
+		return parked;
+	}
+
+	/**
+	 * Returns the direct memory taken by the slabs, including free slots.
+	 * @return	Size in bytes.
+	 */
+	public synchronized long getNativeBytes() {
+		long bytes = 0;
+		for(SizeClass sizeClass : classes) {
+			bytes += (long) sizeClass.chunks.size() * sizeClass.slotsPerChunk * sizeClass.slotBytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Returns the size of the slots of the parked games.
+	 * @return	Size in bytes.
+	 */
+	public synchronized long getSlotBytes() {
+		return slotBytes;
+	}
+
+}
@@ -0,0 +1,478 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class reviews finished games for fair-play screening: every ply is searched with a fixed number of positions,
+ * and each move gets its centipawn loss (how much worse it is than the engine's move), a tag if the loss is large,
+ * and whether it is the engine's move. Per player this adds up to the average centipawn loss, the number of inaccuracies,
+ * mistakes and blunders, and the engine match rate.
+ *
+ * Each ply is searched once: the score of the move that was played is the score of the next ply's search, seen from the other side,
+ * so only the position after the last move needs an extra search, and the plies of the opening are not searched at all.
+ * The plies of a game are searched one after the other with the same TranspositionTable, which is only cleared between games,
+ * so each search starts with most of the previous one's work and gets deeper with the same number of positions.
+ * Games are spread over worker threads that each keep their own Board, TranspositionTable and Search.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class GameReviewer {
+
+	/**
+	 * Tag of a move without a large loss.
+	 */
+	public static final int GOOD = 0;
+	/**
+	 * Tag of a move that loses at least INACCURACY_LOSS centipawns.
+	 */
+	public static final int INACCURACY = 1;
+	/**
+	 * Tag of a move that loses at least MISTAKE_LOSS centipawns.
+	 */
+	public static final int MISTAKE = 2;
+	/**
+	 * Tag of a move that loses at least BLUNDER_LOSS centipawns.
+	 */
+	public static final int BLUNDER = 3;
+	/**
+	 * Centipawn loss of an inaccuracy.
+	 */
+	static final int INACCURACY_LOSS = 50;
+	/**
+	 * Centipawn loss of a mistake.
+	 */
+	static final int MISTAKE_LOSS = 100;
+	/**
+	 * Centipawn loss of a blunder.
+	 */
+	static final int BLUNDER_LOSS = 300;
+	/**
+	 * Scores are capped at this many centipawns before losses are taken, so that choosing a slower mate, or winning
+	 * a won position a little less, is not counted as a blunder.
+	 */
+	static final int MAX_SCORE = 1000;
+	/**
+	 * Number of plies at the start of each game that are not counted, since they are usually played from memory.
+	 */
+	static final int OPENING_PLIES = 10;
+	/**
+	 * Number of games between progress reports.
+	 */
+	static final int REPORT_EVERY = 100;
+
+	/**
+	 * This class is the review of one game.
+	 */
+	public static class GameReview {
+
+		/**
+		 * Id of the game.
+		 */
+		int game;
+		/**
+		 * Color of the player who made the first move.
+		 */
+		char firstColor;
+		/**
+		 * Number of plies.
+		 */
+		int plies;
+		/**
+		 * Move played at each ply.
+		 */
+		int[] moves;
+		/**
+		 * Engine's move at each ply, Move.NONE in the opening, which is not searched.
+		 */
+		int[] bestMoves;
+		/**
+		 * Engine's score at each ply for the player to move, capped at MAX_SCORE.
+		 */
+		int[] scores;
+		/**
+		 * Centipawn loss of the move played at each ply.
+		 */
+		int[] losses;
+		/**
+		 * Tag of the move played at each ply.
+		 */
+		byte[] tags;
+		/**
+		 * True for the plies that count towards the totals: past the opening, and with more than one legal move.
+		 */
+		boolean[] counted;
+
+		/**
+		 * This constructor creates an empty review.
+		 * @param game			Id of the game.
+		 * @param firstColor	Color of the player who made the first move.
+		 * @param plies			Number of plies.
+		 */
+		GameReview(int game, char firstColor, int plies) {
+			this.game = game;
+			this.firstColor = firstColor;
+			this.plies = plies;
+			this.moves = new int[plies];
+			this.bestMoves = new int[plies];
+			this.scores = new int[plies];
+			this.losses = new int[plies];
+			this.tags = new byte[plies];
+			this.counted = new boolean[plies];
+		}
+
+		/**
+		 * Returns the color of the player who made the move of a ply.
+		 * @param ply	The ply.
+		 * @return	'w' or 'b'.
+		 */
+		public char getColor(int ply) {
+			return (ply % 2 == 0) == (firstColor == 'w') ? 'w' : 'b';
+		}
+
+		/**
+		 * Returns the id of the game.
+		 * @return	Id of the game.
+		 */
+		public int getGame() {
+			return game;
+		}
+
+		/**
+		 * Returns the number of plies.
+		 * @return	Number of plies.
+		 */
+		public int getPlies() {
+			return plies;
+		}
+
+		/**
+		 * Returns the engine's move at a ply.
+		 * @param ply	The ply.
+		 * @return	Packed move, or Move.NONE for a ply of the opening.
+		 */
+		public int getBestMove(int ply) {
+			return bestMoves[ply];
+		}
+
+		/**
+		 * Returns the centipawn loss of the move played at a ply.
+		 * @param ply	The ply.
+		 * @return	The loss, 0 if the engine's move was played.
+		 */
+		public int getLoss(int ply) {
+			return losses[ply];
+		}
+
+		/**
+		 * Returns the tag of the move played at a ply.
+		 * @param ply	The ply.
+		 * @return	GOOD, INACCURACY, MISTAKE or BLUNDER.
+		 */
+		public int getTag(int ply) {
+			return tags[ply];
+		}
+
+		/**
+		 * Returns the number of counted moves of a player.
+		 * @param color	'w' or 'b'.
+		 * @return	Number of moves.
+		 */
+		public int getCounted(char color) {
+			int count = 0;
+			for(int ply = 0; ply < plies; ply++) {
+				if(counted[ply] && getColor(ply) == color) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Returns the average centipawn loss of the counted moves of a player.
+		 * @param color	'w' or 'b'.
+		 * @return	The average loss, 0 if no moves are counted.
+		 */
+		public double getAverageLoss(char color) {
+			long total = 0;
+			for(int ply = 0; ply < plies; ply++) {
+				if(counted[ply] && getColor(ply) == color) {
+					total += losses[ply];
+				}
+			}
+			return (double) total / Math.max(1, getCounted(color));
+		}
+
+		/**
+		 * Returns the number of counted moves of a player with a tag.
+		 * @param color	'w' or 'b'.
+		 * @param tag	INACCURACY, MISTAKE or BLUNDER.
+		 * @return	Number of moves.
+		 */
+		public int getTagged(char color, int tag) {
+			int count = 0;
+			for(int ply = 0; ply < plies; ply++) {
+				if(counted[ply] && getColor(ply) == color && tags[ply] == tag) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Returns the number of counted moves of a player that were the engine's move.
+		 * @param color	'w' or 'b'.
+		 * @return	Number of moves.
+		 */
+		public int getMatches(char color) {
+			int count = 0;
+			for(int ply = 0; ply < plies; ply++) {
+				if(counted[ply] && getColor(ply) == color && Move.key(moves[ply]) == Move.key(bestMoves[ply])) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Returns the share of the counted moves of a player that were the engine's move.
+		 * @param color	'w' or 'b'.
+		 * @return	The share between 0 and 1, 0 if no moves are counted.
+		 */
+		public double getMatchRate(char color) {
+			return (double) getMatches(color) / Math.max(1, getCounted(color));
+		}
+
+		/**
+		 * Returns a line with the totals of both players.
+		 * @return	The totals.
+		 */
+		public String toString() {
+			StringBuilder text = new StringBuilder("game " + game);
+			for(char color : new char[] {'w', 'b'}) {
+				text.append(String.format(" | %s: acpl %.1f, %d blunders, %d mistakes, %d inaccuracies, match %d/%d (%.0f%%)",
+						color == 'w' ? "White" : "Black", getAverageLoss(color), getTagged(color, BLUNDER), getTagged(color, MISTAKE),
+						getTagged(color, INACCURACY), getMatches(color), getCounted(color), 100 * getMatchRate(color)));
+			}
+			return text.toString();
+		}
+
+	}
+
+	/**
+	 * This interface receives each review as soon as its game is done.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on a worker thread when a game was reviewed.
+		 * @param review	The review.
+		 */
+		void reviewed(GameReview review);
+
+	}
+
+	/**
+	 * Number of positions searched at each ply.
+	 */
+	long nodes;
+	/**
+	 * Size of the TranspositionTable of each worker in megabytes.
+	 */
+	int hashMegabytes = 16;
+	/**
+	 * Search of each worker thread, on the worker's own Board and TranspositionTable.
+	 */
+	ThreadLocal<Search> searches = ThreadLocal.withInitial(() -> new Search(new Board(), new TranspositionTable(hashMegabytes)));
+	/**
+	 * Moves of the game being reviewed by each worker thread.
+	 */
+	ThreadLocal<int[]> gameMoves = ThreadLocal.withInitial(() -> new int[1 << 16]);
+	/**
+	 * Number of games reviewed.
+	 */
+	LongAdder games = new LongAdder();
+	/**
+	 * Number of positions searched, over all plies.
+	 */
+	LongAdder positions = new LongAdder();
+
+	/**
+	 * This constructor creates a reviewer.
+	 * @param nodes	Number of positions searched at each ply.
+	 */
+	public GameReviewer(long nodes) {
+		if(nodes <= 0) {
+			throw new IllegalArgumentException("Node budget must be positive: " + nodes);
+		}
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Reviews a game on the calling thread's Search.
+	 * @param game	Id of the game, for the review.
+	 * @param fen	Starting position of the game.
+	 * @param moves	Packed moves of the game.
+	 * @param plies	Number of moves.
+	 * @return	The review.
+	 */
+	public GameReview review(int game, String fen, int[] moves, int plies) {
+		Search search = searches.get();
+		Board board = search.board;
+		Fen.load(board, fen);
+		char color = Fen.color(fen);
+		// a game's review must not depend on which games its worker reviewed before
+		search.tt.clear();
+		search.clearHistory();
+		GameReview review = new GameReview(game, color, plies);
+		int[] legal = new int[MoveGenerator.MAX_MOVES];
+		for(int ply = 0; ply < plies; ply++) {
+			review.moves[ply] = moves[ply];
+			if(ply < OPENING_PLIES) {
+				// not counted, and no counted ply needs its score
+				review.bestMoves[ply] = Move.NONE;
+				board.doMove(moves[ply]);
+				color = color == 'w' ? 'b' : 'w';
+				continue;
+			}
+			review.bestMoves[ply] = search.search(color, Search.MAX_PLY, nodes, 0);
+			review.scores[ply] = cap(search.getBestScore());
+			review.counted[ply] = MoveGenerator.generateLegal(board, color, legal) > 1;
+			positions.add(search.getNodes());
+			board.doMove(moves[ply]);
+			color = color == 'w' ? 'b' : 'w';
+		}
+		// the score after the last move, which no ply's search gives
+		int last = 0;
+		if(plies > OPENING_PLIES) {
+			if(MoveGenerator.generateLegal(board, color, legal) == 0) {
+				last = board.check(color) ? 0 : -MAX_SCORE;
+			}
+			else {
+				search.search(color, Search.MAX_PLY, nodes, 0);
+				last = cap(search.getBestScore());
+				positions.add(search.getNodes());
+			}
+		}
+		for(int ply = OPENING_PLIES; ply < plies; ply++) {
+			if(Move.key(moves[ply]) == Move.key(review.bestMoves[ply])) {
+				continue; // the engine's own move loses nothing, however the next search happens to score it
+			}
+			int after = -(ply + 1 < plies ? review.scores[ply + 1] : last);
+			int loss = Math.max(0, review.scores[ply] - after);
+			review.losses[ply] = loss;
+			review.tags[ply] = (byte) (loss >= BLUNDER_LOSS ? BLUNDER : loss >= MISTAKE_LOSS ? MISTAKE : loss >= INACCURACY_LOSS ? INACCURACY : GOOD);
+		}
+		games.increment();
+		return review;
+	}
+
+	/**
+	 * Caps a score at MAX_SCORE either way, which is also what a mate scores.
+	 * @param score	Score in centipawns.
+	 * @return	The capped score.
+	 */
+	static int cap(int score) {
+		return Math.max(-MAX_SCORE, Math.min(MAX_SCORE, score));
+	}
+
+	/**
+	 * Reviews a range of games of an archive, spread over worker threads. Each worker takes the next game that nobody took yet.
+	 * @param archive	The archive.
+	 * @param first		Id of the first game.
+	 * @param end		Id after the last game.
+	 * @param threads	Number of worker threads.
+	 * @param listener	Receives each review, on the worker thread that made it.
+	 * @throws InterruptedException	If the calling thread is interrupted while waiting.
+	 */
+	public void run(GameArchive archive, int first, int end, int threads, Listener listener) throws InterruptedException {
+		AtomicInteger nextGame = new AtomicInteger(first);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> workers = new ArrayList<>();
+			for(int i = 0; i < threads; i++) {
+				workers.add(pool.submit(() -> {
+					Board board = new Board();
+					int[] moves = gameMoves.get();
+					int game;
+					while((game = nextGame.getAndIncrement()) < end) {
+						int plies = archive.readMoves(game, board, moves);
+						listener.reviewed(review(game, archive.getStartFen(game), moves, plies));
+					}
+				}));
+			}
+			for(Future<?> worker : workers) {
+				try {
+					worker.get();
+				}
+				catch(ExecutionException e) {
+					throw new IllegalStateException("Review failed: " + e.getCause(), e.getCause());
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the number of games reviewed.
+	 * @return	Number of games.
+	 */
+	public long getGames() {
+		return games.sum();
+	}
+
+	/**
+	 * Returns the number of positions searched.
+	 * @return	Number of positions.
+	 */
+	public long getPositions() {
+		return positions.sum();
+	}
+
+	/**
+	 * Reviews the games of an archive from the command line, printing the review of each game and the throughput.
+	 * @param args	Archive, number of positions per ply, optional first game, number of games and number of threads.
+	 * @throws IOException	If the archive can't be read.
+	 * @throws InterruptedException	If the run is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 2) {
+			System.out.println("Usage: GameReviewer <games.bin> <nodes per ply> [first game] [games] [threads]");
+			return;
+		}
+		try(GameArchive archive = new GameArchive(Paths.get(args[0]))) {
+			GameReviewer reviewer = new GameReviewer(Long.parseLong(args[1]));
+			int first = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+			int end = args.length > 3 ? (int) Math.min(archive.size(), (long) first + Integer.parseInt(args[3])) : archive.size();
+			int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+			Bitbases.loadAll();
+			long start = System.nanoTime();
+			reviewer.run(archive, first, end, threads, review -> {
+				synchronized(System.out) {
+					System.out.println(review);
+					if(reviewer.getGames() % REPORT_EVERY == 0) {
+						double hours = (System.nanoTime() - start) / 3.6e12;
+						System.out.printf("%d games, %.0f games/hour per core%n", reviewer.getGames(), reviewer.getGames() / hours / threads);
+					}
+				}
+			});
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Reviewed %d games in %.1f s on %d threads: %.0f games/hour per core, %.0f positions/s%n", reviewer.getGames(), seconds,
+					threads, reviewer.getGames() / (seconds / 3600) / threads, reviewer.getPositions() / seconds);
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class measures the GameJournal: how fast moves of many games at once are journaled and forced to disk,
+ * how many moves share each force, how often the file is compacted, and how long recovering all the games takes.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class JournalBenchmark {
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 * @param args	Optional number of games (default 100000), moves per game (default 40) and threads (default 8).
+	 * @throws IOException	If the journal can't be written or read.
+	 * @throws InterruptedException	If a thread is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int plies = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+		// a few random games that the journaled games copy their moves from
+		Random random = new Random(1);
+		int[][] lines = new int[64][plies];
+		for(int[] line : lines) {
+			Board board = Fen.toBoard(Fen.START);
+			int[] moves = new int[MoveGenerator.MAX_MOVES];
+			char color = 'w';
+			for(int ply = 0; ply < plies; ply++) {
+				int count = MoveGenerator.generateLegal(board, color, moves);
+				if(count == 0) { // start over from the same line rather than end early
+					board = Fen.toBoard(Fen.START);
+					color = 'w';
+					ply = -1;
+					continue;
+				}
+				line[ply] = moves[random.nextInt(count)];
+				board.doMove(line[ply]);
+				color = color == 'w' ? 'b' : 'w';
+			}
+		}
+
+		Path directory = Files.createTempDirectory("journal");
+		Path path = directory.resolve("games.journal");
+		try {
+			// every thread plays one move in each of its games, then waits until the moves are on disk, like a server answering its players
+			long start = System.nanoTime();
+			long commits;
+			long compactions;
+			try(GameJournal journal = new GameJournal(path, 2)) {
+				Thread[] workers = new Thread[threads];
+				for(int t = 0; t < threads; t++) {
+					int first = (int) ((long) games * t / threads);
+					int last = (int) ((long) games * (t + 1) / threads);
+					workers[t] = new Thread(() -> {
+						try {
+							long offset = 0;
+							for(int game = first; game < last; game++) {
+								offset = journal.startGame(game, Fen.START);
+							}
+							journal.sync(offset);
+							for(int ply = 0; ply < plies; ply++) {
+								for(int game = first; game < last; game++) {
+									offset = journal.logMove(game, lines[game % lines.length][ply]);
+								}
+								journal.sync(offset);
+							}
+						}
+						catch(IOException e) {
+							throw new RuntimeException(e);
+						}
+					});
+					workers[t].start();
+				}
+				for(Thread worker : workers) {
+					worker.join();
+				}
+				commits = journal.getCommits();
+				compactions = journal.getCompactions();
+			}
+			double writeSeconds = (System.nanoTime() - start) / 1e9;
+			long records = (long) games * (plies + 1);
+
+			start = System.nanoTime();
+			Map<Integer, GameJournal.RecoveredGame> recovered = GameJournal.recover(path);
+			double recoverSeconds = (System.nanoTime() - start) / 1e9;
+
+			System.out.printf("journaled        %d games, %d records, %d bytes%n", games, records, Files.size(path));
+			System.out.printf("write            %.0f records/s, %d forces (%.0f records each), %d compactions%n", records / writeSeconds, commits, (double) records / commits, compactions);
+			System.out.printf("recovery         %d games in %.2f s (%.0f moves/s)%n", recovered.size(), recoverSeconds, (double) games * plies / recoverSeconds);
+		}
+		finally {
+			Files.deleteIfExists(path);
+			Files.deleteIfExists(directory);
+		}
+	}
+
+}
@@ -40,6 +40,9 @@ public class King extends Piece {
 	 * @return	True if the move is valid. False if the move is invalid.
 	 */
 	public boolean isValid(int rank, int file){
+		if(EngineStats.ENABLED) {
+			EngineStats.VALID_PROBES.increment();
+		}
 		Piece[][] gameBoard = board.getBoard();
 		boolean canCastleLeft = true;
 		boolean canCastleRight = true;
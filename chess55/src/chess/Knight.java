@@ -32,6 +32,9 @@ public class Knight extends Piece {
 	 * @return	True if the move is valid. False if the move is invalid.
 	 */
 	public boolean isValid(int rank, int file){
+		if(EngineStats.ENABLED) {
+			EngineStats.VALID_PROBES.increment();
+		}
 		Piece[][] gameBoard = board.getBoard();
 
 		// check to see if new file and rank are within bounds
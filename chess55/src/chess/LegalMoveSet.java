@@ -0,0 +1,190 @@
+package chess;
+
+/**
+ * This class keeps the legal moves of the current position of one game, so that checking a move a player sends is a binary search
+ * instead of Piece.isValid, which changes the Board, looks for check and puts everything back for every attempt.
+ * The moves are generated once for each position, the first time one is checked, and sorted by their squares and promotion.
+ * The set is only thrown away when the position changes, so a player who sends the same illegal move again and again costs a lookup each time.
+ * Changes through Board.clear (and so Fen.load), doMove, undoMove and the null moves are noticed by the Board's change counter;
+ * a Board changed in another way (such as Piece.movePiece) needs a call to invalidate.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class LegalMoveSet {
+
+	/**
+	 * The Board of the game.
+	 */
+	Board board;
+	/**
+	 * Legal moves of the current position, sorted by order.
+	 */
+	int[] moves = new int[MoveGenerator.MAX_MOVES];
+	/**
+	 * Number of legal moves, valid while generated is true.
+	 */
+	int count;
+	/**
+	 * Color of the player the moves were generated for.
+	 */
+	char color;
+	/**
+	 * True while the moves match the position on the Board, as long as the Board's change counter is still changes.
+	 */
+	boolean generated;
+	/**
+	 * The Board's change counter when the moves were generated.
+	 */
+	int changes;
+	/**
+	 * Number of times the moves were generated.
+	 */
+	long generations;
+	/**
+	 * Number of moves checked.
+	 */
+	long lookups;
+
+	/**
+	 * This constructor creates an empty set for a Board. Nothing is generated until a move is checked.
+	 * @param board	The Board of the game.
+	 */
+	public LegalMoveSet(Board board) {
+		this.board = board;
+	}
+
+	/**
+	 * Returns the value the moves are sorted by: the squares first, so that the promotions of one Pawn move are next to each other.
+	 * @param move	Packed move.
+	 * @return	From and to squares, then the promotion field.
+	 */
+	static int order(int move) {
+		return (move & 0xFFF) << 3 | (move >>> 12 & 7);
+	}
+
+	/**
+	 * Generates and sorts the legal moves of a player, unless they are already known.
+	 * @param color	Color of the player to move ('w' or 'b').
+	 */
+	void generate(char color) {
+		if(generated && this.color == color && changes == board.changes) {
+			return;
+		}
+		count = MoveGenerator.generateLegal(board, color, moves);
+		// insertion sort, since there are only a few dozen moves
+		for(int i = 1; i < count; i++) {
+			int move = moves[i];
+			int j = i - 1;
+			while(j >= 0 && order(moves[j]) > order(move)) {
+				moves[j + 1] = moves[j];
+				j--;
+			}
+			moves[j + 1] = move;
+		}
+		this.color = color;
+		changes = board.changes;
+		generated = true;
+		generations++;
+	}
+
+	/**
+	 * Returns the index of the first move whose order is not below a value.
+	 * @param value	The order looked for.
+	 * @return	Index between 0 and count.
+	 */
+	int lowerBound(int value) {
+		int low = 0;
+		int high = count;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(order(moves[middle]) < value) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds a legal move of a player.
+	 * @param color		Color of the player to move ('w' or 'b').
+	 * @param from		Square index the Piece moves from (row * 8 + col).
+	 * @param to		Square index the Piece moves to (row * 8 + col).
+	 * @param promotion	Type the Pawn is promoted to ('Q', 'R', 'B', 'N'), or ' ' if there is no promotion.
+	 * @return	The packed move with all its flags, or Move.NONE if it is not legal.
+	 */
+	public int find(char color, int from, int to, char promotion) {
+		if((from | to) >>> 6 != 0) {
+			return Move.NONE;
+		}
+		generate(color);
+		lookups++;
+		int value = order(Move.encode(from, to, promotion, 0));
+		int index = lowerBound(value);
+		return index < count && order(moves[index]) == value ? moves[index] : Move.NONE;
+	}
+
+	/**
+	 * Checks if a player has a legal move between two squares, whatever the promotion.
+	 * @param color	Color of the player to move ('w' or 'b').
+	 * @param from	Square index the Piece moves from (row * 8 + col).
+	 * @param to	Square index the Piece moves to (row * 8 + col).
+	 * @return	True if a Piece of the player can legally move from one square to the other.
+	 */
+	public boolean contains(char color, int from, int to) {
+		if((from | to) >>> 6 != 0) {
+			return false;
+		}
+		generate(color);
+		lookups++;
+		int index = lowerBound(order(from | to << 6));
+		return index < count && (moves[index] & 0xFFF) == (from | to << 6);
+	}
+
+	/**
+	 * Makes a move on the Board, which throws the set away.
+	 * @param move	Packed move, normally returned by find.
+	 */
+	public void make(int move) {
+		board.doMove(move);
+	}
+
+	/**
+	 * Throws the set away, after the Board was changed in another way than clear, doMove, undoMove or the null moves.
+	 */
+	public void invalidate() {
+		generated = false;
+	}
+
+	/**
+	 * Returns the number of legal moves of a player.
+	 * @param color	Color of the player to move ('w' or 'b').
+	 * @return	Number of moves, 0 for checkmate or stalemate.
+	 */
+	public int size(char color) {
+		generate(color);
+		return count;
+	}
+
+	/**
+	 * Returns the number of times the moves were generated.
+	 * @return	Number of generations.
+	 */
+	public long getGenerations() {
+		return generations;
+	}
+
+	/**
+	 * Returns the number of moves checked.
+	 * @return	Number of lookups.
+	 */
+	public long getLookups() {
+		return lookups;
+	}
+
+}
@@ -0,0 +1,254 @@
+package chess;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class maps read-only files into memory the first time they are used, so that a file opened more than once is mapped once,
+ * and keeps at most maxOpen mappings. Each file is closed right after it is mapped, so the cache holds no file descriptors.
+ * Readers acquire a Mapping for each lookup and release it afterwards. When a file has to make room for another one,
+ * the least recently used mapping is dropped and unmapped as soon as its last reader releases it, so that its address space is given back
+ * (if the JVM doesn't allow unmapping, the garbage collector releases it instead once the buffer is unreachable).
+ * Acquiring a file that is already mapped takes no lock.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class MappedFileCache {
+
+	/**
+	 * Method that unmaps a direct buffer (sun.misc.Unsafe.invokeCleaner), or null if the JVM doesn't allow it.
+	 */
+	private static final Method CLEANER;
+	/**
+	 * The sun.misc.Unsafe object that CLEANER is called on.
+	 */
+	private static final Object UNSAFE;
+
+	static {
+		Method cleaner = null;
+		Object unsafe = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			cleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		}
+		catch(ReflectiveOperationException | RuntimeException e) {
+			cleaner = null;
+			unsafe = null;
+		}
+		CLEANER = cleaner;
+		UNSAFE = unsafe;
+	}
+
+	/**
+	 * This class is a mapped file, with the number of readers that are using it.
+	 */
+	public static class Mapping {
+
+		/**
+		 * The whole file, mapped read-only.
+		 */
+		final MappedByteBuffer buffer;
+		/**
+		 * Number of readers that acquired the mapping and haven't released it, or -1 once it is unmapped.
+		 */
+		final AtomicInteger users = new AtomicInteger();
+		/**
+		 * Time the mapping was last acquired, in nanoseconds (see System.nanoTime).
+		 */
+		volatile long lastUse;
+		/**
+		 * True once the mapping was dropped from the cache, so that the last reader unmaps it.
+		 */
+		volatile boolean evicted;
+
+		/**
+		 * This constructor wraps a new mapping.
+		 * @param buffer	The mapped file.
+		 */
+		Mapping(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+			this.lastUse = System.nanoTime();
+		}
+
+		/**
+		 * Returns the mapped file. The buffer must not be used after release.
+		 * @return	The whole file mapped read-only.
+		 */
+		public ByteBuffer getBuffer() {
+			return buffer;
+		}
+
+		/**
+		 * Counts one more reader, unless the mapping was already unmapped.
+		 * @return	True if the reader may use the mapping.
+		 */
+		boolean retain() {
+			while(true) {
+				int count = users.get();
+				if(count < 0) {
+					return false;
+				}
+				if(users.compareAndSet(count, count + 1)) {
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Gives back a mapping that was acquired, unmapping it if it was dropped from the cache and this was its last reader.
+		 */
+		public void release() {
+			if(users.decrementAndGet() == 0 && evicted) {
+				unmap();
+			}
+		}
+
+		/**
+		 * Unmaps the file if no reader is using it. Whichever of the cache and the last reader gets here second does the unmapping.
+		 */
+		void unmap() {
+			if(users.compareAndSet(0, -1) && CLEANER != null) {
+				try {
+					CLEANER.invoke(UNSAFE, buffer);
+				}
+				catch(ReflectiveOperationException e) {
+					// leave it to the garbage collector
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Most number of mappings that are kept.
+	 */
+	int maxOpen;
+	/**
+	 * Mappings by path.
+	 */
+	ConcurrentHashMap<Path, Mapping> mappings;
+	/**
+	 * Number of times a file was mapped (more than the number of files if mappings were dropped and mapped again).
+	 */
+	long mapCount;
+
+	/**
+	 * This constructor creates an empty cache.
+	 * @param maxOpen	Most number of mappings that are kept.
+	 */
+	public MappedFileCache(int maxOpen) {
+		if(maxOpen < 1) {
+			throw new IllegalArgumentException("Cache must keep at least one mapping: " + maxOpen);
+		}
+		this.maxOpen = maxOpen;
+		this.mappings = new ConcurrentHashMap<Path, Mapping>();
+	}
+
+	/**
+	 * Returns the mapping of a file, mapping it if it is not in the cache. The caller must release it once it is done reading.
+	 * @param path	Path of the file.
+	 * @return	The mapping, counted as used until it is released.
+	 * @throws IOException	If the file can't be read or is larger than 2 GB.
+	 */
+	public Mapping acquire(Path path) throws IOException {
+		Mapping mapping = mappings.get(path);
+		if(mapping == null || !mapping.retain()) {
+			synchronized(this) {
+				mapping = mappings.get(path);
+				if(mapping == null || !mapping.retain()) {
+					mapping = new Mapping(map(path));
+					mapping.users.set(1);
+					mappings.put(path, mapping);
+					mapCount++;
+					while(mappings.size() > maxOpen) {
+						evictEldest(mapping);
+					}
+				}
+			}
+		}
+		mapping.lastUse = System.nanoTime();
+		return mapping;
+	}
+
+	/**
+	 * Maps a whole file.
+	 * @param path	Path of the file.
+	 * @return	The file mapped read-only.
+	 * @throws IOException	If the file can't be read or is larger than 2 GB.
+	 */
+	static MappedByteBuffer map(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE) {
+				throw new IOException("File is too large to map: " + path);
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+	}
+
+	/**
+	 * Drops the least recently used mapping. Has to be called while holding the lock on the cache.
+	 * @param keep	Mapping that was just added, which is never dropped.
+	 */
+	void evictEldest(Mapping keep) {
+		Path eldest = null;
+		long eldestUse = Long.MAX_VALUE;
+		for(Map.Entry<Path, Mapping> entry : mappings.entrySet()) {
+			if(entry.getValue() != keep && entry.getValue().lastUse <= eldestUse) {
+				eldest = entry.getKey();
+				eldestUse = entry.getValue().lastUse;
+			}
+		}
+		evict(mappings.remove(eldest));
+	}
+
+	/**
+	 * Marks a mapping that was dropped from the cache, and unmaps it now if no reader is using it.
+	 * @param mapping	The dropped mapping.
+	 */
+	static void evict(Mapping mapping) {
+		mapping.evicted = true;
+		mapping.unmap();
+	}
+
+	/**
+	 * Returns the number of mappings in the cache.
+	 * @return	Number of mappings.
+	 */
+	public int size() {
+		return mappings.size();
+	}
+
+	/**
+	 * Returns the number of times a file was mapped.
+	 * @return	Number of mappings made.
+	 */
+	public synchronized long getMapCount() {
+		return mapCount;
+	}
+
+	/**
+	 * Drops all mappings. Mappings that are still acquired are unmapped when they are released.
+	 */
+	public synchronized void clear() {
+		for(Path path : mappings.keySet()) {
+			evict(mappings.remove(path));
+		}
+	}
+
+}
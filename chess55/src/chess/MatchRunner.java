@@ -0,0 +1,645 @@
+package chess;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class plays a match of engine against engine games between two settings of the engine, so that a change to the search can be measured.
+ * Games are played at the same time on a pool of threads, each game on its own Board, with a clock for each side that loses the game when it runs out.
+ * Each opening is played twice with the colors swapped, so that an unbalanced opening does not favor either setting.
+ * A sequential probability ratio test (SPRT) stops the match as soon as the result is clear enough.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class MatchRunner {
+
+	/**
+	 * Longest game in plies, after which the game is a draw.
+	 */
+	static final int MAX_PLIES = 400;
+	/**
+	 * Number of moves the time left on the clock is split over by an engine without a TimeManager.
+	 */
+	static final int MOVES_TO_GO = 30;
+	/**
+	 * Number of random plies played from the starting position to make an opening.
+	 */
+	static final int OPENING_PLIES = 8;
+	/**
+	 * Largest score in centipawns (after a short search) that an opening may have to be used.
+	 */
+	static final int OPENING_BALANCE = 100;
+	/**
+	 * Number of games between progress reports.
+	 */
+	static final int REPORT_EVERY = 20;
+
+	/**
+	 * This class is one setting of the engine.
+	 */
+	public static class EngineConfig {
+
+		/**
+		 * Name of the setting.
+		 */
+		String name;
+		/**
+		 * True if the search uses null move pruning.
+		 */
+		boolean nullMove = true;
+		/**
+		 * True if the search uses late move reductions.
+		 */
+		boolean lateMoveReductions = true;
+		/**
+		 * True if the search uses futility pruning.
+		 */
+		boolean futility = true;
+		/**
+		 * True if the search uses aspiration windows.
+		 */
+		boolean aspiration = true;
+		/**
+		 * True if the search uses the bitbases.
+		 */
+		boolean bitbases = true;
+		/**
+		 * True if the engine's time for each move comes from a TimeManager, false for a fixed share of its clock.
+		 */
+		boolean timeManager = true;
+		/**
+		 * Size of the TranspositionTable in megabytes.
+		 */
+		int hashMegabytes = 16;
+
+		/**
+		 * Reads a setting from a list of options separated by commas:
+		 * "nonull", "nolmr", "nofutility", "noaspiration", "nobitbases", "fixedtime" and "hash=N". "default" is the engine as it is.
+		 * @param spec	The options.
+		 * @return	The setting.
+		 */
+		public static EngineConfig parse(String spec) {
+			EngineConfig config = new EngineConfig();
+			config.name = spec;
+			for(String option : spec.split(",")) {
+				option = option.trim();
+				if(option.equals("default") || option.isEmpty()) {
+					continue;
+				}
+				else if(option.equals("nonull")) {
+					config.nullMove = false;
+				}
+				else if(option.equals("nolmr")) {
+					config.lateMoveReductions = false;
+				}
+				else if(option.equals("nofutility")) {
+					config.futility = false;
+				}
+				else if(option.equals("noaspiration")) {
+					config.aspiration = false;
+				}
+				else if(option.equals("nobitbases")) {
+					config.bitbases = false;
+				}
+				else if(option.equals("fixedtime")) {
+					config.timeManager = false;
+				}
+				else if(option.startsWith("hash=")) {
+					config.hashMegabytes = Integer.parseInt(option.substring(5));
+				}
+				else {
+					throw new IllegalArgumentException("Unknown engine option: " + option);
+				}
+			}
+			return config;
+		}
+
+		/**
+		 * Creates a Search with this setting.
+		 * @param board	Board the Search plays on.
+		 * @param tt	TranspositionTable of the Search.
+		 * @return	The Search.
+		 */
+		Search create(Board board, TranspositionTable tt) {
+			Search search = new Search(board, tt);
+			search.setNullMove(nullMove);
+			search.setLateMoveReductions(lateMoveReductions);
+			search.setFutility(futility);
+			search.setAspiration(aspiration);
+			search.setBitbases(bitbases);
+			return search;
+		}
+
+		/**
+		 * Returns the name of the setting.
+		 * @return	The name.
+		 */
+		public String getName() {
+			return name;
+		}
+
+	}
+
+	/**
+	 * This class is a sequential probability ratio test between two Elo differences,
+	 * using the normal approximation of the log-likelihood ratio for win/draw/loss results.
+	 */
+	public static class Sprt {
+
+		/**
+		 * Elo difference of the null hypothesis.
+		 */
+		double elo0;
+		/**
+		 * Elo difference of the other hypothesis.
+		 */
+		double elo1;
+		/**
+		 * Log-likelihood ratio below which the null hypothesis is accepted.
+		 */
+		double lower;
+		/**
+		 * Log-likelihood ratio above which the other hypothesis is accepted.
+		 */
+		double upper;
+
+		/**
+		 * This constructor creates a test.
+		 * @param elo0	Elo difference of the null hypothesis (Example: 0).
+		 * @param elo1	Elo difference of the other hypothesis (Example: 5).
+		 * @param alpha	Chance of accepting elo1 when elo0 is true.
+		 * @param beta	Chance of accepting elo0 when elo1 is true.
+		 */
+		public Sprt(double elo0, double elo1, double alpha, double beta) {
+			this.elo0 = elo0;
+			this.elo1 = elo1;
+			this.lower = Math.log(beta / (1 - alpha));
+			this.upper = Math.log((1 - beta) / alpha);
+		}
+
+		/**
+		 * Computes the log-likelihood ratio of a result.
+		 * @param wins		Number of games won.
+		 * @param draws		Number of games drawn.
+		 * @param losses	Number of games lost.
+		 * @return	The log-likelihood ratio, or 0 while every game had the same result.
+		 */
+		public double llr(int wins, int draws, int losses) {
+			int games = wins + draws + losses;
+			if(games == 0) {
+				return 0;
+			}
+			double score = (wins + draws / 2.0) / games;
+			double variance = (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score) + losses * score * score) / games;
+			if(variance == 0) {
+				return 0;
+			}
+			double score0 = expectedScore(elo0);
+			double score1 = expectedScore(elo1);
+			return games * (score1 - score0) * (2 * score - score0 - score1) / (2 * variance);
+		}
+
+		/**
+		 * Returns the log-likelihood ratio below which the null hypothesis is accepted.
+		 * @return	The lower bound.
+		 */
+		public double getLower() {
+			return lower;
+		}
+
+		/**
+		 * Returns the log-likelihood ratio above which the other hypothesis is accepted.
+		 * @return	The upper bound.
+		 */
+		public double getUpper() {
+			return upper;
+		}
+
+	}
+
+	/**
+	 * Setting of the first engine, whose results are counted.
+	 */
+	EngineConfig first;
+	/**
+	 * Setting of the second engine.
+	 */
+	EngineConfig second;
+	/**
+	 * Time on each clock at the start of a game in milliseconds.
+	 */
+	long baseMillis;
+	/**
+	 * Time added to a clock after each move in milliseconds.
+	 */
+	long incrementMillis;
+	/**
+	 * Test that stops the match early, or null to play every game.
+	 */
+	Sprt sprt;
+	/**
+	 * Starting positions in FEN. Game 2n and 2n+1 both use opening n, with the colors swapped.
+	 */
+	List<String> openings;
+	/**
+	 * Where progress is reported, or null for no reports.
+	 */
+	PrintStream progress;
+	/**
+	 * Number of games the first engine won.
+	 */
+	int wins;
+	/**
+	 * Number of games drawn.
+	 */
+	int draws;
+	/**
+	 * Number of games the first engine lost.
+	 */
+	int losses;
+	/**
+	 * Number of games lost on time, by either engine.
+	 */
+	int timeLosses;
+	/**
+	 * 1 if the SPRT accepted the first engine being stronger by elo1, -1 if it accepted elo0, 0 if it did not decide.
+	 */
+	int decision;
+	/**
+	 * Index of the next game to start.
+	 */
+	AtomicInteger nextGame = new AtomicInteger();
+
+	/**
+	 * This constructor creates a match.
+	 * @param first				Setting of the first engine, whose results are counted.
+	 * @param second			Setting of the second engine.
+	 * @param baseMillis		Time on each clock at the start of a game in milliseconds.
+	 * @param incrementMillis	Time added to a clock after each move in milliseconds.
+	 * @param openings			Starting positions in FEN.
+	 */
+	public MatchRunner(EngineConfig first, EngineConfig second, long baseMillis, long incrementMillis, List<String> openings) {
+		if(openings.isEmpty()) {
+			throw new IllegalArgumentException("No openings");
+		}
+		this.first = first;
+		this.second = second;
+		this.baseMillis = baseMillis;
+		this.incrementMillis = incrementMillis;
+		this.openings = openings;
+	}
+
+	/**
+	 * Sets the test that stops the match early.
+	 * @param sprt	The test, or null to play every game.
+	 */
+	public void setSprt(Sprt sprt) {
+		this.sprt = sprt;
+	}
+
+	/**
+	 * Sets where progress is reported.
+	 * @param progress	Where a line is printed every few games, or null for no reports.
+	 */
+	public void setProgress(PrintStream progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Makes openings by playing random moves from the starting position, keeping only those that a short search finds about even.
+	 * @param count	Number of openings.
+	 * @param seed	Seed of the random moves, so that two matches can use the same openings.
+	 * @return	The openings in FEN.
+	 */
+	public static List<String> randomOpenings(int count, long seed) {
+		Random random = new Random(seed);
+		Set<String> openings = new LinkedHashSet<>();
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		TranspositionTable tt = new TranspositionTable(1);
+		while(openings.size() < count) {
+			Board board = Fen.toBoard(Fen.START);
+			char color = 'w';
+			int ply = 0;
+			for(; ply < OPENING_PLIES; ply++) {
+				int legal = MoveGenerator.generateLegal(board, color, moves);
+				if(legal == 0) {
+					break;
+				}
+				board.doMove(moves[random.nextInt(legal)]);
+				color = color == 'w' ? 'b' : 'w';
+			}
+			if(ply < OPENING_PLIES || MoveGenerator.generateLegal(board, color, moves) == 0) {
+				continue;
+			}
+			tt.clear();
+			Search search = new Search(board, tt);
+			search.search(color, 4, 20000, 0);
+			if(Math.abs(search.getBestScore()) <= OPENING_BALANCE) {
+				openings.add(Fen.toFen(board, color));
+			}
+		}
+		return new ArrayList<>(openings);
+	}
+
+	/**
+	 * Plays the match until every game is played or the SPRT decides.
+	 * @param games		Most number of games.
+	 * @param threads	Number of games played at the same time. More threads than processors makes the clocks unfair.
+	 * @throws InterruptedException	If the calling thread is interrupted while waiting.
+	 */
+	public void run(int games, int threads) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> workers = new ArrayList<>();
+			for(int i = 0; i < threads; i++) {
+				workers.add(pool.submit(() -> {
+					// each worker reuses a TranspositionTable for each engine, cleared before every game
+					TranspositionTable[] tts = {new TranspositionTable(first.hashMegabytes), new TranspositionTable(second.hashMegabytes)};
+					int game;
+					while(!isDecided() && (game = nextGame.getAndIncrement()) < games) {
+						int result = playGame(openings.get(game / 2 % openings.size()), game % 2 == 0, tts);
+						record(result);
+					}
+				}));
+			}
+			for(Future<?> worker : workers) {
+				try {
+					worker.get();
+				}
+				catch(ExecutionException e) {
+					throw new IllegalStateException("Game failed: " + e.getCause(), e.getCause());
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Plays one game.
+	 * @param fen			Starting position.
+	 * @param firstIsWhite	True if the first engine plays White.
+	 * @param tts			TranspositionTable of the first and second engine.
+	 * @return	1 if the first engine won, 0 for a draw, -1 if it lost.
+	 */
+	int playGame(String fen, boolean firstIsWhite, TranspositionTable[] tts) {
+		Board board = Fen.toBoard(fen);
+		char color = Fen.color(fen);
+		board.resetKey(color);
+		tts[0].clear();
+		tts[1].clear();
+		Search firstSearch = first.create(board, tts[0]);
+		Search secondSearch = second.create(board, tts[1]);
+		Search white = firstIsWhite ? firstSearch : secondSearch;
+		Search black = firstIsWhite ? secondSearch : firstSearch;
+
+		long[] clock = {baseMillis, baseMillis};
+		TimeManager firstTime = first.timeManager ? new TimeManager() : null;
+		TimeManager secondTime = second.timeManager ? new TimeManager() : null;
+		TimeManager whiteTime = firstIsWhite ? firstTime : secondTime;
+		TimeManager blackTime = firstIsWhite ? secondTime : firstTime;
+		Map<Long, Integer> seen = new HashMap<>();
+		seen.put(board.getKey(), 1);
+		int quietPlies = 0;
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		int result = 0; // for White
+		for(int ply = 0; ply < MAX_PLIES; ply++) {
+			if(MoveGenerator.generateLegal(board, color, moves) == 0) {
+				result = board.check(color) ? 0 : color == 'w' ? -1 : 1;
+				break;
+			}
+			if(quietPlies >= 100 || seen.get(board.getKey()) >= 3) {
+				break;
+			}
+			int known = Bitbases.probeLoaded(board, color);
+			if(known == Bitbases.DRAW) {
+				break;
+			}
+			if(known != Bitbases.UNKNOWN) {
+				result = (known == Bitbases.WIN) == (color == 'w') ? 1 : -1;
+				break;
+			}
+
+			int side = color == 'w' ? 0 : 1;
+			TimeManager time = color == 'w' ? whiteTime : blackTime;
+			long start = System.nanoTime();
+			int move;
+			if(time != null) {
+				time.start(clock[side], incrementMillis, 0);
+				move = (color == 'w' ? white : black).search(color, time);
+			}
+			else {
+				long budget = Math.max(1, Math.min(clock[side] / MOVES_TO_GO + incrementMillis * 3 / 4, clock[side] / 2));
+				move = (color == 'w' ? white : black).search(color, Search.MAX_PLY, 0, budget);
+			}
+			long charged = (System.nanoTime() - start) / 1000000;
+			if(time != null) {
+				time.moveDone(charged);
+			}
+			clock[side] -= charged;
+			if(clock[side] < 0) {
+				result = color == 'w' ? -1 : 1;
+				synchronized(this) {
+					timeLosses++;
+				}
+				break;
+			}
+			clock[side] += incrementMillis;
+
+			int from = Move.from(move);
+			boolean pawn = board.getPiece(from >> 3, from & 7) instanceof Pawn;
+			quietPlies = pawn || (move & Move.CAPTURE) != 0 ? 0 : quietPlies + 1;
+			board.doMove(move);
+			color = color == 'w' ? 'b' : 'w';
+			seen.merge(board.getKey(), 1, Integer::sum);
+		}
+		return firstIsWhite ? result : -result;
+	}
+
+	/**
+	 * Counts the result of a game, runs the SPRT and reports progress.
+	 * @param result	1 if the first engine won, 0 for a draw, -1 if it lost.
+	 */
+	synchronized void record(int result) {
+		if(result > 0) {
+			wins++;
+		}
+		else if(result < 0) {
+			losses++;
+		}
+		else {
+			draws++;
+		}
+		if(sprt != null && decision == 0) {
+			double llr = sprt.llr(wins, draws, losses);
+			decision = llr >= sprt.upper ? 1 : llr <= sprt.lower ? -1 : 0;
+		}
+		int games = wins + draws + losses;
+		if(progress != null && (games % REPORT_EVERY == 0 || decision != 0)) {
+			progress.println(this);
+		}
+	}
+
+	/**
+	 * Checks if the SPRT decided, after which no more games are started.
+	 * @return	True if the SPRT decided.
+	 */
+	synchronized boolean isDecided() {
+		return decision != 0;
+	}
+
+	/**
+	 * Returns the number of games the first engine won.
+	 * @return	Number of wins.
+	 */
+	public synchronized int getWins() {
+		return wins;
+	}
+
+	/**
+	 * Returns the number of games drawn.
+	 * @return	Number of draws.
+	 */
+	public synchronized int getDraws() {
+		return draws;
+	}
+
+	/**
+	 * Returns the number of games the first engine lost.
+	 * @return	Number of losses.
+	 */
+	public synchronized int getLosses() {
+		return losses;
+	}
+
+	/**
+	 * Returns what the SPRT decided.
+	 * @return	1 if it accepted elo1, -1 if it accepted elo0, 0 if it did not decide (or there is no SPRT).
+	 */
+	public synchronized int getDecision() {
+		return decision;
+	}
+
+	/**
+	 * Returns the Elo difference of the first engine over the second, with a 95% error margin.
+	 * @return	The difference and the margin, or {0, infinity} while every game had the same result.
+	 */
+	public synchronized double[] getElo() {
+		int games = wins + draws + losses;
+		double score = games == 0 ? 0.5 : (wins + draws / 2.0) / games;
+		if(score <= 0 || score >= 1) {
+			return new double[] {0, Double.POSITIVE_INFINITY};
+		}
+		double variance = (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score) + losses * score * score) / games;
+		double margin = 1.96 * Math.sqrt(variance / games);
+		return new double[] {elo(score), (elo(Math.min(score + margin, 0.999)) - elo(Math.max(score - margin, 0.001))) / 2};
+	}
+
+	/**
+	 * Converts an Elo difference to the score expected from it.
+	 * @param elo	The Elo difference.
+	 * @return	The expected score between 0 and 1.
+	 */
+	static double expectedScore(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	/**
+	 * Converts a score to the Elo difference it stands for.
+	 * @param score	The score between 0 and 1 (not included).
+	 * @return	The Elo difference.
+	 */
+	static double elo(double score) {
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	/**
+	 * Returns the state of the match as text.
+	 * @return	Example: "120 games +40 =50 -30, elo 29.0 +- 40.1, llr 1.20 (-2.94, 2.94), 0 lost on time".
+	 */
+	public synchronized String toString() {
+		double[] elo = getElo();
+		String text = String.format("%d games +%d =%d -%d, elo %.1f +- %.1f", wins + draws + losses, wins, draws, losses, elo[0], elo[1]);
+		if(sprt != null) {
+			text += String.format(", llr %.2f (%.2f, %.2f)", sprt.llr(wins, draws, losses), sprt.lower, sprt.upper);
+		}
+		return text + ", " + timeLosses + " lost on time" + (decision > 0 ? ", H1 accepted" : decision < 0 ? ", H0 accepted" : "");
+	}
+
+	/**
+	 * Plays a match and prints its progress and result.
+	 * @param args	Number of games, base time and increment in milliseconds, then options:
+	 * 				first=SPEC and second=SPEC (see EngineConfig.parse, both "default" if not given), threads=N,
+	 * 				elo0=E and elo1=E to stop with an SPRT (alpha and beta 0.05), openings=FILE of FEN lines (random openings if not given),
+	 * 				syzygy=DIR of Syzygy tables that the searches and the adjudication use.
+	 * @throws IOException	If the openings can't be read.
+	 * @throws InterruptedException	If the match is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if(args.length < 3) {
+			System.out.println("Usage: MatchRunner <games> <base ms> <increment ms> [first=SPEC] [second=SPEC] [threads=N] [elo0=E elo1=E] [openings=FILE] [syzygy=DIR]");
+			return;
+		}
+		int games = Integer.parseInt(args[0]);
+		long base = Long.parseLong(args[1]);
+		long increment = Long.parseLong(args[2]);
+		Map<String, String> options = new HashMap<>();
+		for(int i = 3; i < args.length; i++) {
+			int equals = args[i].indexOf('=');
+			if(equals < 0) {
+				throw new IllegalArgumentException("Options are name=value: " + args[i]);
+			}
+			options.put(args[i].substring(0, equals), args[i].substring(equals + 1));
+		}
+
+		List<String> openings;
+		if(options.containsKey("openings")) {
+			openings = new ArrayList<>();
+			for(String line : Files.readAllLines(Paths.get(options.get("openings")), StandardCharsets.UTF_8)) {
+				if(!line.trim().isEmpty() && !line.startsWith("#")) {
+					openings.add(line.trim());
+				}
+			}
+		}
+		else {
+			openings = randomOpenings((games + 1) / 2, 1);
+		}
+		MatchRunner match = new MatchRunner(EngineConfig.parse(options.getOrDefault("first", "default")),
+				EngineConfig.parse(options.getOrDefault("second", "default")), base, increment, openings);
+		if(options.containsKey("elo0") || options.containsKey("elo1")) {
+			match.setSprt(new Sprt(Double.parseDouble(options.getOrDefault("elo0", "0")), Double.parseDouble(options.getOrDefault("elo1", "5")), 0.05, 0.05));
+		}
+		match.setProgress(System.out);
+		int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+		System.out.println(match.first.name + " vs " + match.second.name + ", " + games + " games at " + base + "+" + increment + " ms on " + threads + " threads");
+		Bitbases.loadAll();
+		if(options.containsKey("syzygy")) {
+			Syzygy.setDirectory(Paths.get(options.get("syzygy")), 64);
+			System.out.println("Syzygy tables with up to " + Syzygy.getMaxPieces() + " pieces");
+		}
+		long start = System.currentTimeMillis();
+		match.run(games, threads);
+		System.out.println("final: " + match + " in " + (System.currentTimeMillis() - start) / 1000 + " s");
+	}
+
+}
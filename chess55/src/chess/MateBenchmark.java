@@ -0,0 +1,60 @@
+package chess;
+
+/**
+ * This class compares the MateSolver with the alpha-beta Search on forced mates: the time and positions each one needs to find the mate.
+ * The Search is given the depth of the mate and a time limit, and is counted as failing if it runs out of time first.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class MateBenchmark {
+
+	/**
+	 * Positions with a forced mate, in FEN.
+	 */
+	static final String[] POSITIONS = {
+		"r2qkb1r/pp2nppp/3p4/2pNN1B1/2BnP3/3P4/PPP2PPP/R2bK2R w KQkq - 1 1",
+		"r1b1kb1r/pppp1ppp/5q2/4n3/3KP3/2N3PN/PPP4P/R1BQ1B1R b kq - 0 1",
+		"8/8/8/4k3/8/8/8/3QK3 w - - 0 1",
+		"8/8/8/4k3/8/8/8/4K2R w - - 0 1"
+	};
+
+	/**
+	 * Number of moves of the mate of each position.
+	 */
+	static final int[] MOVES = {2, 3, 7, 16};
+
+	/**
+	 * Runs the benchmark and prints, for each position, the time and positions needed by the solver and by the Search.
+	 * @param args	Optional time limit of the Search for each position in milliseconds (default 10000).
+	 */
+	public static void main(String[] args) {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 10000;
+		// warm up the JIT first, so that the first position isn't measured on slower code
+		for(int i = 0; i < 2; i++) {
+			new MateSolver(64).solve(Fen.toBoard(POSITIONS[i]), Fen.color(POSITIONS[i]), MOVES[i], 0);
+			new Search(Fen.toBoard(POSITIONS[i]), new TranspositionTable(16)).search(Fen.color(POSITIONS[i]), 2 * MOVES[i] - 1, 0, millis);
+		}
+		for(int i = 0; i < POSITIONS.length; i++) {
+			String fen = POSITIONS[i];
+			char color = Fen.color(fen);
+			MateSolver solver = new MateSolver(64);
+			long start = System.nanoTime();
+			int result = solver.solve(Fen.toBoard(fen), color, MOVES[i], 0);
+			double solverMillis = (System.nanoTime() - start) / 1e6;
+			System.out.printf("mate in %2d  solver: %-8s %10d positions %9.1f ms%n", MOVES[i],
+					result == MateSolver.MATE ? "mate" : "no mate", solver.getNodes(), solverMillis);
+
+			Search search = new Search(Fen.toBoard(fen), new TranspositionTable(64));
+			search.setBitbases(false);
+			start = System.nanoTime();
+			search.search(color, 2 * MOVES[i] - 1, 0, millis);
+			double searchMillis = (System.nanoTime() - start) / 1e6;
+			boolean found = search.getBestScore() >= Search.MATE - (2 * MOVES[i] - 1);
+			System.out.printf("            search: %-8s %10d positions %9.1f ms%n", found ? "mate" : "not found", search.getNodes(), searchMillis);
+		}
+	}
+
+}
@@ -0,0 +1,397 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * This class proves or disproves that a player can force checkmate within a number of moves, with depth-first proof-number search (df-pn).
+ * Instead of scoring positions like the Search class, every position gets a proof number (how many more positions at least have to be shown
+ * to be mates to prove it) and a disproof number (the same to disprove it), and the search always goes on in the position that is closest
+ * to being proved or disproved. Lines with few defences are proved quickly however deep they are, which is what mate puzzles are made of.
+ * The numbers are kept in the solver's own hash table, by position and number of moves left, since a position can be a mate in 3 but not in 2.
+ * The defending side only has its check evasions generated when it is in check (see MoveGenerator.generateEvasions),
+ * and on the last move the attacking side only tries the moves that give check.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class MateSolver {
+
+	/**
+	 * Result when a mate within the number of moves was found.
+	 */
+	public static final int MATE = 1;
+	/**
+	 * Result when there is no mate within the number of moves.
+	 */
+	public static final int NO_MATE = 2;
+	/**
+	 * Result when the node limit was reached first.
+	 */
+	public static final int UNKNOWN = 0;
+	/**
+	 * Proof or disproof number of a position that is proved or disproved.
+	 */
+	static final int INFINITY = 1 << 30;
+	/**
+	 * Most number of moves a mate can be looked for in.
+	 */
+	public static final int MAX_MOVES = 60;
+
+	/**
+	 * Hash (mixed with the number of moves left) of the position of each entry.
+	 */
+	long[] keys;
+	/**
+	 * Proof number (high 32 bits) and disproof number (low 32 bits) of each entry.
+	 */
+	long[] numbers;
+	/**
+	 * Number of entries minus one (the number of entries is a power of two).
+	 */
+	int mask;
+	/**
+	 * The Board being solved.
+	 */
+	Board board;
+	/**
+	 * Color of the player trying to mate.
+	 */
+	char attacker;
+	/**
+	 * Moves of the position at each ply.
+	 */
+	int[][] moves = new int[2 * MAX_MOVES + 1][MoveGenerator.MAX_MOVES];
+	/**
+	 * Hashes of the positions after each move at each ply.
+	 */
+	long[][] childKeys = new long[2 * MAX_MOVES + 1][MoveGenerator.MAX_MOVES];
+	/**
+	 * Last known proof and disproof numbers of the positions after each move at each ply,
+	 * for when the hash table slot of a position was taken by another one.
+	 */
+	long[][] childEntries = new long[2 * MAX_MOVES + 1][MoveGenerator.MAX_MOVES];
+	/**
+	 * Number of positions searched or evaluated.
+	 */
+	long nodes;
+	/**
+	 * Number of positions after which the search stops (0 for no limit).
+	 */
+	long maxNodes;
+	/**
+	 * Set when the node limit was reached.
+	 */
+	boolean stopped;
+	/**
+	 * First move of the mate that was found, or Move.NONE.
+	 */
+	int keyMove;
+
+	/**
+	 * This constructor creates a solver with its own hash table.
+	 * @param megabytes	Size of the hash table in megabytes.
+	 */
+	public MateSolver(int megabytes) {
+		long entries = Long.highestOneBit(Math.max(1L, (long) megabytes * 1024 * 1024 / 16));
+		keys = new long[(int) entries];
+		numbers = new long[(int) entries];
+		mask = (int) entries - 1;
+	}
+
+	/**
+	 * Proves or disproves that the player to move can force mate within a number of moves. The Board is left as it was.
+	 * @param board		The Board.
+	 * @param color		Color of the player to move, who tries to mate.
+	 * @param maxMoves	Most number of moves of the mate (at most MAX_MOVES).
+	 * @param maxNodes	Number of positions after which the search stops (0 for no limit).
+	 * @return	MATE (see getKeyMove), NO_MATE, or UNKNOWN if the node limit was reached.
+	 */
+	public int solve(Board board, char color, int maxMoves, long maxNodes) {
+		if(maxMoves < 1 || maxMoves > MAX_MOVES) {
+			throw new IllegalArgumentException("Moves must be between 1 and " + MAX_MOVES + ": " + maxMoves);
+		}
+		this.board = board;
+		this.attacker = color;
+		this.maxNodes = maxNodes;
+		nodes = 0;
+		stopped = false;
+		keyMove = Move.NONE;
+		board.resetKey(color);
+		long entry = search(0, maxMoves, INFINITY - 1, INFINITY - 1);
+		if(proof(entry) == 0) {
+			return MATE;
+		}
+		return disproof(entry) == 0 ? NO_MATE : UNKNOWN;
+	}
+
+	/**
+	 * Searches a position until its proof number reaches its threshold or its disproof number reaches its threshold (df-pn's MID).
+	 * @param ply		Number of moves made since the root.
+	 * @param left		Number of moves the attacker has left to mate in, counting the one to play if it is the attacker's turn.
+	 * @param maxProof		Proof number at which the search returns.
+	 * @param maxDisproof	Disproof number at which the search returns.
+	 * @return	Proof and disproof numbers of the position, packed like the hash table's entries.
+	 */
+	long search(int ply, int left, int maxProof, int maxDisproof) {
+		nodes++;
+		if(maxNodes > 0 && nodes >= maxNodes) {
+			stopped = true;
+		}
+		boolean attacking = (ply & 1) == 0;
+		char color = attacking ? attacker : opponent(attacker);
+		long key = tableKey(board.getKey(), left);
+		int[] list = moves[ply];
+		int count;
+		if(attacking) {
+			count = generateAttacks(color, left, list);
+			if(count == 0) {
+				long entry = pack(INFINITY, 0);
+				store(key, entry);
+				return entry;
+			}
+		}
+		else {
+			long entry = evaluate(color, left, list);
+			if(proof(entry) == 0 || disproof(entry) == 0) {
+				store(key, entry);
+				return entry;
+			}
+			count = proof(entry);
+		}
+
+		// hashes of the positions after each move, and a first guess for the ones after an attacker's move that were never seen
+		long[] children = childKeys[ply];
+		long[] entries = childEntries[ply];
+		int childLeft = attacking ? left - 1 : left;
+		for(int i = 0; i < count; i++) {
+			board.doMove(list[i]);
+			children[i] = tableKey(board.getKey(), childLeft);
+			entries[i] = probe(children[i]);
+			if(entries[i] < 0) {
+				if(attacking) {
+					nodes++;
+					entries[i] = evaluate(opponent(color), childLeft, moves[ply + 1]);
+					store(children[i], entries[i]);
+				}
+				else {
+					entries[i] = pack(1, 1);
+				}
+			}
+			board.undoMove(list[i]);
+		}
+
+		while(true) {
+			// an OR position (attacker to move) is proved by one move and disproved by all of them, an AND position the other way around
+			int proof = attacking ? INFINITY : 0;
+			int disproof = attacking ? 0 : INFINITY;
+			int best = -1;
+			int bestValue = INFINITY;
+			int secondValue = INFINITY;
+			int bestProof = 0;
+			int bestDisproof = 0;
+			for(int i = 0; i < count; i++) {
+				// the table may have newer numbers from a transposition, but only the saved ones survive the slot being taken
+				long entry = probe(children[i]);
+				if(entry >= 0) {
+					entries[i] = entry;
+				}
+				int childProof = proof(entries[i]);
+				int childDisproof = disproof(entries[i]);
+				if(attacking) {
+					proof = Math.min(proof, childProof);
+					disproof = add(disproof, childDisproof);
+				}
+				else {
+					proof = add(proof, childProof);
+					disproof = Math.min(disproof, childDisproof);
+				}
+				int value = attacking ? childProof : childDisproof;
+				if(value < bestValue) {
+					secondValue = bestValue;
+					bestValue = value;
+					best = i;
+					bestProof = childProof;
+					bestDisproof = childDisproof;
+				}
+				else if(value < secondValue) {
+					secondValue = value;
+				}
+			}
+			if(ply == 0 && proof == 0) {
+				keyMove = list[best];
+			}
+			if(proof >= maxProof || disproof >= maxDisproof || proof == 0 || disproof == 0 || stopped) {
+				long entry = pack(proof, disproof);
+				store(key, entry);
+				return entry;
+			}
+			// search the most promising move until it is no longer the most promising, or this position reaches its thresholds
+			int childMaxProof;
+			int childMaxDisproof;
+			if(attacking) {
+				childMaxProof = Math.min(maxProof, secondValue == INFINITY ? INFINITY : secondValue + 1);
+				childMaxDisproof = add(maxDisproof - disproof, bestDisproof);
+			}
+			else {
+				childMaxDisproof = Math.min(maxDisproof, secondValue == INFINITY ? INFINITY : secondValue + 1);
+				childMaxProof = add(maxProof - proof, bestProof);
+			}
+			int move = list[best];
+			board.doMove(move);
+			entries[best] = search(ply + 1, childLeft, childMaxProof, childMaxDisproof);
+			board.undoMove(move);
+		}
+	}
+
+	/**
+	 * Gives the proof and disproof numbers of a position with the defender to move, before it is searched.
+	 * Mates, and positions that can no longer become mates, are settled right away. Otherwise the proof number is the number of moves
+	 * of the defender, since each of them has to be answered (the mobility guess of df-pn+), which makes checks the first moves tried.
+	 * @param color	Color of the defender.
+	 * @param left	Number of moves the attacker has left.
+	 * @param list	Array the moves of the defender are written into.
+	 * @return	The packed numbers. Unless the position is settled, the proof number is also the number of moves written.
+	 */
+	long evaluate(char color, int left, int[] list) {
+		boolean inCheck = !board.check(color);
+		if(!inCheck && left == 0) {
+			return pack(INFINITY, 0);
+		}
+		int count = inCheck ? MoveGenerator.generateEvasions(board, color, list) : MoveGenerator.generateLegal(board, color, list);
+		if(count == 0) {
+			return inCheck ? pack(0, INFINITY) : pack(INFINITY, 0);
+		}
+		return left == 0 ? pack(INFINITY, 0) : pack(count, 1);
+	}
+
+	/**
+	 * Writes the moves the attacker tries: every legal move, or only the ones that give check on the last move.
+	 * @param color	Color of the attacker.
+	 * @param left	Number of moves the attacker has left, counting this one.
+	 * @param list	Array the moves are written into.
+	 * @return	Number of moves.
+	 */
+	int generateAttacks(char color, int left, int[] list) {
+		int count = MoveGenerator.generateLegal(board, color, list);
+		if(left > 1) {
+			return count;
+		}
+		// the last move has to give check
+		int checks = 0;
+		char defender = opponent(color);
+		for(int i = 0; i < count; i++) {
+			board.doMove(list[i]);
+			boolean check = !board.check(defender);
+			board.undoMove(list[i]);
+			if(check) {
+				list[checks++] = list[i];
+			}
+		}
+		return checks;
+	}
+
+	/**
+	 * Returns the hash table key of a position with a number of moves left.
+	 * @param key	Zobrist hash of the position.
+	 * @param left	Number of moves the attacker has left.
+	 * @return	The key.
+	 */
+	static long tableKey(long key, int left) {
+		return key ^ (left + 1) * 0x9E3779B97F4A7C15L;
+	}
+
+	/**
+	 * Looks up a position in the hash table.
+	 * @param key	Key from tableKey.
+	 * @return	The packed numbers, or -1 if the position is not stored.
+	 */
+	long probe(long key) {
+		int index = (int) key & mask;
+		return keys[index] == key ? numbers[index] : -1;
+	}
+
+	/**
+	 * Stores a position in the hash table, replacing what was in its slot.
+	 * @param key		Key from tableKey.
+	 * @param entry		The packed numbers.
+	 */
+	void store(long key, long entry) {
+		int index = (int) key & mask;
+		keys[index] = key;
+		numbers[index] = entry;
+	}
+
+	/**
+	 * Adds proof or disproof numbers, without going past INFINITY (two of them would overflow an int).
+	 * @param a	A number.
+	 * @param b	Another number.
+	 * @return	The sum, or INFINITY.
+	 */
+	static int add(int a, int b) {
+		return (int) Math.min(INFINITY, (long) a + b);
+	}
+
+	/**
+	 * Packs a proof and a disproof number.
+	 * @param proof		Proof number.
+	 * @param disproof	Disproof number.
+	 * @return	The packed numbers, never negative.
+	 */
+	static long pack(int proof, int disproof) {
+		return (long) proof << 32 | disproof;
+	}
+
+	/**
+	 * Returns the proof number of packed numbers.
+	 * @param entry	The packed numbers.
+	 * @return	Proof number.
+	 */
+	static int proof(long entry) {
+		return (int) (entry >>> 32);
+	}
+
+	/**
+	 * Returns the disproof number of packed numbers.
+	 * @param entry	The packed numbers.
+	 * @return	Disproof number.
+	 */
+	static int disproof(long entry) {
+		return (int) entry;
+	}
+
+	/**
+	 * Returns the other color.
+	 * @param color	'w' or 'b'.
+	 * @return	'b' or 'w'.
+	 */
+	static char opponent(char color) {
+		return color == 'w' ? 'b' : 'w';
+	}
+
+	/**
+	 * Returns the first move of the mate that was found.
+	 * @return	Packed move, or Move.NONE if no mate was found.
+	 */
+	public int getKeyMove() {
+		return keyMove;
+	}
+
+	/**
+	 * Returns the number of positions searched by the last solve, counting the ones that were only given their first proof and disproof numbers.
+	 * @return	Number of positions.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Empties the hash table.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(numbers, 0);
+	}
+
+}
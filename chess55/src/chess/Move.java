@@ -0,0 +1,153 @@
+package chess;
+
+/**
+ * This class contains the methods used to pack and unpack the moves that are used by the engine.
+ * A move is stored in a single int so that move lists can be kept in plain int arrays during search.
+ * Squares are numbered (row * 8 + col), using the same row and column indices as 'board' in the Board class.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class Move {
+
+	/**
+	 * Value used when there is no move (a8 to a8 can never be a move).
+	 */
+	public static final int NONE = 0;
+	/**
+	 * Flag set when the move captures a Piece (including en passant).
+	 */
+	public static final int CAPTURE = 1 << 15;
+	/**
+	 * Flag set when the move is an en passant capture.
+	 */
+	public static final int ENPASSANT = 1 << 16;
+	/**
+	 * Flag set when the move is a King castling (the King's move is stored, the Rook follows it).
+	 */
+	public static final int CASTLE = 1 << 17;
+	/**
+	 * Flag set when a Pawn moves two spaces.
+	 */
+	public static final int DOUBLE_PUSH = 1 << 18;
+
+	/**
+	 * Piece types that a Pawn can be promoted to, indexed by the promotion field of a move (0 = no promotion).
+	 */
+	static final char[] PROMOTIONS = {' ', 'N', 'B', 'R', 'Q'};
+
+	/**
+	 * Moves only contain static methods, so no Move object is ever created.
+	 */
+	private Move() {
+	}
+
+	/**
+	 * Packs a move into an int.
+	 * @param from		Square index the Piece moves from (row * 8 + col).
+	 * @param to		Square index the Piece moves to (row * 8 + col).
+	 * @param promotion	Type the Pawn is promoted to ('Q', 'R', 'B', 'N'), or ' ' if there is no promotion.
+	 * @param flags		Any combination of CAPTURE, ENPASSANT, CASTLE and DOUBLE_PUSH.
+	 * @return	The packed move.
+	 */
+	public static int encode(int from, int to, char promotion, int flags) {
+		int promo = 0;
+		for(int i = 1; i < PROMOTIONS.length; i++) {
+			if(PROMOTIONS[i] == promotion) {
+				promo = i;
+			}
+		}
+		return from | (to << 6) | (promo << 12) | flags;
+	}
+
+	/**
+	 * Returns the square the move starts from.
+	 * @param move	Packed move.
+	 * @return	Square index (row * 8 + col).
+	 */
+	public static int from(int move) {
+		return move & 63;
+	}
+
+	/**
+	 * Returns the square the move ends on.
+	 * @param move	Packed move.
+	 * @return	Square index (row * 8 + col).
+	 */
+	public static int to(int move) {
+		return (move >>> 6) & 63;
+	}
+
+	/**
+	 * Returns the type the Pawn is promoted to.
+	 * @param move	Packed move.
+	 * @return	'Q', 'R', 'B', 'N', or ' ' if the move is not a promotion.
+	 */
+	public static char promotion(int move) {
+		return PROMOTIONS[(move >>> 12) & 7];
+	}
+
+	/**
+	 * Checks if the move is a promotion.
+	 * @param move	Packed move.
+	 * @return	True if the move promotes a Pawn.
+	 */
+	public static boolean isPromotion(int move) {
+		return ((move >>> 12) & 7) != 0;
+	}
+
+	/**
+	 * Checks if the move captures a Piece.
+	 * @param move	Packed move.
+	 * @return	True if the move is a capture (including en passant).
+	 */
+	public static boolean isCapture(int move) {
+		return (move & CAPTURE) != 0;
+	}
+
+	/**
+	 * Checks if the move is quiet, meaning that it neither captures nor promotes.
+	 * @param move	Packed move.
+	 * @return	True if the move is quiet.
+	 */
+	public static boolean isQuiet(int move) {
+		return (move & CAPTURE) == 0 && !isPromotion(move);
+	}
+
+	/**
+	 * Returns the move without its flags, which is enough to identify it within a position.
+	 * @param move	Packed move.
+	 * @return	From, to and promotion fields of the move.
+	 */
+	public static int key(int move) {
+		return move & 0x7FFF;
+	}
+
+	/**
+	 * Returns the move in the same format that players type it in ("e2 e4" or "e7 e8 N").
+	 * @param move	Packed move.
+	 * @return	The move in String format.
+	 */
+	public static String toString(int move) {
+		if(move == NONE) {
+			return "none";
+		}
+		String text = square(from(move)) + " " + square(to(move));
+		if(isPromotion(move)) {
+			text += " " + promotion(move);
+		}
+		return text;
+	}
+
+	/**
+	 * Returns the FileRank name of a square (Example: "e4").
+	 * @param square	Square index (row * 8 + col).
+	 * @return	The FileRank of the square.
+	 */
+	public static String square(int square) {
+		return "" + (char) ('a' + (square & 7)) + (8 - (square >>> 3));
+	}
+
+}
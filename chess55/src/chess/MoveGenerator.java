@@ -0,0 +1,472 @@
+package chess;
+
+/**
+ * This class creates the lists of moves that the engine searches.
+ * Moves are written straight into int arrays (see the Move class) instead of being tried one by one with isValid,
+ * and captures can be created separately from quiet moves so that quiet moves are only created when they are needed.
+ * The moves are pseudo-legal: after making a move with doMove, Board.check() tells whether it left the King in check.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class MoveGenerator {
+
+	/**
+	 * Row and column steps of a Knight.
+	 */
+	static final int[][] KNIGHT_STEPS = {{2, 1}, {2, -1}, {-2, 1}, {-2, -1}, {1, 2}, {1, -2}, {-1, 2}, {-1, -2}};
+	/**
+	 * Row and column steps of a King, as well as the directions of a Queen.
+	 */
+	static final int[][] KING_STEPS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}, {1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+	/**
+	 * Directions of a Rook.
+	 */
+	static final int[][] ROOK_STEPS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+	/**
+	 * Directions of a Bishop.
+	 */
+	static final int[][] BISHOP_STEPS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+	/**
+	 * The largest number of moves that a single Piece can have (a Queen in the middle of an empty Board).
+	 */
+	static final int MAX_PIECE_MOVES = 32;
+	/**
+	 * Size that move arrays should have to hold every move of a position.
+	 */
+	public static final int MAX_MOVES = 256;
+
+	/**
+	 * MoveGenerator only contains static methods, so no MoveGenerator object is ever created.
+	 */
+	private MoveGenerator() {
+	}
+
+	/**
+	 * Adds every capture, en passant, and promotion to a Queen for the given player.
+	 * @param board	The Board to create moves for.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @param moves	Array that the moves are written into.
+	 * @param count	Index in moves where the first move should be written.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	public static int generateCaptures(Board board, char color, int[] moves, int count) {
+		return generate(board, color, moves, count, true, false);
+	}
+
+	/**
+	 * Adds every move that is not returned by generateCaptures (quiet moves, castling, and promotions to other Pieces).
+	 * @param board	The Board to create moves for.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @param moves	Array that the moves are written into.
+	 * @param count	Index in moves where the first move should be written.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	public static int generateQuiets(Board board, char color, int[] moves, int count) {
+		return generate(board, color, moves, count, false, true);
+	}
+
+	/**
+	 * Adds every pseudo-legal move for the given player.
+	 * @param board	The Board to create moves for.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @param moves	Array that the moves are written into.
+	 * @param count	Index in moves where the first move should be written.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	public static int generateAll(Board board, char color, int[] moves, int count) {
+		return generate(board, color, moves, count, true, true);
+	}
+
+	/**
+	 * Writes every legal move for the given player into moves, starting at index 0.
+	 * @param board	The Board to create moves for.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @param moves	Array that the moves are written into (should hold MAX_MOVES moves).
+	 * @return	Number of legal moves.
+	 */
+	public static int generateLegal(Board board, char color, int[] moves) {
+		int count = generateAll(board, color, moves, 0);
+		int legal = 0;
+		for(int i = 0; i < count; i++) {
+			if(isLegal(board, color, moves[i])) {
+				moves[legal++] = moves[i];
+			}
+		}
+		return legal;
+	}
+
+	/**
+	 * Writes every legal move of a player whose King is in check into moves, starting at index 0.
+	 * Only King moves, captures of the checking Piece and moves onto the squares between it and the King are tested for legality,
+	 * which is much less work than generateLegal, since most moves can't get out of check.
+	 * @param board	The Board to create moves for.
+	 * @param color	Color of the player who's turn it is ('w' or 'b'), whose King is in check.
+	 * @param moves	Array that the moves are written into (should hold MAX_MOVES moves).
+	 * @return	Number of legal moves.
+	 */
+	public static int generateEvasions(Board board, char color, int[] moves) {
+		int[] king = board.getKing(color);
+		int kingSquare = king[0] * 8 + king[1];
+		long checkers = checkers(board, color, king[0], king[1]);
+		// a capture or a block stops a single check, and only a King move stops a double check
+		long targets = 0;
+		if(Long.bitCount(checkers) == 1) {
+			int checker = Long.numberOfTrailingZeros(checkers);
+			targets = checkers | between(kingSquare, checker);
+		}
+		int count = generateAll(board, color, moves, 0);
+		int legal = 0;
+		for(int i = 0; i < count; i++) {
+			int move = moves[i];
+			int from = Move.from(move);
+			int to = Move.to(move);
+			boolean candidate;
+			if(from == kingSquare) {
+				candidate = true;
+			}
+			else if((move & Move.ENPASSANT) != 0) {
+				candidate = (targets & 1L << ((from & ~7) | (to & 7))) != 0; // the Pawn taken is beside the one that takes it
+			}
+			else {
+				candidate = (targets & 1L << to) != 0;
+			}
+			if(candidate && isLegal(board, color, move)) {
+				moves[legal++] = move;
+			}
+		}
+		return legal;
+	}
+
+	/**
+	 * Finds the Pieces that give check to a King.
+	 * @param board	The Board.
+	 * @param color	Color of the King.
+	 * @param row	Row index of the King.
+	 * @param col	Column index of the King.
+	 * @return	Bit (row * 8 + col) set for each square with a Piece giving check.
+	 */
+	static long checkers(Board board, char color, int row, int col) {
+		Piece[][] gameBoard = board.getBoard();
+		long checkers = 0;
+		for(int[] step : KNIGHT_STEPS) {
+			int r = row + step[0];
+			int c = col + step[1];
+			if(r >= 0 && r < 8 && c >= 0 && c < 8 && gameBoard[r][c] != null && gameBoard[r][c].getColor() != color && gameBoard[r][c].getType() == 'N') {
+				checkers |= 1L << (r * 8 + c);
+			}
+		}
+		// Black Pawns take towards row 7, so they attack a White King from the row above it (and White Pawns a Black King from below)
+		int pawnRow = color == 'w' ? row - 1 : row + 1;
+		for(int c = col - 1; c <= col + 1; c += 2) {
+			if(pawnRow >= 0 && pawnRow < 8 && c >= 0 && c < 8 && gameBoard[pawnRow][c] != null && gameBoard[pawnRow][c].getColor() != color && gameBoard[pawnRow][c].getType() == 'p') {
+				checkers |= 1L << (pawnRow * 8 + c);
+			}
+		}
+		for(int[] step : KING_STEPS) {
+			boolean diagonal = step[0] != 0 && step[1] != 0;
+			int r = row + step[0];
+			int c = col + step[1];
+			while(r >= 0 && r < 8 && c >= 0 && c < 8) {
+				Piece piece = gameBoard[r][c];
+				if(piece != null) {
+					char type = piece.getType();
+					if(piece.getColor() != color && (type == 'Q' || type == (diagonal ? 'B' : 'R'))) {
+						checkers |= 1L << (r * 8 + c);
+					}
+					break;
+				}
+				r += step[0];
+				c += step[1];
+			}
+		}
+		return checkers;
+	}
+
+	/**
+	 * Returns the squares strictly between two squares on the same row, column or diagonal.
+	 * @param from	Square index (row * 8 + col).
+	 * @param to	Square index (row * 8 + col).
+	 * @return	Bit (row * 8 + col) set for each square between them, or 0 if they are not on a line or next to each other.
+	 */
+	static long between(int from, int to) {
+		int dr = Integer.signum((to >> 3) - (from >> 3));
+		int dc = Integer.signum((to & 7) - (from & 7));
+		int rows = Math.abs((to >> 3) - (from >> 3));
+		int cols = Math.abs((to & 7) - (from & 7));
+		if(rows != 0 && cols != 0 && rows != cols) {
+			return 0;
+		}
+		long squares = 0;
+		for(int r = (from >> 3) + dr, c = (from & 7) + dc; r * 8 + c != to; r += dr, c += dc) {
+			squares |= 1L << (r * 8 + c);
+		}
+		return squares;
+	}
+
+	/**
+	 * Checks if a pseudo-legal move does not leave the player's own King in check.
+	 * @param board	The Board the move is made on.
+	 * @param color	Color of the player making the move.
+	 * @param move	Packed move.
+	 * @return	True if the move is legal.
+	 */
+	public static boolean isLegal(Board board, char color, int move) {
+		board.doMove(move);
+		boolean legal = board.check(color);
+		board.undoMove(move);
+		return legal;
+	}
+
+	/**
+	 * Looks for a move with the same squares and promotion among the pseudo-legal moves of the Piece it starts from.
+	 * This is used to make sure that moves which come from somewhere else (the hash table, killer moves, user input) can be played.
+	 * @param board		The Board to look on.
+	 * @param color		Color of the player who's turn it is.
+	 * @param move		Packed move (only the squares and promotion are compared).
+	 * @param scratch	Array of at least MAX_PIECE_MOVES moves that can be overwritten.
+	 * @return	The matching move with its flags, or Move.NONE if the Piece can't make that move.
+	 */
+	public static int findMove(Board board, char color, int move, int[] scratch) {
+		if(move == Move.NONE) {
+			return Move.NONE;
+		}
+		int from = Move.from(move);
+		Piece piece = board.getPiece(from >>> 3, from & 7);
+		if(piece == null || piece.getColor() != color) {
+			return Move.NONE;
+		}
+		int count = generatePiece(board, piece, scratch, 0, true, true);
+		for(int i = 0; i < count; i++) {
+			if(Move.key(scratch[i]) == Move.key(move)) {
+				return scratch[i];
+			}
+		}
+		return Move.NONE;
+	}
+
+	/**
+	 * Adds the moves of every Piece of the given player.
+	 * @param board		The Board to create moves for.
+	 * @param color		Color of the player who's turn it is.
+	 * @param moves		Array that the moves are written into.
+	 * @param count		Index in moves where the first move should be written.
+	 * @param captures	True if captures and promotions to a Queen should be added.
+	 * @param quiets	True if all other moves should be added.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	static int generate(Board board, char color, int[] moves, int count, boolean captures, boolean quiets) {
+		Piece[][] gameBoard = board.getBoard();
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				Piece piece = gameBoard[i][j];
+				if(piece != null && piece.getColor() == color) {
+					count = generatePiece(board, piece, moves, count, captures, quiets);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the moves of a single Piece.
+	 * @param board		The Board the Piece is on.
+	 * @param piece		The Piece to create moves for.
+	 * @param moves		Array that the moves are written into.
+	 * @param count		Index in moves where the first move should be written.
+	 * @param captures	True if captures and promotions to a Queen should be added.
+	 * @param quiets	True if all other moves should be added.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	static int generatePiece(Board board, Piece piece, int[] moves, int count, boolean captures, boolean quiets) {
+		switch(piece.getType()) {
+			case 'p':
+				return generatePawn(board, piece, moves, count, captures, quiets);
+			case 'N':
+				return generateSteps(board, piece, KNIGHT_STEPS, false, moves, count, captures, quiets);
+			case 'B':
+				return generateSteps(board, piece, BISHOP_STEPS, true, moves, count, captures, quiets);
+			case 'R':
+				return generateSteps(board, piece, ROOK_STEPS, true, moves, count, captures, quiets);
+			case 'Q':
+				return generateSteps(board, piece, KING_STEPS, true, moves, count, captures, quiets);
+			default:
+				count = generateSteps(board, piece, KING_STEPS, false, moves, count, captures, quiets);
+				if(quiets) {
+					count = generateCastles(board, piece, moves, count);
+				}
+				return count;
+		}
+	}
+
+	/**
+	 * Adds the moves of a Knight, Bishop, Rook, Queen or King.
+	 * @param board		The Board the Piece is on.
+	 * @param piece		The Piece to create moves for.
+	 * @param steps		Row and column steps the Piece can take.
+	 * @param slide		True if the Piece can keep going in the direction of a step until it is blocked.
+	 * @param moves		Array that the moves are written into.
+	 * @param count		Index in moves where the first move should be written.
+	 * @param captures	True if captures should be added.
+	 * @param quiets	True if non-captures should be added.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	private static int generateSteps(Board board, Piece piece, int[][] steps, boolean slide, int[] moves, int count, boolean captures, boolean quiets) {
+		Piece[][] gameBoard = board.getBoard();
+		int row = piece.getRow();
+		int col = piece.getCol();
+		int from = row * 8 + col;
+		for(int[] step : steps) {
+			int r = row + step[0];
+			int c = col + step[1];
+			while(r >= 0 && r < 8 && c >= 0 && c < 8) {
+				Piece target = gameBoard[r][c];
+				if(target == null) {
+					if(quiets) {
+						moves[count++] = Move.encode(from, r * 8 + c, ' ', 0);
+					}
+				}
+				else {
+					if(captures && target.getColor() != piece.getColor()) {
+						moves[count++] = Move.encode(from, r * 8 + c, ' ', Move.CAPTURE);
+					}
+					break;
+				}
+				if(!slide) {
+					break;
+				}
+				r += step[0];
+				c += step[1];
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the moves of a Pawn, including double moves, en passant and promotions.
+	 * @param board		The Board the Pawn is on.
+	 * @param pawn		The Pawn to create moves for.
+	 * @param moves		Array that the moves are written into.
+	 * @param count		Index in moves where the first move should be written.
+	 * @param captures	True if captures and promotions to a Queen should be added.
+	 * @param quiets	True if all other moves should be added.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	private static int generatePawn(Board board, Piece pawn, int[] moves, int count, boolean captures, boolean quiets) {
+		Piece[][] gameBoard = board.getBoard();
+		char color = pawn.getColor();
+		int row = pawn.getRow();
+		int col = pawn.getCol();
+		int from = row * 8 + col;
+		int dir = color == 'w' ? -1 : 1;
+		int startRow = color == 'w' ? 6 : 1;
+		int promoteRow = color == 'w' ? 0 : 7;
+		int next = row + dir;
+
+		// moving forward
+		if(gameBoard[next][col] == null) {
+			int to = next * 8 + col;
+			if(next == promoteRow) {
+				if(captures) {
+					moves[count++] = Move.encode(from, to, 'Q', 0);
+				}
+				if(quiets) {
+					moves[count++] = Move.encode(from, to, 'N', 0);
+					moves[count++] = Move.encode(from, to, 'R', 0);
+					moves[count++] = Move.encode(from, to, 'B', 0);
+				}
+			}
+			else if(quiets) {
+				moves[count++] = Move.encode(from, to, ' ', 0);
+				if(row == startRow && gameBoard[next + dir][col] == null) {
+					moves[count++] = Move.encode(from, (next + dir) * 8 + col, ' ', Move.DOUBLE_PUSH);
+				}
+			}
+		}
+		if(!captures) {
+			return count;
+		}
+
+		// attacking diagonally
+		int[] enpassant = board.getEnpassant();
+		char enpassantColor = board.getEnpassantColor();
+		for(int c = col - 1; c <= col + 1; c += 2) {
+			if(c < 0 || c > 7) {
+				continue;
+			}
+			Piece target = gameBoard[next][c];
+			int to = next * 8 + c;
+			if(target != null && target.getColor() != color) {
+				if(next == promoteRow) {
+					moves[count++] = Move.encode(from, to, 'Q', Move.CAPTURE);
+					moves[count++] = Move.encode(from, to, 'N', Move.CAPTURE);
+					moves[count++] = Move.encode(from, to, 'R', Move.CAPTURE);
+					moves[count++] = Move.encode(from, to, 'B', Move.CAPTURE);
+				}
+				else {
+					moves[count++] = Move.encode(from, to, ' ', Move.CAPTURE);
+				}
+			}
+			else if(target == null && enpassantColor != 'n' && enpassantColor != color && enpassant[0] == row && enpassant[1] == c) {
+				moves[count++] = Move.encode(from, to, ' ', Move.CAPTURE | Move.ENPASSANT);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Adds the castles that the King is allowed to make.
+	 * The King can't castle out of check or through an attacked square; the square it lands on is checked after doMove like any other move.
+	 * @param board	The Board the King is on.
+	 * @param king	The King to create moves for.
+	 * @param moves	Array that the moves are written into.
+	 * @param count	Index in moves where the first move should be written.
+	 * @return	Index in moves after the last move that was written.
+	 */
+	private static int generateCastles(Board board, Piece king, int[] moves, int count) {
+		char color = king.getColor();
+		int row = king.getRow();
+		int rights = board.castleRights() >>> (color == 'w' ? 0 : 2);
+		if((rights & 3) == 0 || row != (color == 'w' ? 7 : 0) || king.getCol() != 4) {
+			return count;
+		}
+		Piece[][] gameBoard = board.getBoard();
+		int from = row * 8 + 4;
+		if(!board.check(color)) { // King is in check, cannot castle!
+			return count;
+		}
+		if((rights & 1) != 0 && gameBoard[row][1] == null && gameBoard[row][2] == null && gameBoard[row][3] == null && squareSafe(board, king, 3)) {
+			moves[count++] = Move.encode(from, row * 8 + 2, ' ', Move.CASTLE);
+		}
+		if((rights & 2) != 0 && gameBoard[row][5] == null && gameBoard[row][6] == null && squareSafe(board, king, 5)) {
+			moves[count++] = Move.encode(from, row * 8 + 6, ' ', Move.CASTLE);
+		}
+		return count;
+	}
+
+	/**
+	 * Checks if the King would be safe on an empty square of its row, by moving it there for a moment.
+	 * @param board	The Board the King is on.
+	 * @param king	The King.
+	 * @param col	Column index of the empty square.
+	 * @return	True if the King would not be in check on that square.
+	 */
+	private static boolean squareSafe(Board board, Piece king, int col) {
+		Piece[][] gameBoard = board.getBoard();
+		char color = king.getColor();
+		int row = king.getRow();
+		int oldCol = king.getCol();
+		gameBoard[row][oldCol] = null;
+		gameBoard[row][col] = king;
+		board.setKing(color, row, col);
+		boolean safe = board.check(color);
+		gameBoard[row][col] = null;
+		gameBoard[row][oldCol] = king;
+		board.setKing(color, row, oldCol);
+		return safe;
+	}
+
+}
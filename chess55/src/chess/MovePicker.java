@@ -0,0 +1,286 @@
+package chess;
+
+/**
+ * This class hands the moves of a position to the search one at a time, in the order that is most likely to cause a cutoff.
+ * The move from the TranspositionTable comes first, then captures from the most valuable victim to the least valuable attacker,
+ * then the killer moves, and finally the quiet moves sorted by the history table.
+ * Each group of moves is only created when the previous one has run out, so a cutoff on an early move saves creating the rest.
+ * The search keeps one MovePicker per ply and reuses it, so no objects are created while searching.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class MovePicker {
+
+	/**
+	 * Stage that returns the move from the TranspositionTable.
+	 */
+	static final int HASH = 0;
+	/**
+	 * Stage that creates the captures.
+	 */
+	static final int GENERATE_CAPTURES = 1;
+	/**
+	 * Stage that returns the captures.
+	 */
+	static final int CAPTURES = 2;
+	/**
+	 * Stage that returns the first killer move.
+	 */
+	static final int KILLER1 = 3;
+	/**
+	 * Stage that returns the second killer move.
+	 */
+	static final int KILLER2 = 4;
+	/**
+	 * Stage that creates the quiet moves.
+	 */
+	static final int GENERATE_QUIETS = 5;
+	/**
+	 * Stage that returns the quiet moves.
+	 */
+	static final int QUIETS = 6;
+	/**
+	 * Stage after every move was returned.
+	 */
+	static final int DONE = 7;
+
+	/**
+	 * Moves of the current stage.
+	 */
+	int[] moves = new int[MoveGenerator.MAX_MOVES];
+	/**
+	 * Ordering score of each move in moves.
+	 */
+	int[] scores = new int[MoveGenerator.MAX_MOVES];
+	/**
+	 * Array used by MoveGenerator.findMove to check moves that did not come from this position.
+	 */
+	int[] scratch = new int[MoveGenerator.MAX_PIECE_MOVES];
+	/**
+	 * Number of moves in moves.
+	 */
+	int count;
+	/**
+	 * Index of the next move in moves.
+	 */
+	int index;
+	/**
+	 * Current stage.
+	 */
+	int stage;
+	/**
+	 * True if only captures and promotions to a Queen should be returned (used by quiescence search).
+	 */
+	boolean capturesOnly;
+
+	/**
+	 * The Board the moves are for.
+	 */
+	Board board;
+	/**
+	 * Color of the player who's turn it is.
+	 */
+	char color;
+	/**
+	 * Move from the TranspositionTable (Move.NONE if there is none or it can't be played here).
+	 */
+	int hashMove;
+	/**
+	 * First killer move of this ply.
+	 */
+	int killer1;
+	/**
+	 * Second killer move of this ply.
+	 */
+	int killer2;
+	/**
+	 * History table of the search, indexed by [color][from * 64 + to].
+	 */
+	int[][] history;
+
+	/**
+	 * Starts picking the moves of a position for the main search.
+	 * @param board		The Board the moves are for.
+	 * @param color		Color of the player who's turn it is ('w' or 'b').
+	 * @param hashMove	Move from the TranspositionTable, or Move.NONE.
+	 * @param killer1	First killer move of this ply, or Move.NONE.
+	 * @param killer2	Second killer move of this ply, or Move.NONE.
+	 * @param history	History table of the search.
+	 */
+	public void init(Board board, char color, int hashMove, int killer1, int killer2, int[][] history) {
+		this.board = board;
+		this.color = color;
+		this.hashMove = MoveGenerator.findMove(board, color, hashMove, scratch);
+		this.killer1 = killer1;
+		this.killer2 = killer2;
+		this.history = history;
+		this.capturesOnly = false;
+		this.stage = HASH;
+		this.count = 0;
+		this.index = 0;
+	}
+
+	/**
+	 * Starts picking only the captures and promotions to a Queen of a position, for quiescence search.
+	 * @param board		The Board the moves are for.
+	 * @param color		Color of the player who's turn it is ('w' or 'b').
+	 * @param hashMove	Move from the TranspositionTable, or Move.NONE (it is skipped if it is quiet).
+	 */
+	public void initCaptures(Board board, char color, int hashMove) {
+		init(board, color, hashMove, Move.NONE, Move.NONE, null);
+		this.capturesOnly = true;
+		if(this.hashMove != Move.NONE && Move.isQuiet(this.hashMove)) {
+			this.hashMove = Move.NONE;
+		}
+	}
+
+	/**
+	 * Returns the next move to search.
+	 * @return	The next pseudo-legal move, or Move.NONE if there are no moves left.
+	 */
+	public int next() {
+		while(true) {
+			switch(stage) {
+				case HASH:
+					stage = GENERATE_CAPTURES;
+					if(hashMove != Move.NONE) {
+						return hashMove;
+					}
+					break;
+				case GENERATE_CAPTURES:
+					count = MoveGenerator.generateCaptures(board, color, moves, 0);
+					index = 0;
+					for(int i = 0; i < count; i++) {
+						scores[i] = captureScore(moves[i]);
+					}
+					stage = CAPTURES;
+					break;
+				case CAPTURES:
+					while(index < count) {
+						int move = pickBest();
+						if(!sameMove(move, hashMove)) {
+							return move;
+						}
+					}
+					stage = capturesOnly ? DONE : KILLER1;
+					break;
+				case KILLER1:
+					stage = KILLER2;
+					killer1 = playableKiller(killer1);
+					if(killer1 != Move.NONE) {
+						return killer1;
+					}
+					break;
+				case KILLER2:
+					stage = GENERATE_QUIETS;
+					killer2 = sameMove(killer2, killer1) ? Move.NONE : playableKiller(killer2);
+					if(killer2 != Move.NONE) {
+						return killer2;
+					}
+					break;
+				case GENERATE_QUIETS:
+					count = MoveGenerator.generateQuiets(board, color, moves, 0);
+					index = 0;
+					int[] colorHistory = history[color == 'w' ? 0 : 1];
+					for(int i = 0; i < count; i++) {
+						scores[i] = colorHistory[moves[i] & 0xFFF];
+					}
+					stage = QUIETS;
+					break;
+				case QUIETS:
+					while(index < count) {
+						int move = pickBest();
+						if(!sameMove(move, hashMove) && !sameMove(move, killer1) && !sameMove(move, killer2)) {
+							return move;
+						}
+					}
+					stage = DONE;
+					break;
+				default:
+					return Move.NONE;
+			}
+		}
+	}
+
+	/**
+	 * Returns the stage that the last move came from.
+	 * @return	True if the last move was a quiet move that was not the hash move or a killer move.
+	 */
+	public boolean inQuietStage() {
+		return stage == QUIETS;
+	}
+
+	/**
+	 * Moves the best scoring move that is left to the next index and returns it (one step of a selection sort).
+	 * Since most nodes cut off after a few moves, this is cheaper than sorting every move up front.
+	 * @return	The best move that is left.
+	 */
+	private int pickBest() {
+		int best = index;
+		for(int i = index + 1; i < count; i++) {
+			if(scores[i] > scores[best]) {
+				best = i;
+			}
+		}
+		int move = moves[best];
+		int score = scores[best];
+		moves[best] = moves[index];
+		scores[best] = scores[index];
+		moves[index] = move;
+		scores[index] = score;
+		index++;
+		return move;
+	}
+
+	/**
+	 * Scores a capture by the most valuable victim and then by the least valuable attacker.
+	 * @param move	Packed move.
+	 * @return	Ordering score of the capture.
+	 */
+	private int captureScore(int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		Piece attacker = board.getPiece(from >>> 3, from & 7);
+		int score = 0;
+		if((move & Move.ENPASSANT) != 0) {
+			score = Evaluator.value('p') * 8;
+		}
+		else if(Move.isCapture(move)) {
+			score = Evaluator.value(board.getPiece(to >>> 3, to & 7).getType()) * 8;
+		}
+		if(Move.isPromotion(move)) {
+			score += Evaluator.value(Move.promotion(move));
+		}
+		return score - Zobrist.typeIndex(attacker.getType());
+	}
+
+	/**
+	 * Checks if a killer move is a quiet move that can be played in this position and was not already returned as the hash move.
+	 * @param killer	Killer move.
+	 * @return	The killer move with its flags for this position, or Move.NONE.
+	 */
+	private int playableKiller(int killer) {
+		if(killer == Move.NONE || sameMove(killer, hashMove)) {
+			return Move.NONE;
+		}
+		int move = MoveGenerator.findMove(board, color, killer, scratch);
+		if(move == Move.NONE || !Move.isQuiet(move)) {
+			return Move.NONE;
+		}
+		return move;
+	}
+
+	/**
+	 * Checks if two moves have the same squares and promotion.
+	 * @param a	Packed move.
+	 * @param b	Packed move.
+	 * @return	True if both are the same move.
+	 */
+	private static boolean sameMove(int a, int b) {
+		return b != Move.NONE && Move.key(a) == Move.key(b);
+	}
+
+}
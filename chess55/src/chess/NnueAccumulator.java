@@ -0,0 +1,124 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * This class keeps the first layer sums of an NnueNetwork for a Board, seen from both players, up to date move by move.
+ * Board.doMove saves the sums and then only adds and subtracts the weights of the Pieces that were placed and removed,
+ * and Board.undoMove goes back to the saved sums, so the full sums are only computed when the Board is set up (Board.resetKey).
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class NnueAccumulator {
+
+	/**
+	 * The network.
+	 */
+	NnueNetwork network;
+	/**
+	 * Sums seen from White, for the current position and each position before a move made since the last refresh.
+	 */
+	short[][] white;
+	/**
+	 * Sums seen from Black, for the current position and each position before a move made since the last refresh.
+	 */
+	short[][] black;
+	/**
+	 * Index of the sums of the current position.
+	 */
+	int depth;
+
+	/**
+	 * This constructor creates the sums for a network.
+	 * @param network	The network.
+	 */
+	public NnueAccumulator(NnueNetwork network) {
+		this.network = network;
+		this.white = new short[Search.MAX_PLY * 2][network.size];
+		this.black = new short[Search.MAX_PLY * 2][network.size];
+	}
+
+	/**
+	 * Computes the sums of a Board from scratch and forgets the saved sums.
+	 * @param board	The Board.
+	 */
+	public void refresh(Board board) {
+		depth = 0;
+		short[] whiteSums = white[0];
+		short[] blackSums = black[0];
+		System.arraycopy(network.inputBiases, 0, whiteSums, 0, whiteSums.length);
+		System.arraycopy(network.inputBiases, 0, blackSums, 0, blackSums.length);
+		Piece[][] pieces = board.getBoard();
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				if(pieces[i][j] != null) {
+					add(pieces[i][j], i * 8 + j);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Saves the current sums before a move changes them.
+	 */
+	void push() {
+		if(depth + 1 == white.length) {
+			white = Arrays.copyOf(white, white.length * 2);
+			black = Arrays.copyOf(black, black.length * 2);
+			for(int i = depth + 1; i < white.length; i++) {
+				white[i] = new short[network.size];
+				black[i] = new short[network.size];
+			}
+		}
+		System.arraycopy(white[depth], 0, white[depth + 1], 0, network.size);
+		System.arraycopy(black[depth], 0, black[depth + 1], 0, network.size);
+		depth++;
+	}
+
+	/**
+	 * Goes back to the sums saved by the last push.
+	 * If the sums were refreshed since that push (the Board was set up again between a move and taking it back),
+	 * nothing was saved, so the sums of the Board are computed from scratch instead.
+	 * @param board	The Board, with the move already taken back.
+	 */
+	void pop(Board board) {
+		if(depth == 0) {
+			refresh(board);
+			return;
+		}
+		depth--;
+	}
+
+	/**
+	 * Adds a Piece that was placed on a square.
+	 * @param piece		The Piece.
+	 * @param square	Its square (row * 8 + col).
+	 */
+	void add(Piece piece, int square) {
+		network.add(white[depth], network.inputOffset(piece, square, 'w'));
+		network.add(black[depth], network.inputOffset(piece, square, 'b'));
+	}
+
+	/**
+	 * Subtracts a Piece that was taken off a square.
+	 * @param piece		The Piece.
+	 * @param square	Its square (row * 8 + col).
+	 */
+	void remove(Piece piece, int square) {
+		network.subtract(white[depth], network.inputOffset(piece, square, 'w'));
+		network.subtract(black[depth], network.inputOffset(piece, square, 'b'));
+	}
+
+	/**
+	 * Scores the current position.
+	 * @param color	Color of the player the score is for ('w' or 'b').
+	 * @return	Score in centipawns; positive if the position is better for the given player.
+	 */
+	public int evaluate(char color) {
+		return color == 'w' ? network.forward(white[depth], black[depth]) : network.forward(black[depth], white[depth]);
+	}
+
+}
@@ -0,0 +1,48 @@
+package chess;
+
+/**
+ * This interface is the arithmetic of an NnueNetwork, for code that does it faster than the plain loops of NnueNetwork.
+ * Its only implementation is NnueVectors, which needs the Vector API and so is compiled separately and loaded by name (see NnueNetwork.KERNEL).
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+interface NnueKernel {
+
+	/**
+	 * Adds the weights of an input to first layer sums.
+	 * @param sums		The sums.
+	 * @param weights	The first layer weights.
+	 * @param offset	Index of the first weight of the input.
+	 */
+	void add(short[] sums, short[] weights, int offset);
+
+	/**
+	 * Subtracts the weights of an input from first layer sums.
+	 * @param sums		The sums.
+	 * @param weights	The first layer weights.
+	 * @param offset	Index of the first weight of the input.
+	 */
+	void subtract(short[] sums, short[] weights, int offset);
+
+	/**
+	 * Clips first layer sums to [0, max], widening them to ints.
+	 * @param sums		The sums.
+	 * @param max		Largest value a clipped sum can have.
+	 * @param inputs	Array the clipped sums are written to.
+	 * @param offset	Index in inputs of the first clipped sum.
+	 */
+	void clip(short[] sums, int max, int[] inputs, int offset);
+
+	/**
+	 * Multiplies the clipped sums with a row of weights.
+	 * @param inputs	The clipped sums.
+	 * @param weights	The weights.
+	 * @param offset	Index of the first weight of the row.
+	 * @return	The dot product.
+	 */
+	int dot(int[] inputs, int[] weights, int offset);
+
+}
@@ -0,0 +1,362 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is a small neural network that scores positions, read from a file mapped into memory (an NNUE-style network).
+ * The first layer has one input for each (own or opponent, type, square) seen from each player's side, 768 in all,
+ * and its sums for both players are kept up to date move by move in an NnueAccumulator instead of being computed from scratch.
+ * The sums of the player to move and of the opponent are clipped to [0, clip] and go through an optional hidden layer to the output.
+ * All weights are 16 bit integers. The file is read through a mapping into arrays once, and one NnueNetwork is shared by all Boards and threads.
+ * The sums and dot products are plain loops. When the program runs with "--add-modules jdk.incubator.vector" and NnueVectors was compiled
+ * (it is in src-vector, since only it needs that module), they are done on the widest vector instructions of the machine instead,
+ * unless "-Dchess.nnue.scalar=true" is given.
+ *
+ * File layout (little-endian): the header (MAGIC, first layer size, hidden layer size, clip, hidden shift, output divisor as ints),
+ * then the first layer weights (768 x size shorts) and biases (size shorts), the hidden layer weights (hidden x 2 size shorts)
+ * and biases (hidden ints), the output weights (hidden shorts, or 2 size shorts without a hidden layer) and the output bias (int).
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class NnueNetwork {
+
+	/**
+	 * First 4 bytes of a network file ("CNN1").
+	 */
+	static final int MAGIC = 0x434E4E31;
+	/**
+	 * Size of the header in bytes.
+	 */
+	static final int HEADER = 24;
+	/**
+	 * Number of inputs: own or opponent, 6 types, 64 squares.
+	 */
+	static final int INPUTS = 2 * 6 * 64;
+	/**
+	 * Arithmetic done with the Vector API (NnueVectors), or null to use the plain loops below.
+	 */
+	static final NnueKernel KERNEL = loadKernel();
+
+	/**
+	 * Number of sums of the first layer for each player.
+	 */
+	int size;
+	/**
+	 * Number of neurons of the hidden layer (0 if the clipped sums go straight to the output).
+	 */
+	int hidden;
+	/**
+	 * Largest value a clipped sum can have.
+	 */
+	int clip;
+	/**
+	 * Number of bits the hidden layer sums are shifted right before they are clipped.
+	 */
+	int hiddenShift;
+	/**
+	 * Number the output is divided by to get centipawns.
+	 */
+	int divisor;
+	/**
+	 * Weights of the first layer, size for each input.
+	 * They are copied out of the mapping, since reading each weight from a buffer is several times slower than from an array.
+	 */
+	short[] inputWeights;
+	/**
+	 * Biases of the first layer.
+	 */
+	short[] inputBiases;
+	/**
+	 * Weights of the hidden layer, 2 size for each neuron (player to move first).
+	 * They are widened to ints, since the JIT compiler turns int dot products into vector instructions but not short ones.
+	 */
+	int[] hiddenWeights;
+	/**
+	 * Biases of the hidden layer.
+	 */
+	int[] hiddenBiases;
+	/**
+	 * Weights of the output, for each hidden neuron, or for each clipped sum without a hidden layer.
+	 */
+	int[] outputWeights;
+	/**
+	 * Bias of the output.
+	 */
+	int outputBias;
+	/**
+	 * Clipped sums of both players of each thread, so that scoring allocates nothing.
+	 */
+	ThreadLocal<int[]> clipped;
+
+	/**
+	 * This constructor maps a network file.
+	 * @param path	Path of the file.
+	 * @throws IOException	If the file can't be read or is not a network.
+	 */
+	public NnueNetwork(Path path) throws IOException {
+		MappedByteBuffer mapping;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		ByteBuffer buffer = mapping.order(ByteOrder.LITTLE_ENDIAN);
+		if(buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a network file: " + path);
+		}
+		size = buffer.getInt(4);
+		hidden = buffer.getInt(8);
+		clip = buffer.getInt(12);
+		hiddenShift = buffer.getInt(16);
+		divisor = buffer.getInt(20);
+		int outputs = hidden > 0 ? hidden : 2 * size;
+		long expected = HEADER + 2L * INPUTS * size + 2L * size + 2L * hidden * 2 * size + 4L * hidden + 2L * outputs + 4;
+		if(size <= 0 || hidden < 0 || clip <= 0 || clip > Short.MAX_VALUE || divisor <= 0 || buffer.capacity() != expected) {
+			throw new IOException("Network file has the wrong size or header: " + path);
+		}
+
+		buffer.position(HEADER);
+		inputWeights = new short[INPUTS * size];
+		buffer.asShortBuffer().get(inputWeights);
+		buffer.position(HEADER + 2 * INPUTS * size);
+		inputBiases = new short[size];
+		buffer.asShortBuffer().get(inputBiases);
+		buffer.position(buffer.position() + 2 * size);
+		hiddenWeights = readShorts(buffer, hidden * 2 * size);
+		hiddenBiases = new int[hidden];
+		buffer.asIntBuffer().get(hiddenBiases);
+		buffer.position(buffer.position() + 4 * hidden);
+		outputWeights = readShorts(buffer, outputs);
+		outputBias = buffer.getInt();
+		int inputs = 2 * size;
+		clipped = ThreadLocal.withInitial(() -> new int[inputs]);
+	}
+
+	/**
+	 * Loads NnueVectors if the Vector API module is loaded and the class was compiled.
+	 * It is found by name so that the rest of the program compiles and runs without the module.
+	 * @return	The kernel, or null if the plain loops are used.
+	 */
+	static NnueKernel loadKernel() {
+		if(Boolean.getBoolean("chess.nnue.scalar") || !ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			return null;
+		}
+		try {
+			return (NnueKernel) Class.forName("chess.NnueVectors").getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads shorts from a buffer into ints.
+	 * @param buffer	The buffer, at the first short; its position is moved past the shorts.
+	 * @param count		Number of shorts.
+	 * @return	The values.
+	 */
+	static int[] readShorts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		for(int i = 0; i < count; i++) {
+			values[i] = buffer.getShort();
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the index of the first weight of an input.
+	 * @param piece		The Piece.
+	 * @param square	Square of the Piece (row * 8 + col).
+	 * @param side		Color of the player the input is seen from ('w' or 'b').
+	 * @return	Index in inputWeights.
+	 */
+	int inputOffset(Piece piece, int square, char side) {
+		int own = piece.getColor() == side ? 0 : 1;
+		int relative = side == 'w' ? square : square ^ 56;
+		return ((own * 6 + Zobrist.typeIndex(piece.getType())) * 64 + relative) * size;
+	}
+
+	/**
+	 * Adds the weights of an input to first layer sums.
+	 * @param sums		The sums.
+	 * @param offset	Index of the first weight of the input.
+	 */
+	void add(short[] sums, int offset) {
+		if(KERNEL != null) {
+			KERNEL.add(sums, inputWeights, offset);
+			return;
+		}
+		short[] weights = inputWeights;
+		for(int i = 0; i < sums.length; i++) {
+			sums[i] += weights[offset + i];
+		}
+	}
+
+	/**
+	 * Subtracts the weights of an input from first layer sums.
+	 * @param sums		The sums.
+	 * @param offset	Index of the first weight of the input.
+	 */
+	void subtract(short[] sums, int offset) {
+		if(KERNEL != null) {
+			KERNEL.subtract(sums, inputWeights, offset);
+			return;
+		}
+		short[] weights = inputWeights;
+		for(int i = 0; i < sums.length; i++) {
+			sums[i] -= weights[offset + i];
+		}
+	}
+
+	/**
+	 * Computes the score from the first layer sums of both players.
+	 * @param us	Sums seen from the player to move.
+	 * @param them	Sums seen from the opponent.
+	 * @return	Score in centipawns for the player to move.
+	 */
+	int forward(short[] us, short[] them) {
+		int[] inputs = clipped.get();
+		clip(us, inputs, 0);
+		clip(them, inputs, size);
+		int output = outputBias;
+		if(hidden == 0) {
+			return (output + dot(inputs, outputWeights, 0)) / divisor;
+		}
+		for(int j = 0; j < hidden; j++) {
+			int sum = hiddenBiases[j] + dot(inputs, hiddenWeights, j * inputs.length);
+			output += Math.max(0, Math.min(clip, sum >> hiddenShift)) * outputWeights[j];
+		}
+		return output / divisor;
+	}
+
+	/**
+	 * Clips first layer sums to [0, clip].
+	 * @param sums		The sums.
+	 * @param inputs	Array the clipped sums are written to.
+	 * @param offset	Index in inputs of the first clipped sum.
+	 */
+	void clip(short[] sums, int[] inputs, int offset) {
+		if(KERNEL != null) {
+			KERNEL.clip(sums, clip, inputs, offset);
+			return;
+		}
+		int max = clip;
+		for(int i = 0; i < sums.length; i++) {
+			inputs[offset + i] = Math.max(0, Math.min(max, sums[i]));
+		}
+	}
+
+	/**
+	 * Multiplies the clipped sums with a row of weights.
+	 * This is a plain loop over arrays so that the JIT compiler can turn it into vector instructions.
+	 * @param inputs	The clipped sums.
+	 * @param weights	The weights.
+	 * @param offset	Index of the first weight of the row.
+	 * @return	The dot product.
+	 */
+	int dot(int[] inputs, int[] weights, int offset) {
+		if(KERNEL != null) {
+			return KERNEL.dot(inputs, weights, offset);
+		}
+		int total = 0;
+		for(int i = 0; i < inputs.length; i++) {
+			total += inputs[i] * weights[offset + i];
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of sums of the first layer for each player.
+	 * @return	The size of the first layer.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Writes a network that gives exactly the material and square bonus score of the Evaluator (without the mop-up), with no hidden layer.
+	 * Every first layer sum gets the same weights (the handcrafted score from that player's side), with biases spaced clip apart,
+	 * so that the clipped sums add up to the score plus a constant over the whole range of scores.
+	 * It is used to check the accumulator and as a starting point; a trained network is written in the same layout.
+	 * @param path	Path of the file.
+	 * @throws IOException	If the file can't be written.
+	 */
+	public static void writeFromEvaluator(Path path) throws IOException {
+		int size = 64;
+		int clip = 255;
+		int range = size * clip / 2;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER + 2 * INPUTS * size + 2 * size + 2 * 2 * size + 4).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(size).putInt(0).putInt(clip).putInt(0).putInt(2);
+		for(int own = 0; own < 2; own++) {
+			for(int type = 0; type < 6; type++) {
+				for(int square = 0; square < 64; square++) {
+					// an opponent Piece is scored from its own side, so its square is mirrored back
+					int value = own == 0 ? Evaluator.VALUES[type] + Evaluator.SQUARES[type][square] : -(Evaluator.VALUES[type] + Evaluator.SQUARES[type][square ^ 56]);
+					for(int i = 0; i < size; i++) {
+						buffer.putShort((short) value);
+					}
+				}
+			}
+		}
+		for(int i = 0; i < size; i++) {
+			buffer.putShort((short) (range - i * clip));
+		}
+		// the player to move's clipped sums add up to score + range, the opponent's to range - score
+		for(int i = 0; i < 2 * size; i++) {
+			buffer.putShort((short) (i < size ? 1 : -1));
+		}
+		buffer.putInt(0);
+
+		Path temporary = Paths.get(path + ".tmp");
+		Files.write(temporary, buffer.array());
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Compares the search speed with the handcrafted Evaluator and with a network, on the positions of SearchBenchmark.
+	 * @param args	Path of the network (it is written from the Evaluator if it does not exist) and optional time per position in milliseconds.
+	 * @throws IOException	If the network can't be read or written.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: NnueNetwork <network file> [ms per position]");
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		if(!Files.exists(path)) {
+			writeFromEvaluator(path);
+			System.out.println("wrote " + path + " from the Evaluator");
+		}
+		NnueNetwork network = new NnueNetwork(path);
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+		for(int round = 0; round < 2; round++) { // the first round warms up the JIT
+			for(NnueNetwork net : new NnueNetwork[] {null, network}) {
+				long nodes = 0;
+				long elapsed = 0;
+				for(String fen : SearchBenchmark.POSITIONS) {
+					Board board = Fen.toBoard(fen);
+					board.setNetwork(net);
+					Search search = new Search(board, new TranspositionTable(16));
+					long start = System.nanoTime();
+					search.search(Fen.color(fen), Search.MAX_PLY, 0, round == 0 ? millis / 4 : millis);
+					elapsed += System.nanoTime() - start;
+					nodes += search.getNodes();
+				}
+				if(round == 1) {
+					System.out.printf("%-10s %.0f nodes/s%n", net == null ? "Evaluator" : "network", nodes * 1e9 / elapsed);
+				}
+			}
+		}
+	}
+
+}
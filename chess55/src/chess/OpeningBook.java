@@ -0,0 +1,238 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * This class looks up moves in an opening book file, so that the engine does not have to search the first moves of a game.
+ * The file uses the Polyglot .bin layout: 16 byte entries (key, move, weight, learn; big-endian) sorted by key.
+ * The file is memory mapped and searched in place with a binary search, so it is never read onto the heap
+ * and a lookup creates no objects.
+ * The keys are Polyglot's own hashes (see the Polyglot class), so books made by other Polyglot programs can be used as well as ones built by BookBuilder.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class OpeningBook implements AutoCloseable {
+
+	/**
+	 * Size of one entry in bytes.
+	 */
+	public static final int ENTRY_SIZE = 16;
+
+	/**
+	 * The open book file.
+	 */
+	FileChannel channel;
+	/**
+	 * The book file mapped into memory.
+	 */
+	MappedByteBuffer entries;
+	/**
+	 * Number of entries in the book.
+	 */
+	int count;
+	/**
+	 * Array used by MoveGenerator.findMove for each thread, so that lookups create no objects.
+	 */
+	ThreadLocal<int[]> scratch = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_PIECE_MOVES]);
+
+	/**
+	 * This constructor opens and maps a book file.
+	 * @param path	Path of the book file.
+	 * @throws IOException	If the file can't be read or is larger than 2 GB.
+	 */
+	public OpeningBook(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		long size = channel.size();
+		if(size > Integer.MAX_VALUE) {
+			channel.close();
+			throw new IOException("Book is too large to map: " + path);
+		}
+		this.entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		this.count = (int) (size / ENTRY_SIZE);
+	}
+
+	/**
+	 * Returns the number of entries in the book.
+	 * @return	Number of entries.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Finds the first entry with the given key.
+	 * @param key	Hash of the position.
+	 * @return	Index of the first entry with that key, or -1 if the position is not in the book.
+	 */
+	int find(long key) {
+		int low = 0;
+		int high = count - 1;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(Long.compareUnsigned(keyAt(mid), key) < 0) {
+				low = mid + 1;
+			}
+			else {
+				high = mid;
+			}
+		}
+		return count > 0 && keyAt(low) == key ? low : -1;
+	}
+
+	/**
+	 * Returns the key of an entry.
+	 * @param index	Index of the entry.
+	 * @return	The key.
+	 */
+	long keyAt(int index) {
+		return entries.getLong(index * ENTRY_SIZE);
+	}
+
+	/**
+	 * Returns the weight of an entry.
+	 * @param index	Index of the entry.
+	 * @return	The weight (0 to 65535).
+	 */
+	int weightAt(int index) {
+		return entries.getShort(index * ENTRY_SIZE + 10) & 0xFFFF;
+	}
+
+	/**
+	 * Returns the move of an entry as a move that can be played on the Board.
+	 * @param index	Index of the entry.
+	 * @param board	The Board the move is for.
+	 * @param color	Color of the player who's turn it is.
+	 * @return	The packed move, or Move.NONE if it is not legal on the Board.
+	 */
+	int moveAt(int index, Board board, char color) {
+		int move = fromPolyglot(entries.getShort(index * ENTRY_SIZE + 8) & 0xFFFF, board);
+		move = MoveGenerator.findMove(board, color, move, scratch.get());
+		if(move == Move.NONE || !MoveGenerator.isLegal(board, color, move)) {
+			return Move.NONE;
+		}
+		return move;
+	}
+
+	/**
+	 * Returns the book move with the largest weight.
+	 * @param board	The Board to look up.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	The packed move, or Move.NONE if the position is not in the book.
+	 */
+	public int bestMove(Board board, char color) {
+		long key = Polyglot.key(board, color);
+		int first = find(key);
+		if(first < 0) {
+			return Move.NONE;
+		}
+		int best = Move.NONE;
+		int bestWeight = -1;
+		for(int i = first; i < count && keyAt(i) == key; i++) {
+			int move = moveAt(i, board, color);
+			if(move != Move.NONE && weightAt(i) > bestWeight) {
+				best = move;
+				bestWeight = weightAt(i);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Returns a random book move, where moves with a larger weight are picked more often.
+	 * @param board		The Board to look up.
+	 * @param color		Color of the player who's turn it is ('w' or 'b').
+	 * @param random	Source of random numbers.
+	 * @return	The packed move, or Move.NONE if the position is not in the book.
+	 */
+	public int randomMove(Board board, char color, Random random) {
+		long key = Polyglot.key(board, color);
+		int first = find(key);
+		if(first < 0) {
+			return Move.NONE;
+		}
+		long total = 0;
+		for(int i = first; i < count && keyAt(i) == key; i++) {
+			total += weightAt(i);
+		}
+		if(total == 0) {
+			return bestMove(board, color);
+		}
+		long pick = (long) (random.nextDouble() * total);
+		for(int i = first; i < count && keyAt(i) == key; i++) {
+			pick -= weightAt(i);
+			if(pick < 0) {
+				int move = moveAt(i, board, color);
+				return move != Move.NONE ? move : bestMove(board, color);
+			}
+		}
+		return bestMove(board, color);
+	}
+
+	/**
+	 * Changes a Polyglot move into a packed move (without flags).
+	 * Polyglot counts rows from White's side and writes a castle as the King taking its own Rook.
+	 * @param polyglot	Move in Polyglot format.
+	 * @param board		The Board the move is for, used to recognize castles.
+	 * @return	The packed move.
+	 */
+	static int fromPolyglot(int polyglot, Board board) {
+		int toCol = polyglot & 7;
+		int toRow = 7 - ((polyglot >>> 3) & 7);
+		int fromCol = (polyglot >>> 6) & 7;
+		int fromRow = 7 - ((polyglot >>> 9) & 7);
+		int promotion = (polyglot >>> 12) & 7;
+		Piece piece = board.getPiece(fromRow, fromCol);
+		if(piece instanceof King && fromCol == 4 && toRow == fromRow && (toCol == 0 || toCol == 7)) {
+			toCol = toCol == 0 ? 2 : 6;
+		}
+		return Move.encode(fromRow * 8 + fromCol, toRow * 8 + toCol, Move.PROMOTIONS[promotion], 0);
+	}
+
+	/**
+	 * Changes a packed move into a Polyglot move.
+	 * @param move	Packed move.
+	 * @return	Move in Polyglot format.
+	 */
+	static int toPolyglot(int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int toCol = to & 7;
+		if((move & Move.CASTLE) != 0) {
+			toCol = toCol == 2 ? 0 : 7;
+		}
+		int promotion = (move >>> 12) & 7;
+		return toCol | ((7 - (to >>> 3)) << 3) | ((from & 7) << 6) | ((7 - (from >>> 3)) << 9) | (promotion << 12);
+	}
+
+	/**
+	 * Writes one entry in the book layout.
+	 * @param buffer	Buffer to write into (big-endian).
+	 * @param key		Hash of the position.
+	 * @param polyglot	Move in Polyglot format.
+	 * @param weight	Weight of the move (0 to 65535).
+	 */
+	static void putEntry(ByteBuffer buffer, long key, int polyglot, int weight) {
+		buffer.putLong(key);
+		buffer.putShort((short) polyglot);
+		buffer.putShort((short) weight);
+		buffer.putInt(0);
+	}
+
+	/**
+	 * Closes the book file.
+	 * @throws IOException	If the file can't be closed.
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,310 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * This class answers "which moves were played from this position, and how did they score" from a GameArchive and its PositionIndex.
+ * The games that reached the position are split into partitions that are replayed in parallel (each only up to the position),
+ * each thread on its own Board,
+ * and the counts of each partition are added together.
+ * Results are kept in a bounded cache, since the same positions near the start are asked for over and over.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class OpeningExplorer {
+
+	/**
+	 * Fewest games in a partition, so that small positions are not split more than is worth it.
+	 */
+	static final int MIN_PARTITION = 64;
+
+	/**
+	 * This class holds the counts for one move from a position.
+	 */
+	public static class MoveStats {
+
+		/**
+		 * The packed move.
+		 */
+		int move;
+		/**
+		 * The move in SAN.
+		 */
+		String san;
+		/**
+		 * Number of games in which the move was played.
+		 */
+		int games;
+		/**
+		 * Number of those games White won.
+		 */
+		int whiteWins;
+		/**
+		 * Number of those games that were drawn.
+		 */
+		int draws;
+		/**
+		 * Number of those games Black won.
+		 */
+		int blackWins;
+		/**
+		 * Average rating of the players who played the move (0 if none had a rating).
+		 */
+		int averageRating;
+
+		/**
+		 * Returns the packed move.
+		 * @return	The move.
+		 */
+		public int getMove() {
+			return move;
+		}
+
+		/**
+		 * Returns the move in SAN.
+		 * @return	The move (Example: "Nf3").
+		 */
+		public String getSan() {
+			return san;
+		}
+
+		/**
+		 * Returns the number of games in which the move was played.
+		 * @return	Number of games.
+		 */
+		public int getGames() {
+			return games;
+		}
+
+		/**
+		 * Returns the number of games White won.
+		 * @return	Number of games.
+		 */
+		public int getWhiteWins() {
+			return whiteWins;
+		}
+
+		/**
+		 * Returns the number of drawn games.
+		 * @return	Number of games.
+		 */
+		public int getDraws() {
+			return draws;
+		}
+
+		/**
+		 * Returns the number of games Black won.
+		 * @return	Number of games.
+		 */
+		public int getBlackWins() {
+			return blackWins;
+		}
+
+		/**
+		 * Returns the average rating of the players who played the move.
+		 * @return	The rating, or 0 if none had a rating.
+		 */
+		public int getAverageRating() {
+			return averageRating;
+		}
+
+		/**
+		 * Returns the counts as text.
+		 * @return	Example: "e4 1200 games +500 =400 -300 (2150)".
+		 */
+		public String toString() {
+			return san + " " + games + " games +" + whiteWins + " =" + draws + " -" + blackWins + " (" + averageRating + ")";
+		}
+
+	}
+
+	/**
+	 * Cached result for one position.
+	 */
+	static class CacheEntry {
+
+		/**
+		 * Version of the PositionIndex the result was found with.
+		 */
+		int version;
+		/**
+		 * The result.
+		 */
+		List<MoveStats> moves;
+
+		/**
+		 * This constructor creates a cache entry.
+		 * @param version	Version of the PositionIndex.
+		 * @param moves		The result.
+		 */
+		CacheEntry(int version, List<MoveStats> moves) {
+			this.version = version;
+			this.moves = moves;
+		}
+
+	}
+
+	/**
+	 * Archive the games are read from.
+	 */
+	GameArchive archive;
+	/**
+	 * Index of the positions in the archive.
+	 */
+	PositionIndex index;
+	/**
+	 * Results by position key, from least to most recently used.
+	 */
+	LinkedHashMap<Long, CacheEntry> cache;
+	/**
+	 * Number of lookups answered from the cache.
+	 */
+	long cacheHits;
+	/**
+	 * Board of each thread that replays games.
+	 */
+	ThreadLocal<Board> boards = ThreadLocal.withInitial(Board::new);
+
+	/**
+	 * This constructor creates an explorer.
+	 * @param archive		Archive the games are read from.
+	 * @param index			Index of the positions in the archive.
+	 * @param cacheSize		Most number of positions whose results are cached.
+	 */
+	public OpeningExplorer(GameArchive archive, PositionIndex index, int cacheSize) {
+		this.archive = archive;
+		this.index = index;
+		this.cache = new LinkedHashMap<Long, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, CacheEntry> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the moves played from a position, most played first.
+	 * @param board	The position.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	Counts for each move (empty if no game reached the position).
+	 */
+	public List<MoveStats> explore(Board board, char color) {
+		long key = Zobrist.key(board, color);
+		int version = index.getVersion();
+		synchronized(cache) {
+			CacheEntry entry = cache.get(key);
+			if(entry != null && entry.version == version) {
+				cacheHits++;
+				return entry.moves;
+			}
+		}
+
+		int[] games = index.find(key);
+		int partitions = Math.max(1, Math.min(games.length / MIN_PARTITION, Runtime.getRuntime().availableProcessors() * 4));
+		Map<Integer, long[]> counts = IntStream.range(0, partitions).parallel()
+				.mapToObj(p -> count(games, (int) ((long) games.length * p / partitions), (int) ((long) games.length * (p + 1) / partitions), key, color))
+				.reduce(new HashMap<>(), OpeningExplorer::add);
+
+		List<MoveStats> moves = new ArrayList<>();
+		int[] legal = new int[MoveGenerator.MAX_PIECE_MOVES];
+		for(Map.Entry<Integer, long[]> count : counts.entrySet()) {
+			int move = MoveGenerator.findMove(board, color, count.getKey(), legal);
+			if(move == Move.NONE) {
+				continue;
+			}
+			long[] c = count.getValue();
+			MoveStats stats = new MoveStats();
+			stats.move = move;
+			stats.san = San.toSan(board, color, move);
+			stats.games = (int) c[0];
+			stats.whiteWins = (int) c[1];
+			stats.draws = (int) c[2];
+			stats.blackWins = (int) c[3];
+			stats.averageRating = c[5] > 0 ? (int) (c[4] / c[5]) : 0;
+			moves.add(stats);
+		}
+		moves.sort((a, b) -> Integer.compare(b.games, a.games));
+		moves = Collections.unmodifiableList(moves);
+		synchronized(cache) {
+			cache.put(key, new CacheEntry(version, moves));
+		}
+		return moves;
+	}
+
+	/**
+	 * Counts the next moves of a partition of games.
+	 * @param games	Ids of the games that reached the position.
+	 * @param from	First index in games of the partition.
+	 * @param to	Index in games after the partition.
+	 * @param key	Zobrist key of the position.
+	 * @param color	Color of the player who's turn it is in the position.
+	 * @return	For each move key: games, White wins, draws, Black wins, rating total, number of ratings.
+	 */
+	Map<Integer, long[]> count(int[] games, int from, int to, long key, char color) {
+		Board board = boards.get();
+		Map<Integer, long[]> counts = new HashMap<>();
+		for(int i = from; i < to; i++) {
+			int game = games[i];
+			if(game >= archive.size()) { // added after the archive was opened
+				continue;
+			}
+			int move = archive.nextMove(game, board, key);
+			if(move == Move.NONE) { // the game ended in the position
+				continue;
+			}
+			long[] c = counts.computeIfAbsent(Move.key(move), k -> new long[6]);
+			char result = archive.getResult(game);
+			c[0]++;
+			c[1] += result == 'w' ? 1 : 0;
+			c[2] += result == 'd' ? 1 : 0;
+			c[3] += result == 'b' ? 1 : 0;
+			int rating = color == 'w' ? archive.getWhiteElo(game) : archive.getBlackElo(game);
+			if(rating > 0) {
+				c[4] += rating;
+				c[5]++;
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Adds the counts of two partitions.
+	 * @param a	Counts of the first partition.
+	 * @param b	Counts of the second partition.
+	 * @return	The added counts (a new map, since a stream's starting value is shared).
+	 */
+	static Map<Integer, long[]> add(Map<Integer, long[]> a, Map<Integer, long[]> b) {
+		Map<Integer, long[]> sum = new HashMap<>();
+		for(Map<Integer, long[]> counts : List.of(a, b)) {
+			for(Map.Entry<Integer, long[]> count : counts.entrySet()) {
+				long[] total = sum.computeIfAbsent(count.getKey(), k -> new long[6]);
+				for(int i = 0; i < total.length; i++) {
+					total[i] += count.getValue()[i];
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Returns the number of lookups answered from the cache.
+	 * @return	Number of cache hits.
+	 */
+	public long getCacheHits() {
+		synchronized(cache) {
+			return cacheHits;
+		}
+	}
+
+}
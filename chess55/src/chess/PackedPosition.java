@@ -0,0 +1,125 @@
+package chess;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class packs a position into at most 26 bytes and loads it back onto a Board.
+ * The layout is a 64 bit occupancy mask (bit row * 8 + col), then 4 bits for each occupied square in order (color bit and type index, two per byte),
+ * then one byte with the player to move (bit 0) and the castle rights of Board.castleRights (bits 1 to 4),
+ * and one byte with the column of a Pawn that can be taken en passant plus one (0 for none).
+ * The length follows from the number of bits set in the mask, so packed positions can be written one after another.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class PackedPosition {
+
+	/**
+	 * Largest size of a packed position in bytes (32 Pieces).
+	 */
+	public static final int MAX_BYTES = 8 + 16 + 2;
+	/**
+	 * FEN letters by color bit and type index.
+	 */
+	static final char[] LETTERS = {'P', 'N', 'B', 'R', 'Q', 'K', 'p', 'n', 'b', 'r', 'q', 'k'};
+
+	/**
+	 * PackedPosition only contains static methods, so no PackedPosition object is ever created.
+	 */
+	private PackedPosition() {
+	}
+
+	/**
+	 * Packs the position of a Board.
+	 * @param board		The Board.
+	 * @param color		Color of the player to move ('w' or 'b').
+	 * @param buffer	Buffer to write to.
+	 * @param offset	Index of the first byte to write.
+	 * @return	Number of bytes written.
+	 */
+	public static int write(Board board, char color, ByteBuffer buffer, int offset) {
+		long occupied = 0;
+		int count = 0;
+		int position = offset + 8;
+		int pending = 0;
+		for(int square = 0; square < 64; square++) {
+			Piece piece = board.getPiece(square >> 3, square & 7);
+			if(piece == null) {
+				continue;
+			}
+			occupied |= 1L << square;
+			int code = (piece.getColor() == 'w' ? 0 : 8) | Zobrist.typeIndex(piece.getType());
+			if((count & 1) == 0) {
+				pending = code;
+			}
+			else {
+				buffer.put(position++, (byte) (pending | code << 4));
+			}
+			count++;
+		}
+		if((count & 1) != 0) {
+			buffer.put(position++, (byte) pending);
+		}
+		buffer.putLong(offset, occupied);
+		buffer.put(position++, (byte) ((color == 'b' ? 1 : 0) | board.castleRights() << 1));
+		int enpassant = 0;
+		if(board.getEnpassantColor() != 'n' && board.getEnpassantColor() != color) {
+			enpassant = board.getEnpassant()[1] + 1;
+		}
+		buffer.put(position++, (byte) enpassant);
+		return position - offset;
+	}
+
+	/**
+	 * Returns the size of a packed position.
+	 * @param buffer	Buffer holding the position.
+	 * @param offset	Index of its first byte.
+	 * @return	Number of bytes.
+	 */
+	public static int length(ByteBuffer buffer, int offset) {
+		return 8 + (Long.bitCount(buffer.getLong(offset)) + 1) / 2 + 2;
+	}
+
+	/**
+	 * Replaces the position on a Board with a packed position.
+	 * @param buffer	Buffer holding the position.
+	 * @param offset	Index of its first byte.
+	 * @param board		The Board to change.
+	 * @return	Color of the player to move.
+	 */
+	public static char read(ByteBuffer buffer, int offset, Board board) {
+		board.clear();
+		long occupied = buffer.getLong(offset);
+		int position = offset + 8;
+		int count = 0;
+		int codes = 0;
+		for(long rest = occupied; rest != 0; rest &= rest - 1) {
+			int square = Long.numberOfTrailingZeros(rest);
+			if((count & 1) == 0) {
+				codes = buffer.get(position++);
+			}
+			int code = (count & 1) == 0 ? codes & 15 : (codes >> 4) & 15;
+			Fen.place(board, LETTERS[(code >> 3) * 6 + (code & 7)], square >> 3, square & 7);
+			count++;
+		}
+		int flags = buffer.get(position++);
+		char color = (flags & 1) != 0 ? 'b' : 'w';
+		int rights = flags >> 1;
+		Fen.allowCastle(board, (rights & 2) != 0 ? "K" : "", 'K', 7, 7);
+		Fen.allowCastle(board, (rights & 1) != 0 ? "Q" : "", 'Q', 7, 0);
+		Fen.allowCastle(board, (rights & 8) != 0 ? "k" : "", 'k', 0, 7);
+		Fen.allowCastle(board, (rights & 4) != 0 ? "q" : "", 'q', 0, 0);
+		int enpassant = buffer.get(position);
+		if(enpassant > 0) {
+			// the Pawn that moved two squares is the opponent's, on its fourth row
+			char pawnColor = color == 'w' ? 'b' : 'w';
+			board.setEnpassant(pawnColor == 'w' ? 4 : 3, enpassant - 1);
+			board.setEnpassantColor(pawnColor);
+		}
+		board.resetKey(color);
+		return color;
+	}
+
+}
@@ -0,0 +1,95 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * This class measures the GameParking: how much direct memory a million parked games take, how fast games are parked,
+ * and how long bringing one back onto a Board takes, next to what the same games cost on the heap as Boards.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class ParkingBenchmark {
+
+	/**
+	 * Runs the benchmark and prints the results.
+	 * @param args	Optional number of games (default 1000000) and average moves per game (default 40).
+	 */
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int plies = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+
+		// a few random games of different lengths that the parked games copy their moves from
+		Random random = new Random(1);
+		int[][] lines = new int[64][];
+		long totalPlies = 0;
+		for(int i = 0; i < lines.length; i++) {
+			lines[i] = new int[plies / 2 + random.nextInt(plies + 1)];
+			Board board = Fen.toBoard(Fen.START);
+			int[] moves = new int[MoveGenerator.MAX_MOVES];
+			char color = 'w';
+			for(int ply = 0; ply < lines[i].length; ply++) {
+				int count = MoveGenerator.generateLegal(board, color, moves);
+				if(count == 0) { // start over from the same line rather than end early
+					board = Fen.toBoard(Fen.START);
+					color = 'w';
+					ply = -1;
+					continue;
+				}
+				lines[i][ply] = moves[random.nextInt(count)];
+				board.doMove(lines[i][ply]);
+				color = color == 'w' ? 'b' : 'w';
+			}
+		}
+		for(int game = 0; game < games; game++) {
+			totalPlies += lines[game % lines.length].length;
+		}
+
+		GameParking parking = new GameParking();
+		long[] handles = new long[games];
+		long start = System.nanoTime();
+		for(int game = 0; game < games; game++) {
+			int[] line = lines[game % lines.length];
+			handles[game] = parking.park(Fen.START, line, line.length);
+		}
+		double parkSeconds = (System.nanoTime() - start) / 1e9;
+		long nativeBytes = parking.getNativeBytes();
+		long slotBytes = parking.getSlotBytes();
+
+		// games are brought back and parked again, like a server whose idle players come back
+		int sample = Math.min(games, 100000);
+		Board board = new Board();
+		long unparkNanos = 0;
+		for(int game = 0; game < sample; game++) {
+			int[] line = lines[game % lines.length];
+			long before = System.nanoTime();
+			parking.unpark(handles[game], board);
+			unparkNanos += System.nanoTime() - before;
+			handles[game] = parking.park(Fen.START, line, line.length);
+		}
+
+		// the same games kept as Boards
+		int kept = Math.min(games, 10000);
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		System.gc();
+		long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+		Board[] boards = new Board[kept];
+		for(int game = 0; game < kept; game++) {
+			boards[game] = new Board();
+			parking.read(handles[game], boards[game]);
+		}
+		System.gc();
+		System.gc();
+		long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+
+		System.out.printf("parked           %d games, %d moves, %d games in the slabs%n", games, totalPlies, parking.size());
+		System.out.printf("native memory    %.1f MB (%.1f bytes/game, %.1f in use)%n", nativeBytes / 1e6, (double) nativeBytes / games, (double) slotBytes / games);
+		System.out.printf("park             %.0f games/s (%.1f us/game)%n", games / parkSeconds, parkSeconds * 1e6 / games);
+		System.out.printf("unpark           %.1f us/game (%d games)%n", unparkNanos / 1e3 / sample, sample);
+		System.out.printf("heap as Boards   %.0f bytes/game (%d games kept)%n", (double) (heapAfter - heapBefore) / kept, boards.length);
+	}
+
+}
@@ -0,0 +1,92 @@
+package chess;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds one game read from a PGN file: its tags (Example: [White "Carlsen"]) and its moves in SAN.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class PgnGame {
+
+	/**
+	 * Tags of the game, in the order they appeared.
+	 */
+	Map<String, String> tags = new LinkedHashMap<>();
+	/**
+	 * Moves of the game in SAN, without move numbers, comments or variations.
+	 */
+	List<String> moves = new ArrayList<>();
+
+	/**
+	 * Returns the value of a tag.
+	 * @param name	Name of the tag (Example: "White").
+	 * @return	Value of the tag, or null if the game does not have it.
+	 */
+	public String getTag(String name) {
+		return tags.get(name);
+	}
+
+	/**
+	 * Returns all tags of the game.
+	 * @return	Tags by name.
+	 */
+	public Map<String, String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * Returns the moves of the game.
+	 * @return	Moves in SAN.
+	 */
+	public List<String> getMoves() {
+		return moves;
+	}
+
+	/**
+	 * Returns the result of the game from the Result tag.
+	 * @return	'w' if White won, 'b' if Black won, 'd' for a draw, or 'n' if the game has no result.
+	 */
+	public char getResult() {
+		String result = tags.getOrDefault("Result", "*");
+		if(result.equals("1-0")) {
+			return 'w';
+		}
+		if(result.equals("0-1")) {
+			return 'b';
+		}
+		if(result.equals("1/2-1/2")) {
+			return 'd';
+		}
+		return 'n';
+	}
+
+	/**
+	 * Returns the starting position of the game.
+	 * @return	The FEN tag, or the normal starting position if the game has none.
+	 */
+	public String getStartFen() {
+		return tags.getOrDefault("FEN", Fen.START);
+	}
+
+	/**
+	 * Returns a rating tag as a number.
+	 * @param name	Name of the tag ("WhiteElo" or "BlackElo").
+	 * @return	The rating, or 0 if the game has no rating.
+	 */
+	public int getRating(String name) {
+		try {
+			return Integer.parseInt(tags.getOrDefault(name, "0").trim());
+		}
+		catch(NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class reads the games of a PGN file one at a time, so that files of any size can be read with little memory.
+ * Comments, variations, move numbers and annotations are skipped; only the tags and the moves of the main line are kept.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class PgnReader implements AutoCloseable {
+
+	/**
+	 * Reader of the PGN text.
+	 */
+	BufferedReader reader;
+	/**
+	 * Line that was read but belongs to the next game.
+	 */
+	String pending;
+
+	/**
+	 * This constructor creates a PgnReader for the given text.
+	 * @param reader	Reader of the PGN text.
+	 */
+	public PgnReader(Reader reader) {
+		this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader, 1 << 16);
+	}
+
+	/**
+	 * Reads the next game.
+	 * @return	The next game, or null if there are no games left.
+	 * @throws IOException	If the text can't be read.
+	 */
+	public PgnGame next() throws IOException {
+		PgnGame game = new PgnGame();
+		boolean inMoves = false;
+		boolean found = false;
+		boolean comment = false; // inside {}
+		int variation = 0; // how many () are open
+		String line;
+		while((line = pending != null ? pending : reader.readLine()) != null) {
+			pending = null;
+			String trimmed = line.trim();
+			if(!comment && variation == 0 && trimmed.startsWith("[")) {
+				if(inMoves) { // tags of the next game
+					pending = line;
+					return game;
+				}
+				found = true;
+				int space = trimmed.indexOf(' ');
+				int open = trimmed.indexOf('"');
+				int close = trimmed.lastIndexOf('"');
+				if(space > 1 && open > space && close > open) {
+					game.tags.put(trimmed.substring(1, space), trimmed.substring(open + 1, close));
+				}
+				continue;
+			}
+			if(trimmed.isEmpty() || trimmed.startsWith("%")) {
+				continue;
+			}
+			found = true;
+			inMoves = true;
+
+			// split the move text into moves, skipping everything else
+			int i = 0;
+			int n = trimmed.length();
+			while(i < n) {
+				char c = trimmed.charAt(i);
+				if(comment) {
+					if(c == '}') {
+						comment = false;
+					}
+					i++;
+				}
+				else if(c == '{') {
+					comment = true;
+					i++;
+				}
+				else if(c == ';') {
+					break;
+				}
+				else if(c == '(') {
+					variation++;
+					i++;
+				}
+				else if(c == ')') {
+					variation = Math.max(0, variation - 1);
+					i++;
+				}
+				else if(Character.isWhitespace(c)) {
+					i++;
+				}
+				else {
+					int start = i;
+					while(i < n && !Character.isWhitespace(trimmed.charAt(i)) && "{}();".indexOf(trimmed.charAt(i)) < 0) {
+						i++;
+					}
+					if(variation == 0) {
+						String token = trimmed.substring(start, i);
+						if(token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*")) {
+							game.tags.putIfAbsent("Result", token);
+							return game;
+						}
+						addMove(game, token);
+					}
+				}
+			}
+		}
+		return found ? game : null;
+	}
+
+	/**
+	 * Adds a token of the move text to the game if it is a move.
+	 * Move numbers ("12." or "12...") and annotations ("$1") are skipped.
+	 * @param game	The game being read.
+	 * @param token	A token of the move text.
+	 */
+	private static void addMove(PgnGame game, String token) {
+		if(token.startsWith("$")) {
+			return;
+		}
+		int i = 0;
+		while(i < token.length() && Character.isDigit(token.charAt(i))) {
+			i++;
+		}
+		while(i < token.length() && token.charAt(i) == '.') {
+			i++;
+		}
+		if(i > 0 && i == token.length()) {
+			return;
+		}
+		if(i > 0 && token.charAt(i - 1) == '.') {
+			token = token.substring(i);
+		}
+		if(!token.isEmpty()) {
+			game.moves.add(token);
+		}
+	}
+
+	/**
+	 * Closes the PGN text.
+	 * @throws IOException	If the text can't be closed.
+	 */
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
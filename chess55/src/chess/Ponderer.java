@@ -0,0 +1,148 @@
+package chess;
+
+/**
+ * This class thinks on the opponent's time (pondering): after the engine moved, it makes the reply its search expected
+ * and searches the position after it on a background thread until the opponent really moves.
+ * If the opponent plays the expected reply (a ponder hit), the search carries on with the time the engine has for its move,
+ * so the time the opponent spent is not lost. Otherwise the search is stopped and the reply is taken back,
+ * and the TranspositionTable that the search filled still helps the next search.
+ * The Board of the Search must not be used while pondering.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class Ponderer {
+
+	/**
+	 * Milliseconds between stop requests while waiting for the background search to end.
+	 */
+	static final long STOP_POLL_MILLIS = 10;
+
+	/**
+	 * The Search that ponders, on the Board of the game.
+	 */
+	Search search;
+	/**
+	 * Thread that runs the search, or null if not pondering.
+	 */
+	Thread thread;
+	/**
+	 * The reply that was made on the Board, or Move.NONE if not pondering.
+	 */
+	int expectedReply = Move.NONE;
+	/**
+	 * Move found by the background search, written by its thread before it ends.
+	 */
+	int result = Move.NONE;
+
+	/**
+	 * This constructor creates a Ponderer for a Search.
+	 * @param search	The Search, whose Board is the Board of the game.
+	 */
+	public Ponderer(Search search) {
+		this.search = search;
+	}
+
+	/**
+	 * Starts pondering. The Board must be at the position after the engine's move, with the opponent to move.
+	 * @param color			Color of the engine ('w' or 'b').
+	 * @param expectedReply	The opponent move to ponder on, normally the second move of the engine's best line.
+	 * @return	True if pondering started, false if the reply is not a legal move or pondering already started.
+	 */
+	public synchronized boolean start(char color, int expectedReply) {
+		if(thread != null || expectedReply == Move.NONE) {
+			return false;
+		}
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		int count = MoveGenerator.generateLegal(search.board, color == 'w' ? 'b' : 'w', moves);
+		boolean legal = false;
+		for(int i = 0; i < count; i++) {
+			legal |= moves[i] == expectedReply;
+		}
+		if(!legal) {
+			return false;
+		}
+		search.board.doMove(expectedReply);
+		this.expectedReply = expectedReply;
+		result = Move.NONE;
+		thread = new Thread(() -> result = search.search(color, Search.MAX_PLY, 0, 0), "ponder");
+		thread.setDaemon(true);
+		thread.start();
+		return true;
+	}
+
+	/**
+	 * Returns true if the background search is running or has not been collected by hit or miss yet.
+	 * @return	True if pondering.
+	 */
+	public synchronized boolean isPondering() {
+		return thread != null;
+	}
+
+	/**
+	 * Returns the reply that is pondered on.
+	 * @return	The packed move, or Move.NONE if not pondering.
+	 */
+	public synchronized int getExpectedReply() {
+		return expectedReply;
+	}
+
+	/**
+	 * Called when the opponent played the expected reply. The search goes on for at most the given time and its move is returned.
+	 * The reply stays on the Board, since it was really played.
+	 * @param millis	Time the engine has for its move, counted from now.
+	 * @return	The best move, or Move.NONE if not pondering.
+	 */
+	public synchronized int hit(long millis) {
+		if(thread == null) {
+			return Move.NONE;
+		}
+		boolean interrupted = false;
+		try {
+			thread.join(Math.max(1, millis));
+		}
+		catch(InterruptedException e) {
+			interrupted = true;
+		}
+		finish(interrupted);
+		expectedReply = Move.NONE;
+		return result;
+	}
+
+	/**
+	 * Called when the opponent played another move than the expected reply.
+	 * The search is stopped and the reply is taken back, so the Board is at the position before the opponent's move again.
+	 */
+	public synchronized void miss() {
+		if(thread == null) {
+			return;
+		}
+		finish(false);
+		search.board.undoMove(expectedReply);
+		expectedReply = Move.NONE;
+	}
+
+	/**
+	 * Stops the background search and waits for its thread to end.
+	 * The stop is repeated, since a stop that comes before the search started is cleared by the search.
+	 * @param interrupted	True if the calling thread was already interrupted.
+	 */
+	void finish(boolean interrupted) {
+		while(thread.isAlive()) {
+			search.stop();
+			try {
+				thread.join(STOP_POLL_MILLIS);
+			}
+			catch(InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		thread = null;
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,797 @@
+package chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class finds all games of a GameArchive that reached a position, by the Zobrist key of the position.
+ * Each key has a posting list: the sorted ids of the games that reached it, stored as varint gaps.
+ * New games are added to a buffer, which is written out as a new segment file when it is full;
+ * segments are memory mapped and never changed, and a background thread merges segments of about the same size (size-tiered merging):
+ * when MERGE_SEGMENTS neighbouring segments hold about the same number of flushes, they are merged into one that holds MERGE_SEGMENTS
+ * times as many, so each pair is only rewritten once per tier instead of on every merge.
+ * A segment is named after the range of buffer flushes it holds (Example: "0-7.seg"),
+ * so that segments left behind by a merge that was cut short are recognized and deleted when the index is opened.
+ * Each segment also records how many games were complete when it was written, so that a game whose positions were split by a flush
+ * and then lost with the buffer (the program stopped before the next flush) is added again in full when the index is opened.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class PositionIndex implements AutoCloseable {
+
+	/**
+	 * Last 4 bytes of a segment file ("CPI3"). It changes whenever the keys are hashed differently or the trailer changes, so that old segments are rejected.
+	 */
+	static final int MAGIC = 0x43504933;
+	/**
+	 * Size of the segment trailer: number of keys, number of complete games and the magic number.
+	 */
+	static final int TRAILER = 12;
+	/**
+	 * Number of neighbouring segments in the same size tier that are merged into one. Each tier's segments are this many times larger.
+	 */
+	static final int MERGE_SEGMENTS = 4;
+
+	/**
+	 * Directory of the segment files.
+	 */
+	Path directory;
+	/**
+	 * Number of (key, game) pairs buffered before a segment is written.
+	 */
+	int flushSize;
+	/**
+	 * Segments that are searched. The list is never changed, only replaced, so readers need no lock.
+	 */
+	volatile List<Segment> segments;
+	/**
+	 * Number of times the list of segments was replaced, so that cached results can tell when they are out of date.
+	 */
+	volatile int version;
+	/**
+	 * Number of the next buffer flush.
+	 */
+	int nextFlush;
+	/**
+	 * Id of the next game that will be added by addGames.
+	 */
+	int nextGame;
+	/**
+	 * Number of games whose positions were all added. Every game below it is in the segments once the buffer is flushed.
+	 */
+	int completeGames;
+	/**
+	 * Keys of the buffered pairs.
+	 */
+	long[] keys;
+	/**
+	 * Games of the buffered pairs.
+	 */
+	int[] games;
+	/**
+	 * Number of buffered pairs.
+	 */
+	int size;
+	/**
+	 * Thread that merges segments.
+	 */
+	ExecutorService merger;
+	/**
+	 * True while a merge is running.
+	 */
+	boolean merging;
+	/**
+	 * Error of the last merge that failed, thrown by the next flush or close.
+	 */
+	IOException mergeFailure;
+
+	/**
+	 * This class is one mapped segment file.
+	 */
+	static class Segment {
+
+		/**
+		 * First buffer flush in the segment.
+		 */
+		int first;
+		/**
+		 * Last buffer flush in the segment.
+		 */
+		int last;
+		/**
+		 * Path of the file.
+		 */
+		Path path;
+		/**
+		 * The file mapped into memory.
+		 */
+		MappedByteBuffer data;
+		/**
+		 * Number of keys.
+		 */
+		int keyCount;
+		/**
+		 * Number of games that were complete when the segment was written (the most of the segments it was merged from).
+		 */
+		int completeGames;
+		/**
+		 * Offset of the sorted keys (8 bytes each). They are followed by keyCount + 1 posting list offsets (4 bytes each).
+		 */
+		int table;
+
+		/**
+		 * This constructor maps a segment file.
+		 * @param path	Path of the file.
+		 * @param first	First buffer flush in the segment.
+		 * @param last	Last buffer flush in the segment.
+		 * @throws IOException	If the file can't be read or is not a segment.
+		 */
+		Segment(Path path, int first, int last) throws IOException {
+			this.path = path;
+			this.first = first;
+			this.last = last;
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long size = channel.size();
+				if(size < TRAILER || size > Integer.MAX_VALUE) {
+					throw new IOException("Not a segment file: " + path);
+				}
+				this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			int end = data.capacity();
+			if(data.getInt(end - 4) != MAGIC) {
+				throw new IOException("Not a segment file of this version (rebuild the index): " + path);
+			}
+			this.keyCount = data.getInt(end - TRAILER);
+			this.completeGames = data.getInt(end - 8);
+			this.table = end - TRAILER - keyCount * 12 - 4;
+		}
+
+		/**
+		 * Returns a key.
+		 * @param i	Index of the key.
+		 * @return	The key.
+		 */
+		long keyAt(int i) {
+			return data.getLong(table + i * 8);
+		}
+
+		/**
+		 * Returns the offset of a posting list.
+		 * @param i	Index of the key.
+		 * @return	The offset.
+		 */
+		int postingAt(int i) {
+			return data.getInt(table + keyCount * 8 + i * 4);
+		}
+
+		/**
+		 * Finds a key.
+		 * @param key	The key.
+		 * @return	Index of the key, or -1 if it is not in the segment.
+		 */
+		int find(long key) {
+			int low = 0;
+			int high = keyCount - 1;
+			while(low <= high) {
+				int mid = (low + high) >>> 1;
+				long midKey = keyAt(mid);
+				if(midKey == key) {
+					return mid;
+				}
+				if(Long.compareUnsigned(midKey, key) < 0) {
+					low = mid + 1;
+				}
+				else {
+					high = mid - 1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Returns the length of a posting list.
+		 * @param i	Index of the key.
+		 * @return	Number of games.
+		 */
+		int count(int i) {
+			return readVarint(data, new int[] {postingAt(i)});
+		}
+
+		/**
+		 * Reads a posting list.
+		 * @param i		Index of the key.
+		 * @param out	Array the game ids are written into.
+		 * @param from	Index in out of the first game id.
+		 * @return	Number of game ids.
+		 */
+		int read(int i, int[] out, int from) {
+			int[] position = {postingAt(i)};
+			int count = readVarint(data, position);
+			int game = 0;
+			for(int j = 0; j < count; j++) {
+				game += readVarint(data, position);
+				out[from + j] = game;
+			}
+			return count;
+		}
+
+	}
+
+	/**
+	 * This constructor opens an index, creating the directory if needed.
+	 * @param directory	Directory of the segment files.
+	 * @param flushSize	Number of (key, game) pairs buffered before a segment is written.
+	 * @throws IOException	If the segments can't be read.
+	 */
+	public PositionIndex(Path directory, int flushSize) throws IOException {
+		this.directory = directory;
+		this.flushSize = flushSize;
+		this.keys = new long[flushSize];
+		this.games = new int[flushSize];
+		Files.createDirectories(directory);
+		// a segment that was being written when the program stopped
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.tmp")) {
+			for(Path file : files) {
+				Files.deleteIfExists(file);
+			}
+		}
+
+		List<Segment> found = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+			for(Path file : files) {
+				String name = file.getFileName().toString();
+				String[] range = name.substring(0, name.length() - 4).split("-");
+				found.add(new Segment(file, Integer.parseInt(range[0]), Integer.parseInt(range[1])));
+			}
+		}
+		// a segment inside the range of another one was already merged into it
+		List<Segment> kept = new ArrayList<>();
+		for(Segment segment : found) {
+			boolean merged = false;
+			for(Segment other : found) {
+				if(other != segment && other.first <= segment.first && other.last >= segment.last && other.last - other.first > segment.last - segment.first) {
+					merged = true;
+				}
+			}
+			if(merged) {
+				Files.deleteIfExists(segment.path);
+			}
+			else {
+				kept.add(segment);
+				nextFlush = Math.max(nextFlush, segment.last + 1);
+				nextGame = Math.max(nextGame, segment.completeGames);
+			}
+		}
+		kept.sort((a, b) -> Integer.compare(a.first, b.first));
+		completeGames = nextGame;
+		this.segments = Collections.unmodifiableList(kept);
+		this.merger = Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "position-index-merge");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Adds a position of a game. Games have to be added in order: a game counts as complete once a position of a later game is added.
+	 * @param key	Zobrist key of the position.
+	 * @param game	Id of the game.
+	 * @throws IOException	If a full buffer can't be written.
+	 */
+	public synchronized void add(long key, int game) throws IOException {
+		if(size == flushSize) {
+			flush();
+		}
+		keys[size] = key;
+		games[size] = game;
+		size++;
+		nextGame = Math.max(nextGame, game + 1);
+		completeGames = Math.max(completeGames, game);
+	}
+
+	/**
+	 * Adds every position of the games in an archive that are not in the index yet.
+	 * Games are added in order, so this can be called again each time games were appended to the archive.
+	 * After the index is opened again, it starts at the first game that was not complete in the segments, even if some of its positions are.
+	 * @param archive	The archive.
+	 * @return	Number of games added.
+	 * @throws IOException	If a full buffer can't be written.
+	 */
+	public synchronized int addGames(GameArchive archive) throws IOException {
+		Board board = new Board();
+		int[] moves = new int[0xFFFF];
+		int added = 0;
+		for(int game = nextGame; game < archive.size(); game++) {
+			int plies = archive.readMoves(game, board, moves);
+			add(board.getKey(), game);
+			for(int ply = plies - 1; ply >= 0; ply--) {
+				board.undoMove(moves[ply]);
+				add(board.getKey(), game);
+			}
+			completeGames = game + 1;
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Returns the id of the next game that addGames will add.
+	 * @return	Id of the game.
+	 */
+	public synchronized int getNextGame() {
+		return nextGame;
+	}
+
+	/**
+	 * Finds the games that reached a position.
+	 * @param key	Zobrist key of the position.
+	 * @return	Sorted ids of the games, each once. Games still in the buffer are not included.
+	 */
+	public int[] find(long key) {
+		List<Segment> current = segments;
+		int total = 0;
+		int[] index = new int[current.size()];
+		for(int i = 0; i < current.size(); i++) {
+			index[i] = current.get(i).find(key);
+			if(index[i] >= 0) {
+				total += current.get(i).count(index[i]);
+			}
+		}
+		int[] result = new int[total];
+		int count = 0;
+		boolean sorted = true;
+		for(int i = 0; i < current.size(); i++) {
+			if(index[i] >= 0) {
+				int start = count;
+				count += current.get(i).read(index[i], result, count);
+				sorted &= start == 0 || result[start - 1] < result[start];
+			}
+		}
+		if(!sorted) {
+			// a game split by a flush is in two segments
+			Arrays.sort(result);
+			int unique = 0;
+			for(int i = 0; i < count; i++) {
+				if(unique == 0 || result[unique - 1] != result[i]) {
+					result[unique++] = result[i];
+				}
+			}
+			result = Arrays.copyOf(result, unique);
+		}
+		return result;
+	}
+
+	/**
+	 * Counts the games that reached a position, without reading their ids.
+	 * @param key	Zobrist key of the position.
+	 * @return	Number of games (a game split by a flush may be counted twice until its segments are merged).
+	 */
+	public int count(long key) {
+		int total = 0;
+		for(Segment segment : segments) {
+			int i = segment.find(key);
+			if(i >= 0) {
+				total += segment.count(i);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of times the searchable games changed (a segment was written or segments were merged).
+	 * @return	The version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the number of segments.
+	 * @return	Number of segments.
+	 */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Writes the buffered pairs as a new segment, and starts a merge if enough segments are in the same size tier.
+	 * @throws IOException	If the segment can't be written, or the last background merge failed.
+	 */
+	public synchronized void flush() throws IOException {
+		throwMergeFailure();
+		if(size == 0) {
+			return;
+		}
+		sort(keys, games, 0, size - 1);
+		int flush = nextFlush++;
+		Path path = directory.resolve(flush + "-" + flush + ".seg");
+		Path temp = directory.resolve(flush + "-" + flush + ".tmp");
+		try(SegmentWriter writer = new SegmentWriter(temp)) {
+			writer.completeGames = completeGames;
+			int[] ids = new int[size];
+			int i = 0;
+			while(i < size) {
+				long key = keys[i];
+				int count = 0;
+				for(; i < size && keys[i] == key; i++) {
+					if(count == 0 || ids[count - 1] != games[i]) {
+						ids[count++] = games[i];
+					}
+				}
+				writer.add(key, ids, count);
+			}
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		size = 0;
+		replace(Collections.emptyList(), new Segment(path, flush, flush));
+		startMerge();
+	}
+
+	/**
+	 * Throws the error of the last background merge that failed, once.
+	 * @throws IOException	The error.
+	 */
+	private synchronized void throwMergeFailure() throws IOException {
+		IOException failure = mergeFailure;
+		if(failure != null) {
+			mergeFailure = null;
+			throw failure;
+		}
+	}
+
+	/**
+	 * Starts a background merge of the newest MERGE_SEGMENTS or more neighbouring segments in the same size tier, unless a merge is running.
+	 * The newest are taken since segments only get smaller towards the newest, so the small ones are merged first.
+	 */
+	private synchronized void startMerge() {
+		if(merging || merger.isShutdown()) {
+			return;
+		}
+		List<Segment> current = segments;
+		int end = current.size();
+		while(end > 0) {
+			int tier = tier(current.get(end - 1));
+			int start = end - 1;
+			while(start > 0 && tier(current.get(start - 1)) == tier) {
+				start--;
+			}
+			if(end - start >= MERGE_SEGMENTS) {
+				List<Segment> toMerge = new ArrayList<>(current.subList(start, end));
+				merging = true;
+				merger.execute(() -> merge(toMerge));
+				return;
+			}
+			end = start;
+		}
+	}
+
+	/**
+	 * Returns the size tier of a segment: segments in tier t hold MERGE_SEGMENTS times as many flushes as those in tier t - 1.
+	 * The number of flushes is used rather than the file size, since positions that are in several segments shrink a merged file,
+	 * which would keep it in the tier of the segments it was merged from and have it merged again and again.
+	 * @param segment	The segment.
+	 * @return	The tier.
+	 */
+	static int tier(Segment segment) {
+		int tier = 0;
+		for(int flushes = (segment.last - segment.first + 1) / MERGE_SEGMENTS; flushes > 0; flushes /= MERGE_SEGMENTS) {
+			tier++;
+		}
+		return tier;
+	}
+
+	/**
+	 * Replaces segments in the list of segments.
+	 * @param removed	Segments to take out.
+	 * @param added		Segment to put in.
+	 */
+	private synchronized void replace(List<Segment> removed, Segment added) {
+		List<Segment> next = new ArrayList<>(segments);
+		next.removeAll(removed);
+		next.add(added);
+		next.sort((a, b) -> Integer.compare(a.first, b.first));
+		segments = Collections.unmodifiableList(next);
+		version++;
+	}
+
+	/**
+	 * Merges segments into one, then starts the next merge if one is due. Runs on the merge thread.
+	 * If the merge fails, the segments are left as they were and the error is thrown by the next flush or close.
+	 * @param toMerge	Segments to merge, with consecutive flush ranges.
+	 */
+	void merge(List<Segment> toMerge) {
+		int first = toMerge.get(0).first;
+		int last = toMerge.get(toMerge.size() - 1).last;
+		Path temp = directory.resolve(first + "-" + last + ".tmp");
+		boolean merged = false;
+		try {
+			Path path = directory.resolve(first + "-" + last + ".seg");
+
+			// k-way merge of the keys, where each cursor is {segment, key index}
+			PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> Long.compareUnsigned(toMerge.get(a[0]).keyAt(a[1]), toMerge.get(b[0]).keyAt(b[1])));
+			for(int i = 0; i < toMerge.size(); i++) {
+				if(toMerge.get(i).keyCount > 0) {
+					queue.add(new int[] {i, 0});
+				}
+			}
+			int[] ids = new int[1024];
+			try(SegmentWriter writer = new SegmentWriter(temp)) {
+				for(Segment segment : toMerge) {
+					writer.completeGames = Math.max(writer.completeGames, segment.completeGames);
+				}
+				while(!queue.isEmpty()) {
+					long key = toMerge.get(queue.peek()[0]).keyAt(queue.peek()[1]);
+					int count = 0;
+					while(!queue.isEmpty() && toMerge.get(queue.peek()[0]).keyAt(queue.peek()[1]) == key) {
+						int[] cursor = queue.poll();
+						Segment segment = toMerge.get(cursor[0]);
+						int length = segment.count(cursor[1]);
+						if(count + length > ids.length) {
+							ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + length));
+						}
+						count += segment.read(cursor[1], ids, count);
+						if(++cursor[1] < segment.keyCount) {
+							queue.add(cursor);
+						}
+					}
+					// the same game can be in two segments if it was split by a flush
+					Arrays.sort(ids, 0, count);
+					int unique = 0;
+					for(int i = 0; i < count; i++) {
+						if(unique == 0 || ids[unique - 1] != ids[i]) {
+							ids[unique++] = ids[i];
+						}
+					}
+					writer.add(key, ids, unique);
+				}
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			replace(toMerge, new Segment(path, first, last));
+			merged = true;
+			for(Segment segment : toMerge) {
+				Files.deleteIfExists(segment.path);
+			}
+		}
+		catch(IOException | RuntimeException e) {
+			synchronized(this) {
+				mergeFailure = e instanceof IOException ? (IOException) e : new IOException("Merge of segments " + first + "-" + last + " failed", e);
+			}
+			if(!merged) {
+				try {
+					Files.deleteIfExists(temp);
+				}
+				catch(IOException ignored) {
+					// the file is deleted when the index is opened again
+				}
+			}
+		}
+		finally {
+			synchronized(this) {
+				merging = false;
+				if(mergeFailure == null) {
+					startMerge();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffered pairs, waits for a running merge to finish and stops the merge thread.
+	 * @throws IOException	If the segment can't be written, or a background merge failed.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			synchronized(this) {
+				merger.shutdown();
+			}
+			try {
+				merger.awaitTermination(1, TimeUnit.HOURS);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		throwMergeFailure();
+	}
+
+	/**
+	 * Reads a varint (7 bits per byte, lowest bits first, high bit set on all bytes but the last).
+	 * @param data		Buffer to read from.
+	 * @param position	Offset to read at, which is moved past the varint.
+	 * @return	The value.
+	 */
+	static int readVarint(MappedByteBuffer data, int[] position) {
+		int value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = data.get(position[0]++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while((b & 0x80) != 0);
+		return value;
+	}
+
+	/**
+	 * Sorts pairs by key (unsigned), then by game, with a quicksort on the two arrays.
+	 * @param keys	Keys of the pairs.
+	 * @param games	Games of the pairs.
+	 * @param low	First index to sort.
+	 * @param high	Last index to sort.
+	 */
+	static void sort(long[] keys, int[] games, int low, int high) {
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			long pivotKey = keys[mid];
+			int pivotGame = games[mid];
+			int i = low;
+			int j = high;
+			while(i <= j) {
+				while(compare(keys[i], games[i], pivotKey, pivotGame) < 0) {
+					i++;
+				}
+				while(compare(keys[j], games[j], pivotKey, pivotGame) > 0) {
+					j--;
+				}
+				if(i <= j) {
+					long key = keys[i];
+					keys[i] = keys[j];
+					keys[j] = key;
+					int game = games[i];
+					games[i] = games[j];
+					games[j] = game;
+					i++;
+					j--;
+				}
+			}
+			// recurse into the smaller half so the stack stays shallow
+			if(j - low < high - i) {
+				sort(keys, games, low, j);
+				low = i;
+			}
+			else {
+				sort(keys, games, i, high);
+				high = j;
+			}
+		}
+	}
+
+	/**
+	 * Compares two pairs.
+	 * @param key1	Key of the first pair.
+	 * @param game1	Game of the first pair.
+	 * @param key2	Key of the second pair.
+	 * @param game2	Game of the second pair.
+	 * @return	Negative, zero or positive if the first pair is smaller, equal or larger.
+	 */
+	static int compare(long key1, int game1, long key2, int game2) {
+		int order = Long.compareUnsigned(key1, key2);
+		return order != 0 ? order : Integer.compare(game1, game2);
+	}
+
+	/**
+	 * This class writes a segment file: the posting lists in key order, then the keys and posting list offsets, then the trailer.
+	 */
+	static class SegmentWriter implements AutoCloseable {
+
+		/**
+		 * Stream of the file.
+		 */
+		DataOutputStream out;
+		/**
+		 * Keys written so far.
+		 */
+		long[] keys = new long[1024];
+		/**
+		 * Offset of the posting list of each key, plus the end of the last one.
+		 */
+		int[] offsets = new int[1025];
+		/**
+		 * Number of keys written.
+		 */
+		int count;
+		/**
+		 * Bytes written so far.
+		 */
+		long written;
+		/**
+		 * Number of complete games, written in the trailer.
+		 */
+		int completeGames;
+
+		/**
+		 * This constructor creates a segment file.
+		 * @param path	Path of the file.
+		 * @throws IOException	If the file can't be created.
+		 */
+		SegmentWriter(Path path) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+		}
+
+		/**
+		 * Writes the posting list of a key. Keys have to be added in increasing (unsigned) order.
+		 * @param key	The key.
+		 * @param ids	Sorted game ids, each once.
+		 * @param n		Number of game ids.
+		 * @throws IOException	If the file can't be written.
+		 */
+		void add(long key, int[] ids, int n) throws IOException {
+			if(count == keys.length) {
+				keys = Arrays.copyOf(keys, count * 2);
+				offsets = Arrays.copyOf(offsets, count * 2 + 1);
+			}
+			if(written > Integer.MAX_VALUE) {
+				throw new IOException("Segment is too large");
+			}
+			keys[count] = key;
+			offsets[count++] = (int) written;
+			writeVarint(n);
+			int previous = 0;
+			for(int i = 0; i < n; i++) {
+				writeVarint(ids[i] - previous);
+				previous = ids[i];
+			}
+		}
+
+		/**
+		 * Writes a varint.
+		 * @param value	The value (not negative).
+		 * @throws IOException	If the file can't be written.
+		 */
+		void writeVarint(int value) throws IOException {
+			while((value & ~0x7F) != 0) {
+				out.writeByte((value & 0x7F) | 0x80);
+				value >>>= 7;
+				written++;
+			}
+			out.writeByte(value);
+			written++;
+		}
+
+		/**
+		 * Writes the keys, the offsets and the trailer, and closes the file.
+		 * @throws IOException	If the file can't be written.
+		 */
+		public void close() throws IOException {
+			try {
+				offsets[count] = (int) written;
+				for(int i = 0; i < count; i++) {
+					out.writeLong(keys[i]);
+				}
+				for(int i = 0; i <= count; i++) {
+					out.writeInt(offsets[i]);
+				}
+				out.writeInt(count);
+				out.writeInt(completeGames);
+				out.writeInt(MAGIC);
+			}
+			finally {
+				out.close();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,488 @@
+package chess;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class mines tactic puzzles from a game archive (see GameArchive). Every game is replayed on a Board and every position
+ * gets a shallow search. A position becomes a candidate when the evaluation swung by a lot after the opponent's last move
+ * and only one move wins: a second line is searched only then, and has to be far behind the best one. Candidates get a deeper search that has to agree,
+ * and mates are proved with the MateSolver. Each puzzle is written as an EPD line with its first move ("bm") and its solution ("pv").
+ *
+ * The archive is cut into chunks of games that are spread over a ForkJoinPool, so a worker that runs out of chunks steals half of
+ * what another worker has left, and a chunk of long games doesn't hold up the others. Each worker thread keeps its own Board,
+ * TranspositionTable, Search and MateSolver. When a chunk is finished its puzzles are appended to the output file and the chunk
+ * is recorded in a checkpoint file together with the length of the output. A run that is started again on the same files
+ * skips the recorded chunks and cuts the output back to the last recorded length, so a crash loses at most the chunks
+ * that were being mined, and no puzzle is written twice.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class PuzzleMiner {
+
+	/**
+	 * Number of games in a chunk, the unit of work and of checkpointing.
+	 */
+	static final int CHUNK_SIZE = 64;
+	/**
+	 * Size of a checkpoint record: number of the chunk (4 bytes) and length of the output after its puzzles (8 bytes).
+	 */
+	static final int RECORD = 12;
+	/**
+	 * Number of plies at the start of each game that are not screened, since openings are book moves rather than tactics.
+	 */
+	static final int OPENING_PLIES = 10;
+	/**
+	 * Most number of plies of a solution that doesn't end in mate. It always ends with a move of the player solving the puzzle.
+	 */
+	static final int SOLUTION_PLIES = 7;
+	/**
+	 * Number of positions the MateSolver gets to prove a mate.
+	 */
+	static final long MATE_NODES = 200000;
+
+	/**
+	 * This class is what each worker thread keeps for itself.
+	 */
+	class Worker {
+
+		/**
+		 * Board the games are replayed on.
+		 */
+		Board board = new Board();
+		/**
+		 * Search on the Board, with the worker's own TranspositionTable.
+		 */
+		Search search = new Search(board, new TranspositionTable(hashMegabytes));
+		/**
+		 * Solver that proves mates, with its own hash table.
+		 */
+		MateSolver solver = new MateSolver(hashMegabytes);
+		/**
+		 * Moves of the game being mined.
+		 */
+		int[] moves = new int[1 << 16];
+
+	}
+
+	/**
+	 * This class is a range of chunks. It splits itself in halves until one chunk is left, and the halves are what idle workers steal.
+	 */
+	class ChunkTask extends RecursiveAction {
+
+		/**
+		 * Serial number for Serializable, which RecursiveAction implements.
+		 */
+		static final long serialVersionUID = 1L;
+		/**
+		 * First chunk of the range.
+		 */
+		int first;
+		/**
+		 * Chunk after the last chunk of the range.
+		 */
+		int end;
+
+		/**
+		 * This constructor creates a task for a range of chunks.
+		 * @param first	First chunk of the range.
+		 * @param end	Chunk after the last chunk of the range.
+		 */
+		ChunkTask(int first, int end) {
+			this.first = first;
+			this.end = end;
+		}
+
+		/**
+		 * Mines the chunk, or splits the range.
+		 */
+		protected void compute() {
+			if(end - first > 1) {
+				int middle = (first + end) >>> 1;
+				invokeAll(new ChunkTask(first, middle), new ChunkTask(middle, end));
+			}
+			else if(!isFinished(first)) {
+				mineChunk(first);
+			}
+		}
+
+	}
+
+	/**
+	 * The archive.
+	 */
+	GameArchive archive;
+	/**
+	 * Depth of the search that screens every position.
+	 */
+	int screenDepth;
+	/**
+	 * Depth of the search that confirms a candidate.
+	 */
+	int confirmDepth;
+	/**
+	 * Least number of centipawns the best move must win by, and the second best move must be behind it by.
+	 */
+	int margin = 200;
+	/**
+	 * Size of the hash tables of each worker in megabytes.
+	 */
+	int hashMegabytes = 16;
+	/**
+	 * File the puzzles are appended to.
+	 */
+	FileChannel output;
+	/**
+	 * File the finished chunks are recorded in.
+	 */
+	FileChannel checkpoint;
+	/**
+	 * Chunks that are finished, from this run or an earlier one.
+	 */
+	BitSet done = new BitSet();
+	/**
+	 * Search of each worker thread.
+	 */
+	ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+	/**
+	 * Number of positions screened by this run.
+	 */
+	LongAdder positions = new LongAdder();
+	/**
+	 * Number of candidates that got the deeper search.
+	 */
+	LongAdder candidates = new LongAdder();
+	/**
+	 * Number of puzzles written by this run.
+	 */
+	LongAdder puzzles = new LongAdder();
+	/**
+	 * Number of games that could not be read.
+	 */
+	LongAdder corrupt = new LongAdder();
+
+	/**
+	 * This constructor opens the output and checkpoint files, creating them if needed.
+	 * Chunks recorded in the checkpoint are skipped, and puzzles written after the last recorded chunk are cut off.
+	 * @param archive		The archive to mine.
+	 * @param output		File the puzzles are appended to, in EPD.
+	 * @param checkpoint	File the finished chunks are recorded in.
+	 * @param screenDepth	Depth of the search that screens every position.
+	 * @param confirmDepth	Depth of the search that confirms a candidate.
+	 * @throws IOException	If a file can't be opened.
+	 */
+	public PuzzleMiner(GameArchive archive, Path output, Path checkpoint, int screenDepth, int confirmDepth) throws IOException {
+		if(screenDepth < 1 || confirmDepth < screenDepth) {
+			throw new IllegalArgumentException("Depths must be at least 1 and the confirming one at least the screening one: " + screenDepth + ", " + confirmDepth);
+		}
+		this.archive = archive;
+		this.screenDepth = screenDepth;
+		this.confirmDepth = confirmDepth;
+		ByteBuffer recorded = ByteBuffer.wrap(Files.exists(checkpoint) ? Files.readAllBytes(checkpoint) : new byte[0]);
+		int records = recorded.capacity() / RECORD;
+		long length = 0;
+		for(int i = 0; i < records; i++) {
+			done.set(recorded.getInt(i * RECORD));
+			length = Math.max(length, recorded.getLong(i * RECORD + 4));
+		}
+		// a record cut short by a crash is not a finished chunk
+		this.checkpoint = FileChannel.open(checkpoint, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		this.checkpoint.truncate((long) records * RECORD);
+		this.checkpoint.position((long) records * RECORD);
+		this.output = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		this.output.truncate(length);
+		this.output.position(length);
+	}
+
+	/**
+	 * Returns the number of chunks of the archive.
+	 * @return	Number of chunks.
+	 */
+	public int getChunks() {
+		return (archive.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+	}
+
+	/**
+	 * Checks if a chunk is finished.
+	 * @param chunk	Number of the chunk.
+	 * @return	True if its puzzles were written and recorded.
+	 */
+	synchronized boolean isFinished(int chunk) {
+		return done.get(chunk);
+	}
+
+	/**
+	 * Mines every chunk that is not finished yet.
+	 * @param threads	Number of worker threads.
+	 * @throws IOException	If the output or checkpoint can't be written.
+	 */
+	public void mine(int threads) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new ChunkTask(0, getChunks()));
+		}
+		catch(UncheckedIOException e) {
+			throw e.getCause();
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Mines the games of a chunk on the calling thread's Worker, then writes its puzzles and records it.
+	 * @param chunk	Number of the chunk.
+	 */
+	void mineChunk(int chunk) {
+		Worker worker = workers.get();
+		StringBuilder found = new StringBuilder();
+		int last = Math.min(archive.size(), (chunk + 1) * CHUNK_SIZE);
+		for(int game = chunk * CHUNK_SIZE; game < last; game++) {
+			try {
+				mineGame(worker, game, found);
+			}
+			catch(IllegalStateException | IllegalArgumentException e) {
+				corrupt.increment();
+			}
+		}
+		try {
+			commit(chunk, found.toString().getBytes(StandardCharsets.US_ASCII));
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Screens every position of a game and adds the puzzles it has.
+	 * @param worker	The calling thread's Worker.
+	 * @param game		Id of the game.
+	 * @param found		Where the EPD lines of the puzzles are added.
+	 */
+	void mineGame(Worker worker, int game, StringBuilder found) {
+		Board board = worker.board;
+		Search search = worker.search;
+		int plies = archive.readMoves(game, board, worker.moves);
+		String fen = archive.getStartFen(game);
+		Fen.load(board, fen);
+		char color = Fen.color(fen);
+		// score of the position before, for the player who's turn it was there, and whether it was screened
+		int previous = 0;
+		boolean screened = false;
+		for(int ply = 0; ply < plies; ply++) {
+			if(ply >= OPENING_PLIES - 1) {
+				search.setMultiPV(1);
+				search.search(color, screenDepth, 0, 0);
+				positions.increment();
+				int best = search.getBestScore();
+				// the opponent's last move turned a position that wasn't won into one that is
+				if(screened && best >= margin && -previous < margin && best + previous >= margin && isSingleWin(worker, color)) {
+					candidates.increment();
+					String puzzle = confirm(worker, color, game, ply);
+					if(puzzle != null) {
+						found.append(puzzle).append('\n');
+						puzzles.increment();
+					}
+				}
+				previous = best;
+				screened = true;
+			}
+			board.doMove(worker.moves[ply]);
+			color = color == 'w' ? 'b' : 'w';
+		}
+	}
+
+	/**
+	 * Checks if only one move wins, with a second line at the screening depth. This costs about as much as the screen itself,
+	 * which is why it is only done after the first line found a winning swing (the table still holds most of that search).
+	 * @param worker	The calling thread's Worker.
+	 * @param color		Color of the player who's turn it is.
+	 * @return	True if the second best move is behind the best one by at least the margin.
+	 */
+	boolean isSingleWin(Worker worker, char color) {
+		Search search = worker.search;
+		search.setMultiPV(2);
+		search.search(color, screenDepth, 0, 0);
+		return search.getLineCount() == 2 && search.getLineScore(0) - search.getLineScore(1) >= margin;
+	}
+
+	/**
+	 * Searches a candidate deeper and turns it into a puzzle if the deeper search still finds a single winning move.
+	 * @param worker	The calling thread's Worker.
+	 * @param color		Color of the player who's turn it is, who solves the puzzle.
+	 * @param game		Id of the game.
+	 * @param ply		Ply of the position in the game.
+	 * @return	The puzzle as an EPD line, or null if it is not one.
+	 */
+	String confirm(Worker worker, char color, int game, int ply) {
+		Board board = worker.board;
+		Search search = worker.search;
+		search.setMultiPV(2);
+		search.search(color, confirmDepth, 0, 0);
+		if(search.getLineCount() < 2) {
+			return null;
+		}
+		int score = search.getLineScore(0);
+		if(score < margin || score - search.getLineScore(1) < margin) {
+			return null;
+		}
+		int[] line = search.getLine(0);
+		String theme = "material";
+		int length = Math.min(line.length, SOLUTION_PLIES);
+		if(score >= Search.MATE - Search.MAX_PLY) {
+			int moves = (Search.MATE - score + 1) / 2;
+			int proved = worker.solver.solve(board, color, Math.min(moves, MateSolver.MAX_MOVES), MATE_NODES);
+			if(proved == MateSolver.NO_MATE) {
+				return null;
+			}
+			theme = "mate in " + moves;
+			length = line.length;
+		}
+		// end on a move of the solver, since the reply after it is not part of the puzzle
+		if(length % 2 == 0) {
+			length--;
+		}
+		String[] fields = Fen.toFen(board, color).split(" ");
+		StringBuilder solution = new StringBuilder();
+		char mover = color;
+		for(int i = 0; i < length; i++) {
+			solution.append(i > 0 ? " " : "").append(San.toSan(board, mover, line[i]));
+			board.doMove(line[i]);
+			mover = mover == 'w' ? 'b' : 'w';
+		}
+		for(int i = length - 1; i >= 0; i--) {
+			board.undoMove(line[i]);
+		}
+		String first = solution.indexOf(" ") < 0 ? solution.toString() : solution.substring(0, solution.indexOf(" "));
+		return fields[0] + " " + fields[1] + " " + fields[2] + " " + fields[3] + " bm " + first + "; pv \"" + solution + "\"; ce " + score
+				+ "; c0 \"" + theme + "\"; id \"game " + game + " ply " + ply + "\";";
+	}
+
+	/**
+	 * Appends the puzzles of a chunk to the output and records the chunk in the checkpoint.
+	 * The output is forced to disk before the record is written, so a recorded chunk always has its puzzles.
+	 * @param chunk		Number of the chunk.
+	 * @param found		EPD lines of the puzzles.
+	 * @throws IOException	If a file can't be written.
+	 */
+	synchronized void commit(int chunk, byte[] found) throws IOException {
+		ByteBuffer text = ByteBuffer.wrap(found);
+		while(text.hasRemaining()) {
+			output.write(text);
+		}
+		output.force(false);
+		ByteBuffer record = ByteBuffer.allocate(RECORD);
+		record.putInt(chunk).putLong(output.position()).flip();
+		while(record.hasRemaining()) {
+			checkpoint.write(record);
+		}
+		checkpoint.force(false);
+		done.set(chunk);
+	}
+
+	/**
+	 * Returns the number of chunks that are finished, from this run or an earlier one.
+	 * @return	Number of chunks.
+	 */
+	public synchronized int getDone() {
+		return done.cardinality();
+	}
+
+	/**
+	 * Returns the number of positions screened by this run.
+	 * @return	Number of positions.
+	 */
+	public long getPositions() {
+		return positions.sum();
+	}
+
+	/**
+	 * Returns the number of candidates that got the deeper search.
+	 * @return	Number of candidates.
+	 */
+	public long getCandidates() {
+		return candidates.sum();
+	}
+
+	/**
+	 * Returns the number of puzzles written by this run.
+	 * @return	Number of puzzles.
+	 */
+	public long getPuzzles() {
+		return puzzles.sum();
+	}
+
+	/**
+	 * Returns the number of games that could not be read.
+	 * @return	Number of games.
+	 */
+	public long getCorrupt() {
+		return corrupt.sum();
+	}
+
+	/**
+	 * Closes the output and checkpoint files.
+	 * @throws IOException	If a file can't be closed.
+	 */
+	public void close() throws IOException {
+		output.close();
+		checkpoint.close();
+	}
+
+	/**
+	 * Mines an archive from the command line, printing the throughput every 10 seconds. Running it again resumes where it stopped.
+	 * @param args	Archive, output EPD file, optional screening depth (default 4), confirming depth (default 10) and number of threads.
+	 * @throws IOException	If a file can't be read or written.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: PuzzleMiner <games.bin> <puzzles.epd> [screen depth] [confirm depth] [threads]");
+			return;
+		}
+		int screenDepth = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int confirmDepth = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		Path output = Paths.get(args[1]);
+		Bitbases.loadAll();
+		try(GameArchive archive = new GameArchive(Paths.get(args[0]))) {
+			PuzzleMiner miner = new PuzzleMiner(archive, output, output.resolveSibling(output.getFileName() + ".checkpoint"), screenDepth, confirmDepth);
+			int resumed = miner.getDone();
+			long start = System.nanoTime();
+			ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+			reporter.scheduleAtFixedRate(() -> {
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%d of %d chunks, %d positions (%.0f positions/s), %d candidates, %d puzzles%n", miner.getDone(), miner.getChunks(),
+						miner.getPositions(), miner.getPositions() / seconds, miner.getCandidates(), miner.getPuzzles());
+			}, 10, 10, TimeUnit.SECONDS);
+			try {
+				miner.mine(threads);
+			}
+			finally {
+				reporter.shutdownNow();
+				miner.close();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("Mined %d chunks (%d were already done) in %.1f s: %d positions (%.0f positions/s), %d candidates, %d puzzles, %d corrupt games%n",
+					miner.getChunks() - resumed, resumed, seconds, miner.getPositions(), miner.getPositions() / seconds, miner.getCandidates(),
+					miner.getPuzzles(), miner.getCorrupt());
+		}
+	}
+
+}
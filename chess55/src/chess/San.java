@@ -0,0 +1,174 @@
+package chess;
+
+/**
+ * This class reads and writes moves in Standard Algebraic Notation (SAN), the notation used by PGN and EPD files (Example: "Nf3", "exd5", "O-O", "e8=Q+").
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class San {
+
+	/**
+	 * San only contains static methods, so no San object is ever created.
+	 */
+	private San() {
+	}
+
+	/**
+	 * Finds the legal move that a SAN move stands for.
+	 * @param board	The Board the move is made on.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @param san	Move in SAN.
+	 * @param moves	Array of MoveGenerator.MAX_MOVES moves that can be overwritten.
+	 * @return	The packed move, or Move.NONE if the SAN is not a legal move on the Board.
+	 */
+	public static int parse(Board board, char color, String san, int[] moves) {
+		String text = san.trim();
+		int end = text.length();
+		while(end > 0 && "+#!?".indexOf(text.charAt(end - 1)) >= 0) {
+			end--;
+		}
+		text = text.substring(0, end);
+		if(text.length() < 2) {
+			return Move.NONE;
+		}
+		int count = MoveGenerator.generateLegal(board, color, moves);
+
+		// castles
+		if(text.equals("O-O") || text.equals("0-0") || text.equals("O-O-O") || text.equals("0-0-0")) {
+			int col = text.length() == 3 ? 6 : 2;
+			for(int i = 0; i < count; i++) {
+				if((moves[i] & Move.CASTLE) != 0 && (Move.to(moves[i]) & 7) == col) {
+					return moves[i];
+				}
+			}
+			return Move.NONE;
+		}
+
+		char type = 'p';
+		if("NBRQK".indexOf(text.charAt(0)) >= 0) {
+			type = text.charAt(0);
+			text = text.substring(1);
+		}
+		char promotion = ' ';
+		int equals = text.indexOf('=');
+		if(equals >= 0 && equals + 1 < text.length()) {
+			promotion = text.charAt(equals + 1);
+			text = text.substring(0, equals);
+		}
+		else if(type == 'p' && text.length() > 2 && "NBRQ".indexOf(text.charAt(text.length() - 1)) >= 0) {
+			promotion = text.charAt(text.length() - 1);
+			text = text.substring(0, text.length() - 1);
+		}
+		text = text.replace("x", "").replace("-", "").replace(":", "");
+		if(text.length() < 2) {
+			return Move.NONE;
+		}
+		int toCol = text.charAt(text.length() - 2) - 'a';
+		int toRow = 8 - Character.getNumericValue(text.charAt(text.length() - 1));
+		if(toCol < 0 || toCol > 7 || toRow < 0 || toRow > 7) {
+			return Move.NONE;
+		}
+		int to = toRow * 8 + toCol;
+		int fromCol = -1;
+		int fromRow = -1;
+		for(char c : text.substring(0, text.length() - 2).toCharArray()) {
+			if(c >= 'a' && c <= 'h') {
+				fromCol = c - 'a';
+			}
+			else if(c >= '1' && c <= '8') {
+				fromRow = 8 - (c - '0');
+			}
+		}
+
+		int found = Move.NONE;
+		for(int i = 0; i < count; i++) {
+			int move = moves[i];
+			int from = Move.from(move);
+			if(Move.to(move) != to || board.getPiece(from >>> 3, from & 7).getType() != type) {
+				continue;
+			}
+			if((fromCol >= 0 && (from & 7) != fromCol) || (fromRow >= 0 && (from >>> 3) != fromRow)) {
+				continue;
+			}
+			if(Move.promotion(move) != (promotion == ' ' && Move.isPromotion(move) ? 'Q' : promotion)) {
+				continue;
+			}
+			if((move & Move.CASTLE) != 0) {
+				continue;
+			}
+			found = move;
+			break;
+		}
+		return found;
+	}
+
+	/**
+	 * Writes a legal move in SAN, including '+' for check and '#' for checkmate.
+	 * @param board	The Board the move is made on.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @param move	Packed legal move.
+	 * @return	The move in SAN.
+	 */
+	public static String toSan(Board board, char color, int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		Piece piece = board.getPiece(from >>> 3, from & 7);
+		StringBuilder san = new StringBuilder();
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+		if((move & Move.CASTLE) != 0) {
+			san.append((to & 7) == 6 ? "O-O" : "O-O-O");
+		}
+		else {
+			if(piece.getType() != 'p') {
+				san.append(piece.getType());
+				// add the column or row when another Piece of the same type could move to the same square
+				boolean sameCol = false;
+				boolean sameRow = false;
+				boolean ambiguous = false;
+				int count = MoveGenerator.generateLegal(board, color, moves);
+				for(int i = 0; i < count; i++) {
+					int other = Move.from(moves[i]);
+					if(other != from && Move.to(moves[i]) == to && board.getPiece(other >>> 3, other & 7).getType() == piece.getType()) {
+						ambiguous = true;
+						sameCol |= (other & 7) == (from & 7);
+						sameRow |= (other >>> 3) == (from >>> 3);
+					}
+				}
+				if(ambiguous) {
+					if(!sameCol) {
+						san.append((char) ('a' + (from & 7)));
+					}
+					else if(!sameRow) {
+						san.append(8 - (from >>> 3));
+					}
+					else {
+						san.append(Move.square(from));
+					}
+				}
+			}
+			else if(Move.isCapture(move)) {
+				san.append((char) ('a' + (from & 7)));
+			}
+			if(Move.isCapture(move)) {
+				san.append('x');
+			}
+			san.append(Move.square(to));
+			if(Move.isPromotion(move)) {
+				san.append('=').append(Move.promotion(move));
+			}
+		}
+
+		char oppColor = color == 'w' ? 'b' : 'w';
+		board.doMove(move);
+		if(!board.check(oppColor)) {
+			san.append(MoveGenerator.generateLegal(board, oppColor, moves) == 0 ? '#' : '+');
+		}
+		board.undoMove(move);
+		return san.toString();
+	}
+
+}
@@ -0,0 +1,1010 @@
+package chess;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * This class is the engine that looks for the best move in a position.
+ * It uses an iterative deepening alpha-beta search with a quiescence search at the end of each line,
+ * and keeps the results of searched positions in a TranspositionTable.
+ * Moves are ordered by a MovePicker for each ply, using the killer moves and history table kept by this class.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class Search {
+
+	/**
+	 * Score that is larger than any real score.
+	 */
+	public static final int INFINITY = 32000;
+	/**
+	 * Score of being checkmated right now. Being checkmated in n plies scores -(MATE - n).
+	 */
+	public static final int MATE = 31000;
+	/**
+	 * Deepest ply that the search can reach.
+	 */
+	public static final int MAX_PLY = 64;
+	/**
+	 * Half the width of the first aspiration window, in centipawns.
+	 */
+	static final int ASPIRATION_WINDOW = 30;
+	/**
+	 * How far the static score has to be above beta, per ply of remaining depth, for reverse futility pruning.
+	 */
+	static final int REVERSE_FUTILITY_MARGIN = 120;
+	/**
+	 * How far the static score has to be below alpha, indexed by remaining depth, for quiet moves to be skipped by futility pruning.
+	 */
+	static final int[] FUTILITY_MARGIN = {0, 150, 300};
+	/**
+	 * Score of a position that a bitbase says is won. It is below the mate scores, but above any normal score.
+	 */
+	public static final int KNOWN_WIN = 20000;
+
+	/**
+	 * Receives the result of each iteration of a search as soon as it is completed.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after each completed iteration.
+		 * @param depth		Depth of the iteration.
+		 * @param score		Score of the best move.
+		 * @param pv		Best line, starting with the best move.
+		 * @param nodes		Number of positions searched so far.
+		 * @param millis	Time since the search started, in milliseconds.
+		 */
+		void iterationDone(int depth, int score, int[] pv, long nodes, long millis);
+
+		/**
+		 * Called for each line of a completed iteration, best line first, before iterationDone.
+		 * Only needed in MultiPV mode, since with one line it gets the same line as iterationDone.
+		 * @param depth		Depth of the iteration.
+		 * @param line		Number of the line, starting at 1.
+		 * @param score		Score of the line.
+		 * @param pv		The line.
+		 * @param nodes		Number of positions searched so far.
+		 * @param millis	Time since the search started, in milliseconds.
+		 */
+		default void lineDone(int depth, int line, int score, int[] pv, long nodes, long millis) {
+		}
+
+	}
+
+	/**
+	 * The Board that is searched. Moves are made and taken back on it, so it should not be used while searching.
+	 */
+	Board board;
+	/**
+	 * Table of positions that were already searched.
+	 */
+	TranspositionTable tt;
+	/**
+	 * MovePicker used at each ply.
+	 */
+	MovePicker[] pickers = new MovePicker[MAX_PLY + 1];
+	/**
+	 * Two quiet moves that caused a cutoff at each ply.
+	 */
+	int[][] killers = new int[MAX_PLY + 1][2];
+	/**
+	 * How often each quiet move caused a cutoff, indexed by [color][from + to * 64].
+	 */
+	int[][] history = new int[2][4096];
+	/**
+	 * Best line found from each ply (triangular array).
+	 */
+	int[][] pv = new int[MAX_PLY + 1][MAX_PLY + 1];
+	/**
+	 * Length of the line in pv at each ply.
+	 */
+	int[] pvLength = new int[MAX_PLY + 1];
+
+	/**
+	 * Number of positions searched.
+	 */
+	long nodes;
+	/**
+	 * Number of positions after which the search stops (Long.MAX_VALUE for no limit).
+	 */
+	long nodeLimit;
+	/**
+	 * Time in milliseconds (read from clock) at which the search stops (Long.MAX_VALUE for no limit).
+	 */
+	long deadline;
+	/**
+	 * Source of the current time in milliseconds. It is System.currentTimeMillis, except in simulations with a TimeManager.
+	 */
+	LongSupplier clock = System::currentTimeMillis;
+	/**
+	 * Decides after each iteration whether the search should go on, or null to search until the limits.
+	 */
+	TimeManager timeManager;
+	/**
+	 * Positions searched after each root move in this search, indexed by from + to * 64.
+	 */
+	long[] rootNodes = new long[4096];
+	/**
+	 * Set to stop the search as soon as possible, either by the search itself or by another thread.
+	 */
+	volatile boolean stopped;
+
+	/**
+	 * Best move found by the last completed iteration.
+	 */
+	int bestMove;
+	/**
+	 * Score of bestMove.
+	 */
+	int bestScore;
+	/**
+	 * Depth of the last completed iteration.
+	 */
+	int completedDepth;
+	/**
+	 * Number of best root moves that are searched, each as its own line (MultiPV).
+	 */
+	int multiPV = 1;
+	/**
+	 * Lines found by the last completed iteration, best first.
+	 */
+	int[][] lines = new int[0][];
+	/**
+	 * Score of each line.
+	 */
+	int[] lineScores = new int[0];
+	/**
+	 * Root moves that are skipped, because they start lines that were already searched in this iteration.
+	 */
+	int[] excludedMoves = new int[MoveGenerator.MAX_MOVES];
+	/**
+	 * Number of moves in excludedMoves.
+	 */
+	int excludedCount;
+
+	/**
+	 * True if null move pruning is used.
+	 */
+	boolean nullMove = true;
+	/**
+	 * True if late move reductions are used.
+	 */
+	boolean lateMoveReductions = true;
+	/**
+	 * True if futility pruning and reverse futility pruning are used.
+	 */
+	boolean futility = true;
+	/**
+	 * True if iterations start with an aspiration window around the previous score.
+	 */
+	boolean aspiration = true;
+	/**
+	 * True at each ply where the move that was just made is a null move, so that two null moves are never made in a row.
+	 */
+	boolean[] nullMovePlayed = new boolean[MAX_PLY + 2];
+	/**
+	 * True if positions with few Pieces are looked up in the Bitbases and the Syzygy tables.
+	 */
+	boolean bitbases = true;
+	/**
+	 * Most Pieces (including Kings) a position can have to be looked up, taken from Bitbases.getMaxPieces when the search starts.
+	 */
+	int probePieces;
+	/**
+	 * Number of Pieces (including Kings) on the Board at each ply, so that the Bitbases are only probed when they can help.
+	 */
+	int[] pieceCount = new int[MAX_PLY + 2];
+	/**
+	 * Receives the result of each iteration, or null.
+	 */
+	Listener listener;
+	/**
+	 * Nodes already added to EngineStats.
+	 */
+	long flushedNodes;
+	/**
+	 * Quiescence nodes not yet added to EngineStats.
+	 */
+	long quiescenceNodes;
+	/**
+	 * Beta cutoffs not yet added to EngineStats.
+	 */
+	long cutoffs;
+	/**
+	 * Beta cutoffs by the first move not yet added to EngineStats.
+	 */
+	long firstMoveCutoffs;
+
+	/**
+	 * This constructor creates a Search for the given Board.
+	 * @param board	The Board to search.
+	 * @param tt	Table of searched positions (can be shared between searches of the same game).
+	 */
+	public Search(Board board, TranspositionTable tt) {
+		this.board = board;
+		this.tt = tt;
+		for(int i = 0; i <= MAX_PLY; i++) {
+			pickers[i] = new MovePicker();
+		}
+	}
+
+	/**
+	 * Looks for the best move for the given player.
+	 * @param color		Color of the player who's turn it is ('w' or 'b').
+	 * @param maxDepth	Deepest iteration to search.
+	 * @param maxNodes	Number of positions after which the search stops (0 for no limit).
+	 * @param millis	Time in milliseconds after which the search stops (0 for no limit).
+	 * @return	The best move, or Move.NONE if there are no legal moves.
+	 */
+	public int search(char color, int maxDepth, long maxNodes, long millis) {
+		SearchMoveEvent moveEvent = new SearchMoveEvent();
+		moveEvent.begin();
+		board.resetKey(color);
+		nodes = 0;
+		long startTime = clock.getAsLong();
+		flushedNodes = 0;
+		nodeLimit = maxNodes > 0 ? maxNodes : Long.MAX_VALUE;
+		deadline = millis > 0 ? startTime + millis : Long.MAX_VALUE;
+		stopped = false;
+		bestMove = Move.NONE;
+		bestScore = 0;
+		completedDepth = 0;
+		for(int[] killer : killers) {
+			killer[0] = Move.NONE;
+			killer[1] = Move.NONE;
+		}
+		ageHistory();
+		Arrays.fill(rootNodes, 0);
+		pieceCount[0] = countPieces();
+		probePieces = Bitbases.getMaxPieces();
+
+		// MultiPV can't report more lines than there are legal moves
+		int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+		int lineLimit = Math.max(1, Math.min(multiPV, MoveGenerator.generateLegal(board, color, rootMoves)));
+		lines = new int[0][];
+		lineScores = new int[0];
+
+		// the Syzygy tables already know the best move of an ending they cover, so there is nothing to search
+		boolean probed = bitbases && pieceCount[0] <= Syzygy.getMaxPieces() && probeRoot(color, startTime);
+		for(int depth = 1; !probed && depth <= Math.min(maxDepth, MAX_PLY); depth++) {
+			SearchIterationEvent iterationEvent = new SearchIterationEvent();
+			iterationEvent.begin();
+			long iterationNodes = nodes;
+			// each line is the best root move that is not the first move of a line above it
+			int[][] found = new int[lineLimit][];
+			int[] foundScores = new int[lineLimit];
+			int foundCount = 0;
+			int firstScore = 0;
+			excludedCount = 0;
+			for(int line = 0; line < lineLimit; line++) {
+				int score = aspirate(color, depth, line < lineScores.length ? lineScores[line] : -INFINITY);
+				if(line == 0) {
+					firstScore = score;
+				}
+				// a line cut off by the limits is only kept when there is nothing better yet
+				if(pvLength[0] > 0 && (!stopped || completedDepth == 0)) {
+					found[foundCount] = Arrays.copyOf(pv[0], pvLength[0]);
+					foundScores[foundCount++] = score;
+					excludedMoves[excludedCount++] = pv[0][0];
+				}
+				if(stopped || pvLength[0] == 0) {
+					break;
+				}
+			}
+			excludedCount = 0;
+			if(stopped && completedDepth > 0) {
+				break;
+			}
+			if(foundCount > 0) {
+				setLines(found, foundScores, foundCount);
+				bestMove = lines[0][0];
+				bestScore = lineScores[0];
+			}
+			completedDepth = depth;
+			if(iterationEvent.shouldCommit()) {
+				iterationEvent.depth = depth;
+				iterationEvent.score = bestScore;
+				iterationEvent.nodes = nodes - iterationNodes;
+				iterationEvent.pv = pvText(getPV());
+				iterationEvent.commit();
+			}
+			if(listener != null) {
+				long elapsed = clock.getAsLong() - startTime;
+				for(int line = 0; line < lines.length; line++) {
+					listener.lineDone(depth, line + 1, lineScores[line], lines[line].clone(), nodes, elapsed);
+				}
+				listener.iterationDone(depth, bestScore, getPV(), nodes, elapsed);
+			}
+			// stop once every line ends in a mate, since a deeper search can't change a forced mate
+			boolean mated = Math.abs(firstScore) >= MATE - MAX_PLY;
+			for(int score : lineScores) {
+				mated &= Math.abs(score) >= MATE - MAX_PLY;
+			}
+			if(stopped || mated) {
+				break;
+			}
+			if(timeManager != null && timeManager.iterationDone(depth, bestMove, bestScore, getNodeShare(bestMove))) {
+				break;
+			}
+		}
+		// stopped before the first move was searched, so take any legal move
+		if(bestMove == Move.NONE) {
+			int[] moves = new int[MoveGenerator.MAX_MOVES];
+			if(MoveGenerator.generateLegal(board, color, moves) > 0) {
+				bestMove = moves[0];
+			}
+		}
+
+		if(timeManager != null) {
+			timeManager.searchDone();
+		}
+		if(EngineStats.ENABLED) {
+			flushStats();
+			EngineStats.SEARCHES.increment();
+			EngineStats.SEARCH_MILLIS.add(clock.getAsLong() - startTime);
+		}
+		if(moveEvent.shouldCommit()) {
+			moveEvent.color = color;
+			moveEvent.move = bestMove == Move.NONE ? "none" : pvText(new int[] {bestMove});
+			moveEvent.depth = completedDepth;
+			moveEvent.score = bestScore;
+			moveEvent.nodes = nodes;
+			moveEvent.limitMillis = millis;
+			moveEvent.commit();
+		}
+		return bestMove;
+	}
+
+	/**
+	 * Looks for the best move for the given player in the time a TimeManager gives it.
+	 * The TimeManager must have been started with the clock of the player, and its clock is also used by the search.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @param time	The started TimeManager.
+	 * @return	The best move, or Move.NONE if there are no legal moves.
+	 */
+	public int search(char color, TimeManager time) {
+		LongSupplier oldClock = clock;
+		timeManager = time;
+		clock = time.getClock();
+		try {
+			return search(color, MAX_PLY, 0, Math.max(1, time.getMaximum() - time.getElapsed()));
+		}
+		finally {
+			timeManager = null;
+			clock = oldClock;
+		}
+	}
+
+	/**
+	 * Searches the root with a small window around the score the same line had in the previous iteration,
+	 * and widens the window on the side that failed until the score is inside it.
+	 * @param color		Color of the player who's turn it is.
+	 * @param depth		Depth of the iteration.
+	 * @param previous	Score of the line in the previous iteration, or -INFINITY to search with a full window.
+	 * @return	Score of the best root move that is not excluded.
+	 */
+	int aspirate(char color, int depth, int previous) {
+		int window = ASPIRATION_WINDOW;
+		int alpha = -INFINITY;
+		int beta = INFINITY;
+		if(aspiration && depth >= 4 && Math.abs(previous) < MATE - MAX_PLY) {
+			alpha = previous - window;
+			beta = previous + window;
+		}
+		while(true) {
+			int score = negamax(color, depth, alpha, beta, 0);
+			if(stopped) {
+				return score;
+			}
+			if(score <= alpha) {
+				alpha = Math.max(score - window, -INFINITY);
+			}
+			else if(score >= beta) {
+				beta = Math.min(score + window, INFINITY);
+			}
+			else {
+				return score;
+			}
+			window *= 2;
+		}
+	}
+
+	/**
+	 * Takes the best move from the Syzygy tables and reports it as a completed iteration of depth 1 with a single line.
+	 * The Board doesn't keep the number of moves since the last capture or Pawn move, so the move is picked as if it were 0.
+	 * @param color		Color of the player who's turn it is ('w' or 'b').
+	 * @param startTime	Time the search started, as given by the clock.
+	 * @return	True if the tables gave a move, false if they don't cover the Board or a table is missing.
+	 */
+	boolean probeRoot(char color, long startTime) {
+		int move = Syzygy.bestMove(board, color);
+		int result = move != Move.NONE ? Bitbases.probeSyzygy(board, color) : Bitbases.UNKNOWN;
+		if(result == Bitbases.UNKNOWN) {
+			return false;
+		}
+		bestMove = move;
+		bestScore = bitbaseScore(result, color, 0);
+		lines = new int[][] {{move}};
+		lineScores = new int[] {bestScore};
+		completedDepth = 1;
+		if(listener != null) {
+			long elapsed = clock.getAsLong() - startTime;
+			listener.lineDone(1, 1, bestScore, getPV(), nodes, elapsed);
+			listener.iterationDone(1, bestScore, getPV(), nodes, elapsed);
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the lines of a completed iteration, sorted from best to worst score.
+	 * A later line can come out better than an earlier one, since each is searched with its own window.
+	 * @param found		The lines.
+	 * @param scores	Score of each line.
+	 * @param count		Number of lines.
+	 */
+	void setLines(int[][] found, int[] scores, int count) {
+		for(int i = 1; i < count; i++) {
+			for(int j = i; j > 0 && scores[j] > scores[j - 1]; j--) {
+				int score = scores[j];
+				scores[j] = scores[j - 1];
+				scores[j - 1] = score;
+				int[] line = found[j];
+				found[j] = found[j - 1];
+				found[j - 1] = line;
+			}
+		}
+		lines = Arrays.copyOf(found, count);
+		lineScores = Arrays.copyOf(scores, count);
+	}
+
+	/**
+	 * Returns true if a root move is skipped, because it starts a line that was already searched in this iteration.
+	 * @param move	The move.
+	 * @return	True if the move is skipped.
+	 */
+	boolean isExcluded(int move) {
+		for(int i = 0; i < excludedCount; i++) {
+			if(excludedMoves[i] == move) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes moves in coordinate notation for the flight recorder events.
+	 * @param moves	Packed moves.
+	 * @return	Example: "e2e4 e7e5 g1f3".
+	 */
+	static String pvText(int[] moves) {
+		StringBuilder text = new StringBuilder();
+		for(int move : moves) {
+			if(text.length() > 0) {
+				text.append(' ');
+			}
+			text.append(Move.square(Move.from(move))).append(Move.square(Move.to(move)));
+			if(Move.isPromotion(move)) {
+				text.append(Character.toLowerCase(Move.promotion(move)));
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Adds the counts since the last call to EngineStats.
+	 */
+	void flushStats() {
+		EngineStats.NODES.add(nodes - flushedNodes);
+		EngineStats.QUIESCENCE_NODES.add(quiescenceNodes);
+		EngineStats.BETA_CUTOFFS.add(cutoffs);
+		EngineStats.FIRST_MOVE_CUTOFFS.add(firstMoveCutoffs);
+		flushedNodes = nodes;
+		quiescenceNodes = 0;
+		cutoffs = 0;
+		firstMoveCutoffs = 0;
+		tt.flushStats();
+	}
+
+	/**
+	 * Stops the search as soon as possible. Can be called from another thread.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Turns null move pruning on or off.
+	 * @param nullMove	True if null move pruning should be used.
+	 */
+	public void setNullMove(boolean nullMove) {
+		this.nullMove = nullMove;
+	}
+
+	/**
+	 * Turns late move reductions on or off.
+	 * @param lateMoveReductions	True if late move reductions should be used.
+	 */
+	public void setLateMoveReductions(boolean lateMoveReductions) {
+		this.lateMoveReductions = lateMoveReductions;
+	}
+
+	/**
+	 * Turns futility pruning and reverse futility pruning on or off.
+	 * @param futility	True if futility pruning should be used.
+	 */
+	public void setFutility(boolean futility) {
+		this.futility = futility;
+	}
+
+	/**
+	 * Turns aspiration windows on or off.
+	 * @param aspiration	True if aspiration windows should be used.
+	 */
+	public void setAspiration(boolean aspiration) {
+		this.aspiration = aspiration;
+	}
+
+	/**
+	 * Sets the number of best moves that are searched and reported as separate lines (MultiPV).
+	 * Every line after the first is searched with the moves of the lines above it left out, with its own aspiration window,
+	 * so each extra line costs about as much as the first. The best move and its score are the same as with one line.
+	 * @param multiPV	Number of lines (1 for a normal search).
+	 */
+	public void setMultiPV(int multiPV) {
+		this.multiPV = Math.max(1, multiPV);
+	}
+
+	/**
+	 * Sets the listener that receives the result of each iteration.
+	 * @param listener	The listener, or null for none.
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Turns the Bitbases and the Syzygy tables on or off. Only the Bitbases that are already loaded are used (see Bitbases.loadAll),
+	 * so a search never stops to generate one. When the tables cover the root position, their best move is played without searching.
+	 * @param bitbases	True if positions with few Pieces should be looked up in the Bitbases and the Syzygy tables.
+	 */
+	public void setBitbases(boolean bitbases) {
+		this.bitbases = bitbases;
+	}
+
+	/**
+	 * Returns the score of the best move of the last search.
+	 * @return	Score in centipawns for the player who's turn it was.
+	 */
+	public int getBestScore() {
+		return bestScore;
+	}
+
+	/**
+	 * Returns the depth of the last completed iteration.
+	 * @return	Depth in plies.
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+
+	/**
+	 * Returns the number of positions that were searched.
+	 * @return	Number of positions.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * Returns the share of the positions of the last search that were searched after a root move.
+	 * A best move that takes almost all the positions is one the search has not found a good alternative to.
+	 * @param move	The root move.
+	 * @return	The share between 0 and 1.
+	 */
+	public double getNodeShare(int move) {
+		return nodes == 0 || move == Move.NONE ? 0 : (double) rootNodes[Move.from(move) + Move.to(move) * 64] / nodes;
+	}
+
+	/**
+	 * Returns the best line found by the last iteration.
+	 * @return	Array of packed moves, starting with the best move.
+	 */
+	public int[] getPV() {
+		return lines.length > 0 ? lines[0].clone() : new int[0];
+	}
+
+	/**
+	 * Returns the number of lines found by the last iteration, which is less than the MultiPV setting if there are fewer legal moves.
+	 * @return	Number of lines.
+	 */
+	public int getLineCount() {
+		return lines.length;
+	}
+
+	/**
+	 * Returns one of the lines found by the last iteration.
+	 * @param line	Number of the line, starting at 0 for the best line.
+	 * @return	Array of packed moves.
+	 */
+	public int[] getLine(int line) {
+		return lines[line].clone();
+	}
+
+	/**
+	 * Returns the score of one of the lines found by the last iteration.
+	 * @param line	Number of the line, starting at 0 for the best line.
+	 * @return	Score in centipawns for the player who's turn it was.
+	 */
+	public int getLineScore(int line) {
+		return lineScores[line];
+	}
+
+	/**
+	 * Searches a position with alpha-beta.
+	 * @param color	Color of the player who's turn it is.
+	 * @param depth	Remaining depth in plies.
+	 * @param alpha	Lowest score that is still useful.
+	 * @param beta	Score at which the opponent will avoid this position.
+	 * @param ply	Number of plies from the root.
+	 * @return	Score of the position for the player who's turn it is.
+	 */
+	int negamax(char color, int depth, int alpha, int beta, int ply) {
+		pvLength[ply] = 0;
+		boolean inCheck = !board.check(color);
+		if(inCheck && ply < MAX_PLY) {
+			depth++;
+		}
+		if(depth <= 0 || ply >= MAX_PLY) {
+			return quiesce(color, alpha, beta, ply);
+		}
+		nodes++;
+		if((nodes & 1023) == 0) {
+			checkLimits();
+		}
+		if(stopped) {
+			return 0;
+		}
+		if(ply > 0 && board.isRepetition()) {
+			return 0;
+		}
+		if(bitbases && ply > 0 && pieceCount[ply] <= probePieces) {
+			// once the root is in a bitbase ending, only cut off the draws and keep searching the wins for a mate
+			int result = Bitbases.probeLoaded(board, color);
+			if(result == Bitbases.DRAW || (result != Bitbases.UNKNOWN && pieceCount[ply] < pieceCount[0])) {
+				return bitbaseScore(result, color, ply);
+			}
+		}
+
+		// look the position up in the table
+		long key = board.getKey();
+		long entry = tt.probe(key);
+		int hashMove = TranspositionTable.move(entry);
+		if(ply > 0 && entry != 0 && TranspositionTable.depth(entry) >= depth) {
+			int score = fromTable(TranspositionTable.score(entry), ply);
+			int bound = TranspositionTable.bound(entry);
+			if(bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta) || (bound == TranspositionTable.UPPER && score <= alpha)) {
+				return score;
+			}
+		}
+
+		char oppColor = color == 'w' ? 'b' : 'w';
+		boolean pvNode = beta - alpha > 1;
+		int staticEval = inCheck ? -INFINITY : Evaluator.evaluate(board, color);
+
+		// reverse futility pruning: far enough above beta that a shallow search won't bring the score back down
+		if(futility && !pvNode && !inCheck && ply > 0 && depth <= 3 && Math.abs(beta) < MATE - MAX_PLY
+				&& staticEval - REVERSE_FUTILITY_MARGIN * depth >= beta) {
+			return staticEval;
+		}
+
+		// null move pruning: if passing still fails high, a real move almost surely will too
+		if(nullMove && !pvNode && !inCheck && ply > 0 && !nullMovePlayed[ply - 1] && depth >= 3 && staticEval >= beta && hasPieces(color)) {
+			int reduction = depth >= 6 ? 3 : 2;
+			board.doNullMove();
+			nullMovePlayed[ply] = true;
+			pieceCount[ply + 1] = pieceCount[ply];
+			int score = -negamax(oppColor, depth - 1 - reduction, -beta, -beta + 1, ply + 1);
+			nullMovePlayed[ply] = false;
+			board.undoNullMove();
+			if(stopped) {
+				return 0;
+			}
+			if(score >= beta) {
+				return score >= MATE - MAX_PLY ? beta : score;
+			}
+		}
+
+		// futility pruning: near the leaves, quiet moves can't raise a score that is far below alpha
+		boolean futile = futility && !pvNode && !inCheck && depth < FUTILITY_MARGIN.length && Math.abs(alpha) < MATE - MAX_PLY
+				&& staticEval + FUTILITY_MARGIN[depth] <= alpha;
+
+		MovePicker picker = pickers[ply];
+		picker.init(board, color, hashMove, killers[ply][0], killers[ply][1], history);
+		int oldAlpha = alpha;
+		int best = -INFINITY;
+		int bestMoveHere = Move.NONE;
+		int legalMoves = 0;
+		int move;
+		while((move = picker.next()) != Move.NONE) {
+			if(ply == 0 && excludedCount > 0 && isExcluded(move)) {
+				continue;
+			}
+			long moveNodes = nodes;
+			board.doMove(move);
+			if(!board.check(color)) { // move leaves the King in check
+				board.undoMove(move);
+				continue;
+			}
+			boolean givesCheck = !board.check(oppColor);
+			boolean quiet = Move.isQuiet(move);
+			if(futile && legalMoves > 0 && quiet && !givesCheck) {
+				board.undoMove(move);
+				continue;
+			}
+			legalMoves++;
+			pieceCount[ply + 1] = pieceCount[ply] - (Move.isCapture(move) ? 1 : 0);
+
+			// late move reductions: quiet moves that were ordered late are searched less deeply first
+			int score;
+			if(lateMoveReductions && depth >= 3 && legalMoves > 3 && quiet && !inCheck && !givesCheck && picker.inQuietStage()) {
+				int reduction = legalMoves > 6 && depth >= 6 ? 2 : 1;
+				score = -negamax(oppColor, depth - 1 - reduction, -alpha - 1, -alpha, ply + 1);
+				if(score > alpha && !stopped) {
+					score = -negamax(oppColor, depth - 1, -beta, -alpha, ply + 1);
+				}
+			}
+			else {
+				score = -negamax(oppColor, depth - 1, -beta, -alpha, ply + 1);
+			}
+			board.undoMove(move);
+			if(ply == 0) {
+				rootNodes[Move.from(move) + Move.to(move) * 64] += nodes - moveNodes;
+			}
+			if(stopped) {
+				return 0;
+			}
+
+			if(score > best) {
+				best = score;
+				bestMoveHere = move;
+				if(score > alpha) {
+					alpha = score;
+					updatePV(ply, move);
+					if(score >= beta) {
+						if(Move.isQuiet(move)) {
+							updateKillers(ply, move);
+							updateHistory(color, move, depth);
+						}
+						cutoffs++;
+						if(legalMoves == 1) {
+							firstMoveCutoffs++;
+						}
+						break;
+					}
+				}
+			}
+		}
+
+		// no legal moves means checkmate or stalemate
+		if(legalMoves == 0) {
+			return inCheck ? -MATE + ply : 0;
+		}
+
+		// a root search without some moves would leave the table with a worse move than the real best one
+		if(ply > 0 || excludedCount == 0) {
+			int bound = best >= beta ? TranspositionTable.LOWER : (best > oldAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER);
+			tt.store(key, bestMoveHere, toTable(best, ply), depth, bound);
+		}
+		return best;
+	}
+
+	/**
+	 * Searches only captures until the position is quiet, so that the score is not taken in the middle of an exchange.
+	 * @param color	Color of the player who's turn it is.
+	 * @param alpha	Lowest score that is still useful.
+	 * @param beta	Score at which the opponent will avoid this position.
+	 * @param ply	Number of plies from the root.
+	 * @return	Score of the position for the player who's turn it is.
+	 */
+	int quiesce(char color, int alpha, int beta, int ply) {
+		pvLength[ply] = 0;
+		nodes++;
+		quiescenceNodes++;
+		if((nodes & 1023) == 0) {
+			checkLimits();
+		}
+		if(stopped) {
+			return 0;
+		}
+		int standPat = Evaluator.evaluate(board, color);
+		if(standPat >= beta || ply >= MAX_PLY) {
+			return standPat;
+		}
+		if(standPat > alpha) {
+			alpha = standPat;
+		}
+
+		char oppColor = color == 'w' ? 'b' : 'w';
+		MovePicker picker = pickers[ply];
+		picker.initCaptures(board, color, TranspositionTable.move(tt.probe(board.getKey())));
+		int move;
+		while((move = picker.next()) != Move.NONE) {
+			board.doMove(move);
+			if(!board.check(color)) {
+				board.undoMove(move);
+				continue;
+			}
+			int score = -quiesce(oppColor, -beta, -alpha, ply + 1);
+			board.undoMove(move);
+			if(stopped) {
+				return 0;
+			}
+			if(score > alpha) {
+				alpha = score;
+				updatePV(ply, move);
+				if(score >= beta) {
+					break;
+				}
+			}
+		}
+		return alpha;
+	}
+
+	/**
+	 * Checks if a player has any Pieces other than Pawns and the King.
+	 * Null move pruning is not safe without them, since passing could be the only good move (zugzwang).
+	 * @param color	Color of the player.
+	 * @return	True if the player has a Knight, Bishop, Rook or Queen.
+	 */
+	boolean hasPieces(char color) {
+		Piece[][] gameBoard = board.getBoard();
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				Piece piece = gameBoard[i][j];
+				if(piece != null && piece.getColor() == color && piece.getType() != 'p' && piece.getType() != 'K') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the Pieces on the Board, including Kings.
+	 * @return	Number of Pieces.
+	 */
+	int countPieces() {
+		Piece[][] gameBoard = board.getBoard();
+		int count = 0;
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				if(gameBoard[i][j] != null) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Turns a bitbase result into a score.
+	 * Won positions still add the static evaluation, so that the search prefers the wins that are closest to mate.
+	 * @param result	Bitbases.WIN, Bitbases.LOSS or Bitbases.DRAW for the player who's turn it is.
+	 * @param color		Color of the player who's turn it is.
+	 * @param ply		Number of plies from the root.
+	 * @return	Score of the position for the player who's turn it is.
+	 */
+	int bitbaseScore(int result, char color, int ply) {
+		if(result == Bitbases.DRAW) {
+			return 0;
+		}
+		int score = result == Bitbases.WIN ? KNOWN_WIN - ply : -KNOWN_WIN + ply;
+		return score + Evaluator.evaluate(board, color);
+	}
+
+	/**
+	 * Stops the search if the node limit or the time limit was reached, and adds the counts so far to EngineStats.
+	 */
+	void checkLimits() {
+		if(EngineStats.ENABLED) {
+			flushStats();
+		}
+		if(nodes >= nodeLimit || clock.getAsLong() >= deadline) {
+			stopped = true;
+		}
+	}
+
+	/**
+	 * Makes the best line at a ply the move followed by the best line of the next ply.
+	 * @param ply	Ply where the move was made.
+	 * @param move	The new best move.
+	 */
+	void updatePV(int ply, int move) {
+		pv[ply][0] = move;
+		System.arraycopy(pv[ply + 1], 0, pv[ply], 1, pvLength[ply + 1]);
+		pvLength[ply] = pvLength[ply + 1] + 1;
+	}
+
+	/**
+	 * Remembers a quiet move that caused a cutoff, keeping the two most recent ones.
+	 * @param ply	Ply where the cutoff happened.
+	 * @param move	The quiet move.
+	 */
+	void updateKillers(int ply, int move) {
+		if(Move.key(killers[ply][0]) != Move.key(move)) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = move;
+		}
+	}
+
+	/**
+	 * Raises the history score of a quiet move that caused a cutoff. Deeper cutoffs count for more.
+	 * @param color	Color of the player who made the move.
+	 * @param move	The quiet move.
+	 * @param depth	Remaining depth where the cutoff happened.
+	 */
+	void updateHistory(char color, int move, int depth) {
+		int[] colorHistory = history[color == 'w' ? 0 : 1];
+		colorHistory[move & 0xFFF] += depth * depth;
+		if(colorHistory[move & 0xFFF] > 1 << 20) {
+			ageHistory();
+		}
+	}
+
+	/**
+	 * Halves every history score, so that old cutoffs count for less than new ones.
+	 */
+	void ageHistory() {
+		for(int[] colorHistory : history) {
+			for(int i = 0; i < colorHistory.length; i++) {
+				colorHistory[i] >>= 1;
+			}
+		}
+	}
+
+	/**
+	 * Forgets the history table, so that the next game is searched the same way whatever this Search searched before it.
+	 */
+	public void clearHistory() {
+		for(int[] colorHistory : history) {
+			Arrays.fill(colorHistory, 0);
+		}
+	}
+
+	/**
+	 * Changes a mate score from "mate in n plies from here" to "mate in n plies from the stored position" before storing it.
+	 * @param score	Score from the search.
+	 * @param ply	Ply of the position.
+	 * @return	Score to store in the TranspositionTable.
+	 */
+	static int toTable(int score, int ply) {
+		if(score >= MATE - MAX_PLY) {
+			return score + ply;
+		}
+		if(score <= -MATE + MAX_PLY) {
+			return score - ply;
+		}
+		return score;
+	}
+
+	/**
+	 * Undoes toTable for a score read from the TranspositionTable.
+	 * @param score	Score from the TranspositionTable.
+	 * @param ply	Ply of the position.
+	 * @return	Score for the search.
+	 */
+	static int fromTable(int score, int ply) {
+		if(score >= MATE - MAX_PLY) {
+			return score - ply;
+		}
+		if(score <= -MATE + MAX_PLY) {
+			return score + ply;
+		}
+		return score;
+	}
+
+}
@@ -0,0 +1,57 @@
+package chess;
+
+/**
+ * This class measures how deep the engine gets in a fixed amount of time on a set of positions,
+ * with each of the selective search techniques turned off in turn, so that the gain of each one can be seen.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class SearchBenchmark {
+
+	/**
+	 * Positions that are searched, in FEN.
+	 */
+	static final String[] POSITIONS = {
+		Fen.START,
+		"r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+		"r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+		"r2q1rk1/ppp2ppp/2np1n2/2b1p1B1/2B1P1b1/2NP1N2/PPP2PPP/R2Q1RK1 w - - 0 8",
+		"8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+		"r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+		"2rr3k/pp3pp1/1nnqbN1p/3pN3/2pP4/2P3Q1/PPB4P/R4RK1 w - - 0 1",
+		"8/5pk1/6p1/8/4PK2/8/6P1/8 w - - 0 1"
+	};
+
+	/**
+	 * Runs the benchmark and prints the average depth reached and nodes searched for each setting.
+	 * @param args	Optional time per position in milliseconds (default 1000).
+	 */
+	public static void main(String[] args) {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		String[] names = {"all on", "no null move", "no late move reductions", "no futility", "no aspiration", "all off"};
+		// warm up the JIT first, so that the first setting isn't measured on slower code
+		for(String fen : POSITIONS) {
+			new Search(Fen.toBoard(fen), new TranspositionTable(16)).search(Fen.color(fen), Search.MAX_PLY, 0, millis / 4);
+		}
+		for(int setting = 0; setting < names.length; setting++) {
+			long totalDepth = 0;
+			long totalNodes = 0;
+			for(String fen : POSITIONS) {
+				Board board = Fen.toBoard(fen);
+				Search search = new Search(board, new TranspositionTable(16));
+				search.setNullMove(setting != 1 && setting != 5);
+				search.setLateMoveReductions(setting != 2 && setting != 5);
+				search.setFutility(setting != 3 && setting != 5);
+				search.setAspiration(setting != 4 && setting != 5);
+				search.search(Fen.color(fen), Search.MAX_PLY, 0, millis);
+				totalDepth += search.getCompletedDepth();
+				totalNodes += search.getNodes();
+			}
+			System.out.printf("%-25s average depth %5.2f  nodes/position %d%n", names[setting], (double) totalDepth / POSITIONS.length, totalNodes / POSITIONS.length);
+		}
+	}
+
+}
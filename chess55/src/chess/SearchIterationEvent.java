@@ -0,0 +1,45 @@
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class is a Java Flight Recorder event for one iteration of the Search, so that a recording shows how deep each search got and how long each depth took.
+ * It is only committed while a recording has it enabled (Example: java -XX:StartFlightRecording ...).
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+@Name("chess.SearchIteration")
+@Label("Search Iteration")
+@Category("Chess")
+@Description("One completed depth of the iterative deepening search")
+public class SearchIterationEvent extends Event {
+
+	/**
+	 * Depth of the iteration.
+	 */
+	@Label("Depth")
+	int depth;
+	/**
+	 * Score of the best move in centipawns.
+	 */
+	@Label("Score")
+	int score;
+	/**
+	 * Nodes searched by the iteration.
+	 */
+	@Label("Nodes")
+	long nodes;
+	/**
+	 * Best line, in coordinate notation.
+	 */
+	@Label("Principal Variation")
+	String pv;
+
+}
@@ -0,0 +1,55 @@
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * This class is a Java Flight Recorder event for a whole Search for one move; its duration is the time the move took.
+ * It is only committed while a recording has it enabled.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+@Name("chess.SearchMove")
+@Label("Search Move")
+@Category("Chess")
+@Description("One search for the best move, from start to the chosen move")
+public class SearchMoveEvent extends Event {
+
+	/**
+	 * Color of the player the move was searched for.
+	 */
+	@Label("Color")
+	char color;
+	/**
+	 * The chosen move, in coordinate notation.
+	 */
+	@Label("Move")
+	String move;
+	/**
+	 * Deepest completed iteration.
+	 */
+	@Label("Depth")
+	int depth;
+	/**
+	 * Score of the chosen move in centipawns.
+	 */
+	@Label("Score")
+	int score;
+	/**
+	 * Nodes searched.
+	 */
+	@Label("Nodes")
+	long nodes;
+	/**
+	 * Time that was allowed in milliseconds (0 for no limit).
+	 */
+	@Label("Time Limit")
+	long limitMillis;
+
+}
@@ -0,0 +1,415 @@
+package chess;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+
+/**
+ * This class sends the moves of one game to its spectators, as a Flow.Publisher of small binary frames.
+ * Each move is encoded once into an 8 byte delta frame that every spectator is sent, so the cost of encoding does not grow with the audience.
+ * Every spectator has its own buffer of frames and gets no more than it requested. A spectator that falls a whole buffer behind
+ * loses its buffered deltas and is sent a snapshot of the current position instead, after which it gets deltas again.
+ * A new spectator starts with a snapshot too. Snapshots are also encoded at most once for each position, however many spectators need one.
+ *
+ * Frame layout: type (1 byte, DELTA or SNAPSHOT), sequence number of the last move included (4 bytes), then for a delta
+ * the packed move without its flags above bit 18 (3 bytes), and for a snapshot the position packed by PackedPosition.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class SpectatorBroadcast implements Flow.Publisher<byte[]>, AutoCloseable {
+
+	/**
+	 * Type of a frame with one move.
+	 */
+	public static final byte DELTA = 1;
+	/**
+	 * Type of a frame with the whole position.
+	 */
+	public static final byte SNAPSHOT = 2;
+	/**
+	 * Size of a delta frame in bytes.
+	 */
+	static final int DELTA_BYTES = 8;
+
+	/**
+	 * This class is one spectator: its subscription, buffer and demand.
+	 */
+	class Spectator implements Flow.Subscription {
+
+		/**
+		 * The subscriber.
+		 */
+		Flow.Subscriber<? super byte[]> subscriber;
+		/**
+		 * Frames waiting to be sent, as a ring.
+		 */
+		byte[][] frames;
+		/**
+		 * Index of the first waiting frame.
+		 */
+		int head;
+		/**
+		 * Number of waiting frames.
+		 */
+		int count;
+		/**
+		 * Number of frames requested and not sent yet.
+		 */
+		long demand;
+		/**
+		 * True when the next frame has to be a snapshot, because deltas were dropped or nothing was sent yet.
+		 */
+		boolean behind = true;
+		/**
+		 * Sequence number of the last delta that was dropped, which the next snapshot has to include.
+		 */
+		int dropped;
+		/**
+		 * True while a task sending frames is scheduled or running.
+		 */
+		boolean draining;
+		/**
+		 * True once the subscription was cancelled, or completed.
+		 */
+		boolean done;
+
+		/**
+		 * This constructor creates a spectator that is behind, so its first frame is a snapshot.
+		 * @param subscriber	The subscriber.
+		 */
+		Spectator(Flow.Subscriber<? super byte[]> subscriber) {
+			this.subscriber = subscriber;
+			this.frames = new byte[bufferSize][];
+		}
+
+		/**
+		 * Adds a frame to the buffer, or drops the buffer if it is full.
+		 * @param frame	The frame.
+		 */
+		void offer(byte[] frame) {
+			synchronized(this) {
+				if(done) {
+					return;
+				}
+				if(count == frames.length) {
+					// too slow for deltas: forget them, the snapshot will include them
+					head = 0;
+					count = 0;
+					behind = true;
+					dropped = sequence(frame);
+					drops++;
+				}
+				else {
+					frames[(head + count) % frames.length] = frame;
+					count++;
+				}
+			}
+			schedule();
+		}
+
+		/**
+		 * Starts a task that sends frames if there is anything to send and nobody is sending yet.
+		 */
+		void schedule() {
+			synchronized(this) {
+				boolean send = demand > 0 && (count > 0 || behind);
+				boolean complete = closed && count == 0 && !behind;
+				if(draining || done || !(send || complete)) {
+					return;
+				}
+				draining = true;
+			}
+			executor.execute(this::drain);
+		}
+
+		/**
+		 * Sends frames while there is demand, then completes the subscriber if the game ended and everything was sent.
+		 */
+		void drain() {
+			while(true) {
+				byte[] frame = null;
+				boolean needSnapshot;
+				synchronized(this) {
+					needSnapshot = behind && demand > 0 && !done;
+				}
+				// taken outside the lock of the spectator, since publish takes the lock of the broadcast first
+				byte[] snapshot = needSnapshot ? snapshot() : null;
+				synchronized(this) {
+					if(done) {
+						draining = false;
+						return;
+					}
+					if(snapshot != null && sequence(snapshot) >= dropped) {
+						// deltas up to the snapshot are in it
+						int sequence = sequence(snapshot);
+						while(count > 0 && sequence(frames[head]) <= sequence) {
+							frames[head] = null;
+							head = (head + 1) % frames.length;
+							count--;
+						}
+						behind = false;
+						frame = snapshot;
+					}
+					else if(behind && snapshot != null) {
+						continue; // more deltas were dropped while the snapshot was taken, so it is already too old
+					}
+					else if(!behind && count > 0 && demand > 0) {
+						frame = frames[head];
+						frames[head] = null;
+						head = (head + 1) % frames.length;
+						count--;
+					}
+					else if(closed && !behind && count == 0) {
+						done = true;
+					}
+					else {
+						draining = false;
+						return;
+					}
+					if(frame != null) {
+						demand--;
+					}
+				}
+				if(frame == null) {
+					spectators.remove(this);
+					subscriber.onComplete();
+					return;
+				}
+				subscriber.onNext(frame);
+			}
+		}
+
+		/**
+		 * Asks for more frames.
+		 * @param n	Number of frames, which must be positive.
+		 */
+		public void request(long n) {
+			if(n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("Request must be positive: " + n));
+				return;
+			}
+			synchronized(this) {
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+			}
+			schedule();
+		}
+
+		/**
+		 * Stops sending frames to the subscriber.
+		 */
+		public void cancel() {
+			synchronized(this) {
+				done = true;
+				frames = new byte[0][];
+				count = 0;
+				head = 0;
+			}
+			spectators.remove(this);
+		}
+
+	}
+
+	/**
+	 * The position of the game, only changed by publish.
+	 */
+	Board board;
+	/**
+	 * Color of the player to move.
+	 */
+	char color;
+	/**
+	 * Number of moves published.
+	 */
+	int sequence;
+	/**
+	 * Snapshot of the current position, or null if it was not needed yet.
+	 */
+	byte[] snapshot;
+	/**
+	 * The spectators.
+	 */
+	CopyOnWriteArrayList<Spectator> spectators = new CopyOnWriteArrayList<>();
+	/**
+	 * Runs the tasks that send frames.
+	 */
+	Executor executor;
+	/**
+	 * Number of frames each spectator can be behind before it gets a snapshot instead.
+	 */
+	int bufferSize;
+	/**
+	 * True once the game ended.
+	 */
+	volatile boolean closed;
+	/**
+	 * Number of frames encoded (deltas and snapshots).
+	 */
+	long encoded;
+	/**
+	 * Number of times a spectator's buffered deltas were dropped.
+	 */
+	volatile long drops;
+
+	/**
+	 * This constructor creates a broadcast of a game that sends frames on the common ForkJoinPool.
+	 * @param fen			Position the game starts from.
+	 * @param bufferSize	Number of frames each spectator can be behind before it gets a snapshot instead.
+	 */
+	public SpectatorBroadcast(String fen, int bufferSize) {
+		this(fen, bufferSize, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * This constructor creates a broadcast of a game.
+	 * @param fen			Position the game starts from.
+	 * @param bufferSize	Number of frames each spectator can be behind before it gets a snapshot instead.
+	 * @param executor		Runs the tasks that send frames.
+	 */
+	public SpectatorBroadcast(String fen, int bufferSize, Executor executor) {
+		if(bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer must hold at least one frame: " + bufferSize);
+		}
+		this.board = Fen.toBoard(fen);
+		this.color = Fen.color(fen);
+		this.bufferSize = bufferSize;
+		this.executor = executor;
+	}
+
+	/**
+	 * Adds a spectator. Its first frame is a snapshot of the current position.
+	 * @param subscriber	The spectator.
+	 */
+	public void subscribe(Flow.Subscriber<? super byte[]> subscriber) {
+		Spectator spectator = new Spectator(subscriber);
+		spectators.add(spectator);
+		subscriber.onSubscribe(spectator);
+	}
+
+	/**
+	 * Sends a move to every spectator. The move is encoded once.
+	 * @param move	Packed move, which must be legal in the current position.
+	 */
+	public void publish(int move) {
+		byte[] frame = new byte[DELTA_BYTES];
+		synchronized(this) {
+			if(closed) {
+				throw new IllegalStateException("The game already ended");
+			}
+			board.doMove(move);
+			color = color == 'w' ? 'b' : 'w';
+			sequence++;
+			snapshot = null;
+			encoded++;
+			ByteBuffer buffer = ByteBuffer.wrap(frame);
+			buffer.put(DELTA).putInt(sequence);
+			int packed = move & 0x7FFFF;
+			buffer.put((byte) (packed >>> 16)).put((byte) (packed >>> 8)).put((byte) packed);
+			// inside the lock, so every spectator gets the frames in order
+			for(Spectator spectator : spectators) {
+				spectator.offer(frame);
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot frame of the current position, encoding it if this position was not needed yet.
+	 * @return	The frame.
+	 */
+	synchronized byte[] snapshot() {
+		if(snapshot == null) {
+			ByteBuffer buffer = ByteBuffer.allocate(5 + PackedPosition.MAX_BYTES);
+			buffer.put(SNAPSHOT).putInt(sequence);
+			int length = PackedPosition.write(board, color, buffer, 5);
+			byte[] frame = new byte[5 + length];
+			buffer.get(0, frame);
+			snapshot = frame;
+			encoded++;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Ends the broadcast: every spectator is completed once it was sent everything that is waiting.
+	 */
+	public void close() {
+		synchronized(this) {
+			closed = true;
+		}
+		for(Spectator spectator : spectators) {
+			spectator.schedule();
+		}
+	}
+
+	/**
+	 * Returns the type of a frame.
+	 * @param frame	The frame.
+	 * @return	DELTA or SNAPSHOT.
+	 */
+	public static byte type(byte[] frame) {
+		return frame[0];
+	}
+
+	/**
+	 * Returns the sequence number of a frame: the number of moves of the game it includes.
+	 * @param frame	The frame.
+	 * @return	The sequence number.
+	 */
+	public static int sequence(byte[] frame) {
+		return (frame[1] & 0xFF) << 24 | (frame[2] & 0xFF) << 16 | (frame[3] & 0xFF) << 8 | (frame[4] & 0xFF);
+	}
+
+	/**
+	 * Returns the move of a delta frame.
+	 * @param frame	The frame.
+	 * @return	Packed move.
+	 */
+	public static int move(byte[] frame) {
+		return (frame[5] & 0xFF) << 16 | (frame[6] & 0xFF) << 8 | (frame[7] & 0xFF);
+	}
+
+	/**
+	 * Applies a frame to a spectator's Board: makes the move of a delta, or sets up the position of a snapshot.
+	 * @param frame	The frame.
+	 * @param board	The spectator's Board.
+	 * @param color	Color of the player to move on the spectator's Board (ignored for a snapshot).
+	 * @return	Color of the player to move after the frame.
+	 */
+	public static char apply(byte[] frame, Board board, char color) {
+		if(type(frame) == SNAPSHOT) {
+			return PackedPosition.read(ByteBuffer.wrap(frame), 5, board);
+		}
+		board.doMove(move(frame));
+		return color == 'w' ? 'b' : 'w';
+	}
+
+	/**
+	 * Returns the number of spectators.
+	 * @return	Number of spectators.
+	 */
+	public int getSpectators() {
+		return spectators.size();
+	}
+
+	/**
+	 * Returns the number of frames encoded, deltas and snapshots.
+	 * @return	Number of frames.
+	 */
+	public synchronized long getEncoded() {
+		return encoded;
+	}
+
+	/**
+	 * Returns the number of times a spectator fell a whole buffer behind and had its deltas dropped.
+	 * @return	Number of drops.
+	 */
+	public long getDrops() {
+		return drops;
+	}
+
+}
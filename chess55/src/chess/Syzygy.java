@@ -0,0 +1,1444 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class probes Syzygy endgame tablebases: WDL files (".rtbw") tell whether the player to move wins, draws or loses,
+ * and DTZ files (".rtbz") tell how many plies it takes until the next capture or Pawn move when playing the result out.
+ * The files are opened through a MappedFileCache and are asked for on every probe, so that only maxOpen of them are mapped at a time.
+ * A table is parsed the first time it is probed; only its small decoding tables are copied onto the heap, the values stay in the file.
+ * The decoding follows the layout of the files made by the Syzygy generator (the same one that other engines read):
+ * positions are numbered with the generator's index, and the values are compressed with a canonical Huffman code over pairs of symbols.
+ * Tables store the positions where the best move is a capture as "don't care" values, so every probe first searches the captures.
+ * Boards where a King can still castle are not covered, and files of 2 GB or more can't be mapped.
+ * Probes never allocate and can run on several threads at once: each thread keeps its own move lists and squares.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class Syzygy {
+
+	/**
+	 * The Board is not covered by the tablebases.
+	 */
+	public static final int UNKNOWN = Integer.MIN_VALUE;
+	/**
+	 * The player to move loses.
+	 */
+	public static final int LOSS = -2;
+	/**
+	 * The player to move loses, but the other player can't win before the 50-move rule ends the game.
+	 */
+	public static final int BLESSED_LOSS = -1;
+	/**
+	 * The Board is a draw.
+	 */
+	public static final int DRAW = 0;
+	/**
+	 * The player to move wins, but not before the 50-move rule ends the game.
+	 */
+	public static final int CURSED_WIN = 1;
+	/**
+	 * The player to move wins.
+	 */
+	public static final int WIN = 2;
+
+	/**
+	 * Most number of Pieces a table can have.
+	 */
+	static final int TB_PIECES = 7;
+	/**
+	 * First 4 bytes of a WDL file.
+	 */
+	static final int WDL_MAGIC = 0x71E8235D;
+	/**
+	 * First 4 bytes of a DTZ file.
+	 */
+	static final int DTZ_MAGIC = 0xD7660CA5;
+	/**
+	 * Table flag: the DTZ values are stored for Black to move.
+	 */
+	static final int STM = 1;
+	/**
+	 * Table flag: the DTZ values go through a map.
+	 */
+	static final int MAPPED = 2;
+	/**
+	 * Table flag: the DTZ values of wins are in plies rather than moves.
+	 */
+	static final int WIN_PLIES = 4;
+	/**
+	 * Table flag: the DTZ values of losses are in plies rather than moves.
+	 */
+	static final int LOSS_PLIES = 8;
+	/**
+	 * Table flag: the DTZ map has 16 bit entries.
+	 */
+	static final int WIDE = 16;
+	/**
+	 * Table flag: every position has the same value, which is stored instead of the compressed data.
+	 */
+	static final int SINGLE_VALUE = 128;
+	/**
+	 * Probe state: a table is missing or can't be read.
+	 */
+	static final int FAIL = 0;
+	/**
+	 * Probe state: the value was found.
+	 */
+	static final int OK = 1;
+	/**
+	 * Probe state: the DTZ table only stores the other player to move.
+	 */
+	static final int CHANGE_STM = -1;
+	/**
+	 * Probe state: the best move is a capture or Pawn move, so the DTZ table doesn't hold the value.
+	 */
+	static final int ZEROING_BEST_MOVE = 2;
+	/**
+	 * Rank of a root move that wins (see bestMove), so that every win is ranked above every draw and loss.
+	 */
+	static final int MAX_DTZ = 1 << 18;
+	/**
+	 * Letters of the Piece types in file names, indexed by the type codes used in the tables (1 = Pawn ... 6 = King).
+	 */
+	static final String TYPES = " PNBRQK";
+
+	/**
+	 * Number of ways to choose k squares out of n, indexed [k][n].
+	 */
+	static final long[][] BINOMIAL = new long[TB_PIECES][64];
+	/**
+	 * Index of each square below the a1-h8 diagonal (0 to 27).
+	 */
+	static final int[] MAP_B1H1H7 = new int[64];
+	/**
+	 * Index of each square in the a1-d1-d4 triangle (0 to 9, with the squares on the diagonal last).
+	 */
+	static final int[] MAP_A1D1D4 = new int[64];
+	/**
+	 * Index of the 462 placements of two Kings where the first one is in the a1-d1-d4 triangle, indexed [MAP_A1D1D4 of the first][second].
+	 */
+	static final int[][] MAP_KK = new int[10][64];
+	/**
+	 * Index of each Pawn square (0 to 47), higher nearer the edge and the second rank, so the leading Pawn is the one with the highest.
+	 */
+	static final int[] MAP_PAWNS = new int[64];
+	/**
+	 * Start of the index of the leading Pawns, indexed [number of leading Pawns][square of the leading one].
+	 */
+	static final int[][] LEAD_PAWN_IDX = new int[TB_PIECES][64];
+	/**
+	 * Number of placements of the leading Pawns, indexed [number of leading Pawns][file of the leading one].
+	 */
+	static final int[][] LEAD_PAWNS_SIZE = new int[TB_PIECES][4];
+
+	static {
+		// squares are numbered like the generator: a1 = 0, h1 = 7, a8 = 56
+		int code = 0;
+		for(int s = 0; s < 64; s++) {
+			if(offA1H8(s) < 0) {
+				MAP_B1H1H7[s] = code++;
+			}
+		}
+		code = 0;
+		int[] diagonal = new int[4];
+		int diagonalCount = 0;
+		for(int s = 0; s <= 27; s++) {
+			if(offA1H8(s) < 0 && (s & 7) <= 3) {
+				MAP_A1D1D4[s] = code++;
+			}
+			else if(offA1H8(s) == 0 && (s & 7) <= 3) {
+				diagonal[diagonalCount++] = s;
+			}
+		}
+		for(int i = 0; i < diagonalCount; i++) {
+			MAP_A1D1D4[diagonal[i]] = code++;
+		}
+
+		// placements with both Kings on the diagonal come last
+		code = 0;
+		int[] bothOnDiagonal = new int[64 * 10];
+		int bothCount = 0;
+		for(int idx = 0; idx < 10; idx++) {
+			for(int s1 = 0; s1 <= 27; s1++) {
+				if(MAP_A1D1D4[s1] != idx || (idx == 0 && s1 != 1)) { // b1 is mapped to 0
+					continue;
+				}
+				for(int s2 = 0; s2 < 64; s2++) {
+					if(Math.abs((s1 >> 3) - (s2 >> 3)) <= 1 && Math.abs((s1 & 7) - (s2 & 7)) <= 1) {
+						continue; // the Kings touch
+					}
+					if(offA1H8(s1) == 0 && offA1H8(s2) > 0) {
+						continue; // first on the diagonal, second above it
+					}
+					if(offA1H8(s1) == 0 && offA1H8(s2) == 0) {
+						bothOnDiagonal[bothCount++] = idx * 64 + s2;
+					}
+					else {
+						MAP_KK[idx][s2] = code++;
+					}
+				}
+			}
+		}
+		for(int i = 0; i < bothCount; i++) {
+			MAP_KK[bothOnDiagonal[i] / 64][bothOnDiagonal[i] % 64] = code++;
+		}
+
+		BINOMIAL[0][0] = 1;
+		for(int n = 1; n < 64; n++) {
+			for(int k = 0; k < TB_PIECES && k <= n; k++) {
+				BINOMIAL[k][n] = (k > 0 ? BINOMIAL[k - 1][n - 1] : 0) + (k < n ? BINOMIAL[k][n - 1] : 0);
+			}
+		}
+
+		int available = 47;
+		for(int lead = 1; lead < TB_PIECES - 1; lead++) {
+			for(int file = 0; file < 4; file++) {
+				int idx = 0;
+				for(int rank = 1; rank <= 6; rank++) {
+					int square = rank * 8 + file;
+					if(lead == 1) {
+						MAP_PAWNS[square] = available--;
+						MAP_PAWNS[square ^ 7] = available--;
+					}
+					LEAD_PAWN_IDX[lead][square] = idx;
+					idx += BINOMIAL[lead - 1][MAP_PAWNS[square]];
+				}
+				LEAD_PAWNS_SIZE[lead][file] = idx;
+			}
+		}
+	}
+
+	/**
+	 * This class holds the decoding tables of one part of a table file (one player to move and one file of the leading Pawn).
+	 * Offsets point into the mapped file.
+	 */
+	static class Pairs {
+
+		/**
+		 * Flags of the part (see STM to SINGLE_VALUE).
+		 */
+		int flags;
+		/**
+		 * Longest Huffman code in bits.
+		 */
+		int maxSymLen;
+		/**
+		 * Shortest Huffman code in bits, or the value of every position if the part has SINGLE_VALUE.
+		 */
+		int minSymLen;
+		/**
+		 * Number of compressed blocks.
+		 */
+		int numBlocks;
+		/**
+		 * Size of a block in bytes.
+		 */
+		int blockSize;
+		/**
+		 * Number of values between two entries of the sparse index.
+		 */
+		long span;
+		/**
+		 * Number of entries of the sparse index.
+		 */
+		int sparseIndexSize;
+		/**
+		 * Offset of the sparse index: 6 byte entries with a block number and an offset into it.
+		 */
+		int sparseIndex;
+		/**
+		 * Number of entries of the block lengths (padded past numBlocks).
+		 */
+		int blockLengthSize;
+		/**
+		 * Offset of the block lengths: the number of values in each block minus one, as 16 bit numbers.
+		 */
+		int blockLength;
+		/**
+		 * Offset of the first block.
+		 */
+		int data;
+		/**
+		 * Lowest symbol of each code length, indexed by length - minSymLen.
+		 */
+		int[] lowestSym;
+		/**
+		 * Lowest code of each length, left-aligned in 64 bits, indexed by length - minSymLen.
+		 */
+		long[] base64;
+		/**
+		 * Number of values each symbol stands for, minus one.
+		 */
+		int[] symlen;
+		/**
+		 * Left half of each symbol, or the value of a symbol that stands for one value.
+		 */
+		int[] left;
+		/**
+		 * Right half of each symbol, or 0xFFF for a symbol that stands for one value.
+		 */
+		int[] right;
+		/**
+		 * Pieces in the order they are numbered (1 to 6 for White's Pawn to King, 9 to 14 for Black's).
+		 */
+		int[] pieces = new int[TB_PIECES];
+		/**
+		 * Multiplier of the index of each group of Pieces, with the number of positions after the last group.
+		 */
+		long[] groupIdx = new long[TB_PIECES + 1];
+		/**
+		 * Number of Pieces in each group, ending with 0.
+		 */
+		int[] groupLen = new int[TB_PIECES + 1];
+		/**
+		 * Start of the DTZ map of each result (win, loss, cursed win, blessed loss), plus one.
+		 */
+		int[] mapIdx = new int[4];
+
+	}
+
+	/**
+	 * This class is one table file. Its Pairs are read the first time it is probed.
+	 */
+	static class Table {
+
+		/**
+		 * Path of the file.
+		 */
+		Path path;
+		/**
+		 * True for a WDL file, false for a DTZ file.
+		 */
+		boolean wdl;
+		/**
+		 * Material of the file's name, with the first side as White (see materialKey).
+		 */
+		long key;
+		/**
+		 * Material of the file's name, with the first side as Black.
+		 */
+		long key2;
+		/**
+		 * Number of Pieces, including the Kings.
+		 */
+		int pieceCount;
+		/**
+		 * True if there are Pawns, in which case the table has a part for each file of the leading Pawn.
+		 */
+		boolean hasPawns;
+		/**
+		 * True if both sides have Pawns.
+		 */
+		boolean bothPawns;
+		/**
+		 * True if some Piece other than a King is the only one of its type and color.
+		 */
+		boolean hasUniquePieces;
+		/**
+		 * Parts of the table, indexed [player to move][file of the leading Pawn].
+		 */
+		Pairs[][] items;
+		/**
+		 * Offset of the DTZ maps.
+		 */
+		int map;
+		/**
+		 * True once items was read.
+		 */
+		volatile boolean ready;
+		/**
+		 * True if the file turned out not to be a valid table, so that it is treated as missing.
+		 */
+		volatile boolean broken;
+
+		/**
+		 * Returns the part of the table for a player to move and a file of the leading Pawn.
+		 * @param stm	0 if the first side of the file's name is to move, 1 otherwise.
+		 * @param file	File of the leading Pawn, from the nearest edge (0 to 3).
+		 * @return	The part.
+		 */
+		Pairs get(int stm, int file) {
+			return items[items.length == 1 ? 0 : stm][hasPawns ? file : 0];
+		}
+
+	}
+
+	/**
+	 * This class holds what one thread needs to probe, so that probes don't allocate.
+	 */
+	static class Probe {
+
+		/**
+		 * Move lists, one for each level of the capture search.
+		 */
+		int[][] moves = new int[64][];
+		/**
+		 * Level of the capture search.
+		 */
+		int depth;
+		/**
+		 * State of the last probe (FAIL, OK, CHANGE_STM or ZEROING_BEST_MOVE).
+		 */
+		int result;
+		/**
+		 * Part of the table of the last index: 0 if the first side of the table's name is to move, 1 otherwise.
+		 */
+		int stm;
+		/**
+		 * Part of the table of the last index: file of the leading Pawn, from the nearest edge.
+		 */
+		int file;
+		/**
+		 * Squares of the Pieces, in the order they are numbered.
+		 */
+		int[] squares = new int[TB_PIECES];
+		/**
+		 * Pieces on those squares.
+		 */
+		int[] pieces = new int[TB_PIECES];
+
+		/**
+		 * Returns the move list of the current level.
+		 * @return	An array that holds MAX_MOVES moves.
+		 */
+		int[] moves() {
+			if(moves[depth] == null) {
+				moves[depth] = new int[MoveGenerator.MAX_MOVES];
+			}
+			return moves[depth];
+		}
+
+	}
+
+	/**
+	 * What each thread uses to probe.
+	 */
+	private static final ThreadLocal<Probe> PROBES = ThreadLocal.withInitial(Probe::new);
+	/**
+	 * WDL tables, hashed by both of their keys.
+	 */
+	private static volatile Table[] wdlTables = new Table[1];
+	/**
+	 * DTZ tables, hashed by both of their keys.
+	 */
+	private static volatile Table[] dtzTables = new Table[1];
+	/**
+	 * Most Pieces of any WDL table, or 0 if there are none.
+	 */
+	private static volatile int maxPieces;
+	/**
+	 * Cache that maps the table files.
+	 */
+	private static volatile MappedFileCache cache;
+
+	/**
+	 * Syzygy only contains static methods, so no Syzygy object is ever created.
+	 */
+	private Syzygy() {
+	}
+
+	/**
+	 * Uses the tables in a directory from now on (Example: "KRvKP.rtbw" and "KRvKP.rtbz"). Tables that were used before are dropped.
+	 * @param path		Directory of the table files, or null to use none.
+	 * @param maxOpen	Most number of files that are mapped at the same time.
+	 * @throws IOException	If the directory can't be listed.
+	 */
+	public static synchronized void setDirectory(Path path, int maxOpen) throws IOException {
+		List<Table> wdl = new ArrayList<Table>();
+		List<Table> dtz = new ArrayList<Table>();
+		if(path != null) {
+			try(DirectoryStream<Path> files = Files.newDirectoryStream(path, "*.{rtbw,rtbz}")) {
+				for(Path file : files) {
+					Table table = table(file);
+					if(table != null) {
+						(table.wdl ? wdl : dtz).add(table);
+					}
+				}
+			}
+		}
+		MappedFileCache oldCache = cache;
+		cache = new MappedFileCache(maxOpen);
+		wdlTables = hash(wdl);
+		dtzTables = hash(dtz);
+		int most = 0;
+		for(Table table : wdl) {
+			most = Math.max(most, table.pieceCount);
+		}
+		maxPieces = most;
+		if(oldCache != null) {
+			oldCache.clear();
+		}
+	}
+
+	/**
+	 * Returns the most Pieces (including the Kings) that a WDL table has.
+	 * @return	Number of Pieces, or 0 if no tables are used.
+	 */
+	public static int getMaxPieces() {
+		return maxPieces;
+	}
+
+	/**
+	 * Creates the Table of a file from its name.
+	 * @param file	The file (Example: "KRvKP.rtbw").
+	 * @return	The table, or null if the name is not the name of a table.
+	 */
+	static Table table(Path file) {
+		String name = file.getFileName().toString();
+		String[] sides = name.substring(0, name.length() - 5).split("v");
+		if(sides.length != 2 || !sides[0].startsWith("K") || !sides[1].startsWith("K")) {
+			return null;
+		}
+		int[][] counts = new int[2][7];
+		for(int side = 0; side < 2; side++) {
+			for(char letter : sides[side].toCharArray()) {
+				int type = TYPES.indexOf(letter);
+				if(type < 1) {
+					return null;
+				}
+				counts[side][type]++;
+			}
+		}
+		Table table = new Table();
+		table.path = file;
+		table.wdl = name.endsWith(".rtbw");
+		for(int type = 1; type <= 6; type++) {
+			table.key |= ((long) counts[0][type] << (4 * (type - 1))) | ((long) counts[1][type] << (24 + 4 * (type - 1)));
+			table.pieceCount += counts[0][type] + counts[1][type];
+			if(type < 6 && (counts[0][type] == 1 || counts[1][type] == 1)) {
+				table.hasUniquePieces = true;
+			}
+		}
+		table.key2 = swap(table.key);
+		table.hasPawns = counts[0][1] + counts[1][1] > 0;
+		table.bothPawns = counts[0][1] > 0 && counts[1][1] > 0;
+		if(table.pieceCount > TB_PIECES || counts[0][6] != 1 || counts[1][6] != 1) {
+			return null;
+		}
+		return table;
+	}
+
+	/**
+	 * Swaps the sides of a material key.
+	 * @param key	The key.
+	 * @return	The key with White's and Black's Pieces swapped.
+	 */
+	static long swap(long key) {
+		return ((key & 0xFFFFFF) << 24) | (key >>> 24);
+	}
+
+	/**
+	 * Puts tables into an open-addressing hash table under both of their keys.
+	 * @param tables	The tables.
+	 * @return	The hash table, with a power of two size and at least half empty.
+	 */
+	static Table[] hash(List<Table> tables) {
+		int size = 1;
+		while(size < tables.size() * 4) {
+			size <<= 1;
+		}
+		Table[] hashed = new Table[size];
+		for(Table table : tables) {
+			for(long key : new long[] {table.key, table.key2}) {
+				int i = slot(key, size);
+				while(hashed[i] != null && hashed[i] != table) {
+					i = (i + 1) & (size - 1);
+				}
+				hashed[i] = table;
+			}
+		}
+		return hashed;
+	}
+
+	/**
+	 * Returns the first slot a key is looked up in.
+	 * @param key	Material key.
+	 * @param size	Size of the hash table (a power of two).
+	 * @return	The slot.
+	 */
+	static int slot(long key, int size) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & (size - 1);
+	}
+
+	/**
+	 * Finds the table of a material key.
+	 * @param tables	Hash table of tables.
+	 * @param key		Material key of the Board.
+	 * @return	The table, or null if there is none.
+	 */
+	static Table find(Table[] tables, long key) {
+		for(int i = slot(key, tables.length); tables[i] != null; i = (i + 1) & (tables.length - 1)) {
+			if(tables[i].key == key || tables[i].key2 == key) {
+				return tables[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up whether the player to move wins, counting the 50-move rule.
+	 * Since the Board doesn't keep the number of moves since the last capture or Pawn move, the count is taken to be 0.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	WIN, CURSED_WIN, DRAW, BLESSED_LOSS or LOSS for the player to move, or UNKNOWN if no table covers the Board.
+	 */
+	public static int probeWdl(Board board, char color) {
+		if(!covered(board)) {
+			return UNKNOWN;
+		}
+		Probe probe = PROBES.get();
+		probe.depth = 0;
+		probe.result = OK;
+		int wdl = search(board, color, probe, false);
+		return probe.result == FAIL ? UNKNOWN : wdl;
+	}
+
+	/**
+	 * Looks up the number of plies until the next capture or Pawn move when both players play the result out.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	The number of plies, positive if the player to move wins and negative if they lose, 0 for a draw,
+	 * 			more than 100 (or less than -100) if the 50-move rule ends the game first, or UNKNOWN if no table covers the Board.
+	 */
+	public static int probeDtz(Board board, char color) {
+		if(!covered(board)) {
+			return UNKNOWN;
+		}
+		Probe probe = PROBES.get();
+		probe.depth = 0;
+		int dtz = dtz(board, color, probe);
+		return probe.result == FAIL ? UNKNOWN : dtz;
+	}
+
+	/**
+	 * Picks the move that keeps the best result: among the wins the one that reaches the next capture or Pawn move soonest,
+	 * and among the losses the one that puts it off the longest. Wins that the 50-move rule turns into draws come after the other wins.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	The move, or Move.NONE if no table covers the Board or there are no legal moves.
+	 */
+	public static int bestMove(Board board, char color) {
+		if(!covered(board)) {
+			return Move.NONE;
+		}
+		char opponent = color == 'w' ? 'b' : 'w';
+		Probe probe = PROBES.get();
+		probe.depth = 0;
+		int[] moves = probe.moves();
+		int count = MoveGenerator.generateLegal(board, color, moves);
+		int best = Move.NONE;
+		int bestRank = Integer.MIN_VALUE;
+		probe.depth = 1;
+		for(int i = 0; i < count; i++) {
+			int move = moves[i];
+			boolean zeroing = isZeroing(board, move);
+			board.doMove(move);
+			int dtz;
+			if(zeroing) {
+				probe.result = OK;
+				dtz = beforeZeroing(-search(board, opponent, probe, false));
+			}
+			else {
+				dtz = -dtz(board, opponent, probe);
+				dtz += Integer.signum(dtz);
+			}
+			// a mate is one ply from the end
+			if(dtz == 2 && !board.check(opponent) && MoveGenerator.generateLegal(board, opponent, probe.moves()) == 0) {
+				dtz = 1;
+			}
+			board.undoMove(move);
+			if(probe.result == FAIL) {
+				return Move.NONE;
+			}
+			int rank = dtz > 0 ? MAX_DTZ - dtz : dtz < 0 ? -MAX_DTZ - dtz : 0;
+			if(rank > bestRank) {
+				bestRank = rank;
+				best = move;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Checks if a Board has few enough Pieces for the tables, and no castling.
+	 * @param board	The Board.
+	 * @return	True if the Board can be probed.
+	 */
+	static boolean covered(Board board) {
+		if(maxPieces == 0 || board.castleRights() != 0) {
+			return false;
+		}
+		int count = 0;
+		for(int row = 0; row < 8; row++) {
+			for(int col = 0; col < 8; col++) {
+				if(board.getPiece(row, col) != null && ++count > maxPieces) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if a move resets the 50-move count.
+	 * @param board	The Board before the move.
+	 * @param move	The move.
+	 * @return	True for captures and Pawn moves.
+	 */
+	static boolean isZeroing(Board board, int move) {
+		int from = Move.from(move);
+		return Move.isCapture(move) || board.getPiece(from >>> 3, from & 7).getType() == 'p';
+	}
+
+	/**
+	 * Returns the DTZ of a position whose best move is a capture or Pawn move.
+	 * @param wdl	Result of the position.
+	 * @return	The DTZ.
+	 */
+	static int beforeZeroing(int wdl) {
+		switch(wdl) {
+			case WIN: return 1;
+			case CURSED_WIN: return 101;
+			case BLESSED_LOSS: return -101;
+			case LOSS: return -1;
+			default: return 0;
+		}
+	}
+
+	/**
+	 * Finds the result of a position by searching its captures (and Pawn moves if asked) and probing the WDL table.
+	 * Sets probe.result to ZEROING_BEST_MOVE if the best move is one of the moves searched.
+	 * @param board		The Board.
+	 * @param color		Color of the player who's turn it is.
+	 * @param probe		What the thread uses to probe.
+	 * @param pawnMoves	True to also search the Pawn moves.
+	 * @return	The result for the player to move (meaningless if probe.result is FAIL).
+	 */
+	static int search(Board board, char color, Probe probe, boolean pawnMoves) {
+		char opponent = color == 'w' ? 'b' : 'w';
+		int[] moves = probe.moves();
+		int total = MoveGenerator.generateLegal(board, color, moves);
+		int count = 0;
+		int best = LOSS;
+		int value;
+		for(int i = 0; i < total; i++) {
+			int move = moves[i];
+			if(!Move.isCapture(move) && (!pawnMoves || !isZeroing(board, move))) {
+				continue;
+			}
+			count++;
+			probe.depth++;
+			board.doMove(move);
+			value = -search(board, opponent, probe, false);
+			board.undoMove(move);
+			probe.depth--;
+			if(probe.result == FAIL) {
+				return DRAW;
+			}
+			if(value > best) {
+				best = value;
+				if(value >= WIN) {
+					probe.result = ZEROING_BEST_MOVE;
+					return value;
+				}
+			}
+		}
+
+		// when every legal move was searched, the table isn't needed (it doesn't know about en passant anyway)
+		boolean noMoreMoves = count > 0 && count == total;
+		if(noMoreMoves) {
+			value = best;
+		}
+		else {
+			value = probeTable(board, color, true, DRAW, probe);
+			if(probe.result == FAIL) {
+				return DRAW;
+			}
+		}
+		// the table holds a "don't care" value where a capture is at least as good
+		if(best >= value) {
+			probe.result = best > DRAW || noMoreMoves ? ZEROING_BEST_MOVE : OK;
+			return best;
+		}
+		probe.result = OK;
+		return value;
+	}
+
+	/**
+	 * Finds the DTZ of a position.
+	 * @param board	The Board.
+	 * @param color	Color of the player who's turn it is.
+	 * @param probe	What the thread uses to probe.
+	 * @return	The DTZ (see probeDtz), or 0 if probe.result is FAIL.
+	 */
+	static int dtz(Board board, char color, Probe probe) {
+		probe.result = OK;
+		int wdl = search(board, color, probe, true);
+		if(probe.result == FAIL || wdl == DRAW) {
+			return 0;
+		}
+		if(probe.result == ZEROING_BEST_MOVE) {
+			return beforeZeroing(wdl);
+		}
+		int dtz = probeTable(board, color, false, wdl, probe);
+		if(probe.result == FAIL) {
+			return 0;
+		}
+		if(probe.result != CHANGE_STM) {
+			return (dtz + (wdl == BLESSED_LOSS || wdl == CURSED_WIN ? 100 : 0)) * Integer.signum(wdl);
+		}
+
+		// the table only holds the other player to move, so take the best DTZ after each move
+		char opponent = color == 'w' ? 'b' : 'w';
+		int[] moves = probe.moves();
+		int count = MoveGenerator.generateLegal(board, color, moves);
+		int min = 0xFFFF;
+		probe.depth++;
+		for(int i = 0; i < count; i++) {
+			int move = moves[i];
+			boolean zeroing = isZeroing(board, move);
+			board.doMove(move);
+			// for captures and Pawn moves, the DTZ is counted to the move itself
+			dtz = zeroing ? -beforeZeroing(search(board, opponent, probe, false)) : -dtz(board, opponent, probe);
+			if(dtz == 1 && !board.check(opponent) && MoveGenerator.generateLegal(board, opponent, probe.moves()) == 0) {
+				min = 1;
+			}
+			if(!zeroing) {
+				dtz += Integer.signum(dtz);
+			}
+			if(dtz < min && Integer.signum(dtz) == Integer.signum(wdl)) {
+				min = dtz;
+			}
+			board.undoMove(move);
+			if(probe.result == FAIL) {
+				probe.depth--;
+				return 0;
+			}
+		}
+		probe.depth--;
+		// no legal moves means the player to move is mated
+		return min == 0xFFFF ? -1 : min;
+	}
+
+	/**
+	 * Looks a position up in its table, without searching captures.
+	 * @param board		The Board.
+	 * @param color		Color of the player who's turn it is.
+	 * @param wdlTable	True to use the WDL table, false for the DTZ table.
+	 * @param wdl		Result of the position (only used for DTZ).
+	 * @param probe		What the thread uses to probe.
+	 * @return	The value (see map), with probe.result set to FAIL or CHANGE_STM if there is none.
+	 */
+	static int probeTable(Board board, char color, boolean wdlTable, int wdl, Probe probe) {
+		long key = 0;
+		int count = 0;
+		for(int row = 0; row < 8; row++) {
+			for(int col = 0; col < 8; col++) {
+				Piece piece = board.getPiece(row, col);
+				if(piece != null) {
+					int type = piece.getType() == 'p' ? 1 : TYPES.indexOf(piece.getType());
+					key += 1L << (4 * (type - 1) + (piece.getColor() == 'w' ? 0 : 24));
+					count++;
+				}
+			}
+		}
+		if(count == 2) { // King against King
+			return DRAW;
+		}
+		Table table = find(wdlTable ? wdlTables : dtzTables, key);
+		MappedFileCache files = cache;
+		if(table == null || table.broken || files == null) {
+			probe.result = FAIL;
+			return 0;
+		}
+		MappedFileCache.Mapping mapping;
+		try {
+			mapping = files.acquire(table.path);
+		}
+		catch(IOException e) {
+			probe.result = FAIL;
+			return 0;
+		}
+		try {
+			ByteBuffer buffer = mapping.getBuffer();
+			if(!table.ready) {
+				synchronized(table) {
+					if(!table.ready && !table.broken) {
+						try {
+							read(table, buffer);
+							table.ready = true;
+						}
+						catch(IOException | RuntimeException e) {
+							table.broken = true;
+						}
+					}
+				}
+				if(table.broken) {
+					probe.result = FAIL;
+					return 0;
+				}
+			}
+			return value(board, color, table, key, wdl, probe, buffer);
+		}
+		finally {
+			mapping.release();
+		}
+	}
+
+	/**
+	 * Finds the index of a position in a table and decodes its value.
+	 * @param board		The Board.
+	 * @param color		Color of the player who's turn it is.
+	 * @param table		The table that holds the Board's material.
+	 * @param key		Material key of the Board.
+	 * @param wdl		Result of the position (only used for DTZ).
+	 * @param probe		What the thread uses to probe.
+	 * @param buffer	Mapping of the table's file.
+	 * @return	The value, or 0 with probe.result set to CHANGE_STM.
+	 */
+	static int value(Board board, char color, Table table, long key, int wdl, Probe probe, ByteBuffer buffer) {
+		long idx = index(board, color, table, key, probe);
+		if(probe.result == CHANGE_STM) {
+			return 0;
+		}
+		return map(table, probe.file, decompress(table.get(probe.stm, probe.file), idx, buffer), wdl, buffer);
+	}
+
+	/**
+	 * Finds the index of a position in a table, and which part of the table it is in (probe.stm and probe.file).
+	 * @param board		The Board.
+	 * @param color		Color of the player who's turn it is.
+	 * @param table		The table that holds the Board's material, with its Pairs read.
+	 * @param key		Material key of the Board.
+	 * @param probe		What the thread uses to probe.
+	 * @return	The index, or 0 with probe.result set to CHANGE_STM if the DTZ table only holds the other player to move.
+	 */
+	static long index(Board board, char color, Table table, long key, Probe probe) {
+		int[] squares = probe.squares;
+		int[] pieces = probe.pieces;
+		// the tables hold the first side of the name as White, and symmetric WDL tables only hold White to move
+		boolean flip = key != table.key || (table.key == table.key2 && color == 'b');
+		int flipColor = flip ? 8 : 0;
+		int flipSquares = flip ? 56 : 0;
+		int stm = (flip ? 1 : 0) ^ (color == 'b' ? 1 : 0);
+		int size = 0;
+		int leadPawnsCount = 0;
+		long leadPawns = 0;
+		int file = 0;
+
+		// the leading Pawns are the Pawns of the first Piece, and the one with the highest MAP_PAWNS picks the part of the table
+		if(table.hasPawns) {
+			int lead = table.items[0][0].pieces[0] ^ flipColor;
+			for(int s = 0; s < 64; s++) {
+				if(code(board, s) == lead) {
+					squares[size++] = s ^ flipSquares;
+					leadPawns |= 1L << s;
+				}
+			}
+			leadPawnsCount = size;
+			int first = 0;
+			for(int i = 1; i < leadPawnsCount; i++) {
+				if(MAP_PAWNS[squares[i]] > MAP_PAWNS[squares[first]]) {
+					first = i;
+				}
+			}
+			int square = squares[0];
+			squares[0] = squares[first];
+			squares[first] = square;
+			file = Math.min(squares[0] & 7, 7 - (squares[0] & 7));
+		}
+		if(!table.wdl && (table.get(stm, file).flags & STM) != stm && !(table.key == table.key2 && !table.hasPawns)) {
+			probe.result = CHANGE_STM;
+			return 0;
+		}
+		probe.stm = stm;
+		probe.file = file;
+		for(int s = 0; s < 64; s++) {
+			int code = code(board, s);
+			if(code != 0 && (leadPawns & (1L << s)) == 0) {
+				squares[size] = s ^ flipSquares;
+				pieces[size++] = code ^ flipColor;
+			}
+		}
+		Pairs d = table.get(stm, file);
+
+		// put the Pieces in the order of the table
+		for(int i = leadPawnsCount; i < size - 1; i++) {
+			for(int j = i + 1; j < size; j++) {
+				if(d.pieces[i] == pieces[j]) {
+					int piece = pieces[i];
+					pieces[i] = pieces[j];
+					pieces[j] = piece;
+					int square = squares[i];
+					squares[i] = squares[j];
+					squares[j] = square;
+					break;
+				}
+			}
+		}
+
+		// mirror so that the leading Piece is on files a to d
+		if((squares[0] & 7) > 3) {
+			for(int i = 0; i < size; i++) {
+				squares[i] ^= 7;
+			}
+		}
+		long idx;
+		if(table.hasPawns) {
+			idx = LEAD_PAWN_IDX[leadPawnsCount][squares[0]];
+			sort(squares, 1, leadPawnsCount, true);
+			for(int i = 1; i < leadPawnsCount; i++) {
+				idx += BINOMIAL[i][MAP_PAWNS[squares[i]]];
+			}
+		}
+		else {
+			// mirror so that the leading Piece is on ranks 1 to 4, and below the a1-h8 diagonal
+			if((squares[0] >> 3) > 3) {
+				for(int i = 0; i < size; i++) {
+					squares[i] ^= 56;
+				}
+			}
+			for(int i = 0; i < d.groupLen[0]; i++) {
+				if(offA1H8(squares[i]) == 0) {
+					continue;
+				}
+				if(offA1H8(squares[i]) > 0) {
+					for(int j = i; j < size; j++) {
+						squares[j] = ((squares[j] >> 3) | (squares[j] << 3)) & 63;
+					}
+				}
+				break;
+			}
+			if(table.hasUniquePieces) {
+				int adjust1 = squares[1] > squares[0] ? 1 : 0;
+				int adjust2 = (squares[2] > squares[0] ? 1 : 0) + (squares[2] > squares[1] ? 1 : 0);
+				if(offA1H8(squares[0]) != 0) {
+					idx = (MAP_A1D1D4[squares[0]] * 63L + (squares[1] - adjust1)) * 62 + squares[2] - adjust2;
+				}
+				else if(offA1H8(squares[1]) != 0) {
+					idx = (6 * 63L + (squares[0] >> 3) * 28 + MAP_B1H1H7[squares[1]]) * 62 + squares[2] - adjust2;
+				}
+				else if(offA1H8(squares[2]) != 0) {
+					idx = 6 * 63 * 62 + 4 * 28 * 62 + (squares[0] >> 3) * 7 * 28 + ((squares[1] >> 3) - adjust1) * 28 + MAP_B1H1H7[squares[2]];
+				}
+				else {
+					idx = 6 * 63 * 62 + 4 * 28 * 62 + 4 * 7 * 28 + (squares[0] >> 3) * 7 * 6 + ((squares[1] >> 3) - adjust1) * 6 + ((squares[2] >> 3) - adjust2);
+				}
+			}
+			else {
+				idx = MAP_KK[MAP_A1D1D4[squares[0]]][squares[1]];
+			}
+		}
+
+		// add the other groups, each numbered by its squares in ascending order among the squares left
+		idx *= d.groupIdx[0];
+		int group = d.groupLen[0];
+		boolean remainingPawns = table.bothPawns;
+		for(int next = 1; d.groupLen[next] != 0; next++) {
+			int length = d.groupLen[next];
+			sort(squares, group, group + length, false);
+			long n = 0;
+			for(int i = 0; i < length; i++) {
+				int square = squares[group + i];
+				int adjust = 0;
+				for(int j = 0; j < group; j++) {
+					if(square > squares[j]) {
+						adjust++;
+					}
+				}
+				n += BINOMIAL[i + 1][square - adjust - (remainingPawns ? 8 : 0)];
+			}
+			remainingPawns = false;
+			idx += n * d.groupIdx[next];
+			group += length;
+		}
+		return idx;
+	}
+
+	/**
+	 * Returns the table code of the Piece on a square.
+	 * @param board		The Board.
+	 * @param square	Square numbered from a1 = 0 to h8 = 63.
+	 * @return	1 to 6 for White's Pawn to King, 9 to 14 for Black's, or 0 for an empty square.
+	 */
+	static int code(Board board, int square) {
+		Piece piece = board.getPiece(7 - (square >> 3), square & 7);
+		if(piece == null) {
+			return 0;
+		}
+		int type = piece.getType() == 'p' ? 1 : TYPES.indexOf(piece.getType());
+		return piece.getColor() == 'w' ? type : type + 8;
+	}
+
+	/**
+	 * Returns how far a square is above the a1-h8 diagonal.
+	 * @param square	Square numbered from a1 = 0 to h8 = 63.
+	 * @return	Rank minus file: positive above the diagonal, negative below it.
+	 */
+	static int offA1H8(int square) {
+		return (square >> 3) - (square & 7);
+	}
+
+	/**
+	 * Sorts part of an array of squares with insertion sort, which keeps equal squares in order.
+	 * @param squares	The squares.
+	 * @param from		First index to sort.
+	 * @param to		Index after the last one to sort.
+	 * @param byPawns	True to sort by MAP_PAWNS, false by square.
+	 */
+	static void sort(int[] squares, int from, int to, boolean byPawns) {
+		for(int i = from + 1; i < to; i++) {
+			int square = squares[i];
+			int j = i - 1;
+			while(j >= from && (byPawns ? MAP_PAWNS[squares[j]] > MAP_PAWNS[square] : squares[j] > square)) {
+				squares[j + 1] = squares[j];
+				j--;
+			}
+			squares[j + 1] = square;
+		}
+	}
+
+	/**
+	 * Turns a decoded value into a result or a DTZ.
+	 * @param table		The table.
+	 * @param file		File of the leading Pawn.
+	 * @param value		The decoded value.
+	 * @param wdl		Result of the position (only used for DTZ).
+	 * @param buffer	Mapping of the table's file.
+	 * @return	The result for WDL tables, or the DTZ in plies (before the 100 added for cursed wins and blessed losses).
+	 */
+	static int map(Table table, int file, int value, int wdl, ByteBuffer buffer) {
+		if(table.wdl) {
+			return value - 2;
+		}
+		Pairs d = table.get(0, file);
+		if((d.flags & MAPPED) != 0) {
+			int start = d.mapIdx[wdl == LOSS ? 1 : wdl == CURSED_WIN ? 2 : wdl == BLESSED_LOSS ? 3 : 0];
+			if((d.flags & WIDE) != 0) {
+				value = u16(buffer, table.map + 2 * (start + value));
+			}
+			else {
+				value = buffer.get(table.map + start + value) & 0xFF;
+			}
+		}
+		// the DTZ is stored in moves unless the flags say plies
+		if((wdl == WIN && (d.flags & WIN_PLIES) == 0) || (wdl == LOSS && (d.flags & LOSS_PLIES) == 0) || wdl == CURSED_WIN || wdl == BLESSED_LOSS) {
+			value *= 2;
+		}
+		return value + 1;
+	}
+
+	/**
+	 * Decodes the value at an index of a part of a table.
+	 * @param d			The part.
+	 * @param idx		Index of the position.
+	 * @param buffer	Mapping of the table's file.
+	 * @return	The value.
+	 */
+	static int decompress(Pairs d, long idx, ByteBuffer buffer) {
+		if((d.flags & SINGLE_VALUE) != 0) {
+			return d.minSymLen;
+		}
+
+		// the sparse index gives a block near the index, then the block lengths lead to the block that holds it
+		int k = (int) (idx / d.span);
+		int block = u32(buffer, d.sparseIndex + 6 * k);
+		int offset = u16(buffer, d.sparseIndex + 6 * k + 4);
+		offset += (int) (idx % d.span - d.span / 2);
+		while(offset < 0) {
+			offset += u16(buffer, d.blockLength + 2 * --block) + 1;
+		}
+		while(offset > u16(buffer, d.blockLength + 2 * block)) {
+			offset -= u16(buffer, d.blockLength + 2 * block++) + 1;
+		}
+
+		// read symbols until the one that covers the offset, 32 bits at a time
+		int pointer = d.data + block * d.blockSize;
+		long buf64 = buffer.getLong(pointer);
+		pointer += 8;
+		int buf64Size = 64;
+		int sym;
+		while(true) {
+			int length = 0;
+			while(Long.compareUnsigned(buf64, d.base64[length]) < 0) {
+				length++;
+			}
+			sym = (int) ((buf64 - d.base64[length]) >>> (64 - length - d.minSymLen)) + d.lowestSym[length];
+			if(offset < d.symlen[sym] + 1) {
+				break;
+			}
+			offset -= d.symlen[sym] + 1;
+			length += d.minSymLen;
+			buf64 <<= length;
+			buf64Size -= length;
+			if(buf64Size <= 32) {
+				buf64Size += 32;
+				buf64 |= (buffer.getInt(pointer) & 0xFFFFFFFFL) << (64 - buf64Size);
+				pointer += 4;
+			}
+		}
+
+		// the symbol stands for a pair of symbols, so walk down to the value
+		while(d.symlen[sym] != 0) {
+			int left = d.left[sym];
+			if(offset < d.symlen[left] + 1) {
+				sym = left;
+			}
+			else {
+				offset -= d.symlen[left] + 1;
+				sym = d.right[sym];
+			}
+		}
+		return d.left[sym];
+	}
+
+	/**
+	 * Reads the Pairs of a table from its file.
+	 * @param table		The table.
+	 * @param buffer	Mapping of the table's file.
+	 * @throws IOException	If the file is not a valid table.
+	 */
+	static void read(Table table, ByteBuffer buffer) throws IOException {
+		if(buffer.capacity() < 5 || buffer.getInt(0) != (table.wdl ? WDL_MAGIC : DTZ_MAGIC)) {
+			throw new IOException("Not a Syzygy table: " + table.path);
+		}
+		int pos = 4;
+		int flags = buffer.get(pos++);
+		if(((flags & 2) != 0) != table.hasPawns || ((flags & 1) != 0) != (table.key != table.key2)) {
+			throw new IOException("Table doesn't match its name: " + table.path);
+		}
+		int sides = table.wdl && table.key != table.key2 ? 2 : 1;
+		int files = table.hasPawns ? 4 : 1;
+		Pairs[][] items = new Pairs[sides][files];
+		for(int file = 0; file < files; file++) {
+			for(int i = 0; i < sides; i++) {
+				items[i][file] = new Pairs();
+			}
+			int order0 = buffer.get(pos) & 0xFF;
+			int order1 = table.bothPawns ? buffer.get(pos + 1) & 0xFF : 0xFF;
+			int[][] order = {{order0 & 0xF, order1 & 0xF}, {order0 >>> 4, order1 >>> 4}};
+			pos += table.bothPawns ? 2 : 1;
+			for(int k = 0; k < table.pieceCount; k++, pos++) {
+				for(int i = 0; i < sides; i++) {
+					items[i][file].pieces[k] = i == 0 ? buffer.get(pos) & 0xF : (buffer.get(pos) >>> 4) & 0xF;
+				}
+			}
+			for(int i = 0; i < sides; i++) {
+				setGroups(table, items[i][file], order[i], file);
+			}
+		}
+		pos += pos & 1;
+		for(int file = 0; file < files; file++) {
+			for(int i = 0; i < sides; i++) {
+				pos = setSizes(items[i][file], buffer, pos);
+			}
+		}
+		if(!table.wdl) {
+			table.map = pos;
+			for(int file = 0; file < files; file++) {
+				Pairs d = items[0][file];
+				if((d.flags & MAPPED) == 0) {
+					continue;
+				}
+				for(int i = 0; i < 4; i++) {
+					if((d.flags & WIDE) != 0) {
+						pos += pos & 1;
+						d.mapIdx[i] = (pos - table.map) / 2 + 1;
+						pos += 2 * u16(buffer, pos) + 2;
+					}
+					else {
+						d.mapIdx[i] = pos - table.map + 1;
+						pos += (buffer.get(pos) & 0xFF) + 1;
+					}
+				}
+			}
+			pos += pos & 1;
+		}
+		for(int file = 0; file < files; file++) {
+			for(int i = 0; i < sides; i++) {
+				items[i][file].sparseIndex = pos;
+				pos += items[i][file].sparseIndexSize * 6;
+			}
+		}
+		for(int file = 0; file < files; file++) {
+			for(int i = 0; i < sides; i++) {
+				items[i][file].blockLength = pos;
+				pos += items[i][file].blockLengthSize * 2;
+			}
+		}
+		for(int file = 0; file < files; file++) {
+			for(int i = 0; i < sides; i++) {
+				pos = (pos + 63) & ~63;
+				items[i][file].data = pos;
+				pos += items[i][file].numBlocks * items[i][file].blockSize;
+			}
+		}
+		if(pos < 0 || pos > buffer.capacity()) {
+			throw new IOException("Table is truncated: " + table.path);
+		}
+		table.items = items;
+	}
+
+	/**
+	 * Splits the Pieces of a part into groups and works out the multiplier of each group's index.
+	 * The first group is the leading Pawns, or the Kings and a unique Piece (just the Kings if there is none),
+	 * and each other group is a run of the same Piece. The order says which group's index is the most significant.
+	 * @param table	The table.
+	 * @param d		The part, with its pieces read.
+	 * @param order	Position of the first group and of the other side's Pawns (0xF if there are none) in the order of the groups.
+	 * @param file	File of the leading Pawn.
+	 */
+	static void setGroups(Table table, Pairs d, int[] order, int file) {
+		int n = 0;
+		int firstLen = table.hasPawns ? 0 : table.hasUniquePieces ? 3 : 2;
+		d.groupLen[n] = 1;
+		for(int i = 1; i < table.pieceCount; i++) {
+			if(--firstLen > 0 || d.pieces[i] == d.pieces[i - 1]) {
+				d.groupLen[n]++;
+			}
+			else {
+				d.groupLen[++n] = 1;
+			}
+		}
+		d.groupLen[++n] = 0;
+
+		int next = table.bothPawns ? 2 : 1;
+		int freeSquares = 64 - d.groupLen[0] - (table.bothPawns ? d.groupLen[1] : 0);
+		long idx = 1;
+		for(int k = 0; next < n || k == order[0] || k == order[1]; k++) {
+			if(k == order[0]) {
+				d.groupIdx[0] = idx;
+				idx *= table.hasPawns ? LEAD_PAWNS_SIZE[d.groupLen[0]][file] : table.hasUniquePieces ? 31332 : 462;
+			}
+			else if(k == order[1]) {
+				d.groupIdx[1] = idx;
+				idx *= BINOMIAL[d.groupLen[1]][48 - d.groupLen[0]];
+			}
+			else {
+				d.groupIdx[next] = idx;
+				idx *= BINOMIAL[d.groupLen[next]][freeSquares];
+				freeSquares -= d.groupLen[next++];
+			}
+		}
+		d.groupIdx[n] = idx;
+	}
+
+	/**
+	 * Reads the sizes and the Huffman code of a part.
+	 * @param d			The part, with its groups set.
+	 * @param buffer	Mapping of the table's file.
+	 * @param pos		Offset of the part's header.
+	 * @return	Offset after the header.
+	 */
+	static int setSizes(Pairs d, ByteBuffer buffer, int pos) {
+		d.flags = buffer.get(pos++) & 0xFF;
+		if((d.flags & SINGLE_VALUE) != 0) {
+			d.minSymLen = buffer.get(pos++) & 0xFF;
+			return pos;
+		}
+		int groups = 0;
+		while(d.groupLen[groups] != 0) {
+			groups++;
+		}
+		long tableSize = d.groupIdx[groups];
+		d.blockSize = 1 << buffer.get(pos++);
+		d.span = 1L << buffer.get(pos++);
+		d.sparseIndexSize = (int) ((tableSize + d.span - 1) / d.span);
+		int padding = buffer.get(pos++) & 0xFF;
+		d.numBlocks = u32(buffer, pos);
+		pos += 4;
+		d.blockLengthSize = d.numBlocks + padding;
+		d.maxSymLen = buffer.get(pos++) & 0xFF;
+		d.minSymLen = buffer.get(pos++) & 0xFF;
+
+		// the code is canonical: longer codes have lower values, so the lowest code of each length is enough to decode
+		int lengths = d.maxSymLen - d.minSymLen + 1;
+		d.lowestSym = new int[lengths];
+		for(int i = 0; i < lengths; i++) {
+			d.lowestSym[i] = u16(buffer, pos + 2 * i);
+		}
+		d.base64 = new long[lengths];
+		for(int i = lengths - 2; i >= 0; i--) {
+			d.base64[i] = (d.base64[i + 1] + d.lowestSym[i] - d.lowestSym[i + 1]) / 2;
+		}
+		for(int i = 0; i < lengths; i++) {
+			d.base64[i] <<= 64 - i - d.minSymLen;
+		}
+		pos += 2 * lengths;
+
+		// each symbol is either a value or a pair of symbols
+		int symbols = u16(buffer, pos);
+		pos += 2;
+		d.left = new int[symbols];
+		d.right = new int[symbols];
+		for(int sym = 0; sym < symbols; sym++) {
+			int b0 = buffer.get(pos + 3 * sym) & 0xFF;
+			int b1 = buffer.get(pos + 3 * sym + 1) & 0xFF;
+			int b2 = buffer.get(pos + 3 * sym + 2) & 0xFF;
+			d.left[sym] = ((b1 & 0xF) << 8) | b0;
+			d.right[sym] = (b2 << 4) | (b1 >>> 4);
+		}
+		d.symlen = new int[symbols];
+		boolean[] visited = new boolean[symbols];
+		for(int sym = 0; sym < symbols; sym++) {
+			if(!visited[sym]) {
+				d.symlen[sym] = symlen(d, sym, visited);
+			}
+		}
+		return pos + 3 * symbols + (symbols & 1);
+	}
+
+	/**
+	 * Works out how many values a symbol stands for, and the same for the symbols it is made of.
+	 * @param d			The part.
+	 * @param sym		The symbol.
+	 * @param visited	Symbols that are already done.
+	 * @return	The number of values, minus one.
+	 */
+	static int symlen(Pairs d, int sym, boolean[] visited) {
+		visited[sym] = true;
+		if(d.right[sym] == 0xFFF) {
+			return 0;
+		}
+		int left = d.left[sym];
+		int right = d.right[sym];
+		if(!visited[left]) {
+			d.symlen[left] = symlen(d, left, visited);
+		}
+		if(!visited[right]) {
+			d.symlen[right] = symlen(d, right, visited);
+		}
+		return d.symlen[left] + d.symlen[right] + 1;
+	}
+
+	/**
+	 * Reads a little-endian 16 bit number.
+	 * @param buffer	The buffer.
+	 * @param pos		Offset of the number.
+	 * @return	The number.
+	 */
+	static int u16(ByteBuffer buffer, int pos) {
+		return Short.reverseBytes(buffer.getShort(pos)) & 0xFFFF;
+	}
+
+	/**
+	 * Reads a little-endian 32 bit number.
+	 * @param buffer	The buffer.
+	 * @param pos		Offset of the number.
+	 * @return	The number.
+	 */
+	static int u32(ByteBuffer buffer, int pos) {
+		return Integer.reverseBytes(buffer.getInt(pos));
+	}
+
+}
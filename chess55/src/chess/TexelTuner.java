@@ -0,0 +1,430 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class tunes the Piece values and square bonuses of the Evaluator to the results of games (the Texel method).
+ * Each position is labeled with the result of the game it came from, and the weights are moved by gradient descent
+ * so that a sigmoid of the score predicts the result as well as possible.
+ * Since the score is a weighted sum, each position is turned once into a short list of (weight, count) features,
+ * stored one position after another in primitive arrays, and the Boards are never looked at again.
+ * The loss and its gradient are computed in parallel over fixed chunks of positions, each with its own gradient array,
+ * so nothing is allocated while tuning.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class TexelTuner {
+
+	/**
+	 * Index of the first square bonus in the weights; the Piece values come before it.
+	 */
+	static final int SQUARES_START = 6;
+	/**
+	 * Number of weights: 6 Piece values and 64 square bonuses for each of the 6 types.
+	 */
+	static final int WEIGHTS = SQUARES_START + 6 * 64;
+	/**
+	 * Index of the King's value, which is not tuned.
+	 */
+	static final int KING_VALUE = 5;
+	/**
+	 * Number of chunks the positions are split into for each processor.
+	 */
+	static final int CHUNKS_PER_PROCESSOR = 4;
+
+	/**
+	 * Features of every position, one position after another: weight index in the high bits, signed count in the low 8 bits.
+	 */
+	int[] features = new int[1 << 16];
+	/**
+	 * Index in features of the first feature of each position, plus the end of the last position.
+	 */
+	int[] offsets = new int[1 << 12];
+	/**
+	 * Result of the game of each position for White: 1, 0.5 or 0.
+	 */
+	float[] results = new float[1 << 12];
+	/**
+	 * Part of the score of each position that is not a weighted sum (the mop-up against a lone King), for White.
+	 */
+	int[] fixed = new int[1 << 12];
+	/**
+	 * Number of positions.
+	 */
+	int size;
+	/**
+	 * Number of features of all positions.
+	 */
+	int featureCount;
+	/**
+	 * The weights being tuned.
+	 */
+	double[] weights = new double[WEIGHTS];
+	/**
+	 * Scale of the sigmoid that turns a score into an expected result.
+	 */
+	double k = 1;
+	/**
+	 * Gradient of each chunk.
+	 */
+	double[][] gradients;
+	/**
+	 * Loss of each chunk.
+	 */
+	double[] losses;
+	/**
+	 * Count of each weight in the position being added, reused for every position.
+	 */
+	int[] counts = new int[WEIGHTS];
+	/**
+	 * Board positions are loaded onto.
+	 */
+	Board board = new Board();
+
+	/**
+	 * This constructor creates a tuner that starts from the Evaluator's weights.
+	 */
+	public TexelTuner() {
+		for(int type = 0; type < 6; type++) {
+			weights[type] = Evaluator.VALUES[type];
+			for(int square = 0; square < 64; square++) {
+				weights[SQUARES_START + type * 64 + square] = Evaluator.SQUARES[type][square];
+			}
+		}
+	}
+
+	/**
+	 * Reads labeled positions, one per line: a FEN (the move counters are not needed) and the result of the game,
+	 * either as "1-0", "0-1" or "1/2-1/2" (Example: 'c9 "1-0";') or as a number in brackets (Example: "[0.5]").
+	 * Positions where the player to move is in check are skipped, since their score is not quiet.
+	 * @param reader	Source of the lines.
+	 * @return	Number of positions added.
+	 * @throws IOException	If the lines can't be read.
+	 */
+	public int load(BufferedReader reader) throws IOException {
+		int added = 0;
+		String line;
+		while((line = reader.readLine()) != null) {
+			float result = parseResult(line);
+			if(result < 0) {
+				continue;
+			}
+			// the label follows the position, so only its first 4 fields are read (Example: "... w - - c9 \"1-0\";")
+			String[] fields = line.trim().split("\\s+");
+			String fen = String.join(" ", Arrays.copyOf(fields, Math.min(4, fields.length)));
+			try {
+				Fen.load(board, fen);
+			}
+			catch(IllegalArgumentException e) {
+				continue;
+			}
+			char color = Fen.color(fen);
+			if(!board.check(color)) {
+				continue;
+			}
+			add(board, result);
+			added++;
+		}
+		return added;
+	}
+
+	/**
+	 * Finds the result in a line of labeled positions.
+	 * @param line	The line.
+	 * @return	1, 0.5 or 0 for White, or -1 if the line has no result.
+	 */
+	static float parseResult(String line) {
+		if(line.contains("1/2-1/2")) {
+			return 0.5f;
+		}
+		if(line.contains("1-0")) {
+			return 1;
+		}
+		if(line.contains("0-1")) {
+			return 0;
+		}
+		int open = line.lastIndexOf('[');
+		int close = line.lastIndexOf(']');
+		if(open >= 0 && close > open) {
+			try {
+				float result = Float.parseFloat(line.substring(open + 1, close).trim());
+				return result >= 0 && result <= 1 ? result : -1;
+			}
+			catch(NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a position by turning it into features.
+	 * @param board		The position.
+	 * @param result	Result of its game for White: 1, 0.5 or 0.
+	 */
+	public void add(Board board, float result) {
+		Piece[][] pieces = board.getBoard();
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				Piece piece = pieces[i][j];
+				if(piece != null) {
+					int type = Zobrist.typeIndex(piece.getType());
+					int sign = piece.getColor() == 'w' ? 1 : -1;
+					int square = piece.getColor() == 'w' ? i * 8 + j : (7 - i) * 8 + j;
+					counts[type] += sign;
+					counts[SQUARES_START + type * 64 + square] += sign;
+				}
+			}
+		}
+
+		if(size + 2 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			results = Arrays.copyOf(results, results.length * 2);
+			fixed = Arrays.copyOf(fixed, fixed.length * 2);
+		}
+		if(featureCount + 64 + 6 > features.length) {
+			features = Arrays.copyOf(features, features.length * 2);
+		}
+		offsets[size] = featureCount;
+		int linear = 0;
+		for(int weight = 0; weight < WEIGHTS; weight++) {
+			if(counts[weight] != 0) {
+				features[featureCount++] = weight << 8 | (counts[weight] & 0xFF);
+				linear += counts[weight] * initial(weight);
+				counts[weight] = 0;
+			}
+		}
+		offsets[size + 1] = featureCount;
+		results[size] = result;
+		fixed[size] = Evaluator.evaluate(board, 'w') - linear;
+		size++;
+	}
+
+	/**
+	 * Returns the Evaluator's value of a weight.
+	 * @param weight	Index of the weight.
+	 * @return	The value.
+	 */
+	static int initial(int weight) {
+		return weight < SQUARES_START ? Evaluator.VALUES[weight] : Evaluator.SQUARES[(weight - SQUARES_START) / 64][(weight - SQUARES_START) % 64];
+	}
+
+	/**
+	 * Returns the number of positions.
+	 * @return	Number of positions.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Computes the mean squared error of the predicted results, and its gradient, in parallel.
+	 * @param gradient	Array the gradient is written to, or null to only compute the error.
+	 * @return	The mean squared error.
+	 */
+	double loss(double[] gradient) {
+		int chunks = Math.max(1, Math.min(size, Runtime.getRuntime().availableProcessors() * CHUNKS_PER_PROCESSOR));
+		if(gradients == null || gradients.length != chunks) {
+			gradients = new double[chunks][WEIGHTS];
+			losses = new double[chunks];
+		}
+		boolean withGradient = gradient != null;
+		IntStream.range(0, chunks).parallel().forEach(c ->
+			losses[c] = chunkLoss((int) ((long) size * c / chunks), (int) ((long) size * (c + 1) / chunks), withGradient ? gradients[c] : null));
+
+		double total = 0;
+		for(int c = 0; c < chunks; c++) {
+			total += losses[c];
+		}
+		if(withGradient) {
+			Arrays.fill(gradient, 0);
+			for(int c = 0; c < chunks; c++) {
+				for(int weight = 0; weight < WEIGHTS; weight++) {
+					gradient[weight] += gradients[c][weight] / size;
+				}
+			}
+		}
+		return total / size;
+	}
+
+	/**
+	 * Computes the squared errors of a range of positions, and adds up their gradient.
+	 * @param from		First position.
+	 * @param to		Position after the last one.
+	 * @param gradient	Array the gradient is written to (it is cleared first), or null to only compute the errors.
+	 * @return	Sum of the squared errors.
+	 */
+	double chunkLoss(int from, int to, double[] gradient) {
+		if(gradient != null) {
+			Arrays.fill(gradient, 0);
+		}
+		double scale = k * Math.log(10) / 400;
+		double total = 0;
+		for(int p = from; p < to; p++) {
+			int start = offsets[p];
+			int end = offsets[p + 1];
+			double score = fixed[p];
+			for(int f = start; f < end; f++) {
+				score += weights[features[f] >>> 8] * (byte) features[f];
+			}
+			double predicted = 1 / (1 + Math.exp(-scale * score));
+			double error = results[p] - predicted;
+			total += error * error;
+			if(gradient != null) {
+				double slope = -2 * error * predicted * (1 - predicted) * scale;
+				for(int f = start; f < end; f++) {
+					gradient[features[f] >>> 8] += slope * (byte) features[f];
+				}
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Finds the sigmoid scale that best fits the current weights, by golden section search.
+	 * @return	The scale.
+	 */
+	public double fitK() {
+		double low = 0.1;
+		double high = 4;
+		double ratio = (Math.sqrt(5) - 1) / 2;
+		for(int i = 0; i < 40; i++) {
+			double a = high - ratio * (high - low);
+			double b = low + ratio * (high - low);
+			k = a;
+			double lossA = loss(null);
+			k = b;
+			double lossB = loss(null);
+			if(lossA < lossB) {
+				high = b;
+			}
+			else {
+				low = a;
+			}
+		}
+		k = (low + high) / 2;
+		return k;
+	}
+
+	/**
+	 * Tunes the weights with Adam, a gradient descent that scales the step of each weight by the size of its recent gradients.
+	 * @param iterations	Number of steps.
+	 * @param rate			Largest change of a weight in one step, in centipawns.
+	 * @param report		Number of steps between printed losses (0 for none).
+	 * @return	The final mean squared error.
+	 */
+	public double tune(int iterations, double rate, int report) {
+		double[] gradient = new double[WEIGHTS];
+		double[] mean = new double[WEIGHTS];
+		double[] variance = new double[WEIGHTS];
+		double beta1 = 0.9;
+		double beta2 = 0.999;
+		double loss = 0;
+		for(int t = 1; t <= iterations; t++) {
+			loss = loss(gradient);
+			gradient[KING_VALUE] = 0;
+			double correction1 = 1 - Math.pow(beta1, t);
+			double correction2 = 1 - Math.pow(beta2, t);
+			for(int weight = 0; weight < WEIGHTS; weight++) {
+				mean[weight] = beta1 * mean[weight] + (1 - beta1) * gradient[weight];
+				variance[weight] = beta2 * variance[weight] + (1 - beta2) * gradient[weight] * gradient[weight];
+				weights[weight] -= rate * (mean[weight] / correction1) / (Math.sqrt(variance[weight] / correction2) + 1e-12);
+			}
+			if(report > 0 && t % report == 0) {
+				System.out.printf("iteration %d  loss %.6f%n", t, loss);
+			}
+		}
+		return loss(null);
+	}
+
+	/**
+	 * Returns the tuned Piece values.
+	 * @return	Values indexed like Evaluator.VALUES.
+	 */
+	public int[] getValues() {
+		int[] values = new int[6];
+		for(int type = 0; type < 6; type++) {
+			values[type] = (int) Math.round(weights[type]);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the tuned square bonuses.
+	 * @return	Bonuses indexed like Evaluator.SQUARES.
+	 */
+	public int[][] getSquares() {
+		int[][] squares = new int[6][64];
+		for(int type = 0; type < 6; type++) {
+			for(int square = 0; square < 64; square++) {
+				squares[type][square] = (int) Math.round(weights[SQUARES_START + type * 64 + square]);
+			}
+		}
+		return squares;
+	}
+
+	/**
+	 * Returns the tuned weights as Java source that can replace the tables in Evaluator.
+	 * @return	The source.
+	 */
+	public String toSource() {
+		String[] names = {"Pawn", "Knight", "Bishop", "Rook", "Queen", "King"};
+		StringBuilder text = new StringBuilder();
+		int[] values = getValues();
+		text.append("static final int[] VALUES = {");
+		for(int type = 0; type < 6; type++) {
+			text.append(type > 0 ? ", " : "").append(values[type]);
+		}
+		text.append("};\n\nstatic final int[][] SQUARES = {\n");
+		int[][] squares = getSquares();
+		for(int type = 0; type < 6; type++) {
+			text.append("\t{ // ").append(names[type]).append('\n');
+			for(int row = 0; row < 8; row++) {
+				text.append('\t');
+				for(int col = 0; col < 8; col++) {
+					text.append(String.format("%4d", squares[type][row * 8 + col])).append(row < 7 || col < 7 ? "," : "");
+				}
+				text.append('\n');
+			}
+			text.append(type < 5 ? "\t},\n" : "\t}\n");
+		}
+		return text.append("};\n").toString();
+	}
+
+	/**
+	 * Tunes the Evaluator on a file of labeled positions and prints the new tables.
+	 * @param args	File of labeled positions (may be gzipped), optional number of iterations (default 1000) and step size in centipawns (default 1).
+	 * @throws IOException	If the file can't be read.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: TexelTuner <positions file> [iterations] [rate]");
+			return;
+		}
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		double rate = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+
+		TexelTuner tuner = new TexelTuner();
+		long start = System.currentTimeMillis();
+		try(BufferedReader reader = new BufferedReader(new InputStreamReader(BookBuilder.open(Paths.get(args[0])), StandardCharsets.UTF_8))) {
+			tuner.load(reader);
+		}
+		System.out.printf("%d positions, %d features, loaded in %d ms%n", tuner.size(), tuner.featureCount, System.currentTimeMillis() - start);
+
+		start = System.currentTimeMillis();
+		System.out.printf("k %.4f, loss %.6f%n", tuner.fitK(), tuner.loss(null));
+		double loss = tuner.tune(iterations, rate, Math.max(1, iterations / 20));
+		System.out.printf("final loss %.6f after %d iterations in %d ms%n%n", loss, iterations, System.currentTimeMillis() - start);
+		System.out.print(tuner.toSource());
+	}
+
+}
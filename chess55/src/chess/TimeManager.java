@@ -0,0 +1,299 @@
+package chess;
+
+import java.util.function.LongSupplier;
+
+/**
+ * This class decides how long the engine thinks about each move, from the time left on its clock, the increment and the moves to the next time control.
+ * Each move gets an optimum time and a maximum time. The Search always stops at the maximum, and after each iteration it asks iterationDone whether to stop sooner.
+ * The optimum is stretched while the best move keeps changing or the score drops, and shrunk when one move takes most of the positions searched.
+ * The time between the end of a search and the clock being stopped (the move overhead) is measured from what the clock really charged, and kept back from every move.
+ * The clock is a LongSupplier, so that games can be played against simulated clocks.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class TimeManager {
+
+	/**
+	 * Number of moves the clock is split over when there is no time control to reach (sudden death).
+	 */
+	static final int DEFAULT_MOVES_TO_GO = 30;
+	/**
+	 * Largest number of moves the clock is split over.
+	 */
+	static final int MAX_MOVES_TO_GO = 50;
+	/**
+	 * How many times the optimum the maximum can be.
+	 */
+	static final double MAX_STRETCH = 4;
+	/**
+	 * Largest share of the time left (after the overhead) that one move may take.
+	 */
+	static final double MAX_CLOCK_SHARE = 0.8;
+	/**
+	 * How much each recent change of the best move stretches the optimum.
+	 */
+	static final double INSTABILITY = 0.6;
+	/**
+	 * How much of the count of best move changes is kept from one iteration to the next.
+	 */
+	static final double INSTABILITY_DECAY = 0.5;
+	/**
+	 * Largest score drop in centipawns that stretches the optimum any further.
+	 */
+	static final int MAX_SCORE_DROP = 100;
+	/**
+	 * Score drop in centipawns that stretches the optimum by half.
+	 */
+	static final double SCORE_DROP_HALF = 100;
+	/**
+	 * The optimum is multiplied by this minus the share of positions searched after the best move,
+	 * so a best move with all the positions halves it and one with half of them leaves it as it is.
+	 */
+	static final double NODE_SHARE_BASE = 1.5;
+	/**
+	 * How many times the time so far a search will have taken after one more iteration.
+	 * No iteration is started that would likely end further past the target than the search is short of it now,
+	 * or that would likely be cut off by the maximum.
+	 */
+	static final double ITERATION_GROWTH = 2;
+	/**
+	 * Move overhead in milliseconds that is assumed before it was measured.
+	 */
+	static final long DEFAULT_OVERHEAD = 10;
+	/**
+	 * Each measured move overhead moves the kept overhead this part of the way towards it.
+	 */
+	static final int OVERHEAD_WEIGHT = 4;
+
+	/**
+	 * Source of the current time in milliseconds.
+	 */
+	LongSupplier clock;
+	/**
+	 * Measured move overhead in milliseconds.
+	 */
+	long overhead = DEFAULT_OVERHEAD;
+	/**
+	 * Time the current move was started at.
+	 */
+	long startTime;
+	/**
+	 * Time the current move should normally take.
+	 */
+	long optimum;
+	/**
+	 * Time the current move may take at most.
+	 */
+	long maximum;
+	/**
+	 * Time the last search took, or -1 if it did not end yet.
+	 */
+	long used = -1;
+	/**
+	 * Best move of the previous iteration.
+	 */
+	int previousBest;
+	/**
+	 * Score of the previous iteration.
+	 */
+	int previousScore;
+	/**
+	 * Recent changes of the best move, each one halved with every iteration.
+	 */
+	double changes;
+
+	/**
+	 * This constructor creates a TimeManager for a real clock.
+	 */
+	public TimeManager() {
+		this(System::currentTimeMillis);
+	}
+
+	/**
+	 * This constructor creates a TimeManager for any clock.
+	 * @param clock	Source of the current time in milliseconds.
+	 */
+	public TimeManager(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Starts a move and works out its optimum and maximum time.
+	 * @param remaining		Time left on the clock in milliseconds.
+	 * @param increment		Time added to the clock after the move in milliseconds.
+	 * @param movesToGo		Number of moves to the next time control, including this one (0 for sudden death).
+	 */
+	public void start(long remaining, long increment, int movesToGo) {
+		startTime = clock.getAsLong();
+		used = -1;
+		previousBest = Move.NONE;
+		previousScore = 0;
+		changes = 0;
+		int moves = movesToGo > 0 ? Math.min(movesToGo, MAX_MOVES_TO_GO) : DEFAULT_MOVES_TO_GO;
+		// the time for all the moves to go, less the overhead each of them costs
+		long total = remaining + increment * (moves - 1) - overhead * (moves + 1);
+		long safe = Math.max(1, remaining - overhead);
+		maximum = Math.max(1, Math.min((long) (Math.max(1, total / moves) * MAX_STRETCH), (long) (safe * MAX_CLOCK_SHARE)));
+		optimum = Math.max(1, Math.min(total / moves, maximum));
+	}
+
+	/**
+	 * Called by the Search after each iteration to decide whether to stop.
+	 * @param depth		Depth of the iteration.
+	 * @param bestMove	Best move of the iteration.
+	 * @param score		Score of the best move.
+	 * @param nodeShare	Share of the positions searched so far that were searched after the best move.
+	 * @return	True if the Search should stop.
+	 */
+	public boolean iterationDone(int depth, int bestMove, int score, double nodeShare) {
+		changes *= INSTABILITY_DECAY;
+		if(previousBest != Move.NONE && bestMove != previousBest) {
+			changes++;
+		}
+		double scale = 1 + changes * INSTABILITY;
+		if(previousBest != Move.NONE && score < previousScore) {
+			scale *= 1 + Math.min(previousScore - score, MAX_SCORE_DROP) / SCORE_DROP_HALF / 2;
+		}
+		scale *= NODE_SHARE_BASE - nodeShare;
+		previousBest = bestMove;
+		previousScore = score;
+
+		long elapsed = getElapsed();
+		long target = Math.min(maximum, (long) (optimum * scale));
+		return elapsed * ITERATION_GROWTH - target >= target - elapsed || elapsed * ITERATION_GROWTH >= maximum;
+	}
+
+	/**
+	 * Called by the Search when it ends, to remember how long it took.
+	 */
+	public void searchDone() {
+		used = getElapsed();
+	}
+
+	/**
+	 * Called once the move was made, to measure the move overhead from what the clock charged for it.
+	 * @param charged	Time the clock was charged for the move in milliseconds (without the increment).
+	 */
+	public void moveDone(long charged) {
+		if(used < 0) {
+			return;
+		}
+		long measured = Math.max(0, charged - used);
+		long step = (measured - overhead) / OVERHEAD_WEIGHT;
+		// a growing overhead is rounded up, so that it is never left just below the real one
+		overhead = Math.max(0, overhead + (step == 0 && measured > overhead ? 1 : step));
+		used = -1;
+	}
+
+	/**
+	 * Returns the time since the move was started.
+	 * @return	Time in milliseconds.
+	 */
+	public long getElapsed() {
+		return clock.getAsLong() - startTime;
+	}
+
+	/**
+	 * Returns the time the current move should normally take.
+	 * @return	Time in milliseconds.
+	 */
+	public long getOptimum() {
+		return optimum;
+	}
+
+	/**
+	 * Returns the time the current move may take at most.
+	 * @return	Time in milliseconds.
+	 */
+	public long getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Returns the measured move overhead.
+	 * @return	Time in milliseconds.
+	 */
+	public long getOverhead() {
+		return overhead;
+	}
+
+	/**
+	 * Sets the move overhead, for example to a value measured in earlier games.
+	 * @param overhead	Time in milliseconds.
+	 */
+	public void setOverhead(long overhead) {
+		this.overhead = Math.max(0, overhead);
+	}
+
+	/**
+	 * Returns the clock this TimeManager reads.
+	 * @return	Source of the current time in milliseconds.
+	 */
+	public LongSupplier getClock() {
+		return clock;
+	}
+
+	/**
+	 * Plays a game of the engine against itself on simulated clocks, and prints how the time was spent.
+	 * The clocks only move while searching, by one millisecond for every so many positions, and by a fixed lag after each move,
+	 * so a run gives the same game every time and shows whether the lag is learned and whether a clock ever runs out.
+	 * @param args	Time per side and increment in milliseconds, and optionally moves per time control (0 for sudden death),
+	 * 				lag per move in milliseconds and positions per millisecond.
+	 */
+	public static void main(String[] args) {
+		if(args.length < 2) {
+			System.out.println("Usage: TimeManager <base ms> <increment ms> [moves to go] [lag ms] [nodes per ms]");
+			return;
+		}
+		long base = Long.parseLong(args[0]);
+		long increment = Long.parseLong(args[1]);
+		int movesPerControl = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		long lag = args.length > 3 ? Long.parseLong(args[3]) : 0;
+		long nodesPerMilli = args.length > 4 ? Long.parseLong(args[4]) : 1000;
+
+		Board board = Fen.toBoard(Fen.START);
+		char color = 'w';
+		board.resetKey(color);
+		// the simulated time is the time of all earlier moves plus the positions searched so far by the current search
+		long[] time = {0};
+		Search[] active = new Search[1];
+		LongSupplier clock = () -> time[0] + (active[0] == null ? 0 : active[0].nodes / nodesPerMilli);
+		Search[] searches = {new Search(board, new TranspositionTable(16)), new Search(board, new TranspositionTable(16))};
+		TimeManager[] managers = {new TimeManager(clock), new TimeManager(clock)};
+		long[] remaining = {base, base};
+		int[] movesToGo = {movesPerControl, movesPerControl};
+		long[] lowest = {base, base};
+		int[] moves = new int[MoveGenerator.MAX_MOVES];
+		for(int ply = 0; ply < MatchRunner.MAX_PLIES && MoveGenerator.generateLegal(board, color, moves) > 0 && !board.isRepetition(); ply++) {
+			int side = color == 'w' ? 0 : 1;
+			managers[side].start(remaining[side], increment, movesToGo[side]);
+			active[0] = searches[side];
+			int move = searches[side].search(color, managers[side]);
+			long searched = searches[side].nodes / nodesPerMilli;
+			active[0] = null;
+			time[0] += searched + lag;
+			managers[side].moveDone(searched + lag);
+			remaining[side] -= searched + lag;
+			System.out.printf("%3d %c %-6s depth %2d  optimum %6d  maximum %6d  used %6d  left %7d  overhead %3d%n", ply + 1, color,
+					Search.pvText(new int[] {move}), searches[side].getCompletedDepth(), managers[side].getOptimum(),
+					managers[side].getMaximum(), searched + lag, remaining[side], managers[side].getOverhead());
+			if(remaining[side] < 0) {
+				System.out.println((color == 'w' ? "White" : "Black") + " lost on time");
+				return;
+			}
+			lowest[side] = Math.min(lowest[side], remaining[side]);
+			remaining[side] += increment;
+			if(movesPerControl > 0 && --movesToGo[side] == 0) {
+				movesToGo[side] = movesPerControl;
+				remaining[side] += base;
+			}
+			board.doMove(move);
+			color = color == 'w' ? 'b' : 'w';
+		}
+		System.out.println("lowest clock: White " + lowest[0] + " ms, Black " + lowest[1] + " ms");
+	}
+
+}
@@ -0,0 +1,238 @@
+package chess;
+
+/**
+ * This class keeps timers in a hierarchical timing wheel, so that adding, moving and cancelling a timer takes the same short time however many there are,
+ * and each tick only looks at the timers that are due.
+ * The wheel has LEVELS levels of 64 slots. Level 0 has a slot for each of the next 64 ticks, level 1 for each of the next 64 blocks of 64 ticks, and so on.
+ * A timer goes into the lowest level where its deadline and the current tick are in the same block of the level above, so it never wraps around.
+ * When the current tick reaches the start of a block, the timers of that block's slot are moved down a level (cascaded).
+ * Timers further away than the top level covers wait in an overflow list.
+ * The timers are the nodes of the slot lists themselves, so the wheel allocates nothing. It is not thread safe.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class TimingWheel {
+
+	/**
+	 * Number of bits of the tick that each level covers.
+	 */
+	static final int BITS = 6;
+	/**
+	 * Number of slots at each level.
+	 */
+	static final int SLOTS = 1 << BITS;
+	/**
+	 * Number of levels. With ticks of a millisecond, the levels cover about 2 years.
+	 */
+	static final int LEVELS = 6;
+
+	/**
+	 * This class is a timer that can be added to a TimingWheel. It is a node of a doubly linked slot list.
+	 */
+	public abstract static class Timer {
+
+		/**
+		 * Tick at which the timer expires.
+		 */
+		long deadline;
+		/**
+		 * Next timer in the same slot.
+		 */
+		Timer next;
+		/**
+		 * Previous timer in the same slot, or null for the first one.
+		 */
+		Timer previous;
+		/**
+		 * Index of the slot list the timer is in (level * SLOTS + slot, or LEVELS * SLOTS for the overflow list), or -1 if it is not in the wheel.
+		 */
+		int list = -1;
+
+		/**
+		 * Called by TimingWheel.advance when the timer expires. The timer is already out of the wheel, so it can be added again.
+		 * @param now	The tick that was reached.
+		 */
+		protected abstract void expired(long now);
+
+		/**
+		 * Returns true if the timer is in a wheel.
+		 * @return	True if the timer will expire unless it is cancelled.
+		 */
+		public boolean isScheduled() {
+			return list >= 0;
+		}
+
+		/**
+		 * Returns the tick at which the timer expires.
+		 * @return	The deadline.
+		 */
+		public long getDeadline() {
+			return deadline;
+		}
+
+	}
+
+	/**
+	 * First timer of each slot list, indexed by level * SLOTS + slot, with the overflow list last.
+	 */
+	Timer[] heads = new Timer[LEVELS * SLOTS + 1];
+	/**
+	 * The last tick that was processed.
+	 */
+	long now;
+	/**
+	 * Number of timers in the wheel.
+	 */
+	int size;
+
+	/**
+	 * This constructor creates an empty wheel.
+	 * @param now	Tick the wheel starts at.
+	 */
+	public TimingWheel(long now) {
+		this.now = now;
+	}
+
+	/**
+	 * Adds a timer, or moves it if it is already in the wheel. A deadline that already passed expires at the next tick.
+	 * @param timer		The timer.
+	 * @param deadline	Tick at which it expires.
+	 */
+	public void schedule(Timer timer, long deadline) {
+		if(timer.list >= 0) {
+			unlink(timer);
+			size--;
+		}
+		timer.deadline = Math.max(deadline, now + 1);
+		link(timer, listOf(timer.deadline));
+		size++;
+	}
+
+	/**
+	 * Takes a timer out of the wheel. Cancelling a timer that is not in the wheel does nothing.
+	 * @param timer	The timer.
+	 */
+	public void cancel(Timer timer) {
+		if(timer.list >= 0) {
+			unlink(timer);
+			size--;
+		}
+	}
+
+	/**
+	 * Processes every tick up to a time, expiring the timers that are due on the way.
+	 * @param to	Tick to advance to.
+	 * @return	Number of timers that expired.
+	 */
+	public int advance(long to) {
+		int expired = 0;
+		while(now < to) {
+			if(size == 0) { // nothing to cascade or expire, so skip straight there
+				now = to;
+				break;
+			}
+			now++;
+			// cascade from the top, since a timer moved down from a high level may land in a lower slot that is due now
+			for(int level = LEVELS; level >= 1; level--) {
+				if((now & ((1L << (BITS * level)) - 1)) == 0) {
+					cascade(level == LEVELS ? LEVELS * SLOTS : level * SLOTS + (int) ((now >>> (BITS * level)) & (SLOTS - 1)));
+				}
+			}
+			int list = (int) (now & (SLOTS - 1));
+			Timer timer;
+			while((timer = heads[list]) != null) {
+				unlink(timer);
+				size--;
+				expired++;
+				timer.expired(now);
+			}
+		}
+		return expired;
+	}
+
+	/**
+	 * Adds the timers of a slot list again, which moves them to lower levels.
+	 * @param list	Index of the slot list.
+	 */
+	void cascade(int list) {
+		Timer timer = heads[list];
+		heads[list] = null;
+		while(timer != null) {
+			Timer next = timer.next;
+			timer.next = null;
+			timer.previous = null;
+			link(timer, listOf(timer.deadline));
+			timer = next;
+		}
+	}
+
+	/**
+	 * Returns the slot list for a deadline: the lowest level where the deadline and the current tick are in the same block of the level above.
+	 * @param deadline	Tick after the current one.
+	 * @return	Index of the slot list.
+	 */
+	int listOf(long deadline) {
+		for(int level = 0; level < LEVELS; level++) {
+			int shift = BITS * (level + 1);
+			if((deadline >>> shift) == (now >>> shift)) {
+				return level * SLOTS + (int) ((deadline >>> (BITS * level)) & (SLOTS - 1));
+			}
+		}
+		return LEVELS * SLOTS;
+	}
+
+	/**
+	 * Puts a timer first in a slot list.
+	 * @param timer	The timer, which is in no list.
+	 * @param list	Index of the slot list.
+	 */
+	void link(Timer timer, int list) {
+		Timer head = heads[list];
+		timer.next = head;
+		timer.previous = null;
+		if(head != null) {
+			head.previous = timer;
+		}
+		heads[list] = timer;
+		timer.list = list;
+	}
+
+	/**
+	 * Takes a timer out of its slot list.
+	 * @param timer	The timer.
+	 */
+	void unlink(Timer timer) {
+		if(timer.previous != null) {
+			timer.previous.next = timer.next;
+		}
+		else {
+			heads[timer.list] = timer.next;
+		}
+		if(timer.next != null) {
+			timer.next.previous = timer.previous;
+		}
+		timer.next = null;
+		timer.previous = null;
+		timer.list = -1;
+	}
+
+	/**
+	 * Returns the last tick that was processed.
+	 * @return	The current tick.
+	 */
+	public long getNow() {
+		return now;
+	}
+
+	/**
+	 * Returns the number of timers in the wheel.
+	 * @return	Number of timers.
+	 */
+	public int size() {
+		return size;
+	}
+
+}
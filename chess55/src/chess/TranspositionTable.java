@@ -0,0 +1,164 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * This class stores the results of positions that were already searched, so that the engine does not search them again.
+ * Each position is stored by its hash (see the Zobrist class) in two plain long arrays, so the table creates no objects while searching.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public class TranspositionTable {
+
+	/**
+	 * Bound used when the stored score is exact.
+	 */
+	public static final int EXACT = 1;
+	/**
+	 * Bound used when the real score is at least the stored score (the search failed high).
+	 */
+	public static final int LOWER = 2;
+	/**
+	 * Bound used when the real score is at most the stored score (the search failed low).
+	 */
+	public static final int UPPER = 3;
+
+	/**
+	 * Hash of the position stored in each entry.
+	 */
+	long[] keys;
+	/**
+	 * Move, score, depth and bound of each entry, packed into a long.
+	 */
+	long[] data;
+	/**
+	 * Number of entries minus one (the number of entries is a power of two).
+	 */
+	int mask;
+	/**
+	 * Number of lookups since the last flushStats.
+	 */
+	long probes;
+	/**
+	 * Number of lookups that found their position since the last flushStats.
+	 */
+	long hits;
+	/**
+	 * Number of lookups that found the slot taken by another position since the last flushStats.
+	 */
+	long collisions;
+
+	/**
+	 * This constructor creates an empty table.
+	 * @param megabytes	Amount of memory the table may use.
+	 */
+	public TranspositionTable(int megabytes) {
+		int entries = Integer.highestOneBit(Math.max(1, megabytes) * 1024 * 1024 / 16);
+		this.keys = new long[entries];
+		this.data = new long[entries];
+		this.mask = entries - 1;
+	}
+
+	/**
+	 * Removes every entry from the table.
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+	}
+
+	/**
+	 * Finds the entry of a position.
+	 * @param key	Hash of the position.
+	 * @return	The packed entry, or 0 if the position is not in the table.
+	 */
+	public long probe(long key) {
+		int index = (int) key & mask;
+		probes++;
+		if(keys[index] == key) {
+			hits++;
+			return data[index];
+		}
+		if(keys[index] != 0) {
+			collisions++;
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds the lookup counts to EngineStats and starts counting again from 0.
+	 * The counts are kept in plain fields, since a table is only used by one thread at a time.
+	 */
+	void flushStats() {
+		EngineStats.TT_PROBES.add(probes);
+		EngineStats.TT_HITS.add(hits);
+		EngineStats.TT_COLLISIONS.add(collisions);
+		probes = 0;
+		hits = 0;
+		collisions = 0;
+	}
+
+	/**
+	 * Stores the result of a search. An entry of another position is always replaced,
+	 * but an entry of the same position is only replaced by a search that was at least as deep or that has a move.
+	 * @param key	Hash of the position.
+	 * @param move	Best move that was found (Move.NONE if there is none).
+	 * @param score	Score that was found.
+	 * @param depth	Depth of the search.
+	 * @param bound	EXACT, LOWER or UPPER.
+	 */
+	public void store(long key, int move, int score, int depth, int bound) {
+		int index = (int) key & mask;
+		if(keys[index] == key) {
+			long old = data[index];
+			if(depth < depth(old) && bound != EXACT) {
+				return;
+			}
+			if(move == Move.NONE) {
+				move = move(old);
+			}
+		}
+		keys[index] = key;
+		data[index] = (move & 0x7FFFFL) | ((long) (score & 0xFFFF) << 19) | ((long) (depth & 0xFF) << 35) | ((long) bound << 43);
+	}
+
+	/**
+	 * Returns the move of an entry.
+	 * @param entry	Packed entry returned by probe.
+	 * @return	Packed move, or Move.NONE.
+	 */
+	public static int move(long entry) {
+		return (int) (entry & 0x7FFFF);
+	}
+
+	/**
+	 * Returns the score of an entry.
+	 * @param entry	Packed entry returned by probe.
+	 * @return	Score of the entry.
+	 */
+	public static int score(long entry) {
+		return (short) (entry >>> 19);
+	}
+
+	/**
+	 * Returns the depth of an entry.
+	 * @param entry	Packed entry returned by probe.
+	 * @return	Depth of the search that stored the entry.
+	 */
+	public static int depth(long entry) {
+		return (int) ((entry >>> 35) & 0xFF);
+	}
+
+	/**
+	 * Returns the bound of an entry.
+	 * @param entry	Packed entry returned by probe.
+	 * @return	EXACT, LOWER or UPPER (0 if the entry is empty).
+	 */
+	public static int bound(long entry) {
+		return (int) ((entry >>> 43) & 3);
+	}
+
+}
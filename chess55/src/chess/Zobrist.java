@@ -0,0 +1,129 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * This class contains the random keys that are used to give each position on the Board a 64 bit hash.
+ * The keys come from a fixed seed so that the same position always gets the same hash, even between runs.
+ *
+ * @author Savan Patel
+ * @author Naveenan Yogeswaran
+ *
+ */
+
+public final class Zobrist {
+
+	/**
+	 * Keys for each Piece on each square, indexed by [color * 6 + type index][square].
+	 */
+	static final long[][] PIECES = new long[12][64];
+	/**
+	 * Keys for each combination of castle rights (bit 0 = White left, 1 = White right, 2 = Black left, 3 = Black right).
+	 */
+	static final long[] CASTLE = new long[16];
+	/**
+	 * Keys for the column of a Pawn that can get en passant.
+	 */
+	static final long[] ENPASSANT = new long[8];
+	/**
+	 * Key that is added in when it is Black's turn.
+	 */
+	static final long BLACK_TO_MOVE;
+
+	static {
+		Random random = new Random(0x5EED_C0DEL);
+		for(int i = 0; i < 12; i++) {
+			for(int j = 0; j < 64; j++) {
+				PIECES[i][j] = random.nextLong();
+			}
+		}
+		for(int i = 1; i < 16; i++) {
+			CASTLE[i] = random.nextLong();
+		}
+		for(int i = 0; i < 8; i++) {
+			ENPASSANT[i] = random.nextLong();
+		}
+		BLACK_TO_MOVE = random.nextLong();
+	}
+
+	/**
+	 * Zobrist only contains static methods, so no Zobrist object is ever created.
+	 */
+	private Zobrist() {
+	}
+
+	/**
+	 * Returns the index of a Piece type ('p' = 0, 'N' = 1, 'B' = 2, 'R' = 3, 'Q' = 4, 'K' = 5).
+	 * @param type	Type of the Piece.
+	 * @return	Index of the type.
+	 */
+	static int typeIndex(char type) {
+		switch(type) {
+			case 'p': return 0;
+			case 'N': return 1;
+			case 'B': return 2;
+			case 'R': return 3;
+			case 'Q': return 4;
+			default: return 5;
+		}
+	}
+
+	/**
+	 * Returns the index of a Piece in PIECES.
+	 * @param piece	The Piece.
+	 * @return	Index of the Piece's color and type.
+	 */
+	static int pieceIndex(Piece piece) {
+		return (piece.getColor() == 'w' ? 0 : 6) + typeIndex(piece.getType());
+	}
+
+	/**
+	 * Returns the key of a Piece standing on a square.
+	 * @param piece		The Piece.
+	 * @param square	Square index (row * 8 + col).
+	 * @return	Key of the Piece on that square.
+	 */
+	static long piece(Piece piece, int square) {
+		return PIECES[pieceIndex(piece)][square];
+	}
+
+	/**
+	 * Returns the key of the en passant. It is only added in when a Pawn of the player to move stands beside the Pawn that moved two squares,
+	 * the same rule as Polyglot keys, so that move orders that reach the same position get the same hash (Example: 1.d4 Nf6 2.c4 and 1.c4 Nf6 2.d4).
+	 * @param gameBoard	The squares of the Board.
+	 * @param enpassant	Row and column of the Pawn that moved two squares.
+	 * @param color		Color of that Pawn, or 'n' if there is none.
+	 * @return	Key of the en passant column, or 0 if the Pawn can't be taken.
+	 */
+	static long enpassant(Piece[][] gameBoard, int[] enpassant, char color) {
+		if(color == 'n' || !Polyglot.canTakeEnpassant(gameBoard, enpassant, color == 'w' ? 'b' : 'w')) {
+			return 0;
+		}
+		return ENPASSANT[enpassant[1]];
+	}
+
+	/**
+	 * Computes the hash of a position from scratch.
+	 * @param board	The Board to hash.
+	 * @param color	Color of the player who's turn it is ('w' or 'b').
+	 * @return	The 64 bit hash of the position.
+	 */
+	public static long key(Board board, char color) {
+		long key = 0;
+		Piece[][] gameBoard = board.getBoard();
+		for(int i = 0; i < 8; i++) {
+			for(int j = 0; j < 8; j++) {
+				if(gameBoard[i][j] != null) {
+					key ^= piece(gameBoard[i][j], i * 8 + j);
+				}
+			}
+		}
+		key ^= CASTLE[board.castleRights()];
+		key ^= enpassant(gameBoard, board.getEnpassant(), board.getEnpassantColor());
+		if(color == 'b') {
+			key ^= BLACK_TO_MOVE;
+		}
+		return key;
+	}
+
+}